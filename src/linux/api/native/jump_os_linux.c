@@ -34,11 +34,15 @@
 #include <errno.h>
 #include <string.h>
 #include <sys/select.h>
+#include <sys/ioctl.h>
+#include <poll.h>
 #include <sys/uio.h>
 #include <sys/time.h>
 #include <time.h>
 #include <limits.h>
 #include <dirent.h>
+#include <stddef.h>
+#include <sys/mman.h>
 /* NOTE: even if JUMP_MQ_THREADSAFE is not defined, we need pthread.h
    for pthread_self(). */
 #include <pthread.h>
@@ -68,6 +72,56 @@
  * out easily.
  */
 
+/*
+ * Queues can also have a shared-memory ring, turned on with
+ * jumpMessageQueueSetRingSize.  A queue created for reading then also
+ * gets a file under JUMP_MQ_RING_DIR holding a ring buffer, which is
+ * mapped by the reader and by every process that sends to the queue.
+ * A sender copies the message into the ring instead of writing it to
+ * the FIFO, so there is no system call unless the reader is asleep:
+ * a reader about to wait sets the ring's waiting flag, and the next
+ * sender clears it and writes a JUMP_MQ_RING_WAKEUP record to the
+ * FIFO, so wakeups are batched while the reader is busy.  The reader
+ * also polls its rings every JUMP_MQ_RING_POLL_MILLIS while waiting,
+ * in case a wakeup is lost.
+ *
+ * Rings are an optimization only.  A sender uses a ring if the
+ * reader has one and the sender has rings turned on itself, and the
+ * FIFO otherwise, so processes with and without rings can talk to
+ * each other.  Messages are never sent through both for the same
+ * queue by one sender, so they stay in order.
+ *
+ * A ring holds records of an int length followed by the message,
+ * padded to an int boundary, and wraps around at the end.  The ring
+ * is guarded by a robust, process-shared mutex which is only held
+ * while copying, so it is uncontended in practice and never makes a
+ * system call.
+ */
+struct jump_ring {
+    int magic;			/* JUMP_MQ_RING_MAGIC once initialized. */
+    int size;			/* Bytes in data, a power of 2. */
+    pthread_mutex_t mutex;	/* Guards everything below. */
+    int closed;			/* The reader has destroyed the queue. */
+    int waiting;		/* The reader is waiting for a wakeup. */
+    int alwaysWake;		/* Wake the reader on every message. */
+    unsigned int head;		/* Bytes ever written. */
+    unsigned int tail;		/* Bytes ever read. */
+    char data[1];
+};
+
+#define JUMP_MQ_RING_MAGIC	0x4a524e47
+#define JUMP_MQ_RING_HEADER	offsetof(struct jump_ring, data)
+
+/* Space taken in the ring by a message of the given size. */
+#define JUMP_MQ_RING_RECORD(size) \
+    ((sizeof(int) + (size) + sizeof(int) - 1) & ~(sizeof(int) - 1))
+
+/* The FIFO record length that tells the reader to look at its ring. */
+#define JUMP_MQ_RING_WAKEUP	(-2)
+
+/* How often a waiting reader looks at its rings without a wakeup. */
+#define JUMP_MQ_RING_POLL_MILLIS	1000
+
 /*
  * Each queue created (for read) or opened (for write) is represented
  * by a struct jump_message_queue.
@@ -123,6 +177,22 @@ struct jump_message_queue {
        since we can't know where the message boundaries are.  Set
        error to fail all future reads without trying them. */
     int error;
+
+    /* The queue's shared-memory ring, or NULL if it has none.  For a
+       read queue, ringName is the file to unlink on destroy.  A write
+       queue with a ring is kept on ring_list, keyed by pid and
+       messageType, so that the mapping is reused by later sends; its
+       fd is only opened when a wakeup has to be sent, and
+       read_mutex serializes opening it. */
+    struct jump_ring *ring;
+    size_t ringLength;
+    char *ringName;
+    pid_t pid;
+
+    /* Read queues only: when several queues have messages,
+       jumpMessageQueueWaitForMessages picks the one with the highest
+       priority. */
+    int priority;
 };
 
 /* The doubly-linked jump_message_queue list.  queue_list is a dummy
@@ -132,11 +202,21 @@ static struct jump_message_queue queue_list = {
     &queue_list, &queue_list,
 };
 
+/* The write queues with a ring mapped, organized like queue_list. */
+static struct jump_message_queue ring_list = {
+    &ring_list, &ring_list,
+};
+
 #ifdef JUMP_MQ_THREADSAFE
-/* All accesses to queue_list are serialized by queue_list_mutex. */
+/* All accesses to queue_list and ring_list are serialized by
+   queue_list_mutex. */
 static pthread_mutex_t queue_list_mutex = PTHREAD_MUTEX_INITIALIZER;
 #endif
 
+/* Size of the ring given to each queue created, or 0 for none.  Set
+   once at startup by jumpMessageQueueSetRingSize. */
+static int ring_size = 0;
+
 /*
  * This is how message FIFOs are named, based on a pid and a messageType.
  */
@@ -144,13 +224,21 @@ static pthread_mutex_t queue_list_mutex = PTHREAD_MUTEX_INITIALIZER;
 #define JUMP_MQ_PATH_PREFIX	"jump-mq-%d-"
 #define JUMP_MQ_PATH_PATTERN	JUMP_MQ_PATH_DIR "/" JUMP_MQ_PATH_PREFIX "%s"
 
+/*
+ * And this is how rings are named.
+ */
+#define JUMP_MQ_RING_DIR	"/dev/shm"
+#define JUMP_MQ_RING_PREFIX	"jump-ring-%d-"
+#define JUMP_MQ_RING_PATTERN	JUMP_MQ_RING_DIR "/" JUMP_MQ_RING_PREFIX "%s"
+
 /* Puts the jump_message_queue at the head of the list. */
 static void
-put_message_queue (struct jump_message_queue *p)
+put_message_queue (struct jump_message_queue *list,
+		   struct jump_message_queue *p)
 {
-    p->next = queue_list.next;
+    p->next = list->next;
     p->next->prev = p;
-    p->prev = &queue_list;
+    p->prev = list;
     p->prev->next = p;
 }
 
@@ -176,7 +264,7 @@ get_message_queue(const JUMPPlatformCString messageType)
 
 	    if (p->prev != &queue_list) {
 		remove_message_queue(p);
-		put_message_queue(p);
+		put_message_queue(&queue_list, p);
 	    }
 
 	    return p;
@@ -233,12 +321,13 @@ clean_name(const char *name)
     return clean_name;
 }
 
-/* Constructs a queue (FIFO) name from the pid and messageType.
-   On success returns the name (which must be freed) and sets
-   code to JUMP_MQ_SUCCESS.  On failure returns NULL and sets
+/* Constructs a queue (FIFO) or ring name from the pattern, pid and
+   messageType.  On success returns the name (which must be freed) and
+   sets code to JUMP_MQ_SUCCESS.  On failure returns NULL and sets
    code to one of JUMP_MQ_OUT_OF_MEMORY or JUMP_MQ_FAILURE. */
 static char *
-make_queue_name(pid_t pid, const JUMPPlatformCString messageType,
+make_queue_name(const char *pattern,
+		pid_t pid, const JUMPPlatformCString messageType,
 		JUMPMessageQueueStatusCode* code)
 {
     char *messageTypeClean = NULL;
@@ -258,7 +347,7 @@ make_queue_name(pid_t pid, const JUMPPlatformCString messageType,
     /* Allocate (more than enough) space to hold the text, pid, and
        messageType. */
 
-    len = sizeof(JUMP_MQ_PATH_PATTERN) + 10 + strlen(messageTypeClean);
+    len = strlen(pattern) + 10 + strlen(messageTypeClean);
 
     name = malloc(len);
     if (name == NULL) {
@@ -266,7 +355,7 @@ make_queue_name(pid_t pid, const JUMPPlatformCString messageType,
 	goto error;
     }
 
-    written = snprintf(name, len, JUMP_MQ_PATH_PATTERN, pid, messageTypeClean);
+    written = snprintf(name, len, pattern, pid, messageTypeClean);
     if (written == -1 || written >= len) {
 	*code = JUMP_MQ_FAILURE;
 	goto error;
@@ -281,6 +370,297 @@ make_queue_name(pid_t pid, const JUMPPlatformCString messageType,
     return NULL;
 }
 
+/* Maps an existing ring for sending.  On success returns the ring
+   and sets *lengthp to the length of the mapping.  Returns NULL if
+   there is no usable ring. */
+static struct jump_ring *
+ring_map(const char *name, size_t *lengthp)
+{
+    struct jump_ring *ring;
+    struct stat st;
+    void *p;
+    int fd;
+
+    fd = open(name, O_RDWR);
+    if (fd == -1) {
+	return NULL;
+    }
+    if (fstat(fd, &st) == -1 || st.st_size <= JUMP_MQ_RING_HEADER) {
+	close(fd);
+	return NULL;
+    }
+    p = mmap(NULL, st.st_size, PROT_READ | PROT_WRITE, MAP_SHARED, fd, 0);
+    close(fd);
+    if (p == MAP_FAILED) {
+	return NULL;
+    }
+
+    /* The ring may still be being initialized, or be garbage.  The
+       size is checked against the mapping so a bad one can't make us
+       write outside it. */
+
+    ring = p;
+    if (ring->magic != JUMP_MQ_RING_MAGIC ||
+	ring->size <= 0 || (ring->size & (ring->size - 1)) != 0 ||
+	JUMP_MQ_RING_HEADER + ring->size != st.st_size) {
+	munmap(p, st.st_size);
+	return NULL;
+    }
+
+    *lengthp = st.st_size;
+    return ring;
+}
+
+/* Creates a ring with size bytes of data for a read queue.  On
+   success returns the ring and sets *lengthp to the length of the
+   mapping.  On failure returns NULL; the queue just has no ring. */
+static struct jump_ring *
+ring_create(const char *name, int size, size_t *lengthp)
+{
+    size_t length = JUMP_MQ_RING_HEADER + size;
+    struct jump_ring *ring;
+    pthread_mutexattr_t attr;
+    int initialized;
+    void *p;
+    int fd;
+
+    /* Never reuse an existing file, since a sender may still have it
+       mapped and truncating it would crash the sender. */
+
+    unlink(name);
+    fd = open(name, O_RDWR | O_CREAT | O_EXCL, 0666);
+    if (fd == -1) {
+	return NULL;
+    }
+
+    /* Make sure the ring is read/write for everybody, as for the FIFO. */
+
+    if (fchmod(fd, 0666) == -1 || ftruncate(fd, length) == -1) {
+	close(fd);
+	unlink(name);
+	return NULL;
+    }
+    p = mmap(NULL, length, PROT_READ | PROT_WRITE, MAP_SHARED, fd, 0);
+    close(fd);
+    if (p == MAP_FAILED) {
+	unlink(name);
+	return NULL;
+    }
+
+    /* The file is zero-filled, so only the mutex and size need
+       setting.  The magic number goes in last so senders don't use
+       the ring before it's ready. */
+
+    ring = p;
+    initialized = 0;
+    if (pthread_mutexattr_init(&attr) == 0) {
+	if (pthread_mutexattr_setpshared(&attr, PTHREAD_PROCESS_SHARED) == 0 &&
+	    pthread_mutexattr_setrobust(&attr, PTHREAD_MUTEX_ROBUST) == 0 &&
+	    pthread_mutex_init(&ring->mutex, &attr) == 0) {
+	    initialized = 1;
+	}
+	pthread_mutexattr_destroy(&attr);
+    }
+    if (!initialized) {
+	munmap(p, length);
+	unlink(name);
+	return NULL;
+    }
+    ring->size = size;
+    ring->magic = JUMP_MQ_RING_MAGIC;
+
+    *lengthp = length;
+    return ring;
+}
+
+/* Locks the ring's mutex.  The mutex is robust, so a process that
+   dies holding it doesn't leave it locked for ever.  The ring is
+   consistent even then, since head and tail only advance once a
+   record has been copied, so the mutex is just made usable again. */
+static void
+ring_lock(struct jump_ring *ring)
+{
+    if (pthread_mutex_lock(&ring->mutex) == EOWNERDEAD) {
+	pthread_mutex_consistent(&ring->mutex);
+    }
+}
+
+/* Tells senders the ring's reader is gone. */
+static void
+ring_close(struct jump_ring *ring)
+{
+    ring_lock(ring);
+    ring->closed = 1;
+    pthread_mutex_unlock(&ring->mutex);
+}
+
+/* Copies length bytes from src into the ring at position pos. */
+static void
+ring_copy_in(struct jump_message_queue *jmq, unsigned int pos,
+	     const void *src, int length)
+{
+    int size = jmq->ringLength - JUMP_MQ_RING_HEADER;
+    int offset = pos & (size - 1);
+    int first = size - offset;
+
+    if (first > length) {
+	first = length;
+    }
+    memcpy(jmq->ring->data + offset, src, first);
+    memcpy(jmq->ring->data, (const char *)src + first, length - first);
+}
+
+/* Copies length bytes from the ring at position pos into dst. */
+static void
+ring_copy_out(struct jump_message_queue *jmq, unsigned int pos,
+	      void *dst, int length)
+{
+    int size = jmq->ringLength - JUMP_MQ_RING_HEADER;
+    int offset = pos & (size - 1);
+    int first = size - offset;
+
+    if (first > length) {
+	first = length;
+    }
+    memcpy(dst, jmq->ring->data + offset, first);
+    memcpy((char *)dst + first, jmq->ring->data, length - first);
+}
+
+/* Wakes the reader of the write queue's ring by writing a
+   JUMP_MQ_RING_WAKEUP record to its FIFO, opening the FIFO first if
+   needed.  If the write would block, the FIFO isn't empty and the
+   reader will wake anyway.  If it fails, the reader finds the message
+   when it next polls the ring. */
+static void
+ring_wakeup(struct jump_message_queue *jmq)
+{
+    JUMPMessageQueueStatusCode code;
+    int wakeup = JUMP_MQ_RING_WAKEUP;
+    int fd;
+
+    mutex_lock(&jmq->read_mutex);
+    if (jmq->fd == -1) {
+	char *name = make_queue_name(JUMP_MQ_PATH_PATTERN,
+				     jmq->pid,
+				     (JUMPPlatformCString)jmq->messageType, &code);
+	if (name != NULL) {
+	    jmq->fd = open(name, O_RDWR | O_NONBLOCK);
+	    if (jmq->fd != -1) {
+		fcntl(jmq->fd, F_SETFD, FD_CLOEXEC);
+	    }
+	    free(name);
+	}
+    }
+    fd = jmq->fd;
+    mutex_unlock(&jmq->read_mutex);
+
+    if (fd != -1) {
+	while (write(fd, &wakeup, sizeof(wakeup)) == -1 && errno == EINTR) {
+	    /* Interrupted before data was written, retry. */
+	}
+    }
+}
+
+/* Copies a message into the write queue's ring.  Returns 0 and sets
+   *code to JUMP_MQ_SUCCESS if it was sent, returns -1 and sets *code
+   to JUMP_MQ_WOULD_BLOCK if the ring is full, or returns 1 if the
+   reader has gone away. */
+static int
+ring_send(struct jump_message_queue *jmq, char *buffer,
+	  int messageDataSize, JUMPMessageQueueStatusCode* code)
+{
+    struct jump_ring *ring = jmq->ring;
+    unsigned int record = JUMP_MQ_RING_RECORD(messageDataSize);
+    unsigned int size = jmq->ringLength - JUMP_MQ_RING_HEADER;
+    int wake;
+
+    ring_lock(ring);
+    if (ring->closed) {
+	pthread_mutex_unlock(&ring->mutex);
+	return 1;
+    }
+    if (size - (ring->head - ring->tail) < record) {
+	pthread_mutex_unlock(&ring->mutex);
+	*code = JUMP_MQ_WOULD_BLOCK;
+	return -1;
+    }
+    ring_copy_in(jmq, ring->head, &messageDataSize, sizeof(messageDataSize));
+    ring_copy_in(jmq, ring->head + sizeof(messageDataSize),
+		 buffer, messageDataSize);
+    ring->head += record;
+    wake = ring->waiting || ring->alwaysWake;
+    ring->waiting = 0;
+    pthread_mutex_unlock(&ring->mutex);
+
+    if (wake) {
+	ring_wakeup(jmq);
+    }
+
+    *code = JUMP_MQ_SUCCESS;
+    return 0;
+}
+
+/* Takes the next message out of the read queue's ring.  Returns 1
+   and sets *lengthp to its length if one was copied into buffer,
+   returns 0 if the ring is empty, or returns -1 and sets *code to
+   JUMP_MQ_BUFFER_SMALL or JUMP_MQ_FAILURE if the message was
+   discarded.  Must be called with the queue's read_mutex locked. */
+static int
+ring_receive(struct jump_message_queue *jmq, char *buffer, int bufferLength,
+	     int *lengthp, JUMPMessageQueueStatusCode* code)
+{
+    struct jump_ring *ring = jmq->ring;
+    int messageDataSize;
+    int ret;
+
+    ring_lock(ring);
+    if (ring->head == ring->tail) {
+	ret = 0;
+    }
+    else {
+	ring_copy_out(jmq, ring->tail, &messageDataSize,
+		      sizeof(messageDataSize));
+	if (messageDataSize < 0 ||
+	    JUMP_MQ_RING_RECORD(messageDataSize) > ring->head - ring->tail) {
+	    /* Garbage.  Throw away whatever is in the ring. */
+	    ring->tail = ring->head;
+	    *code = JUMP_MQ_FAILURE;
+	    ret = -1;
+	}
+	else {
+	    if (messageDataSize > bufferLength) {
+		*code = JUMP_MQ_BUFFER_SMALL;
+		ret = -1;
+	    }
+	    else {
+		ring_copy_out(jmq, ring->tail + sizeof(messageDataSize),
+			      buffer, messageDataSize);
+		*lengthp = messageDataSize;
+		ret = 1;
+	    }
+	    ring->tail += JUMP_MQ_RING_RECORD(messageDataSize);
+	}
+    }
+    pthread_mutex_unlock(&ring->mutex);
+    return ret;
+}
+
+/* Returns 1 if the ring has a message.  Otherwise sets the ring's
+   waiting flag, so the next sender wakes the reader, and returns 0. */
+static int
+ring_ready_or_wait(struct jump_ring *ring)
+{
+    int ready;
+
+    ring_lock(ring);
+    ready = ring->head != ring->tail;
+    if (!ready) {
+	ring->waiting = 1;
+    }
+    pthread_mutex_unlock(&ring->mutex);
+    return ready;
+}
+
 /* Creates/opens a jump_message_queue for reading or writing.  On
    success returns the queue and sets code to JUMP_MQ_SUCCESS.  On
    failure returns NULL and sets code to one of JUMP_MQ_OUT_OF_MEMORY,
@@ -303,6 +683,11 @@ message_queue_create(pid_t processId,
     jmq->messageType = NULL;
     jmq->name = NULL;
     jmq->fd = -1;
+    jmq->ring = NULL;
+    jmq->ringLength = 0;
+    jmq->ringName = NULL;
+    jmq->pid = processId;
+    jmq->priority = 0;
 
     if (forRead) {
 	jmq->messageType = strdup(messageType);
@@ -312,7 +697,7 @@ message_queue_create(pid_t processId,
 	}
     }
 
-    name = make_queue_name(processId, messageType, code);
+    name = make_queue_name(JUMP_MQ_PATH_PATTERN, processId, messageType, code);
     if (name == NULL) {
 	goto fail;
     }
@@ -392,6 +777,22 @@ message_queue_create(pid_t processId,
 	}
     }
 
+    /* Give a read queue a ring if rings are turned on.  Without one,
+       the queue still works through the FIFO. */
+
+    if (forRead && ring_size > 0) {
+	jmq->ringName = make_queue_name(JUMP_MQ_RING_PATTERN,
+					processId, messageType, code);
+	if (jmq->ringName != NULL) {
+	    jmq->ring = ring_create(jmq->ringName, ring_size,
+				    &jmq->ringLength);
+	    if (jmq->ring == NULL) {
+		free(jmq->ringName);
+		jmq->ringName = NULL;
+	    }
+	}
+    }
+
     /* Success. */
 
     if (!forRead) {
@@ -427,7 +828,7 @@ message_queue_destroy(struct jump_message_queue *jmq)
 {
     int ret = 0;
 
-    if (close(jmq->fd) == -1) {
+    if (jmq->fd != -1 && close(jmq->fd) == -1) {
 	/* Close failed.  We free everything anyway since there's not
 	   much we can so about failure, and the jump_message_queue
 	   shouldn't be used after this anyway. */
@@ -442,6 +843,18 @@ message_queue_destroy(struct jump_message_queue *jmq)
 	free(jmq->name);
     }
 
+    if (jmq->ring != NULL) {
+	/* A read queue tells its senders the ring is gone, and unlinks
+	   it.  Senders' mappings keep the memory until they notice. */
+
+	if (jmq->ringName != NULL) {
+	    ring_close(jmq->ring);
+	    unlink(jmq->ringName);
+	    free(jmq->ringName);
+	}
+	munmap(jmq->ring, jmq->ringLength);
+    }
+
     /* Free the jump_message_queue. */
 
     mutex_destroy(&jmq->read_mutex);
@@ -501,6 +914,111 @@ lock_and_release_message_queue (struct jump_message_queue *jmq)
     mutex_unlock(&queue_list_mutex);
 }
 
+/* Returns a write queue for the ring of process processId's queue for
+   messageType, mapping the ring if it isn't already, or NULL if there
+   is no ring.  Increments the queue's useCount; the other count is
+   ring_list's own.  Must be called with queue_list_mutex locked. */
+static struct jump_message_queue *
+get_ring_queue(pid_t processId, JUMPPlatformCString messageType)
+{
+    JUMPMessageQueueStatusCode code;
+    struct jump_message_queue *jmq;
+    char *name;
+
+    for (jmq = ring_list.next; jmq != &ring_list; jmq = jmq->next) {
+	if (jmq->pid == processId &&
+	    strcmp(jmq->messageType, (const char *)messageType) == 0) {
+	    /* An unlocked read of closed is fine; ring_send checks it
+	       again. */
+	    if (!jmq->ring->closed) {
+		jmq->useCount++;
+		return jmq;
+	    }
+
+	    /* The reader has gone, maybe to make the queue again.
+	       Forget the old ring.  Pointing the queue at itself lets
+	       decrement_usecount_maybe_free remove it from the list
+	       again harmlessly when the last handle is closed. */
+
+	    remove_message_queue(jmq);
+	    jmq->prev = jmq->next = jmq;
+	    decrement_usecount_maybe_free(jmq);
+	    break;
+	}
+    }
+
+    name = make_queue_name(JUMP_MQ_RING_PATTERN, processId, messageType,
+			   &code);
+    if (name == NULL) {
+	return NULL;
+    }
+    jmq = calloc(1, sizeof(*jmq));
+    if (jmq == NULL) {
+	free(name);
+	return NULL;
+    }
+    jmq->ring = ring_map(name, &jmq->ringLength);
+    free(name);
+    jmq->messageType = strdup((const char *)messageType);
+    if (jmq->ring == NULL || jmq->messageType == NULL) {
+	if (jmq->ring != NULL) {
+	    munmap(jmq->ring, jmq->ringLength);
+	}
+	free(jmq->messageType);
+	free(jmq);
+	return NULL;
+    }
+    jmq->fd = -1;
+    jmq->pid = processId;
+    mutex_init(&jmq->read_mutex, NULL);
+    jmq->useCount = 2;
+    put_message_queue(&ring_list, jmq);
+    return jmq;
+}
+
+/* Writes a message to a FIFO.  This is non-blocking.  On success
+   returns 0 and sets *code to JUMP_MQ_SUCCESS, otherwise returns -1
+   and sets *code to JUMP_MQ_WOULD_BLOCK or JUMP_MQ_FAILURE. */
+static int
+fifo_send(int fd, char *buffer, int messageDataSize,
+	  JUMPMessageQueueStatusCode* code)
+{
+    struct iovec iovec[2];
+
+    /* Prepare to write the length followed by the message. */
+
+    iovec[0].iov_base = &messageDataSize;
+    iovec[0].iov_len = sizeof(messageDataSize);
+
+    iovec[1].iov_base = buffer;
+    iovec[1].iov_len = messageDataSize;
+
+    /* This write is non-blocking.  If it would block, we return
+       JUMP_MQ_WOULD_BLOCK.  It's atomic, so there are no issues with
+       partial writes. */
+
+    while (1) {
+	ssize_t status = writev(fd, iovec, 2);
+	if (status != -1) {
+	    /* All data written successfully. */
+	    *code = JUMP_MQ_SUCCESS;
+	    return 0;
+	}
+	if (errno == EINTR) {
+	    /* Interrupted before data was written, retry. */
+	    continue;
+	}
+	/* write failed or would block. */
+	if (errno == EAGAIN) {
+	    *code = JUMP_MQ_WOULD_BLOCK;
+	}
+	else {
+	    *code = JUMP_MQ_FAILURE;
+	}
+	return -1;
+    }
+}
+
 /*
  * The message queue porting layer
  */
@@ -522,7 +1040,7 @@ jumpMessageQueueCreate(JUMPPlatformCString messageType,
 	jmq = message_queue_create(jumpProcessGetId(), messageType, code, 1);
 	if (jmq != NULL) {
 	    jmq->useCount = 1;
-	    put_message_queue(jmq);
+	    put_message_queue(&queue_list, jmq);
 	}
     }
 
@@ -555,6 +1073,21 @@ jumpMessageQueueOpen(int processId, JUMPPlatformCString type,
 		     JUMPMessageQueueStatusCode* code)
 
 {
+    /* Send through the target's ring if it has one. */
+
+    if (ring_size > 0) {
+	struct jump_message_queue *jmq;
+
+	mutex_lock(&queue_list_mutex);
+	jmq = get_ring_queue(processId, type);
+	mutex_unlock(&queue_list_mutex);
+
+	if (jmq != NULL) {
+	    *code = JUMP_MQ_SUCCESS;
+	    return jmq;
+	}
+    }
+
     return message_queue_create(processId, type, code, 0);
 }
 
@@ -562,7 +1095,14 @@ void
 jumpMessageQueueClose(JUMPMessageQueueHandle handle) 
 {
     struct jump_message_queue *jmq = (struct jump_message_queue *) handle;
-    message_queue_destroy(jmq);
+
+    if (jmq->ring != NULL) {
+	/* The ring stays mapped on ring_list for the next send. */
+	lock_and_release_message_queue(jmq);
+    }
+    else {
+	message_queue_destroy(jmq);
+    }
 }
 
 int 
@@ -578,7 +1118,7 @@ jumpMessageQueueSend(JUMPMessageQueueHandle handle,
 		     JUMPMessageQueueStatusCode* code)
 {
     struct jump_message_queue *jmq = (struct jump_message_queue *) handle;
-    struct iovec iovec[2];
+    int status;
 
     if (messageDataSize < 0) {
 	*code = JUMP_MQ_BAD_MESSAGE_SIZE;
@@ -593,38 +1133,26 @@ jumpMessageQueueSend(JUMPMessageQueueHandle handle,
 	return -1;
     }
 
-    /* Prepare to write the length followed by the message. */
-
-    iovec[0].iov_base = &messageDataSize;
-    iovec[0].iov_len = sizeof(messageDataSize);
-
-    iovec[1].iov_base = buffer;
-    iovec[1].iov_len = messageDataSize;
+    if (jmq->ring == NULL) {
+	return fifo_send(jmq->fd, buffer, messageDataSize, code);
+    }
 
-    /* This write is non-blocking.  If it would block, we return
-       JUMP_MQ_WOULD_BLOCK.  It's atomic, so there are no issues with
-       partial writes. */
+    status = ring_send(jmq, buffer, messageDataSize, code);
+    if (status == 1) {
+	/* The reader has destroyed the queue.  If it has made it
+	   again, the message goes through the new FIFO, and the next
+	   open finds the new ring. */
 
-    while (1) {
-	ssize_t status = writev(jmq->fd, iovec, 2);
-	if (status != -1) {
-	    /* All data written successfully. */
-	    *code = JUMP_MQ_SUCCESS;
-	    return 0;
-	}
-	if (errno == EINTR) {
-	    /* Interrupted before data was written, retry. */
-	    continue;
-	}
-	/* write failed or would block. */
-	if (errno == EAGAIN) {
-	    *code = JUMP_MQ_WOULD_BLOCK;
-	}
-	else {
-	    *code = JUMP_MQ_FAILURE;
+	struct jump_message_queue *fifo =
+	    message_queue_create(jmq->pid,
+				 (JUMPPlatformCString)jmq->messageType, code, 0);
+	if (fifo == NULL) {
+	    return -1;
 	}
-	return -1;
+	status = fifo_send(fifo->fd, buffer, messageDataSize, code);
+	message_queue_destroy(fifo);
     }
+    return status;
 }
 
 int
@@ -673,8 +1201,18 @@ jumpMessageQueueWaitForMessage(JUMPPlatformCString type, int32 timeout_millis,
     while (1) {
 	fd_set readfds;
 	struct timeval timeout;
+	struct timeval *timeoutp;
+	struct timeval ringPoll;
+	int polling = 0;
 	int status;
 
+	/* A message in the ring needs no wait. */
+
+	if (jmq->ring != NULL && ring_ready_or_wait(jmq->ring)) {
+	    *code = JUMP_MQ_SUCCESS;
+	    goto succeed;
+	}
+
 	FD_ZERO(&readfds);
 	FD_SET(jmq->fd, &readfds);
 
@@ -699,14 +1237,31 @@ jumpMessageQueueWaitForMessage(JUMPPlatformCString type, int32 timeout_millis,
 	    }
 	}
 
-	status = select(jmq->fd + 1, &readfds, NULL, NULL,
-			(timeout_millis != 0) ? &timeout : NULL);
+	timeoutp = (timeout_millis != 0) ? &timeout : NULL;
+
+	/* With a ring, wake up now and then to look at it. */
+
+	if (jmq->ring != NULL &&
+	    (timeoutp == NULL ||
+	     timeout.tv_sec * 1000 + timeout.tv_usec / 1000 >
+	     JUMP_MQ_RING_POLL_MILLIS)) {
+	    ringPoll.tv_sec = JUMP_MQ_RING_POLL_MILLIS / 1000;
+	    ringPoll.tv_usec = (JUMP_MQ_RING_POLL_MILLIS % 1000) * 1000;
+	    timeoutp = &ringPoll;
+	    polling = 1;
+	}
+
+	status = select(jmq->fd + 1, &readfds, NULL, NULL, timeoutp);
 	switch (status) {
 	  case 1:
 	    /* Ready to read. */
 	    *code = JUMP_MQ_SUCCESS;
 	    goto succeed;
 	  case 0:
+	    if (polling) {
+		/* Look at the ring again. */
+		continue;
+	    }
 	    /* Timed out. */
 	    *code = JUMP_MQ_TIMEOUT;
 	    goto fail;
@@ -736,6 +1291,145 @@ jumpMessageQueueWaitForMessage(JUMPPlatformCString type, int32 timeout_millis,
     return ret;
 }
 
+int
+jumpMessageQueueWaitForMessages(JUMPPlatformCString* messageTypes,
+				int count,
+				int32 timeout_millis,
+				JUMPMessageQueueStatusCode* code)
+{
+    /* Where to start looking for a ready queue, so that a busy queue
+       early in the list can't starve the others of its priority.
+       Races on this are harmless. */
+    static unsigned int next_start = 0;
+
+    struct jump_message_queue **jmqs;
+    struct pollfd *fds;
+    char *ringReady;
+    struct timeval deadline;
+    int acquired = 0;
+    int ret = -1;
+    int i;
+
+    if (timeout_millis != 0) {
+	if (gettimeofday(&deadline, NULL) == -1) {
+	    *code = JUMP_MQ_FAILURE;
+	    return -1;
+	}
+	deadline.tv_sec += timeout_millis / 1000;
+	deadline.tv_usec += (timeout_millis % 1000) * 1000;
+	if (deadline.tv_usec >= 1000000) {
+	    deadline.tv_usec -= 1000000;
+	    deadline.tv_sec++;
+	}
+    }
+
+    jmqs = calloc(count, sizeof(struct jump_message_queue *));
+    fds = calloc(count, sizeof(struct pollfd));
+    ringReady = calloc(count, 1);
+    if (jmqs == NULL || fds == NULL || ringReady == NULL) {
+	*code = JUMP_MQ_OUT_OF_MEMORY;
+	goto out;
+    }
+
+    for (acquired = 0; acquired < count; acquired++) {
+	jmqs[acquired] = lock_and_acquire_message_queue(messageTypes[acquired]);
+	if (jmqs[acquired] == NULL) {
+	    *code = JUMP_MQ_NO_SUCH_QUEUE;
+	    goto out;
+	}
+	fds[acquired].fd = jmqs[acquired]->fd;
+	fds[acquired].events = POLLIN;
+    }
+
+    while (1) {
+	int poll_timeout = -1;
+	int polling = 0;
+	int hasRing = 0;
+	int anyRingReady = 0;
+	int status;
+
+	/* A message in a ring needs no wait, but the FIFOs are still
+	   polled in case one of them has a message of higher
+	   priority. */
+
+	for (i = 0; i < count; i++) {
+	    ringReady[i] = 0;
+	    if (jmqs[i]->ring != NULL) {
+		hasRing = 1;
+		if (ring_ready_or_wait(jmqs[i]->ring)) {
+		    ringReady[i] = 1;
+		    anyRingReady = 1;
+		}
+	    }
+	}
+
+	if (anyRingReady) {
+	    poll_timeout = 0;
+	}
+	else if (timeout_millis != 0) {
+	    struct timeval now;
+	    if (gettimeofday(&now, NULL) == -1) {
+		*code = JUMP_MQ_FAILURE;
+		goto out;
+	    }
+	    poll_timeout = (deadline.tv_sec - now.tv_sec) * 1000 +
+		(deadline.tv_usec - now.tv_usec) / 1000;
+	    if (poll_timeout < 0) {
+		poll_timeout = 0;
+	    }
+	}
+
+	/* With rings, wake up now and then to look at them. */
+
+	if (hasRing &&
+	    (poll_timeout == -1 || poll_timeout > JUMP_MQ_RING_POLL_MILLIS)) {
+	    poll_timeout = JUMP_MQ_RING_POLL_MILLIS;
+	    polling = 1;
+	}
+
+	status = poll(fds, count, poll_timeout);
+	if (status > 0 || anyRingReady) {
+	    /* Of the ready queues, take the first one of the highest
+	       priority, starting from next_start. */
+	    unsigned int start = next_start++;
+	    for (i = 0; i < count; i++) {
+		int j = (start + i) % count;
+		if ((ringReady[j] || (status > 0 && fds[j].revents != 0)) &&
+		    (ret == -1 || jmqs[j]->priority > jmqs[ret]->priority)) {
+		    ret = j;
+		}
+	    }
+	    if (ret != -1) {
+		*code = JUMP_MQ_SUCCESS;
+		goto out;
+	    }
+	}
+	if (status == 0) {
+	    if (polling) {
+		/* Look at the rings again. */
+		continue;
+	    }
+	    *code = JUMP_MQ_TIMEOUT;
+	    goto out;
+	}
+	if (status == -1 && errno == EINTR) {
+	    /* Try again. */
+	    continue;
+	}
+	*code = JUMP_MQ_FAILURE;
+	goto out;
+    }
+
+  out:
+    for (i = 0; i < acquired; i++) {
+	lock_and_release_message_queue(jmqs[i]);
+    }
+    free(jmqs);
+    free(fds);
+    free(ringReady);
+    return ret;
+}
+
 /* Returns 1 for success, 0 for would block, -1 for error. */
 static int
 read_fully(int fd, void *buf, size_t count)
@@ -803,18 +1497,51 @@ jumpMessageQueueReceive(JUMPPlatformCString type,
 	goto unrecoverable_error;
     }
 
-    /* Read the message size, and fail on error or if the read would block. */
+    /* Messages in the ring come first.  The FIFO may only hold
+       wakeups for them. */
 
-    status = read_fully(jmq->fd,
-			&messageDataSize, sizeof(messageDataSize));
-    if (status == -1) {
-	goto unrecoverable_error;
+    if (jmq->ring != NULL) {
+	status = ring_receive(jmq, buffer, bufferLength, &ret, code);
+	if (status == 1) {
+	    *code = JUMP_MQ_SUCCESS;
+	    goto out;
+	}
+	if (status == -1) {
+	    goto recoverable_error;
+	}
     }
-    else if (status == 0) {
-	/* read_fully would block, so there is no message after all.
-	   The jump_message_queue is ok, just fail. */
-	*code = JUMP_MQ_WOULD_BLOCK;
-	goto recoverable_error;
+
+    /* Read the message size, and fail on error or if the read would
+       block.  A ring wakeup means a message may have been put in the
+       ring since we looked. */
+
+    while (1) {
+	status = read_fully(jmq->fd,
+			    &messageDataSize, sizeof(messageDataSize));
+	if (status == -1) {
+	    goto unrecoverable_error;
+	}
+	else if (status == 0) {
+	    /* read_fully would block, so there is no message after all.
+	       The jump_message_queue is ok, just fail. */
+	    *code = JUMP_MQ_WOULD_BLOCK;
+	    goto recoverable_error;
+	}
+
+	if (messageDataSize != JUMP_MQ_RING_WAKEUP) {
+	    break;
+	}
+
+	if (jmq->ring != NULL) {
+	    status = ring_receive(jmq, buffer, bufferLength, &ret, code);
+	    if (status == 1) {
+		*code = JUMP_MQ_SUCCESS;
+		goto out;
+	    }
+	    if (status == -1) {
+		goto recoverable_error;
+	    }
+	}
     }
 
     /* Check for "unblock" message. */
@@ -930,10 +1657,18 @@ jumpMessageQueueGetFd(JUMPPlatformCString messageType)
     jmq = lock_and_acquire_message_queue(messageType);
 
     if (jmq == NULL) {
-	fd = -1;
+	return -1;
     }
-    else {
-	fd = jmq->fd;
+
+    fd = jmq->fd;
+
+    /* The caller only looks at the fd, so every message put in the
+       ring from now on has to wake it. */
+
+    if (jmq->ring != NULL) {
+	ring_lock(jmq->ring);
+	jmq->ring->alwaysWake = 1;
+	pthread_mutex_unlock(&jmq->ring->mutex);
     }
 
     lock_and_release_message_queue(jmq);
@@ -941,6 +1676,83 @@ jumpMessageQueueGetFd(JUMPPlatformCString messageType)
     return fd;
 }
 
+int
+jumpMessageQueueGetPendingBytes(JUMPPlatformCString messageType)
+{
+    struct jump_message_queue *jmq;
+    int pending;
+
+    jmq = lock_and_acquire_message_queue(messageType);
+
+    if (jmq == NULL) {
+	return -1;
+    }
+
+    if (ioctl(jmq->fd, FIONREAD, &pending) == -1) {
+	pending = -1;
+    }
+    else if (jmq->ring != NULL) {
+	ring_lock(jmq->ring);
+	pending += jmq->ring->head - jmq->ring->tail;
+	pthread_mutex_unlock(&jmq->ring->mutex);
+    }
+
+    lock_and_release_message_queue(jmq);
+
+    return pending;
+}
+
+int
+jumpMessageQueueSetPriority(JUMPPlatformCString messageType, int priority)
+{
+    struct jump_message_queue *jmq;
+
+    jmq = lock_and_acquire_message_queue(messageType);
+
+    if (jmq == NULL) {
+	return -1;
+    }
+
+    /* Read without a lock by waiters, which may see the old
+       priority for one wait. */
+
+    jmq->priority = priority;
+
+    lock_and_release_message_queue(jmq);
+
+    return 0;
+}
+
+int
+jumpMessageQueueGetTargetPendingBytes(int processId,
+				      JUMPPlatformCString messageType)
+{
+    JUMPMessageQueueStatusCode code;
+    struct jump_message_queue *jmq;
+    int pending;
+
+    jmq = jumpMessageQueueOpen(processId, messageType, &code);
+    if (jmq == NULL) {
+	return -1;
+    }
+
+    /* A FIFO opened for writing reports what its reader has yet to
+       read, just like the reader's own end does. */
+
+    if (jmq->ring != NULL) {
+	ring_lock(jmq->ring);
+	pending = jmq->ring->head - jmq->ring->tail;
+	pthread_mutex_unlock(&jmq->ring->mutex);
+    }
+    else if (ioctl(jmq->fd, FIONREAD, &pending) == -1) {
+	pending = -1;
+    }
+
+    jumpMessageQueueClose(jmq);
+
+    return pending;
+}
+
 /*
  * Destroy all message queues created by this process, regardless of
  * useCount.
@@ -960,24 +1772,54 @@ jumpMessageQueueInterfaceDestroy(void)
 	p = pnext;
     }
 
+    /* And unmap the rings of other processes. */
+
+    p = ring_list.next;
+    while (p != &ring_list) {
+	struct jump_message_queue *pnext = p->next;
+	remove_message_queue(p);
+	message_queue_destroy(p);
+	p = pnext;
+    }
+
     mutex_unlock(&queue_list_mutex);
 }
 
-void
-jumpMessageQueueCleanQueuesOf(int cpid)
+int
+jumpMessageQueueSetRingSize(int size)
+{
+    int ringSize = 0;
+
+    if (size > 0) {
+	/* A power of 2, with room for at least one message. */
+	ringSize = 1;
+	while (ringSize < size ||
+	       ringSize < JUMP_MQ_RING_RECORD(
+		   JUMP_MESSAGE_QUEUE_MAX_MESSAGE_SIZE)) {
+	    ringSize <<= 1;
+	}
+    }
+
+    ring_size = ringSize;
+    return ringSize;
+}
+
+/* Removes the files in dir whose names start with prefix, formatted
+   with cpid.  Rings are closed first, so senders that have them
+   mapped stop using them. */
+static void
+clean_files_of(int cpid, const char *dirName, const char *prefixPattern,
+	       int rings)
 {
-    char prefix[sizeof(JUMP_MQ_PATH_PREFIX) + 20];
+    char prefix[sizeof(JUMP_MQ_RING_PREFIX) + sizeof(JUMP_MQ_PATH_PREFIX)
+		+ 20];
     int prefixLen;
     DIR* dir;
     struct dirent* ptr;
 
-    if (jumpProcessIsAlive(cpid) == 0) {
-	return;
-    }
+    prefixLen = snprintf(prefix, sizeof(prefix), prefixPattern, cpid);
 
-    prefixLen = snprintf(prefix, sizeof(prefix), JUMP_MQ_PATH_PREFIX, cpid);
-
-    dir = opendir(JUMP_MQ_PATH_DIR);
+    dir = opendir(dirName);
     if (dir == NULL) {
 	perror("opendir");
 	return;
@@ -985,15 +1827,26 @@ jumpMessageQueueCleanQueuesOf(int cpid)
 
     while ((ptr = readdir(dir)) != NULL) {
 	if (strncmp(ptr->d_name, prefix, prefixLen) == 0) {
-	    char filename[sizeof(JUMP_MQ_PATH_DIR) + 1 + NAME_MAX + 1];
+	    char filename[PATH_MAX];
 	    int len;
 
 	    len = snprintf(filename, sizeof(filename),
-			   JUMP_MQ_PATH_DIR "/%s", ptr->d_name);
+			   "%s/%s", dirName, ptr->d_name);
 	    if (len < 0 || len >= sizeof(filename)) {
 		continue;
 	    }
 
+	    if (rings) {
+		/* Not ring_close(), since the process may have died
+		   holding the ring's mutex. */
+		size_t length;
+		struct jump_ring *ring = ring_map(filename, &length);
+		if (ring != NULL) {
+		    ring->closed = 1;
+		    munmap(ring, length);
+		}
+	    }
+
 	    printf("Exiting process %d has message queue %s\n",
 		   cpid, filename);
 	    if (unlink(filename) == -1) {
@@ -1007,6 +1860,17 @@ jumpMessageQueueCleanQueuesOf(int cpid)
     closedir(dir);
 }
 
+void
+jumpMessageQueueCleanQueuesOf(int cpid)
+{
+    if (jumpProcessIsAlive(cpid) == 0) {
+	return;
+    }
+
+    clean_files_of(cpid, JUMP_MQ_PATH_DIR, JUMP_MQ_PATH_PREFIX, 0);
+    clean_files_of(cpid, JUMP_MQ_RING_DIR, JUMP_MQ_RING_PREFIX, 1);
+}
+
 /*
  * The thread porting layer
  */
@@ -1015,3 +1879,77 @@ jumpThreadGetId(void)
 {
     return (int)pthread_self();
 }
+
+struct _JUMPThreadMutex {
+    pthread_mutex_t mutex;
+};
+
+JUMPThreadMutex
+jumpThreadMutexCreate(void)
+{
+    struct _JUMPThreadMutex* m = malloc(sizeof(struct _JUMPThreadMutex));
+    if (m == NULL) {
+	return NULL;
+    }
+    if (pthread_mutex_init(&m->mutex, NULL) != 0) {
+	free(m);
+	return NULL;
+    }
+    return m;
+}
+
+void
+jumpThreadMutexDestroy(JUMPThreadMutex m)
+{
+    pthread_mutex_destroy(&m->mutex);
+    free(m);
+}
+
+void
+jumpThreadMutexLock(JUMPThreadMutex m)
+{
+    pthread_mutex_lock(&m->mutex);
+}
+
+void
+jumpThreadMutexUnlock(JUMPThreadMutex m)
+{
+    pthread_mutex_unlock(&m->mutex);
+}
+
+struct _JUMPThreadLocal {
+    pthread_key_t key;
+};
+
+JUMPThreadLocal
+jumpThreadLocalCreate(void (*destructor)(void*))
+{
+    struct _JUMPThreadLocal* k = malloc(sizeof(struct _JUMPThreadLocal));
+    if (k == NULL) {
+	return NULL;
+    }
+    if (pthread_key_create(&k->key, destructor) != 0) {
+	free(k);
+	return NULL;
+    }
+    return k;
+}
+
+void
+jumpThreadLocalDestroy(JUMPThreadLocal k)
+{
+    pthread_key_delete(k->key);
+    free(k);
+}
+
+void*
+jumpThreadLocalGet(JUMPThreadLocal k)
+{
+    return pthread_getspecific(k->key);
+}
+
+int
+jumpThreadLocalSet(JUMPThreadLocal k, void* value)
+{
+    return (pthread_setspecific(k->key, value) == 0) ? 0 : -1;
+}
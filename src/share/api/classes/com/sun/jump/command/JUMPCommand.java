@@ -30,7 +30,9 @@ import com.sun.jump.message.JUMPMessage;
 import com.sun.jump.message.JUMPMessageReader;
 import com.sun.jump.message.JUMPMessagingService;
 import com.sun.jump.message.JUMPOutgoingMessage;
-
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
 
 /**
  * <code>JUMPCommand</code> is base class that encapsulates any command that
@@ -102,6 +104,197 @@ public abstract class JUMPCommand {
     protected String id;
     protected String[] data;
 
+    //
+    // The command data as given to the constructor or read from a
+    // message: String, Integer, Long, Boolean, byte[] or null
+    // elements.  <code>data</code> is the same data as strings, made
+    // on demand for getCommandData().
+    //
+    private Object[] values;
+
+    //
+    // Whether to serialize commands in the original format of a UTF
+    // id followed by a UTF array, for talking to peers that do not
+    // understand the typed format.  Both formats are always accepted
+    // when deserializing.
+    //
+    private static boolean legacyEncoding = false;
+
+    //
+    // A command in the typed format starts with an int of
+    // TYPED_MARKER | code, where code is the index of the command id
+    // in COMMAND_IDS, or NULL_ID or UTF_ID.  A command in the legacy
+    // format starts with the length of its UTF id, which is never
+    // negative except for -1, so the two can be told apart.
+    //
+    private static final int TYPED_MARKER = 0xca000000;
+    private static final int TYPED_MARKER_MASK = 0xffff0000;
+    private static final int NULL_ID = 0xfffe;  // id is null
+    private static final int UTF_ID = 0xffff;   // id follows as UTF
+
+    //
+    // Tags written before each data element in the typed format.
+    //
+    private static final byte TAG_NULL    = 0;
+    private static final byte TAG_STRING  = 1;
+    private static final byte TAG_INT     = 2;
+    private static final byte TAG_LONG    = 3;
+    private static final byte TAG_BOOLEAN = 4;
+    private static final byte TAG_BYTES   = 5;
+
+    //
+    // Command ids that are sent as a 16 bit code instead of a string.
+    // The code is the index in this table, so new ids must only be
+    // added at the end.  Ids not in the table are sent as UTF.
+    //
+    private static final String[] COMMAND_IDS = {
+	JUMPResponse.ID_SUCCESS,
+	JUMPResponse.ID_FAILURE,
+	JUMPResponse.ID_DATA,
+	JUMPExecutiveLifecycleRequest.ID_INIT_ISOLATE,
+	JUMPExecutiveLifecycleRequest.ID_DESTROY_ISOLATE,
+	JUMPExecutiveLifecycleRequest.ID_START_APP,
+	JUMPExecutiveLifecycleRequest.ID_PAUSE_APP,
+	JUMPExecutiveLifecycleRequest.ID_RESUME_APP,
+	JUMPExecutiveLifecycleRequest.ID_GET_APP_WINDOWS,
+	JUMPExecutiveLifecycleRequest.ID_DESTROY_APP,
+	JUMPIsolateLifecycleRequest.ID_APP_REQUEST_PAUSE,
+	JUMPIsolateLifecycleRequest.ID_APP_REQUEST_RESUME,
+	JUMPIsolateLifecycleRequest.ID_APP_PAUSED,
+	JUMPIsolateLifecycleRequest.ID_APP_RESUMED,
+	JUMPIsolateLifecycleRequest.ID_ISOLATE_INITIALIZED,
+	JUMPIsolateLifecycleRequest.ID_ISOLATE_DESTROYED,
+	JUMPIsolateWindowRequest.ID_NOTIFY_WINDOW_FOREGROUND,
+	JUMPIsolateWindowRequest.ID_NOTIFY_WINDOW_BACKGROUND,
+	JUMPExecutiveWindowRequest.ID_FOREGROUND,
+	JUMPExecutiveWindowRequest.ID_BACKGROUND,
+    };
+
+    // Maps String command id to Integer code.
+    private static final Map commandCodes = new HashMap();
+
+    /**
+     * Creates empty commands of one class, to be filled in by
+     * deserializing a message.  Commands are made through a factory
+     * rather than by reflection.
+     *
+     * @see #registerFactory
+     */
+    public interface Factory {
+	/**
+	 * Returns a new, empty command.
+	 */
+	public JUMPCommand newCommand();
+    }
+
+    //
+    // idFactories maps String command id to the Factory for the class
+    // that the id's commands are decoded to by fromMessage(JUMPMessage).
+    // classFactories maps Class to the Factory for it, used by
+    // fromMessage(JUMPMessage, Class).
+    //
+    private static final Map idFactories = new Hashtable();
+    private static final Map classFactories = new Hashtable();
+
+    static {
+	for (int i = 0; i < COMMAND_IDS.length; i++) {
+	    commandCodes.put(COMMAND_IDS[i], new Integer(i));
+	}
+
+	Factory request = new Factory() {
+	    public JUMPCommand newCommand() {
+		return new JUMPRequest();
+	    }
+	};
+	Factory response = new Factory() {
+	    public JUMPCommand newCommand() {
+		return new JUMPResponse();
+	    }
+	};
+	Factory responseInteger = new Factory() {
+	    public JUMPCommand newCommand() {
+		return new JUMPResponseInteger();
+	    }
+	};
+	Factory executiveLifecycle = new Factory() {
+	    public JUMPCommand newCommand() {
+		return new JUMPExecutiveLifecycleRequest();
+	    }
+	};
+	Factory isolateLifecycle = new Factory() {
+	    public JUMPCommand newCommand() {
+		return new JUMPIsolateLifecycleRequest();
+	    }
+	};
+	Factory executiveWindow = new Factory() {
+	    public JUMPCommand newCommand() {
+		return new JUMPExecutiveWindowRequest();
+	    }
+	};
+	Factory isolateWindow = new Factory() {
+	    public JUMPCommand newCommand() {
+		return new JUMPIsolateWindowRequest();
+	    }
+	};
+
+	// Responses share their ids, so they are only decoded by class.
+	classFactories.put(JUMPRequest.class, request);
+	classFactories.put(JUMPResponse.class, response);
+	classFactories.put(JUMPResponseInteger.class, responseInteger);
+
+	registerFactory(JUMPExecutiveLifecycleRequest.ID_INIT_ISOLATE,
+			JUMPExecutiveLifecycleRequest.class,
+			executiveLifecycle);
+	registerFactory(JUMPExecutiveLifecycleRequest.ID_DESTROY_ISOLATE,
+			JUMPExecutiveLifecycleRequest.class,
+			executiveLifecycle);
+	registerFactory(JUMPExecutiveLifecycleRequest.ID_START_APP,
+			JUMPExecutiveLifecycleRequest.class,
+			executiveLifecycle);
+	registerFactory(JUMPExecutiveLifecycleRequest.ID_PAUSE_APP,
+			JUMPExecutiveLifecycleRequest.class,
+			executiveLifecycle);
+	registerFactory(JUMPExecutiveLifecycleRequest.ID_RESUME_APP,
+			JUMPExecutiveLifecycleRequest.class,
+			executiveLifecycle);
+	registerFactory(JUMPExecutiveLifecycleRequest.ID_GET_APP_WINDOWS,
+			JUMPExecutiveLifecycleRequest.class,
+			executiveLifecycle);
+	registerFactory(JUMPExecutiveLifecycleRequest.ID_DESTROY_APP,
+			JUMPExecutiveLifecycleRequest.class,
+			executiveLifecycle);
+	registerFactory(JUMPIsolateLifecycleRequest.ID_APP_REQUEST_PAUSE,
+			JUMPIsolateLifecycleRequest.class,
+			isolateLifecycle);
+	registerFactory(JUMPIsolateLifecycleRequest.ID_APP_REQUEST_RESUME,
+			JUMPIsolateLifecycleRequest.class,
+			isolateLifecycle);
+	registerFactory(JUMPIsolateLifecycleRequest.ID_APP_PAUSED,
+			JUMPIsolateLifecycleRequest.class,
+			isolateLifecycle);
+	registerFactory(JUMPIsolateLifecycleRequest.ID_APP_RESUMED,
+			JUMPIsolateLifecycleRequest.class,
+			isolateLifecycle);
+	registerFactory(JUMPIsolateLifecycleRequest.ID_ISOLATE_INITIALIZED,
+			JUMPIsolateLifecycleRequest.class,
+			isolateLifecycle);
+	registerFactory(JUMPIsolateLifecycleRequest.ID_ISOLATE_DESTROYED,
+			JUMPIsolateLifecycleRequest.class,
+			isolateLifecycle);
+	registerFactory(JUMPIsolateWindowRequest.ID_NOTIFY_WINDOW_FOREGROUND,
+			JUMPIsolateWindowRequest.class,
+			isolateWindow);
+	registerFactory(JUMPIsolateWindowRequest.ID_NOTIFY_WINDOW_BACKGROUND,
+			JUMPIsolateWindowRequest.class,
+			isolateWindow);
+	registerFactory(JUMPExecutiveWindowRequest.ID_FOREGROUND,
+			JUMPExecutiveWindowRequest.class,
+			executiveWindow);
+	registerFactory(JUMPExecutiveWindowRequest.ID_BACKGROUND,
+			JUMPExecutiveWindowRequest.class,
+			executiveWindow);
+    }
+
     /**
      * Creates a new instance of JUMPCommand
      * @param messageType the type of the message to carry this command
@@ -113,6 +306,22 @@ public abstract class JUMPCommand {
 	this.messageType = messageType;
         this.id = id;
         this.data = data;
+        this.values = data;
+    }
+    
+    /**
+     * Creates a new instance of JUMPCommand with typed data
+     * @param messageType the type of the message to carry this command
+     * @param id the type of the command
+     * @param values the data carried in the command, each element a
+     *        <code>String</code>, <code>Integer</code>, <code>Long</code>,
+     *        <code>Boolean</code>, <code>byte[]</code> or <code>null</code>
+     */
+    JUMPCommand(String messageType,
+		String id, Object[] values) {
+	this.messageType = messageType;
+        this.id = id;
+        this.values = checkValues(values);
     }
     
     //
@@ -121,14 +330,102 @@ public abstract class JUMPCommand {
     protected JUMPCommand() {
     }
 
-    private void setMessageType(String mType) {
-	this.messageType = mType;
+    /**
+     * Sets whether commands are serialized in the legacy format of a
+     * UTF id followed by a UTF array, for peers that do not understand
+     * the typed format.  Typed data is sent as strings in the legacy
+     * format.  Both formats are accepted when deserializing regardless
+     * of this setting.
+     */
+    public static void setLegacyEncoding(boolean legacy) {
+	legacyEncoding = legacy;
+    }
+
+    public static boolean isLegacyEncoding() {
+	return legacyEncoding;
     }
 
     public String[] getCommandData() {
+	if (this.data == null && this.values != null) {
+	    String[] s = new String[this.values.length];
+	    for (int i = 0; i < s.length; i++) {
+		s[i] = toString(this.values[i]);
+	    }
+	    this.data = s;
+	}
         return this.data;
     }
     
+    /**
+     * Returns the number of data elements in this command.
+     */
+    public int getDataCount() {
+	return (this.values == null) ? 0 : this.values.length;
+    }
+
+    /**
+     * Returns data element <code>i</code> as a string.
+     */
+    public String getStringData(int i) {
+	return toString(this.values[i]);
+    }
+
+    /**
+     * Returns data element <code>i</code> as an int.  Data sent as
+     * a string by a legacy peer is parsed.
+     */
+    public int getIntData(int i) {
+	Object v = this.values[i];
+	if (v instanceof Integer) {
+	    return ((Integer)v).intValue();
+	}
+	return Integer.parseInt((String)v);
+    }
+
+    /**
+     * Returns data element <code>i</code> as a long.  Data sent as
+     * a string by a legacy peer is parsed.
+     */
+    public long getLongData(int i) {
+	Object v = this.values[i];
+	if (v instanceof Long) {
+	    return ((Long)v).longValue();
+	}
+	if (v instanceof Integer) {
+	    return ((Integer)v).intValue();
+	}
+	return Long.parseLong((String)v);
+    }
+
+    /**
+     * Returns data element <code>i</code> as a boolean.  Data sent as
+     * a string by a legacy peer is parsed.
+     */
+    public boolean getBooleanData(int i) {
+	Object v = this.values[i];
+	if (v instanceof Boolean) {
+	    return ((Boolean)v).booleanValue();
+	}
+	return "true".equalsIgnoreCase((String)v);
+    }
+
+    /**
+     * Returns data element <code>i</code> as a byte array.  Data sent
+     * as a string by a legacy peer has one byte per character.
+     */
+    public byte[] getBytesData(int i) {
+	Object v = this.values[i];
+	if (v == null || v instanceof byte[]) {
+	    return (byte[])v;
+	}
+	char[] c = ((String)v).toCharArray();
+	byte[] b = new byte[c.length];
+	for (int j = 0; j < c.length; j++) {
+	    b[j] = (byte)c[j];
+	}
+	return b;
+    }
+
     public String getCommandId() {
         return this.id;
     }
@@ -137,11 +434,25 @@ public abstract class JUMPCommand {
         return this.messageType;
     }
     
+    /**
+     * Returns the priority of the message carrying this command, or
+     * <code>JUMPMessage.PRIORITY_NORMAL</code> to use that of its
+     * message type.  Subclasses return
+     * <code>JUMPMessage.PRIORITY_CONTROL</code> for commands that
+     * must not wait behind other messages.
+     */
+    public int getPriority() {
+        return JUMPMessage.PRIORITY_NORMAL;
+    }
+    
     /**
      * Convert this command into an outgoing message
      */
     public final JUMPOutgoingMessage toMessage(JUMPMessagingService s) {
 	JUMPOutgoingMessage m = s.newOutgoingMessage(this.messageType);
+	if (getPriority() != JUMPMessage.PRIORITY_NORMAL) {
+	    m.setPriority(getPriority());
+	}
 	this.serializeInto(m);
 	return m;
     }
@@ -156,6 +467,44 @@ public abstract class JUMPCommand {
 	return m;
     }
 
+    /**
+     * Registers <code>factory</code> to make the commands of class
+     * <code>commandClass</code>, and the commands with id
+     * <code>commandId</code> that are decoded with
+     * {@link #fromMessage(JUMPMessage)}.  A later registration for the
+     * same id or class replaces an earlier one.
+     */
+    public static void registerFactory(String commandId, Class commandClass,
+				       Factory factory) {
+	idFactories.put(commandId, factory);
+	classFactories.put(commandClass, factory);
+    }
+
+    /**
+     * Creates a new instance of <code>JUMPCommand</code> by deserializing
+     * the data from the <code>JUMPMessage</code>.  The class of the
+     * command is the one registered for its command id, or
+     * <code>JUMPRequest</code> if there is none.  A handler can use
+     * this to decode a message once, and then look at its id and cast
+     * it to the class that goes with the id.
+     */
+    public static JUMPCommand fromMessage(JUMPMessage message) {
+	JUMPMessageReader r = new JUMPMessageReader(message);
+	String id = readCommandId(r, r.getInt());
+	Factory factory = null;
+	if (id != null) {
+	    factory = (Factory)idFactories.get(id);
+	}
+	JUMPCommand c;
+	if (factory != null) {
+	    c = factory.newCommand();
+	} else {
+	    c = new JUMPRequest();
+	}
+        c.deserializeFrom(message);
+        return c;
+    }
+
     /**
      * Creates a new instance of <code>JUMPCommand</code> by deserializing
      * the data from the <code>JUMPMessage</code>
@@ -163,16 +512,21 @@ public abstract class JUMPCommand {
     public static JUMPCommand fromMessage(JUMPMessage message,
 					  Class commandClass) {
 	JUMPCommand c;
-	try {
-	    c = (JUMPCommand)commandClass.newInstance();
-	} catch (InstantiationException e) {
-	    e.printStackTrace();
-	    return null;
-	} catch (IllegalAccessException e) {
-	    e.printStackTrace();
-	    return null;
+	Factory factory = (Factory)classFactories.get(commandClass);
+	if (factory != null) {
+	    c = factory.newCommand();
+	} else {
+	    // Not registered, fall back to reflection.
+	    try {
+		c = (JUMPCommand)commandClass.newInstance();
+	    } catch (InstantiationException e) {
+		e.printStackTrace();
+		return null;
+	    } catch (IllegalAccessException e) {
+		e.printStackTrace();
+		return null;
+	    }
 	}
-	c.setMessageType(message.getType());
         c.deserializeFrom(message);
         return c;
     }
@@ -188,8 +542,41 @@ public abstract class JUMPCommand {
      * using <code>JUMPMessage.get*</code> methods.
      */
     protected void deserializeFrom(JUMPMessageReader message) {
-	this.id = message.getUTF();
-	this.data = message.getUTFArray();
+	int head = message.getInt();
+	this.id = readCommandId(message, head);
+	if ((head & TYPED_MARKER_MASK) != TYPED_MARKER) {
+	    // Legacy format.  Some senders stop after the id, which
+	    // reads as no data.
+	    if (message.hasRemaining()) {
+		this.data = message.getUTFArray();
+	    } else {
+		this.data = new String[0];
+	    }
+	    this.values = this.data;
+	    return;
+	}
+	this.data = null;
+	this.values = readValues(message);
+    }
+
+    //
+    // Read the command id, in either format, that follows
+    // <code>head</code>, the first int of a command.
+    //
+    private static String readCommandId(JUMPMessageReader message, int head) {
+	if ((head & TYPED_MARKER_MASK) != TYPED_MARKER) {
+	    // Legacy format, head is the length of the UTF id
+	    return message.getUTF(head);
+	}
+	int code = head & ~TYPED_MARKER_MASK;
+	if (code == UTF_ID) {
+	    return message.getUTF();
+	} else if (code == NULL_ID) {
+	    return null;
+	} else if (code < COMMAND_IDS.length) {
+	    return COMMAND_IDS[code];
+	}
+	throw new IllegalArgumentException("Unknown command code " + code);
     }
     
     /** 
@@ -197,7 +584,117 @@ public abstract class JUMPCommand {
      * using <code>JUMPOutgoingMessage.add*</code> methods.
      */
     protected void serializeInto(JUMPOutgoingMessage message) {
-	message.addUTF(this.id);
-	message.addUTFArray(this.data);
+	if (legacyEncoding) {
+	    message.addUTF(this.id);
+	    message.addUTFArray(getCommandData());
+	    return;
+	}
+	if (this.id == null) {
+	    message.addInt(TYPED_MARKER | NULL_ID);
+	} else {
+	    Integer code = (Integer)commandCodes.get(this.id);
+	    if (code != null) {
+		message.addInt(TYPED_MARKER | code.intValue());
+	    } else {
+		message.addInt(TYPED_MARKER | UTF_ID);
+		message.addUTF(this.id);
+	    }
+	}
+	writeValues(message, this.values);
+    }
+
+    private static void writeValues(JUMPOutgoingMessage message,
+				    Object[] values) {
+	if (values == null) {
+	    message.addInt(-1);
+	    return;
+	}
+	message.addInt(values.length);
+	for (int i = 0; i < values.length; i++) {
+	    Object v = values[i];
+	    if (v == null) {
+		message.addByte(TAG_NULL);
+	    } else if (v instanceof String) {
+		message.addByte(TAG_STRING);
+		message.addUTF((String)v);
+	    } else if (v instanceof Integer) {
+		message.addByte(TAG_INT);
+		message.addInt(((Integer)v).intValue());
+	    } else if (v instanceof Boolean) {
+		message.addByte(TAG_BOOLEAN);
+		message.addByte(((Boolean)v).booleanValue() ? (byte)1 : (byte)0);
+	    } else if (v instanceof Long) {
+		message.addByte(TAG_LONG);
+		message.addLong(((Long)v).longValue());
+	    } else {
+		message.addByte(TAG_BYTES);
+		message.addByteArray((byte[])v);
+	    }
+	}
+    }
+
+    private static Object[] readValues(JUMPMessageReader message) {
+	int len = message.getInt();
+	if (len == -1) {
+	    return null;
+	}
+	Object[] values = new Object[len];
+	for (int i = 0; i < len; i++) {
+	    byte tag = message.getByte();
+	    switch (tag) {
+	    case TAG_NULL:
+		break;
+	    case TAG_STRING:
+		values[i] = message.getUTF();
+		break;
+	    case TAG_INT:
+		values[i] = new Integer(message.getInt());
+		break;
+	    case TAG_BOOLEAN:
+		values[i] = (message.getByte() != 0) ? Boolean.TRUE
+						     : Boolean.FALSE;
+		break;
+	    case TAG_LONG:
+		values[i] = new Long(message.getLong());
+		break;
+	    case TAG_BYTES:
+		values[i] = message.getByteArray();
+		break;
+	    default:
+		throw new IllegalArgumentException("Unknown data tag " + tag);
+	    }
+	}
+	return values;
+    }
+
+    private static Object[] checkValues(Object[] values) {
+	if (values != null) {
+	    for (int i = 0; i < values.length; i++) {
+		Object v = values[i];
+		if (v != null && !(v instanceof String) &&
+		    !(v instanceof Integer) && !(v instanceof Long) &&
+		    !(v instanceof Boolean) && !(v instanceof byte[])) {
+		    throw new IllegalArgumentException(
+			"Unsupported command data " + v.getClass().getName());
+		}
+	    }
+	}
+	return values;
+    }
+
+    private static String toString(Object v) {
+	if (v == null || v instanceof String) {
+	    return (String)v;
+	}
+	if (v instanceof byte[]) {
+	    // One character per byte, as getBytesData() expects
+	    byte[] b = (byte[])v;
+	    char[] c = new char[b.length];
+	    for (int i = 0; i < b.length; i++) {
+		c[i] = (char)(b[i] & 0xff);
+	    }
+	    return new String(c);
+	}
+	return v.toString();
     }
 }
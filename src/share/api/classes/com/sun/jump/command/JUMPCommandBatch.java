@@ -0,0 +1,117 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jump.command;
+
+import com.sun.jump.message.JUMPMessage;
+import com.sun.jump.message.JUMPMessageReader;
+import com.sun.jump.message.JUMPMessagingService;
+import com.sun.jump.message.JUMPOutgoingMessage;
+
+import java.util.Vector;
+
+/**
+ * <code>JUMPCommandBatch</code> packs several commands into one
+ * message, so a burst of small commands to one process costs one trip
+ * through the message queue instead of one each.
+ * <p>
+ * The receiving message dispatcher unpacks the batch and dispatches
+ * each command to the handlers of its own message type, as if it had
+ * been sent on its own.  The responses the handlers send are collected
+ * and sent back together as one response to the batch, with one entry
+ * per command, in order.  An entry is null if no handler responded to
+ * its command.  Handlers must respond before they return for their
+ * response to be included.
+ * <pre>
+ *   JUMPCommandBatch batch = new JUMPCommandBatch();
+ *   batch.add(request1);
+ *   batch.add(request2);
+ *   JUMPMessage r = target.sendMessage(batch.toMessage(thisProcess), 0L);
+ *   JUMPMessage[] responses = JUMPCommandBatch.getResponses(r, thisProcess);
+ * </pre>
+ */
+public class JUMPCommandBatch {
+    /**
+     * The message type of a batch, and of the response to it.
+     */
+    public static final String MESSAGE_TYPE = "mvm/batch";
+
+    private final Vector commands = new Vector();
+
+    public JUMPCommandBatch() {
+    }
+
+    /**
+     * Add a command to the end of the batch.
+     */
+    public void add(JUMPCommand command) {
+	commands.add(command);
+    }
+
+    /**
+     * Returns the number of commands in the batch.
+     */
+    public int size() {
+	return commands.size();
+    }
+
+    /**
+     * Returns command <code>i</code> of the batch.
+     */
+    public JUMPCommand get(int i) {
+	return (JUMPCommand)commands.get(i);
+    }
+
+    /**
+     * Convert this batch into an outgoing message.  Each command is
+     * packed as the message it would have been sent as on its own.
+     */
+    public JUMPOutgoingMessage toMessage(JUMPMessagingService s) {
+	JUMPOutgoingMessage m = s.newOutgoingMessage(MESSAGE_TYPE);
+	m.addInt(commands.size());
+	for (int i = 0; i < commands.size(); i++) {
+	    JUMPOutgoingMessage command = get(i).toMessage(s);
+	    m.addMessage(command);
+	    command.release();
+	}
+	return m;
+    }
+
+    /**
+     * Unpack the response to a batch.  Element i is the response to
+     * command i, or null if there was none.
+     */
+    public static JUMPMessage[] getResponses(JUMPMessage response,
+					     JUMPMessagingService s) {
+	JUMPMessageReader r = new JUMPMessageReader(response);
+	JUMPMessage[] responses = new JUMPMessage[r.getInt()];
+	for (int i = 0; i < responses.length; i++) {
+	    byte[] raw = r.getByteArray();
+	    if (raw != null) {
+		responses[i] = s.newMessage(raw);
+	    }
+	}
+	return responses;
+    }
+}
@@ -154,6 +154,15 @@ public class JUMPExecutiveLifecycleRequest extends JUMPRequest {
 	super(MESSAGE_TYPE, id, args);
     }
 
+    /**
+     * Create a new lifecycle request on an app with typed arguments
+     * @param id The id of the lifecycle request
+     * @param args arguments, such as an <code>Integer</code> app id
+     */
+    public JUMPExecutiveLifecycleRequest(String id, Object[] args) {
+	super(MESSAGE_TYPE, id, args);
+    }
+
     /**
      * Create a new lifecycle request on an app
      * @param id The id of the lifecycle request
@@ -166,6 +175,19 @@ public class JUMPExecutiveLifecycleRequest extends JUMPRequest {
 	this.appBytes = appBytes;
     }
 
+    /**
+     * Destroying and pausing are sent as control messages, so they
+     * are not held up by other traffic to the isolate.
+     */
+    public int getPriority() {
+	String id = getCommandId();
+	if (ID_DESTROY_ISOLATE.equals(id) || ID_DESTROY_APP.equals(id) ||
+	    ID_PAUSE_APP.equals(id)) {
+	    return JUMPMessage.PRIORITY_CONTROL;
+	}
+	return super.getPriority();
+    }
+
     public static JUMPCommand fromMessage(JUMPMessage message) {
 	return JUMPCommand.fromMessage(message,
 				       JUMPExecutiveLifecycleRequest.class);
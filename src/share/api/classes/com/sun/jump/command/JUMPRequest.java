@@ -64,6 +64,15 @@ public class JUMPRequest extends JUMPCommand {
         super(messageType, id, args);
     }
     
+    /**
+     * Creates a request with typed arguments, each a <code>String</code>,
+     * <code>Integer</code>, <code>Long</code>, <code>Boolean</code>,
+     * <code>byte[]</code> or <code>null</code>.
+     */
+    public JUMPRequest(String messageType, String id, Object[] args){
+        super(messageType, id, args);
+    }
+    
     public String[] getArgs() 
     {
 	return this.getCommandData();
@@ -72,4 +72,13 @@ public class JUMPResponse extends JUMPCommand {
     public JUMPResponse(String messageType, String id, String[] args){
         super(messageType, id, args);
     }
+    
+    /**
+     * Creates a response with typed data, each element a
+     * <code>String</code>, <code>Integer</code>, <code>Long</code>,
+     * <code>Boolean</code>, <code>byte[]</code> or <code>null</code>.
+     */
+    public JUMPResponse(String messageType, String id, Object[] args){
+        super(messageType, id, args);
+    }
 }
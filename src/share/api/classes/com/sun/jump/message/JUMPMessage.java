@@ -46,6 +46,10 @@ import com.sun.jump.os.JUMPOSInterface;
  *   <li>Sender - The sender of the message. If there are any responses to
  *       be sent, the sender's outhoing queue is used to send it.
  *       The sender is {@link com.sun.jump.message.JUMPMessagable}</li>
+ *   <li>Priority - {@link #PRIORITY_NORMAL} or {@link #PRIORITY_CONTROL}.
+ *       Control messages are received and dispatched ahead of normal
+ *       ones.  Flags share the int with the priority, above its low
+ *       16 bits</li>
  *   <li>Message Type - An arbitrary string that identifies the message. This
  *       is typically used to tag or classify the message</li>
  * </ul>
@@ -56,6 +60,25 @@ import com.sun.jump.os.JUMPOSInterface;
  *
  */
 public abstract class JUMPMessage {
+    /**
+     * Priority of ordinary messages.
+     */
+    public static final int PRIORITY_NORMAL = 0;
+
+    /**
+     * Priority of control messages, like lifecycle requests, which
+     * must not wait behind a backlog of ordinary messages.
+     */
+    public static final int PRIORITY_CONTROL = 1;
+
+    /*
+     * The priority of a message is the low bits of the int in its
+     * header that also holds these flags.  FLAG_FRAGMENT marks a
+     * message that carries one fragment of a larger one.
+     */
+    protected static final int PRIORITY_MASK = 0xffff;
+    protected static final int FLAG_FRAGMENT = 0x10000;
+
     protected int messageDataOffset;
     protected int messageMarkOffset;
     protected int messageUserDataOffset;
@@ -68,6 +91,20 @@ public abstract class JUMPMessage {
     protected String returnType;
     protected int id;
     protected int responseId = -1;
+    protected int priority = PRIORITY_NORMAL;
+    protected int flags = 0;
+
+    /*
+     * A message reassembled from fragments keeps its data in the
+     * fragments it arrived in, rather than in one large array.  In that
+     * case messageDataChunks holds every fragment (messageDataBytes is
+     * the first one), and user data in chunk i lies between
+     * messageDataChunkOffsets[i] and messageDataChunkLimits[i].
+     * These are null for ordinary messages.
+     */
+    protected byte[][] messageDataChunks;
+    protected int[] messageDataChunkOffsets;
+    protected int[] messageDataChunkLimits;
 
     /**
      * Creates a new instance of JUMPMessage when
@@ -117,6 +154,14 @@ public abstract class JUMPMessage {
         return this.responseId;
     }
     
+    /**
+     * Returns the message priority, {@link #PRIORITY_NORMAL} or
+     * {@link #PRIORITY_CONTROL}.
+     */
+    public int getPriority() {
+        return this.priority;
+    }
+    
     /**
      * Return payload data offset
      */
@@ -154,8 +199,11 @@ public abstract class JUMPMessage {
 	this.id = r.getInt();
 	this.responseId = r.getInt();
 	readMessageSender(r.getInt());
-	this.returnType = r.getUTF();	
-	this.type = r.getUTF();	
+	int priorityAndFlags = r.getInt();
+	this.priority = priorityAndFlags & PRIORITY_MASK;
+	this.flags = priorityAndFlags & ~PRIORITY_MASK;
+	this.returnType = MessageTypeTable.read(r);
+	this.type = MessageTypeTable.read(r);
 	// Update the offsets to point past the header
 	this.messageDataOffset = r.messageDataOffset;
 	this.messageUserDataOffset = messageDataOffset;
@@ -33,6 +33,26 @@ import java.io.IOException;
  */
 public interface JUMPMessageDispatcher {
 
+    /**
+     * Dispatch policy under which the handlers for a message type are
+     * given its messages one at a time, in the order they were
+     * received.  This is the default.
+     */
+    public static final int DISPATCH_ORDERED_PER_TYPE = 0;
+
+    /**
+     * Dispatch policy under which messages from one sender process are
+     * handled one at a time, in the order they were received, while
+     * messages from different senders may be handled concurrently.
+     */
+    public static final int DISPATCH_ORDERED_PER_SENDER = 1;
+
+    /**
+     * Dispatch policy under which messages may be handled concurrently
+     * and in any order.
+     */
+    public static final int DISPATCH_UNORDERED = 2;
+
     /**
      * Registers the message type for direct receipt via
      * <code>waitForMessage()</code>. This is akin to a reservation of
@@ -66,9 +86,9 @@ public interface JUMPMessageDispatcher {
 	throws JUMPMessageDispatcherTypeException, JUMPTimedOutException, IOException;
     
     /**
-     * Registers the message handler for the message type.  This
-     * starts a daemon thread which will persist until all
-     * handlers for the message type have been cancelled.  
+     * Registers the message handler for the message type.  Handlers
+     * are called on threads shared by all message types, as allowed
+     * by the dispatch policy of the message type.
      *
      * @return
      * opaque object that represents the registration. The token can be
@@ -85,6 +105,32 @@ public interface JUMPMessageDispatcher {
 	throws JUMPMessageDispatcherTypeException, IOException;
     
 
+    /**
+     * Sets the dispatch policy for the message type, one of
+     * <code>DISPATCH_ORDERED_PER_TYPE</code>,
+     * <code>DISPATCH_ORDERED_PER_SENDER</code> or
+     * <code>DISPATCH_UNORDERED</code>.  The policy applies to messages
+     * received after the call, and remains in effect even if all
+     * handlers for the type are cancelled and registered again.
+     *
+     * @throws IllegalArgumentException if <code>policy</code> is not
+     * one of the dispatch policies.
+     */
+    public void setDispatchPolicy(String messageType, int policy);
+
+    /**
+     * Sets the priority of the message type,
+     * <code>JUMPMessage.PRIORITY_NORMAL</code> or
+     * <code>JUMPMessage.PRIORITY_CONTROL</code>.  Messages of the type
+     * created from now on get this priority, and received messages of
+     * the type are taken off their queue and dispatched ahead of those
+     * of lower priority.
+     *
+     * @throws IllegalArgumentException if <code>priority</code> is not
+     * one of the message priorities.
+     */
+    public void setPriority(String messageType, int priority);
+
     /**
      * Removes the registration for the message type. This applies to
      * direct registrations as well as handler registrations.
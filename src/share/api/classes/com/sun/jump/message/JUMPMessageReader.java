@@ -30,10 +30,16 @@ import java.io.IOException;
 
 /**
  * <code>JUMPMessageReader</code> is used to read data from a message.
+ * For a message reassembled from fragments, the reader walks the
+ * fragments in turn, so the message data is never gathered into
+ * one array.
  */
 public class JUMPMessageReader {
-    private final byte[] messageDataBytes;
+    private final JUMPMessage message;
     private final int messageMarkOffset;
+    private byte[] messageDataBytes;
+    private int messageDataLimit;
+    private int chunk;
     int messageDataOffset;  // Package private access for JUMPMessage
 
     /**
@@ -48,13 +54,40 @@ public class JUMPMessageReader {
      * start reading from.
      */
     JUMPMessageReader(JUMPMessage m, int offset) {
-	this.messageDataBytes    = m.messageDataBytes;
+	this.message             = m;
 	// Context starts from user data offset, past the header
 	this.messageMarkOffset   = offset;
-	this.messageDataOffset   = offset;
+	reset();
+    }
+
+    //
+    // Move on to the next fragment of a reassembled message.
+    //
+    private void nextChunk() {
+	byte[][] chunks = message.messageDataChunks;
+	if (chunks == null || chunk + 1 >= chunks.length) {
+	    throw new ArrayIndexOutOfBoundsException(
+		"Read past end of message");
+	}
+	chunk++;
+	messageDataBytes  = chunks[chunk];
+	messageDataOffset = message.messageDataChunkOffsets[chunk];
+	messageDataLimit  = message.messageDataChunkLimits[chunk];
+    }
+
+    //
+    // Whether n bytes can be read from the current chunk.
+    //
+    private boolean available(int n) {
+	return messageDataLimit - messageDataOffset >= n;
     }
     
     public int getInt() {
+	if (!available(4)) {
+	    // Spans fragments
+	    return ((getByte() & 0xff) << 24) + ((getByte() & 0xff) << 16) +
+		((getByte() & 0xff) << 8) + (getByte() & 0xff);
+	}
 	// Get int at messageDataOffset
 	int b1 = messageDataBytes[messageDataOffset]   & 0xff;
 	int b2 = messageDataBytes[messageDataOffset+1] & 0xff;
@@ -70,6 +103,10 @@ public class JUMPMessageReader {
     }
 
     public long getLong() {
+	if (!available(8)) {
+	    // Spans fragments
+	    return ((long)getInt() << 32) + (getInt() & 0xffffffffL);
+	}
         long l = (((long)messageDataBytes[messageDataOffset+0] << 56) +
 		  ((long)(messageDataBytes[messageDataOffset+1] & 255) << 48) +
 		  ((long)(messageDataBytes[messageDataOffset+2] & 255) << 40) +
@@ -82,37 +119,179 @@ public class JUMPMessageReader {
 	return l;
     }
 
+    /**
+     * Returns whether there is anything left to read in the message.
+     */
+    public boolean hasRemaining() {
+	if (available(1)) {
+	    return true;
+	}
+	byte[][] chunks = message.messageDataChunks;
+	return chunks != null && chunk + 1 < chunks.length;
+    }
+
     public byte getByte() {
+	while (!available(1)) {
+	    nextChunk();
+	}
 	byte b = messageDataBytes[messageDataOffset];
 	messageDataOffset += 1;
 	return b;
     }
 
-    private char[] fromBytes(byte[] ascii) 
-    {
-	int n = ascii.length;
-        char[] value = new char[n-1]; // Leave out the null termination
+    /**
+     * Read a string added with <code>JUMPOutgoingMessage.addUTF()</code>.
+     *
+     * @throws IllegalArgumentException if the string is not well
+     *         formed modified UTF-8
+     */
+    public String getUTF() {
+	return getUTF(getInt());
+    }
 
-	for (int i = 0; i < n-1; i++) {
-	    value[i] = (char) (ascii[i] & 0xff);
+    /**
+     * Read a string whose length, the number of bytes including the
+     * terminating 0, has already been read.
+     *
+     * @throws IllegalArgumentException if the string is not well
+     *         formed modified UTF-8
+     */
+    public String getUTF(int len) {
+	if (len == -1) {
+	    return null;
+	}
+	if (len < 1) {
+	    throw new IllegalArgumentException("Malformed UTF string");
 	}
-	return value;
+	if (!available(len)) {
+	    // Spans fragments
+	    return decodeUTF(getByteArray(len), 0, len - 1);
+	}
+	String s = decodeUTF(messageDataBytes, messageDataOffset, len - 1);
+	messageDataOffset += len;
+	return s;
     }
-    
-    public String getUTF() {
-	// FIXME: GEt string in Java-modified utf-8
-	// Re-use implementation in DataInputStream.readUTF().
-	return new String(fromBytes(getByteArray()));
+
+    //
+    // Recently read short ASCII strings, such as command ids, by a
+    // hash of their length and a few of their bytes, so reading one
+    // again makes no garbage.  Racy, but a slot only ever holds a
+    // complete String.
+    //
+    private static final int UTF_CACHE_SIZE = 64;	// a power of 2
+    private static final int UTF_CACHE_MAX_LENGTH = 32;
+    private static final String[] utfCache = new String[UTF_CACHE_SIZE];
+
+    //
+    // Decode the n bytes at b[off] from modified UTF-8.  b[off + n]
+    // must be the terminating 0.
+    //
+    private static String decodeUTF(byte[] b, int off, int n) {
+	if (b[off + n] != 0) {
+	    throw new IllegalArgumentException("Malformed UTF string");
+	}
+	int slot = -1;
+	if (n > 0 && n <= UTF_CACHE_MAX_LENGTH) {
+	    slot = (n * 31 + b[off] * 7 + b[off + (n >> 1)] * 3 +
+		    b[off + n - 1]) & (UTF_CACHE_SIZE - 1);
+	    String cached = utfCache[slot];
+	    // Only ASCII is cached, so a match is ASCII too
+	    if (cached != null && isASCII(cached, b, off, n)) {
+		return cached;
+	    }
+	}
+
+	// ASCII, which is all most strings are
+	char[] chars = new char[n];
+	int bad = 0;
+	for (int i = 0; i < n; i++) {
+	    int c = b[off + i];
+	    chars[i] = (char)c;
+	    bad |= c - 1;		// negative unless 1 <= c <= 0x7f
+	}
+	if (bad < 0) {
+	    return decodeNonASCII(b, off, n);
+	}
+	String s = new String(chars);
+	if (slot >= 0) {
+	    utfCache[slot] = s;
+	}
+	return s;
+    }
+
+    //
+    // Decode a string which is not all ASCII.
+    //
+    private static String decodeNonASCII(byte[] b, int off, int n) {
+	char[] chars = new char[n];
+	int count = 0;
+	int i = 0;
+	while (i < n) {
+	    int c = b[off + i] & 0xff;
+	    if (c != 0 && c < 0x80) {
+		chars[count++] = (char)c;
+		i += 1;
+	    } else if ((c & 0xe0) == 0xc0) {
+		if (i + 1 >= n) {
+		    throw new IllegalArgumentException("Malformed UTF string");
+		}
+		int c2 = b[off + i + 1];
+		if ((c2 & 0xc0) != 0x80) {
+		    throw new IllegalArgumentException("Malformed UTF string");
+		}
+		chars[count++] = (char)(((c & 0x1f) << 6) | (c2 & 0x3f));
+		i += 2;
+	    } else if ((c & 0xf0) == 0xe0) {
+		if (i + 2 >= n) {
+		    throw new IllegalArgumentException("Malformed UTF string");
+		}
+		int c2 = b[off + i + 1];
+		int c3 = b[off + i + 2];
+		if ((c2 & 0xc0) != 0x80 || (c3 & 0xc0) != 0x80) {
+		    throw new IllegalArgumentException("Malformed UTF string");
+		}
+		chars[count++] = (char)(((c & 0x0f) << 12) |
+					((c2 & 0x3f) << 6) | (c3 & 0x3f));
+		i += 3;
+	    } else {
+		throw new IllegalArgumentException("Malformed UTF string");
+	    }
+	}
+	return new String(chars, 0, count);
+    }
+
+    private static boolean isASCII(String s, byte[] b, int off, int n) {
+	if (s.length() != n) {
+	    return false;
+	}
+	for (int i = 0; i < n; i++) {
+	    if (s.charAt(i) != b[off + i]) {
+		return false;
+	    }
+	}
+	return true;
     }
 
     public byte[] getByteArray() {
-	int len = getInt();
+	return getByteArray(getInt());
+    }
+
+    private byte[] getByteArray(int len) {
 	if (len == -1) {
 	    return null;
 	}
 	byte[] b = new byte[len];
-	System.arraycopy(messageDataBytes, messageDataOffset, b, 0, len);
-	messageDataOffset += len;
+	int copied = 0;
+	while (true) {
+	    int n = Math.min(len - copied, messageDataLimit - messageDataOffset);
+	    System.arraycopy(messageDataBytes, messageDataOffset, b, copied, n);
+	    messageDataOffset += n;
+	    copied += n;
+	    if (copied == len) {
+		break;
+	    }
+	    nextChunk();
+	}
 	return b;
     }
 
@@ -129,7 +308,14 @@ public class JUMPMessageReader {
     }
 
     public void reset() {
+	chunk = 0;
+	messageDataBytes  = message.messageDataBytes;
 	messageDataOffset = messageMarkOffset;
+	if (message.messageDataChunks != null) {
+	    messageDataLimit = message.messageDataChunkLimits[0];
+	} else {
+	    messageDataLimit = messageDataBytes.length;
+	}
     }
 
 }
@@ -31,14 +31,28 @@ import com.sun.jump.os.JUMPOSInterface;
 
 /**
  * <code>JUMPOutgoingMessage</code> encapsulates a message that is filled in
- * with data.
+ * with data.  Once a message has been sent, its sender may call
+ * <code>release()</code> to let the next message reuse its buffer.
  */
 public abstract class JUMPOutgoingMessage extends JUMPMessage {
     private static final int MESSAGE_DATA_INITIAL_SIZE = 512;
+
+    //
+    // Buffers of released messages, for new messages to reuse.  At
+    // most pool.length of them are kept, none larger than
+    // maxBufferSize bytes.  Guarded by poolLock.
+    //
+    private static final Object poolLock = new Object();
+    private static byte[][] pool = new byte[16][];
+    private static int pooled = 0;
+    private static int maxBufferSize = MESSAGE_DATA_INITIAL_SIZE;
+
     protected JUMPMessagable sender;
     /* offset just past header in message, for sanity checking by native
        side */
     protected int headerOffset;
+    /* offset of the priority and flags in the header */
+    private int priorityOffset;
 
     /**
      * Creates a new instance of JUMPOutgoingMessage 
@@ -51,7 +65,7 @@ public abstract class JUMPOutgoingMessage extends JUMPMessage {
         this.type = type;
 	this.returnType = returnType;
         this.responseId = responseId;
-	this.messageDataBytes = new byte[MESSAGE_DATA_INITIAL_SIZE];
+	this.messageDataBytes = getBuffer();
 	this.messageDataOffset = MESSAGE_DATA_OFFSET;
 	composeHeader();
 	messageMarkOffset = messageDataOffset;
@@ -68,8 +82,10 @@ public abstract class JUMPOutgoingMessage extends JUMPMessage {
 	addInt(0);   // Room for message id
 	addInt(this.responseId);    
 	addInt(serializeMessagable(sender));   // Sender id
-	addUTF(this.returnType); // Add return type 
-	addUTF(this.type); // And add type
+	this.priorityOffset = messageDataOffset;
+	addInt(this.priority);
+	MessageTypeTable.write(this, this.returnType); // Add return type 
+	MessageTypeTable.write(this, this.type); // And add type
 	//
 	// Remember this offset so the native side can sanity check
 	//
@@ -78,6 +94,86 @@ public abstract class JUMPOutgoingMessage extends JUMPMessage {
 	// User data follows
     }
 
+    /**
+     * Set the message priority, {@link JUMPMessage#PRIORITY_NORMAL}
+     * or {@link JUMPMessage#PRIORITY_CONTROL}.  This may be done any
+     * time before the message is sent.
+     */
+    public void setPriority(int priority) {
+	if (priority != PRIORITY_NORMAL && priority != PRIORITY_CONTROL) {
+	    throw new IllegalArgumentException(
+		"Unknown message priority " + priority);
+	}
+	this.priority = priority;
+	writePriorityAndFlags();
+    }
+
+    /**
+     * Marks this message as one fragment of a larger message, for the
+     * receiving process to reassemble.
+     */
+    protected void setFragment() {
+	this.flags |= FLAG_FRAGMENT;
+	writePriorityAndFlags();
+    }
+
+    private void writePriorityAndFlags() {
+	int word = priority | flags;
+	messageDataBytes[priorityOffset+0] = (byte)(word >>> 24);
+	messageDataBytes[priorityOffset+1] = (byte)(word >>> 16);
+	messageDataBytes[priorityOffset+2] = (byte)(word >>>  8);
+	messageDataBytes[priorityOffset+3] = (byte)(word >>>  0);
+    }
+
+    /**
+     * Sets how many buffers of released messages are kept for reuse,
+     * and the size of the largest one kept.  This should be the size
+     * of the largest message that can be sent in one piece.  Buffers
+     * start small and grow with the messages they are reused for, up
+     * to that size, so messages that are never released cost no more
+     * than before.
+     */
+    public static void setBufferPool(int buffers, int maxSize) {
+	synchronized (poolLock) {
+	    pool = new byte[buffers][];
+	    pooled = 0;
+	    maxBufferSize = maxSize;
+	}
+    }
+
+    private static byte[] getBuffer() {
+	synchronized (poolLock) {
+	    if (pooled > 0) {
+		byte[] buffer = pool[--pooled];
+		pool[pooled] = null;
+		return buffer;
+	    }
+	}
+	return new byte[MESSAGE_DATA_INITIAL_SIZE];
+    }
+
+    private static void putBuffer(byte[] buffer) {
+	synchronized (poolLock) {
+	    if (buffer.length <= maxBufferSize && pooled < pool.length) {
+		pool[pooled++] = buffer;
+	    }
+	}
+    }
+
+    /**
+     * Gives the buffer of this message back for reuse.  Call this
+     * only once the message has been sent and nothing else refers to
+     * it; the message must not be used afterwards.  A message that
+     * is never released is simply garbage collected.
+     */
+    public void release() {
+	byte[] buffer = messageDataBytes;
+	if (buffer != null) {
+	    messageDataBytes = null;
+	    putBuffer(buffer);
+	}
+    }
+
     //
     // Make sure we can accommodate n more bytes.
     //
@@ -94,6 +190,7 @@ public abstract class JUMPOutgoingMessage extends JUMPMessage {
 	    byte[] newData = new byte[newCapacity];
 	    System.arraycopy(messageDataBytes, 0,
 			     newData, 0, messageDataOffset);
+	    putBuffer(messageDataBytes);
 	    messageDataBytes = newData;
 	}
     }
@@ -132,27 +229,73 @@ public abstract class JUMPOutgoingMessage extends JUMPMessage {
 	messageDataOffset += 1;
     }
 
-    private byte[] getBytes(String s) {
-	char[] val = s.toCharArray();
-	byte[] dst = new byte[val.length + 1]; // Leave room for null termination
-	for (int i = 0; i < val.length; i++) {
-            dst[i] = (byte)val[i];
-        }
-	return dst;
-    }
-
+    /**
+     * Add a string, as a byte array holding it in Java's modified
+     * UTF-8 followed by a terminating 0.  This is the encoding of
+     * <code>DataOutputStream.writeUTF()</code>, and the one the
+     * native messaging code uses.  The character 0 takes two bytes,
+     * so the only 0 byte is the terminating one.
+     */
     public void addUTF(String s) {
-	//
-	// FIXME
-	// Add string in Java-modified utf-8
-	// This code assumes ASCII (and so does the native layer)
-	// Example implementation in DataOutputStream.writeUTF().
-	//
 	if (s == null) {
 	    addByteArray(null);
-	} else {
-	    addByteArray(getBytes(s));
+	    return;
+	}
+	int len = s.length();
+	for (int i = 0; i < len; i++) {
+	    char c = s.charAt(i);
+	    if (c == 0 || c > 0x7f) {
+		addNonASCII(s);
+		return;
+	    }
+	}
+	// ASCII, which is copied straight into the buffer
+	addInt(len + 1);
+	ensureCapacity(len + 1);
+	byte[] dst = messageDataBytes;
+	int off = messageDataOffset;
+	for (int i = 0; i < len; i++) {
+	    dst[off + i] = (byte)s.charAt(i);
+	}
+	dst[off + len] = 0;
+	messageDataOffset = off + len + 1;
+    }
+
+    //
+    // Add s, which is not all ASCII.
+    //
+    private void addNonASCII(String s) {
+	int len = s.length();
+	int utflen = 0;
+	for (int i = 0; i < len; i++) {
+	    char c = s.charAt(i);
+	    if (c != 0 && c <= 0x7f) {
+		utflen += 1;
+	    } else if (c <= 0x7ff) {
+		utflen += 2;
+	    } else {
+		utflen += 3;
+	    }
 	}
+	addInt(utflen + 1);
+	ensureCapacity(utflen + 1);
+	byte[] dst = messageDataBytes;
+	int off = messageDataOffset;
+	for (int i = 0; i < len; i++) {
+	    char c = s.charAt(i);
+	    if (c != 0 && c <= 0x7f) {
+		dst[off++] = (byte)c;
+	    } else if (c <= 0x7ff) {
+		dst[off++] = (byte)(0xc0 | ((c >> 6) & 0x1f));
+		dst[off++] = (byte)(0x80 | (c & 0x3f));
+	    } else {
+		dst[off++] = (byte)(0xe0 | ((c >> 12) & 0x0f));
+		dst[off++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+		dst[off++] = (byte)(0x80 | (c & 0x3f));
+	    }
+	}
+	dst[off++] = 0;
+	messageDataOffset = off;
     }
 
     public void addByteArray(byte[] barr) {
@@ -167,6 +310,27 @@ public abstract class JUMPOutgoingMessage extends JUMPMessage {
 	messageDataOffset += barr.length;
     }
 
+    /**
+     * Add <code>length</code> bytes of <code>barr</code> starting at
+     * <code>offset</code>, to be read back as a byte array.
+     */
+    public void addByteArray(byte[] barr, int offset, int length) {
+	addInt(length);
+	ensureCapacity(length);
+	System.arraycopy(barr, offset, messageDataBytes, messageDataOffset,
+			 length);
+	messageDataOffset += length;
+    }
+
+    /**
+     * Add a whole message, header and all, to be read back with
+     * <code>JUMPMessageReader.getByteArray()</code> and turned back
+     * into a message with <code>JUMPMessagingService.newMessage()</code>.
+     */
+    public void addMessage(JUMPOutgoingMessage message) {
+	addByteArray(message.serialize(), 0, message.getLength());
+    }
+
     public void addUTFArray(String[] arr) {
 	if (arr == null) {
 	    addInt(-1);
@@ -178,10 +342,23 @@ public abstract class JUMPOutgoingMessage extends JUMPMessage {
 	}
     }
 
+    /**
+     * Returns the buffer holding the message.  The buffer may be longer
+     * than the message, only the first <code>getLength()</code> bytes
+     * are valid.
+     */
     public byte[] serialize() {
 	return messageDataBytes;
     }
 
+    /**
+     * Returns the number of valid bytes in the buffer returned by
+     * <code>serialize()</code>.
+     */
+    public int getLength() {
+	return messageDataOffset;
+    }
+
     protected abstract int serializeMessagable(JUMPMessagable messagable);
 
     // This should not be happening for an outgoing message constructed
@@ -0,0 +1,195 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jump.message;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes the type and return type strings in message headers.
+ * Well-known message types are sent as a single int, their negated
+ * index in <code>TYPES</code> less two, and per-thread response
+ * types as a marker followed by the thread number.  Any other string
+ * is sent as usual, with a length of -1 or more.  The native
+ * messaging layer has the same table and must be kept in step.
+ * <p>
+ * All JUMP processes are started from the same executive image, so
+ * the table is fixed at build time rather than negotiated between
+ * each pair of processes.  A negotiated table would also have to be
+ * in place before any message using it is read, which the per-type
+ * queues cannot guarantee.
+ * <p>
+ * Strings read from headers are canonical, so messages of one type
+ * all share one <code>String</code> instance for it.
+ */
+class MessageTypeTable {
+    /**
+     * Message types sent as an index.  New types must only be added
+     * at the end, in both this table and the native one.
+     */
+    private static final String[] TYPES = {
+	"mvm/server",
+	"mvm/client",
+	"mvm/lifecycle",
+	"mvm/ixc",
+	"mvm/batch",
+	"isolate/window",
+	"executive/window",
+	"jump/response/async",
+	"jump/dispatcher/wakeup",
+	"mvm/stats",
+	"mvm/ixc/call",
+	"mvm/ixc/send",
+    };
+
+    /** Header int that is followed by the number of a response thread */
+    static final int RESPONSE_THREAD = 0x80000000;
+
+    private static final String RESPONSE_THREAD_PREFIX = "<response-thread-";
+    private static final String RESPONSE_THREAD_SUFFIX = ">";
+
+    /** How many strings to remember in each of the maps below */
+    private static final int MAX_CACHED = 256;
+
+    // Maps String to the int[] written for it in a header.
+    // Guarded by itself.
+    private static final Map encodings = new HashMap();
+
+    // Maps Integer response thread number to its String type.
+    // Guarded by itself.
+    private static final Map threadTypes = new HashMap();
+
+    // Maps each String read inline from a header to its first instance.
+    // Guarded by itself.
+    private static final Map canonical = new HashMap();
+
+    static {
+	for (int i = 0; i < TYPES.length; i++) {
+	    encodings.put(TYPES[i], new int[] { -2 - i });
+	    canonical.put(TYPES[i], TYPES[i]);
+	}
+    }
+
+    /**
+     * Add <code>s</code> to the header of <code>m</code>.
+     */
+    static void write(JUMPOutgoingMessage m, String s) {
+	int[] code = null;
+	if (s != null) {
+	    synchronized (encodings) {
+		code = (int[])encodings.get(s);
+	    }
+	    if (code == null) {
+		code = encodeResponseThread(s);
+	    }
+	}
+	if (code == null) {
+	    m.addUTF(s);
+	    return;
+	}
+	for (int i = 0; i < code.length; i++) {
+	    m.addInt(code[i]);
+	}
+    }
+
+    /**
+     * Read a string written by <code>write()</code>.
+     */
+    static String read(JUMPMessageReader r) {
+	int head = r.getInt();
+	if (head >= -1) {
+	    return canonicalize(r.getUTF(head));
+	}
+	if (head == RESPONSE_THREAD) {
+	    return getResponseThreadType(r.getInt());
+	}
+	int index = -2 - head;
+	if (index >= TYPES.length) {
+	    throw new IllegalArgumentException(
+		"Unknown message type code " + head);
+	}
+	return TYPES[index];
+    }
+
+    //
+    // If s is a response thread type, as made by the native
+    // getThreadReturnType(), remember and return its encoding.
+    //
+    private static int[] encodeResponseThread(String s) {
+	if (!s.startsWith(RESPONSE_THREAD_PREFIX) ||
+	    !s.endsWith(RESPONSE_THREAD_SUFFIX)) {
+	    return null;
+	}
+	int n;
+	try {
+	    n = Integer.parseInt(
+		s.substring(RESPONSE_THREAD_PREFIX.length(),
+			    s.length() - RESPONSE_THREAD_SUFFIX.length()));
+	} catch (NumberFormatException e) {
+	    return null;
+	}
+	// Only if it reads back the same
+	if (!s.equals(RESPONSE_THREAD_PREFIX + n + RESPONSE_THREAD_SUFFIX)) {
+	    return null;
+	}
+	int[] code = new int[] { RESPONSE_THREAD, n };
+	synchronized (encodings) {
+	    if (encodings.size() < TYPES.length + MAX_CACHED) {
+		encodings.put(s, code);
+	    }
+	}
+	return code;
+    }
+
+    private static String getResponseThreadType(int n) {
+	Integer key = new Integer(n);
+	synchronized (threadTypes) {
+	    String s = (String)threadTypes.get(key);
+	    if (s == null) {
+		s = RESPONSE_THREAD_PREFIX + n + RESPONSE_THREAD_SUFFIX;
+		if (threadTypes.size() < MAX_CACHED) {
+		    threadTypes.put(key, s);
+		}
+	    }
+	    return s;
+	}
+    }
+
+    private static String canonicalize(String s) {
+	if (s == null) {
+	    return null;
+	}
+	synchronized (canonical) {
+	    String c = (String)canonical.get(s);
+	    if (c == null) {
+		c = s;
+		if (canonical.size() < TYPES.length + MAX_CACHED) {
+		    canonical.put(s, s);
+		}
+	    }
+	    return c;
+	}
+    }
+}
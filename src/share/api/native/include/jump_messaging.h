@@ -31,9 +31,10 @@
 
 #include "porting/JUMPTypes.h"
 
-/* Messages at this level are always JUMP_MESSAGE_BUFFER_SIZE bytes,
-   even though the porting layer allows variable length messages, and
-   possibly longer messages.  Clients can rely on being able to send
+/* Message buffers at this level are always JUMP_MESSAGE_BUFFER_SIZE
+   bytes, even though the porting layer allows possibly longer
+   messages.  Only the bytes actually used by a message are sent over
+   the porting layer.  Clients can rely on being able to send
    messages of this length.  There is an assert in jumpMessageStart to
    ensure JUMP_MESSAGE_BUFFER_SIZE <= JUMP_MESSAGE_QUEUE_MAX_MESSAGE_SIZE.
 
@@ -57,7 +58,8 @@ typedef enum {
     JUMP_OVERRUN = 7,
     JUMP_NEGATIVE_ARRAY_LENGTH = 8,
     JUMP_UNBLOCKED = 9,
-    JUMP_NO_SUCH_QUEUE = 10
+    JUMP_NO_SUCH_QUEUE = 10,
+    JUMP_BAD_STRING = 11
 } JUMPMessageStatusCode;
 
 /*
@@ -172,9 +174,22 @@ jumpMessageAddInt(JUMPOutgoingMessage m, int32 value);
 extern void
 jumpMessageAddLong(JUMPOutgoingMessage m, int64 value);
 
+/*
+ * Strings in messages are in Java's modified UTF-8, as produced by
+ * JNI's GetStringUTFChars().  Adding a string that is not sets the
+ * message's status to JUMP_BAD_STRING.
+ */
 extern void
 jumpMessageAddString(JUMPOutgoingMessage m, JUMPPlatformCString str);
 
+/*
+ * Add the length UTF-16 characters at chars as a string, encoded in
+ * modified UTF-8.  A NULL chars adds a null string.
+ */
+extern void
+jumpMessageAddUTF16(JUMPOutgoingMessage m, const uint16* chars,
+		    uint32 length);
+
 extern void
 jumpMessageAddStringArray(JUMPOutgoingMessage m,
 			  JUMPPlatformCString* strs,
@@ -258,14 +273,22 @@ jumpMessageGetLong(JUMPMessageReader* r);
 
 /*
  * If r->status != JUMP_SUCCESS, returns NULL.  Otherwise returns the
- * next string from the message or sets r->status to one of
- * JUMP_OVERRUN, JUMP_OUT_OF_MEMORY, or JUMP_NEGATIVE_ARRAY_LENGTH on
- * error. The caller should call free() on the return value once it is
- * done
+ * next string from the message, in modified UTF-8, or sets r->status
+ * to one of JUMP_OVERRUN, JUMP_OUT_OF_MEMORY,
+ * JUMP_NEGATIVE_ARRAY_LENGTH, or JUMP_BAD_STRING on error. The caller
+ * should call free() on the return value once it is done
  */
 extern JUMPPlatformCString
 jumpMessageGetString(JUMPMessageReader* r);
 
+/*
+ * Like jumpMessageGetString(), but returns the string decoded to
+ * UTF-16 and sets *length to its number of characters.  The caller
+ * should call free() on the return value once it is done.
+ */
+extern uint16*
+jumpMessageGetUTF16(JUMPMessageReader* r, uint32* length);
+
 /*
  * If r->status != JUMP_SUCCESS, returns NULL.  Otherwise returns the
  * string array at the current message position and sets *length to
@@ -294,6 +317,35 @@ jumpMessageGetType(JUMPMessage m);
 extern JUMPAddress*
 jumpMessageGetSender(JUMPMessage m);
 
+/*
+ * Get the request id of a message.  A response to a request carries
+ * the request's id.
+ */
+extern int32
+jumpMessageGetRequestId(JUMPMessage m);
+
+/*
+ * Message priorities.  Control messages, like lifecycle requests, are
+ * received and dispatched ahead of normal ones.  These must match
+ * the PRIORITY_ constants of com.sun.jump.message.JUMPMessage.
+ */
+#define JUMP_MESSAGE_PRIORITY_NORMAL	0
+#define JUMP_MESSAGE_PRIORITY_CONTROL	1
+
+/*
+ * Get the priority of a message.  A response has the priority of its
+ * request.
+ */
+extern int32
+jumpMessageGetPriority(JUMPMessage m);
+
+/*
+ * Set the priority of an outgoing message, which is
+ * JUMP_MESSAGE_PRIORITY_NORMAL unless it is a response.
+ */
+extern void
+jumpMessageSetPriority(JUMPOutgoingMessage m, int32 priority);
+
 /*
  * Message send api's.
  *
@@ -381,6 +433,24 @@ jumpMessageWaitFor(JUMPPlatformCString type,
 		   int32 timeout,
 		   JUMPMessageStatusCode *code);
 
+/*
+ * Block until a message is available for any of the 'count' message
+ * types, all of which must be registered.  Does not read the message;
+ * a subsequent jumpMessageWaitFor on the returned type will not
+ * block (assuming no other thread reads the message first).  This
+ * lets one thread listen for several message types.
+ *
+ * On success returns the index in types of a type with a message
+ * available and sets *code to JUMP_SUCCESS.  Otherwise returns -1 and
+ * sets *code to one of JUMP_OUT_OF_MEMORY, JUMP_TIMEOUT,
+ * JUMP_NO_SUCH_QUEUE, or JUMP_FAILURE.
+ */
+extern int
+jumpMessageWaitForAny(JUMPPlatformCString* types,
+		      int count,
+		      int32 timeout,
+		      JUMPMessageStatusCode *code);
+
 /**
  * Unblocks one thread blocking in, or about to call,
  * jumpMessageWaitFor (or jumpMessageSendSync, although this is not
@@ -440,15 +510,29 @@ extern JUMPMessageStatusCode
 jumpMessageRestart(void);
 
 /* Raw buffer operations */
+/*
+ * Allocate and free raw message buffers of JUMP_MESSAGE_BUFFER_SIZE
+ * bytes.  Freed buffers are pooled for reuse.  The contents of a newly
+ * allocated buffer are undefined.
+ */
+extern uint8*
+jumpMessageBufferAlloc(void);
+
+extern void
+jumpMessageBufferFree(uint8* buffer);
+
 /*
  * Create an outgoing message from a buffer that's been filled elsewhere.
- * The buffer is assumed to be JUMP_MESSAGE_BUFFER_SIZE bytes.
+ * The buffer must have been allocated with jumpMessageBufferAlloc(),
+ * and is owned by the message from then on.  Only the first 'length'
+ * bytes of the buffer are valid, and only those are sent.
  * On success, returns the JUMPOutgoingMessage and sets *code to
  * JUMP_SUCCESS.  On failure, returns NULL and sets *code to one
  * JUMP_OUT_OF_MEMORY, JUMP_OVERRUN, or JUMP_NEGATIVE_ARRAY_LENGTH.
  */
 extern JUMPOutgoingMessage
-jumpMessageNewOutgoingFromBuffer(uint8* buffer, int isResponse,
+jumpMessageNewOutgoingFromBuffer(uint8* buffer, uint32 length,
+				 int isResponse,
 				 JUMPMessageStatusCode *code);
 
 /*
@@ -457,6 +541,12 @@ jumpMessageNewOutgoingFromBuffer(uint8* buffer, int isResponse,
 extern uint8*
 jumpMessageGetData(JUMPMessage message);
 
+/*
+ * Get the number of valid bytes in the raw buffer of the message.
+ */
+extern uint32
+jumpMessageGetDataLength(JUMPMessage message);
+
 /*
  * Command handling -- TODO
  */
@@ -165,6 +165,28 @@ extern int jumpMessageQueueWaitForMessage(JUMPPlatformCString messageType,
 					  int32 timeout,
 					  JUMPMessageQueueStatusCode* code);
 
+/**
+ * Waits till a message is available in any of the 'count' message
+ * queues named in 'messageTypes'.  This call will <b>BLOCK</b> till
+ * there is a message available or a timeout happens after 'timeout'
+ * milliseconds.  A timeout of 0 means wait forever.  When several
+ * queues have messages available, the one with the highest priority
+ * set by jumpMessageQueueSetPriority is returned, and among queues
+ * of the same priority successive calls favor different queues so
+ * none is starved.  As with jumpMessageQueueWaitForMessage,
+ * a subsequent call to jumpMessageQueueReceive on the queue may still
+ * return JUMP_MQ_WOULD_BLOCK or JUMP_MQ_UNBLOCKED.
+ *
+ * @return If a message is available, returns the index in messageTypes
+ *         of its queue and sets *code to JUMP_MQ_SUCCESS.  Otherwise
+ *         returns -1 and sets *code to one of JUMP_MQ_NO_SUCH_QUEUE,
+ *         JUMP_MQ_TIMEOUT, JUMP_MQ_OUT_OF_MEMORY, or JUMP_MQ_FAILURE.
+ */
+extern int jumpMessageQueueWaitForMessages(JUMPPlatformCString* messageTypes,
+					   int count,
+					   int32 timeout,
+					   JUMPMessageQueueStatusCode* code);
+
 /**
  * Retrieves a message from this process message queue and copies the 
  * message data to the buffer passed. This method does not block if 
@@ -210,6 +232,47 @@ extern void jumpMessageQueueUnblock(JUMPPlatformCString messageType,
 extern int
 jumpMessageQueueGetFd(JUMPPlatformCString messageType);
 
+/*
+ * Returns the number of bytes of messages waiting to be read from the
+ * message queue for messageType, or -1 if there is no queue for the
+ * message type or the number cannot be found out.
+ */
+extern int
+jumpMessageQueueGetPendingBytes(JUMPPlatformCString messageType);
+
+/*
+ * Sets the priority of this process's message queue for messageType,
+ * which must have been created.  Higher numbers are more urgent, and
+ * queues start out with priority 0.  A queue keeps its priority
+ * until it is destroyed.
+ *
+ * Returns 0, or -1 if there is no queue for the message type.
+ */
+extern int
+jumpMessageQueueSetPriority(JUMPPlatformCString messageType, int priority);
+
+/*
+ * Returns the number of bytes of messages waiting to be read from
+ * process processId's message queue for messageType, or -1 if there
+ * is no such queue or the number cannot be found out.  Senders use
+ * this to see how far behind the receiver is.
+ */
+extern int
+jumpMessageQueueGetTargetPendingBytes(int processId,
+				      JUMPPlatformCString messageType);
+
+/*
+ * Gives every message queue created from now on a shared-memory ring
+ * of at least 'size' bytes, which senders on the same machine can
+ * write to without copying through the kernel.  A size of 0 turns
+ * rings off for queues created from now on.  A process only sends
+ * through the rings of other processes if it has rings turned on
+ * itself.  Implementations without rings may ignore this.
+ *
+ * Returns the ring size used, or 0 if queues will have no ring.
+ */
+extern int jumpMessageQueueSetRingSize(int size);
+
 /*
  * Close and destroy all message queues created by the process.
  */
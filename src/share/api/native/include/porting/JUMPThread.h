@@ -34,6 +34,63 @@ extern "C" {
  */
 extern int jumpThreadGetId(void);
 
+/**
+ * An opaque mutual exclusion lock.  Mutexes are not recursive.
+ */
+typedef struct _JUMPThreadMutex* JUMPThreadMutex;
+
+/**
+ * Creates a new mutex.  Returns NULL if the mutex cannot be created.
+ */
+extern JUMPThreadMutex jumpThreadMutexCreate(void);
+
+/**
+ * Destroys a mutex created by jumpThreadMutexCreate().
+ * The mutex must not be locked.
+ */
+extern void jumpThreadMutexDestroy(JUMPThreadMutex mutex);
+
+/**
+ * Locks the mutex, blocking until it is available.
+ */
+extern void jumpThreadMutexLock(JUMPThreadMutex mutex);
+
+/**
+ * Unlocks a mutex locked by this thread.
+ */
+extern void jumpThreadMutexUnlock(JUMPThreadMutex mutex);
+
+/**
+ * An opaque key for a thread-local value.  Each thread sees its own
+ * value for the key, which is NULL until the thread sets it.
+ */
+typedef struct _JUMPThreadLocal* JUMPThreadLocal;
+
+/**
+ * Creates a new thread-local key.  When a thread with a non-NULL
+ * value for the key exits, <code>destructor</code> is called with the
+ * value, if the platform supports it.  Returns NULL if the key cannot
+ * be created.
+ */
+extern JUMPThreadLocal jumpThreadLocalCreate(void (*destructor)(void*));
+
+/**
+ * Destroys a key created by jumpThreadLocalCreate().  Destructors are
+ * not called for values still set.
+ */
+extern void jumpThreadLocalDestroy(JUMPThreadLocal key);
+
+/**
+ * Returns this thread's value for the key.
+ */
+extern void* jumpThreadLocalGet(JUMPThreadLocal key);
+
+/**
+ * Sets this thread's value for the key.  Returns 0 on success, -1 on
+ * failure.
+ */
+extern int jumpThreadLocalSet(JUMPThreadLocal key, void* value);
+
 #if defined __cplusplus 
 }
 #endif /* __cplusplus */
@@ -42,12 +42,19 @@ struct _JUMPMessageHeader {
     uint32 messageId;
     int32 requestId;
     JUMPReturnAddress sender;
+    int32 priority;
     JUMPPlatformCString type;
 };
 
 
 #define jumpMessagingInitialized (1)
 
+/*
+ * The priority int of a header holds flags above its low 16 bits,
+ * which only the Java side uses.
+ */
+#define JUMP_MESSAGE_PRIORITY_MASK 0xffff
+
 /*
  * @brief variable sized encapsulation of a message
  */
@@ -57,6 +64,9 @@ struct _JUMPMessage {
     uint8* data;
     /* The length of the data */
     int dataBufferLen;
+    /* The number of valid bytes in data, if the buffer was filled
+       elsewhere (received, or handed to us by Java) */
+    int dataLength;
     /* The byte after the message's data */
     const uint8* dataEnd;
     /* Current location of the data pointer, for adding to the message */
@@ -75,6 +85,75 @@ struct JUMPMessageHandlerRegistration {
  * messaging in JUMP.
  */
 
+/*
+ * Message buffers are JUMP_MESSAGE_BUFFER_SIZE bytes.  Freed buffers
+ * are kept on a small free list, linked through their first word, so
+ * that the common round trip of small messages does not go through
+ * malloc() and free() for each send and receive.
+ */
+#define JUMP_MESSAGE_BUFFER_POOL_MAX 8
+
+static JUMPThreadMutex bufferPoolMutex = NULL;
+static uint8* bufferPoolHead = NULL;
+static int bufferPoolCount = 0;
+
+uint8*
+jumpMessageBufferAlloc(void)
+{
+    uint8* buffer = NULL;
+
+    if (bufferPoolMutex != NULL) {
+	jumpThreadMutexLock(bufferPoolMutex);
+	if (bufferPoolHead != NULL) {
+	    buffer = bufferPoolHead;
+	    bufferPoolHead = *(uint8**)buffer;
+	    bufferPoolCount--;
+	}
+	jumpThreadMutexUnlock(bufferPoolMutex);
+    }
+    if (buffer == NULL) {
+	buffer = malloc(JUMP_MESSAGE_BUFFER_SIZE);
+    }
+    return buffer;
+}
+
+void
+jumpMessageBufferFree(uint8* buffer)
+{
+    if (buffer == NULL) {
+	return;
+    }
+    if (bufferPoolMutex != NULL) {
+	jumpThreadMutexLock(bufferPoolMutex);
+	if (bufferPoolCount < JUMP_MESSAGE_BUFFER_POOL_MAX) {
+	    *(uint8**)buffer = bufferPoolHead;
+	    bufferPoolHead = buffer;
+	    bufferPoolCount++;
+	    buffer = NULL;
+	}
+	jumpThreadMutexUnlock(bufferPoolMutex);
+    }
+    free(buffer);
+}
+
+static void
+drainBufferPool(void)
+{
+    uint8* buffer;
+
+    if (bufferPoolMutex == NULL) {
+	return;
+    }
+    jumpThreadMutexLock(bufferPoolMutex);
+    while (bufferPoolHead != NULL) {
+	buffer = bufferPoolHead;
+	bufferPoolHead = *(uint8**)buffer;
+	free(buffer);
+    }
+    bufferPoolCount = 0;
+    jumpThreadMutexUnlock(bufferPoolMutex);
+}
+
 static JUMPMessageStatusCode
 translateJumpMessageQueueStatusCode(const JUMPMessageQueueStatusCode *mqcode)
 {
@@ -145,13 +224,79 @@ jumpMessageGetMyAddress(void)
  */
 #define JUMP_RESPONSE_QUEUE_NAME_PATTERN "<response-thread-%d>"
 
+/*
+ * Per-thread messaging state, created on first use and freed when the
+ * thread exits: the thread's return type name, and a registration
+ * that keeps the thread's response queue open between synchronous
+ * sends instead of creating and destroying it for each one.
+ */
+struct jumpThreadState {
+    char* returnType;
+    JUMPMessageHandlerRegistration responseRegistration;
+};
+
+static JUMPThreadLocal threadStateKey = NULL;
+
+static void
+freeThreadState(void* p)
+{
+    struct jumpThreadState* state = (struct jumpThreadState*)p;
+
+    if (state->responseRegistration != NULL) {
+	jumpMessageCancelRegistration(state->responseRegistration);
+    }
+    free(state->returnType);
+    free(state);
+}
+
+/*
+ * Returns this thread's state, creating it if needed.  Returns NULL
+ * if there is no state and it can't be created and kept.
+ */
+static struct jumpThreadState*
+getThreadState(void)
+{
+    struct jumpThreadState* state;
+    char name[80];
+
+    if (threadStateKey == NULL) {
+	return NULL;
+    }
+    state = (struct jumpThreadState*)jumpThreadLocalGet(threadStateKey);
+    if (state != NULL) {
+	return state;
+    }
+
+    state = malloc(sizeof(*state));
+    if (state == NULL) {
+	return NULL;
+    }
+    snprintf(name, sizeof(name), JUMP_RESPONSE_QUEUE_NAME_PATTERN,
+	     jumpThreadGetId());
+    state->returnType = strdup(name);
+    state->responseRegistration = NULL;
+    if (state->returnType == NULL ||
+	jumpThreadLocalSet(threadStateKey, state) != 0) {
+	free(state->returnType);
+	free(state);
+	return NULL;
+    }
+    return state;
+}
+
 char*
 jumpMessageGetReturnTypeName(void)
 {
+    struct jumpThreadState* state;
     char name[80];
 
     assert(jumpMessagingInitialized != 0);
 
+    state = getThreadState();
+    if (state != NULL) {
+	return strdup(state->returnType);
+    }
+
     snprintf(name, sizeof(name), JUMP_RESPONSE_QUEUE_NAME_PATTERN,
 	     jumpThreadGetId());
 
@@ -189,10 +334,22 @@ newMessageFromBuffer(uint8* buffer, uint32 len)
     message->dataBufferLen = len;
     message->dataEnd = buffer + len;
     message->dataPtr = buffer + jumpMessageQueueDataOffset();
+    message->dataLength = 0;
     message->status = JUMP_SUCCESS;
     return message;
 }
 
+/*
+ * The number of bytes of the message buffer that are actually in use,
+ * and so have to go over the message queue.
+ */
+static uint32
+getMessageLength(struct _JUMPMessage* m)
+{
+    uint32 used = (uint32)(m->dataPtr - m->data);
+    return (used > (uint32)m->dataLength) ? used : (uint32)m->dataLength;
+}
+
 /*
  * Create a new blank message
  */
@@ -202,20 +359,121 @@ newMessage(void)
     uint8* buffer;
     struct _JUMPMessage* message;
 
-    buffer = calloc(1, JUMP_MESSAGE_BUFFER_SIZE);
+    buffer = jumpMessageBufferAlloc();
     if (buffer == NULL) {
 	return NULL;
     }
 
     message = newMessageFromBuffer(buffer, JUMP_MESSAGE_BUFFER_SIZE);
     if (message == NULL) {
-	free(buffer);
+	jumpMessageBufferFree(buffer);
 	return NULL;
     }
 
     return message;
 }
 
+/*
+ * Well-known message types, sent in headers as (-2 - index) instead
+ * of as a string.  This must match TYPES in
+ * com.sun.jump.message.MessageTypeTable, and new types must only be
+ * added at the end.
+ */
+static const char* const knownMessageTypes[] = {
+    "mvm/server",
+    "mvm/client",
+    "mvm/lifecycle",
+    "mvm/ixc",
+    "mvm/batch",
+    "isolate/window",
+    "executive/window",
+    "jump/response/async",
+    "jump/dispatcher/wakeup",
+    "mvm/stats",
+    "mvm/ixc/call",
+    "mvm/ixc/send",
+    NULL
+};
+
+/*
+ * Header int that is followed by the number of a response thread,
+ * standing for JUMP_RESPONSE_QUEUE_NAME_PATTERN with that number.
+ */
+#define JUMP_HEADER_RESPONSE_THREAD ((int32)0x80000000)
+
+/*
+ * Add a type or return type to a message header, in its short form
+ * if it has one.
+ */
+static void
+addHeaderString(JUMPOutgoingMessage m, JUMPPlatformCString s)
+{
+    char name[80];
+    char* end;
+    long n;
+    int i;
+
+    if (s != NULL) {
+	for (i = 0; knownMessageTypes[i] != NULL; i++) {
+	    if (!strcmp(s, knownMessageTypes[i])) {
+		jumpMessageAddInt(m, -2 - i);
+		return;
+	    }
+	}
+	if (!strncmp((const char*)s, "<response-thread-", 17)) {
+	    n = strtol((const char*)s + 17, &end, 10);
+	    snprintf(name, sizeof(name), JUMP_RESPONSE_QUEUE_NAME_PATTERN,
+		     (int)n);
+	    /* Only if it reads back the same */
+	    if (end != (const char*)s + 17 && !strcmp(name, (const char*)s)) {
+		jumpMessageAddInt(m, JUMP_HEADER_RESPONSE_THREAD);
+		jumpMessageAddInt(m, (int32)n);
+		return;
+	    }
+	}
+    }
+    jumpMessageAddString(m, s);
+}
+
+/*
+ * Read a type or return type written by addHeaderString().  The
+ * result is allocated and must be freed by the caller.
+ */
+static JUMPPlatformCString
+getHeaderString(JUMPMessageReader* r)
+{
+    uint8* start = r->ptr;
+    char name[80];
+    int32 head;
+    int i;
+
+    head = jumpMessageGetInt(r);
+    if (r->status != JUMP_SUCCESS) {
+	return NULL;
+    }
+    if (head >= -1) {
+	/* A string, re-read it from its length */
+	r->ptr = start;
+	return jumpMessageGetString(r);
+    }
+    if (head == JUMP_HEADER_RESPONSE_THREAD) {
+	head = jumpMessageGetInt(r);
+	if (r->status != JUMP_SUCCESS) {
+	    return NULL;
+	}
+	snprintf(name, sizeof(name), JUMP_RESPONSE_QUEUE_NAME_PATTERN,
+		 (int)head);
+	return strdup(name);
+    }
+    for (i = 0; knownMessageTypes[i] != NULL; i++) {
+	if (head == -2 - i) {
+	    return strdup(knownMessageTypes[i]);
+	}
+    }
+    r->status = JUMP_NEGATIVE_ARRAY_LENGTH;
+    return NULL;
+}
+
 /*
  * Take the 'header' struct in a JUMPMessage, and "serialize" it into
  * the message data area.  On success, returns JUMP_SUCCESS.  On failure,
@@ -229,8 +487,9 @@ putHeaderInMessage(struct _JUMPMessage* m)
     jumpMessageAddInt((JUMPOutgoingMessage)m, hdr->messageId);
     jumpMessageAddInt((JUMPOutgoingMessage)m, hdr->requestId);
     jumpMessageAddInt((JUMPOutgoingMessage)m, hdr->sender.address.processId);
-    jumpMessageAddString((JUMPOutgoingMessage)m, hdr->sender.returnType);
-    jumpMessageAddString((JUMPOutgoingMessage)m, hdr->type);
+    jumpMessageAddInt((JUMPOutgoingMessage)m, hdr->priority);
+    addHeaderString((JUMPOutgoingMessage)m, hdr->sender.returnType);
+    addHeaderString((JUMPOutgoingMessage)m, hdr->type);
 
     return ((JUMPOutgoingMessage)m)->status;
 }
@@ -251,8 +510,9 @@ getHeaderFromMessage(struct _JUMPMessage* m)
     hdr->messageId = jumpMessageGetInt(&reader);
     hdr->requestId = jumpMessageGetInt(&reader);
     hdr->sender.address.processId  = jumpMessageGetInt(&reader);
-    hdr->sender.returnType = jumpMessageGetString(&reader);
-    hdr->type = jumpMessageGetString(&reader);
+    hdr->priority = jumpMessageGetInt(&reader) & JUMP_MESSAGE_PRIORITY_MASK;
+    hdr->sender.returnType = getHeaderString(&reader);
+    hdr->type = getHeaderString(&reader);
 
     /* Make sure the data pointer in the message is now set past the header */
     m->dataPtr = reader.ptr;
@@ -278,6 +538,7 @@ newMessageFromReceivedBuffer(uint8* buffer, uint32 len,
 	*code = JUMP_OUT_OF_MEMORY;
 	return NULL;
     }
+    message->dataLength = len;
 
     *code = getHeaderFromMessage(message);
     if (*code != JUMP_SUCCESS) {
@@ -289,14 +550,44 @@ newMessageFromReceivedBuffer(uint8* buffer, uint32 len,
 }
 
 /*
- * Running counters for message id's and request id's
+ * Running counters for message id's and request id's.  Once messaging
+ * is started they are guarded by idMutex.
  */
-/* FIXME not thread safe. */
+static JUMPThreadMutex idMutex = NULL;
 static uint32 thisProcessMessageId;
 static int32 thisProcessRequestId;
 
+static uint32
+newMessageId(void)
+{
+    uint32 id;
+
+    if (idMutex == NULL) {
+	return thisProcessMessageId++;
+    }
+    jumpThreadMutexLock(idMutex);
+    id = thisProcessMessageId++;
+    jumpThreadMutexUnlock(idMutex);
+    return id;
+}
+
+static int32
+newRequestId(void)
+{
+    int32 id;
+
+    if (idMutex == NULL) {
+	return thisProcessRequestId++;
+    }
+    jumpThreadMutexLock(idMutex);
+    id = thisProcessRequestId++;
+    jumpThreadMutexUnlock(idMutex);
+    return id;
+}
+
 JUMPOutgoingMessage
-jumpMessageNewOutgoingFromBuffer(uint8* buffer, int isResponse,
+jumpMessageNewOutgoingFromBuffer(uint8* buffer, uint32 length,
+				 int isResponse,
 				 JUMPMessageStatusCode *code)
 {
     struct _JUMPMessage* message;
@@ -309,6 +600,7 @@ jumpMessageNewOutgoingFromBuffer(uint8* buffer, int isResponse,
 	*code = JUMP_OUT_OF_MEMORY;
 	return NULL;
     }
+    message->dataLength = length;
 
     jumpMessageMarkSet(&mmarkBeforeHeader, message);
     /* If this works, the following adds will work. */
@@ -322,13 +614,13 @@ jumpMessageNewOutgoingFromBuffer(uint8* buffer, int isResponse,
     /* rewind to beginning of header */
     jumpMessageMarkResetTo(&mmarkBeforeHeader, message);
     /* Set message ID in the message payload and in the header. */
-    messageId = thisProcessMessageId++;
+    messageId = newMessageId();
     jumpMessageAddInt(message, messageId);
     message->header.messageId = messageId;
     
     if (!isResponse) {
 	int32 requestId;
-	requestId = thisProcessRequestId++;
+	requestId = newRequestId();
 	jumpMessageAddInt(message, requestId);
 	message->header.requestId = requestId;
     }
@@ -344,6 +636,12 @@ jumpMessageGetData(JUMPMessage message)
     return ((struct _JUMPMessage*)message)->data;
 }
 
+uint32
+jumpMessageGetDataLength(JUMPMessage message)
+{
+    return getMessageLength((struct _JUMPMessage*)message);
+}
+
 /*
  * Message header inspection
  */
@@ -389,7 +687,7 @@ static void
 freeMessage(struct _JUMPMessage* m)
 {
     /* Free all component allocations, and then the message itself */
-    free(m->data);
+    jumpMessageBufferFree(m->data);
     freeJUMPReturnAddress(m->header.sender);
     free(m->header.type);
     /* Make sure the contents are not used accidentally */
@@ -402,7 +700,8 @@ freeMessage(struct _JUMPMessage* m)
    to one of JUMP_OUT_OF_MEMORY or JUMP_OVERRUN. */
 static JUMPOutgoingMessage
 newOutgoingMessage(JUMPPlatformCString type, uint32 requestId, 
-		   JUMPReturnAddress addr, JUMPMessageStatusCode *code)
+		   JUMPReturnAddress addr, int32 priority,
+		   JUMPMessageStatusCode *code)
 {
     struct _JUMPMessage* message;
     assert(jumpMessagingInitialized != 0);
@@ -411,8 +710,9 @@ newOutgoingMessage(JUMPPlatformCString type, uint32 requestId,
 	*code = JUMP_OUT_OF_MEMORY;
 	goto fail;
     }
-    message->header.messageId = thisProcessMessageId++;
+    message->header.messageId = newMessageId();
     message->header.requestId = requestId;
+    message->header.priority = priority;
     message->header.sender = cloneJUMPReturnAddress(addr);
     if (message->header.sender.returnType == NULL) {
 	*code = JUMP_OUT_OF_MEMORY;
@@ -440,14 +740,15 @@ JUMPOutgoingMessage
 jumpMessageNewOutgoingByType(JUMPPlatformCString type,
 			     JUMPMessageStatusCode *code)
 {
-    uint32 requestId = thisProcessRequestId++;
+    uint32 requestId = newRequestId();
     JUMPReturnAddress myReturnAddress;
     JUMPOutgoingMessage message;
 
     assert(jumpMessagingInitialized != 0);
 
     myReturnAddress = getMyReturnAddress();    
-    message = newOutgoingMessage(type, requestId, myReturnAddress, code);
+    message = newOutgoingMessage(type, requestId, myReturnAddress,
+				 JUMP_MESSAGE_PRIORITY_NORMAL, code);
     freeJUMPReturnAddress(myReturnAddress);
 
     return message;
@@ -461,6 +762,7 @@ jumpMessageNewOutgoingByRequest(JUMPMessage requestMessage,
     assert(jumpMessagingInitialized != 0);
     return newOutgoingMessage(jumpMessageGetType(requestMessage), requestId, 
 			      getReturnAddress(requestMessage),
+			      requestMessage->header.priority,
 			      code);
 }
 
@@ -628,14 +930,122 @@ jumpMessageAddLong(JUMPOutgoingMessage m, int64 value)
     m->dataPtr += 8;
 }
 
+/*
+ * Strings travel as a byte array holding the string in Java's
+ * modified UTF-8, the encoding of DataOutputStream.writeUTF() and of
+ * JNI's GetStringUTFChars(), followed by a terminating '\0'.  Modified
+ * UTF-8 encodes the character 0 in two bytes, so the only '\0' is the
+ * terminating one and the bytes can be used as a C string.  The Java
+ * side, in JUMPOutgoingMessage and JUMPMessageReader, uses the same
+ * encoding.
+ */
+
+/*
+ * Returns the number of bytes the first length bytes of s take up if
+ * they are well formed modified UTF-8 with no '\0', or -1 if not.
+ */
+static int
+utfCheck(const uint8* s, uint32 length)
+{
+    uint32 i = 0;
+
+    while (i < length) {
+	uint8 b = s[i];
+	if (b == 0) {
+	    return -1;
+	} else if (b < 0x80) {
+	    i += 1;
+	} else if ((b & 0xe0) == 0xc0) {
+	    if (i + 1 >= length || (s[i + 1] & 0xc0) != 0x80) {
+		return -1;
+	    }
+	    i += 2;
+	} else if ((b & 0xf0) == 0xe0) {
+	    if (i + 2 >= length ||
+		(s[i + 1] & 0xc0) != 0x80 || (s[i + 2] & 0xc0) != 0x80) {
+		return -1;
+	    }
+	    i += 3;
+	} else {
+	    return -1;
+	}
+    }
+    return (int)length;
+}
+
 void
 jumpMessageAddString(JUMPOutgoingMessage m, JUMPPlatformCString str)
 {
+    uint32 length;
+
     assert(jumpMessagingInitialized != 0);
-    /* FIXME: ASCII assumption for now */
-    /* By the ascii assumption, a string is a byte array of length
-       strlen(str) + 1 for the terminating '\0' */
-    jumpMessageAddByteArray(m, (int8*)str, strlen(str) + 1);
+    if (m->status != JUMP_SUCCESS) {
+	return;
+    }
+    if (str == NULL) {
+	jumpMessageAddInt(m, -1);
+	return;
+    }
+    /* The string is already in modified UTF-8.  A Java reader
+       rejects anything else, so don't send it. */
+    length = strlen((const char*)str);
+    if (utfCheck((const uint8*)str, length) < 0) {
+	m->status = JUMP_BAD_STRING;
+	return;
+    }
+    jumpMessageAddByteArray(m, (int8*)str, length + 1);
+}
+
+void
+jumpMessageAddUTF16(JUMPOutgoingMessage m, const uint16* chars,
+		    uint32 length)
+{
+    uint32 utflen = 0;
+    uint32 i;
+    uint8* p;
+
+    assert(jumpMessagingInitialized != 0);
+    if (m->status != JUMP_SUCCESS) {
+	return;
+    }
+    if (chars == NULL) {
+	jumpMessageAddInt(m, -1);
+	return;
+    }
+    for (i = 0; i < length; i++) {
+	uint16 c = chars[i];
+	if (c >= 0x0001 && c <= 0x007f) {
+	    utflen += 1;
+	} else if (c <= 0x07ff) {
+	    utflen += 2;
+	} else {
+	    utflen += 3;
+	}
+    }
+    jumpMessageAddInt(m, (int32)(utflen + 1));
+    if (m->status != JUMP_SUCCESS) {
+	return;
+    }
+    if ((uint32)(m->dataEnd - m->dataPtr) < utflen + 1) {
+	m->status = JUMP_OVERRUN;
+	return;
+    }
+    p = m->dataPtr;
+    for (i = 0; i < length; i++) {
+	uint16 c = chars[i];
+	if (c >= 0x0001 && c <= 0x007f) {
+	    *p++ = (uint8)c;
+	} else if (c <= 0x07ff) {
+	    *p++ = (uint8)(0xc0 | ((c >> 6) & 0x1f));
+	    *p++ = (uint8)(0x80 | (c & 0x3f));
+	} else {
+	    *p++ = (uint8)(0xe0 | ((c >> 12) & 0x0f));
+	    *p++ = (uint8)(0x80 | ((c >> 6) & 0x3f));
+	    *p++ = (uint8)(0x80 | (c & 0x3f));
+	}
+    }
+    *p++ = 0;
+    m->dataPtr = p;
 }
 
 void
@@ -853,11 +1263,69 @@ jumpMessageGetLong(JUMPMessageReader* r)
 JUMPPlatformCString
 jumpMessageGetString(JUMPMessageReader* r)
 {
-    int len;
+    uint32 len;
+    int8* s;
     
     assert(jumpMessagingInitialized != 0);
-    /* FIXME: ASCII assumption for now */
-    return (JUMPPlatformCString)jumpMessageGetByteArray(r, &len);
+    s = jumpMessageGetByteArray(r, &len);
+    if (s == NULL) {
+	return NULL;
+    }
+    /* Make sure it is modified UTF-8 and '\0' terminated, so it
+       can't be read past its end. */
+    if (len == 0 || s[len - 1] != 0 ||
+	utfCheck((const uint8*)s, len - 1) < 0) {
+	free(s);
+	r->status = JUMP_BAD_STRING;
+	return NULL;
+    }
+    return (JUMPPlatformCString)s;
+}
+
+uint16*
+jumpMessageGetUTF16(JUMPMessageReader* r, uint32* lengthPtr)
+{
+    int8* s;
+    uint32 len;
+    uint32 i;
+    uint32 n = 0;
+    uint16* chars;
+    const uint8* p;
+
+    assert(jumpMessagingInitialized != 0);
+    *lengthPtr = 0;
+    s = (int8*)jumpMessageGetString(r);
+    if (s == NULL) {
+	return NULL;
+    }
+    /* There are at most as many characters as bytes */
+    len = strlen((const char*)s);
+    chars = calloc(len + 1, sizeof(uint16));
+    if (chars == NULL) {
+	free(s);
+	r->status = JUMP_OUT_OF_MEMORY;
+	return NULL;
+    }
+    p = (const uint8*)s;
+    i = 0;
+    while (i < len) {
+	uint8 b = p[i];
+	if (b < 0x80) {
+	    chars[n++] = b;
+	    i += 1;
+	} else if ((b & 0xe0) == 0xc0) {
+	    chars[n++] = (uint16)(((b & 0x1f) << 6) | (p[i + 1] & 0x3f));
+	    i += 2;
+	} else {
+	    chars[n++] = (uint16)(((b & 0x0f) << 12) |
+				  ((p[i + 1] & 0x3f) << 6) |
+				  (p[i + 2] & 0x3f));
+	    i += 3;
+	}
+    }
+    free(s);
+    *lengthPtr = n;
+    return chars;
 }
 
 JUMPPlatformCString*
@@ -939,6 +1407,36 @@ jumpMessageGetSender(JUMPMessage m) {
     return &m->header.sender.address;
 }
 
+int32
+jumpMessageGetRequestId(JUMPMessage m)
+{
+    assert(jumpMessagingInitialized != 0);
+    return m->header.requestId;
+}
+
+int32
+jumpMessageGetPriority(JUMPMessage m)
+{
+    assert(jumpMessagingInitialized != 0);
+    return m->header.priority;
+}
+
+void
+jumpMessageSetPriority(JUMPOutgoingMessage m, int32 priority)
+{
+    uint8* dataPtr;
+
+    assert(jumpMessagingInitialized != 0);
+    m->header.priority = priority;
+
+    /* Overwrite the priority in the header, past the message id,
+       request id and sender. */
+    dataPtr = m->dataPtr;
+    m->dataPtr = m->data + jumpMessageQueueDataOffset() + 12;
+    jumpMessageAddInt(m, priority);
+    m->dataPtr = dataPtr;
+}
+
 static void
 sendAsyncOfType(JUMPAddress target, JUMPOutgoingMessage m, 
 		JUMPPlatformCString type,
@@ -953,7 +1451,7 @@ sendAsyncOfType(JUMPAddress target, JUMPOutgoingMessage m,
     if (targetMq == NULL) {
 	goto out;
     }
-    jumpMessageQueueSend(targetMq, m->data, m->dataBufferLen, &mqcode);
+    jumpMessageQueueSend(targetMq, m->data, getMessageLength(m), &mqcode);
     jumpMessageQueueClose(targetMq);
   out:
     *code = translateJumpMessageQueueStatusCode(&mqcode);
@@ -1003,23 +1501,24 @@ doWaitFor(JUMPPlatformCString type, int32 timeout, JUMPMessageStatusCode *code)
 	return NULL;
     }
 
-    buffer = calloc(1, JUMP_MESSAGE_BUFFER_SIZE);
+    buffer = jumpMessageBufferAlloc();
     if (buffer == NULL) {
 	*code = JUMP_OUT_OF_MEMORY;
 	return NULL;
     }
 
+    /* status is the number of bytes actually received */
     status = jumpMessageQueueReceive(
 	type, buffer, JUMP_MESSAGE_BUFFER_SIZE, &mqcode);
     if (status == -1) {
 	*code = translateJumpMessageQueueStatusCode(&mqcode);
-	free(buffer);
+	jumpMessageBufferFree(buffer);
 	return NULL;
     }
 
-    incoming = newMessageFromReceivedBuffer(buffer, JUMP_MESSAGE_BUFFER_SIZE, code);
+    incoming = newMessageFromReceivedBuffer(buffer, (uint32)status, code);
     if (incoming == NULL) {
-	free(buffer);
+	jumpMessageBufferFree(buffer);
 	return NULL;
     }
 
@@ -1032,16 +1531,31 @@ jumpMessageSendSync(JUMPAddress target, JUMPOutgoingMessage m, int32 timeout,
 {
     JUMPMessageHandlerRegistration registration = NULL;
     JUMPMessage r = NULL;
+    struct jumpThreadState* state;
 
     assert(jumpMessagingInitialized != 0);
 
     /* Register the message type before sending the message to ensure
-       the queue exists before the recipient sends a message to it. */
-
-    registration =
-	jumpMessageRegisterDirect(m->header.sender.returnType, code);
-    if (registration == NULL) {
-	goto out;
+       the queue exists before the recipient sends a message to it.
+       The usual return type is this thread's, whose queue is kept
+       registered for the life of the thread. */
+
+    state = getThreadState();
+    if (state != NULL &&
+	!strcmp(state->returnType, m->header.sender.returnType)) {
+	if (state->responseRegistration == NULL) {
+	    state->responseRegistration =
+		jumpMessageRegisterDirect(state->returnType, code);
+	    if (state->responseRegistration == NULL) {
+		goto out;
+	    }
+	}
+    } else {
+	registration =
+	    jumpMessageRegisterDirect(m->header.sender.returnType, code);
+	if (registration == NULL) {
+	    goto out;
+	}
     }
 
     jumpMessageSendAsync(target, m, code);
@@ -1117,6 +1631,22 @@ jumpMessageWaitFor(JUMPPlatformCString type,
     return doWaitFor(type, timeout, code);
 }
 
+int
+jumpMessageWaitForAny(JUMPPlatformCString* types,
+		      int count,
+		      int32 timeout,
+		      JUMPMessageStatusCode *code)
+{
+    JUMPMessageQueueStatusCode mqcode;
+    int index;
+
+    assert(jumpMessagingInitialized != 0);
+
+    index = jumpMessageQueueWaitForMessages(types, count, timeout, &mqcode);
+    *code = translateJumpMessageQueueStatusCode(&mqcode);
+    return index;
+}
+
 void
 jumpMessageUnblock(JUMPPlatformCString messageType,
 		   JUMPMessageStatusCode* code)
@@ -1171,6 +1701,7 @@ jumpMessageShutdown(void)
      * Destroy all my message queues
      */
     jumpMessageQueueInterfaceDestroy();
+    drainBufferPool();
     return JUMP_SUCCESS;
 }
 
@@ -1180,6 +1711,18 @@ jumpMessageStart(void)
     /* Ensure the porting layer can handle messages of the size we need. */
     assert(JUMP_MESSAGE_BUFFER_SIZE <= JUMP_MESSAGE_QUEUE_MAX_MESSAGE_SIZE);
 
+    /* Without a mutex, buffers simply aren't pooled. */
+    if (bufferPoolMutex == NULL) {
+	bufferPoolMutex = jumpThreadMutexCreate();
+    }
+    if (idMutex == NULL) {
+	idMutex = jumpThreadMutexCreate();
+    }
+    /* Without a key, per-thread state is made afresh on every use. */
+    if (threadStateKey == NULL) {
+	threadStateKey = jumpThreadLocalCreate(freeThreadState);
+    }
+
     return JUMP_SUCCESS;
 }
 
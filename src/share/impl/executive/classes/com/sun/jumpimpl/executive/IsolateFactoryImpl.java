@@ -40,6 +40,7 @@ import com.sun.jump.os.JUMPOSInterface;
 
 import com.sun.jumpimpl.process.JUMPIsolateProxyImpl;
 import com.sun.jumpimpl.process.JUMPProcessProxyImpl;
+import com.sun.jumpimpl.process.MessagingStats;
 import com.sun.jumpimpl.process.RequestSenderHelper;
 import com.sun.jumpimpl.process.JUMPModulesConfig;
 
@@ -74,6 +75,9 @@ public class IsolateFactoryImpl
 	//
 	try {
 	    String type = JUMPIsolateLifecycleRequest.MESSAGE_TYPE;
+	    // Lifecycle requests from different isolates are independent.
+	    dispatcher.setDispatchPolicy(
+		type, JUMPMessageDispatcher.DISPATCH_ORDERED_PER_SENDER);
 	    messageRegistration = dispatcher.registerHandler(type, this);
 	} catch (Throwable e) {
 	    e.printStackTrace();
@@ -135,11 +139,14 @@ public class IsolateFactoryImpl
 	// FIXME: what's the right timeout value and where is that stored?
 	isolate.waitForState(JUMPIsolateLifecycleRequest.ISOLATE_STATE_INITIALIZED, 5000L);
 
-        // Tell the isolate about the ixc port.
-        // FIXME: should go away once ixc is on messaging.
-        rsh.sendRequest(isolate,
-               new com.sun.jumpimpl.ixc.IxcMessage(
-               com.sun.jumpimpl.ixc.ConnectionReceiver.getExecVMServicePort()));
+        // Tell the isolate about the ixc port, unless the ixc transport
+        // addresses VMs by process id, when the isolate knows already.
+        if (!com.sun.jumpimpl.ixc.IxcTransport.getTransport()
+                .isAddressedByProcess()) {
+            rsh.sendRequest(isolate,
+                   new com.sun.jumpimpl.ixc.IxcMessage(
+                   com.sun.jumpimpl.ixc.ConnectionReceiver.getExecVMServicePort()));
+        }
 
 	//
 	// FIXME!!!! What happens if we time out? We can kill
@@ -225,6 +232,7 @@ public class IsolateFactoryImpl
                 ipi.setStateToDestroyed();
 	        isolates.remove(ipi);
             }
+            MessagingStats.processDestroyed(pid);
         }
     }
 }
@@ -38,9 +38,14 @@ import com.sun.jump.message.JUMPMessageDispatcher;
 import com.sun.jump.message.JUMPOutgoingMessage;
 import com.sun.jump.message.JUMPMessage;
 import com.sun.jump.common.JUMPAppModel;
+import com.sun.jump.command.JUMPRequest;
+import com.sun.jump.command.JUMPResponse;
 
 import com.sun.jumpimpl.process.JUMPProcessProxyImpl;
 import com.sun.jumpimpl.process.JUMPModulesConfig;
+import com.sun.jumpimpl.process.JUMPResponseFuture;
+import com.sun.jumpimpl.process.RequestSenderHelper;
+import com.sun.jumpimpl.process.MessagingStats;
 
 import com.sun.jump.os.JUMPOSInterface;
 
@@ -54,11 +59,24 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.FileInputStream;
 import java.io.BufferedInputStream;
+import java.util.Vector;
 
 public class JUMPExecutiveImpl extends JUMPExecutive {
+    /**
+     * Selects the isolates a broadcast goes to.
+     */
+    public interface IsolateFilter {
+        /**
+         * Returns true if <code>isolate</code> should get the
+         * broadcast.
+         */
+        public boolean accept(JUMPIsolateProxy isolate);
+    }
+
     private JUMPProcessProxyImpl pp;
     private JUMPOSInterface os;
     private JUMPIsolateFactory isolateFactory = null;
+    private RequestSenderHelper requestSender = null;
 
     
     // name of a propoerty which points to name of a propoerty file which
@@ -106,6 +124,9 @@ public class JUMPExecutiveImpl extends JUMPExecutive {
         // Get critical objects
         jei.os = JUMPOSInterface.getInstance();
         jei.pp = JUMPProcessProxyImpl.createProcessProxyImpl(jei.os.getProcessID());
+
+        // Let isolates and tools ask for messaging statistics
+        MessagingStats.registerHandler(jei.pp);
         
         JUMPFactories.init(JUMPModulesConfig.getProperties());
         
@@ -182,6 +203,69 @@ public class JUMPExecutiveImpl extends JUMPExecutive {
         return pp.newMessage(rawData);
     }
     
+    /**
+     * Sends <code>request</code> to all the active isolates accepted
+     * by <code>filter</code>, or to all of them if <code>filter</code>
+     * is null.  The request is serialized once and sent to all the
+     * isolates before any response is waited for.  The requests share
+     * one deadline, <code>timeout</code> milliseconds from now.
+     * Future i is for isolate i of
+     * <code>getActiveIsolates(filter)</code>.
+     */
+    public JUMPResponseFuture[]
+            broadcastRequestAsync(JUMPRequest request, IsolateFilter filter,
+                                  long timeout) {
+        return getRequestSender().broadcastRequestAsync(
+            getActiveIsolates(filter), request, timeout);
+    }
+
+    /**
+     * Sends <code>request</code> to all the active isolates accepted
+     * by <code>filter</code>, and waits for all their responses for
+     * no longer than the default request timeout in total.  A null
+     * response means the request to that isolate failed.
+     */
+    public JUMPResponse[]
+            broadcastRequest(JUMPRequest request, IsolateFilter filter) {
+        return getRequestSender().broadcastRequest(
+            getActiveIsolates(filter), request);
+    }
+
+    /**
+     * Sends <code>request</code>, which has no response, to all the
+     * active isolates accepted by <code>filter</code>.
+     */
+    public void
+            postBroadcast(JUMPRequest request, IsolateFilter filter) {
+        getRequestSender().postRequest(getActiveIsolates(filter), request);
+    }
+
+    /**
+     * Returns the active isolates accepted by <code>filter</code>,
+     * or all of them if <code>filter</code> is null.
+     */
+    public JUMPIsolateProxy[] getActiveIsolates(IsolateFilter filter) {
+        JUMPIsolateProxy[] isolates = getIsolateFactory().getActiveIsolates();
+        if (filter == null) {
+            return isolates;
+        }
+        Vector accepted = new Vector(isolates.length);
+        for (int i = 0; i < isolates.length; i++) {
+            if (filter.accept(isolates[i])) {
+                accepted.add(isolates[i]);
+            }
+        }
+        return (JUMPIsolateProxy[])accepted.toArray(
+            new JUMPIsolateProxy[accepted.size()]);
+    }
+
+    private synchronized RequestSenderHelper getRequestSender() {
+        if (requestSender == null)
+            requestSender = new RequestSenderHelper(this);
+
+        return requestSender;
+    }
+
     public JUMPUserInputManager getUserInputManager() {
         return null;
     }
@@ -37,10 +37,10 @@ import com.sun.jump.message.JUMPMessageDispatcher;
 import com.sun.jump.message.JUMPOutgoingMessage;
 import com.sun.jump.message.JUMPMessage;
 import com.sun.jump.message.JUMPMessageResponseSender;
-import com.sun.jump.message.JUMPMessageReader;
 import com.sun.jump.os.JUMPOSInterface;
 import com.sun.jumpimpl.process.JUMPModulesConfig;
 import com.sun.jumpimpl.process.JUMPProcessProxyImpl;
+import com.sun.jumpimpl.process.MessagingStats;
 import com.sun.jumpimpl.process.RequestSenderHelper;
 import com.sun.jump.command.JUMPIsolateLifecycleRequest;
 import com.sun.jump.command.JUMPExecutiveLifecycleRequest;
@@ -88,6 +88,7 @@ public class JUMPIsolateProcessImpl
 	os = JUMPOSInterface.getInstance();
 	isolateId = os.getProcessID();
 	pp = JUMPProcessProxyImpl.createProcessProxyImpl(isolateId);
+	com.sun.jumpimpl.ixc.IxcMessage.registerFactory();
     }
 
     public JUMPProcessProxy
@@ -167,9 +168,11 @@ public class JUMPIsolateProcessImpl
             JUMPMessageDispatcher d = ipi.getMessageDispatcher();
 
             d.registerHandler("mvm/client", ipi);
-            // FIXME: should go away once Ixc is on messaging
+            // The ixc port, with the socket ixc transport
             d.registerHandler("mvm/ixc", ipi);
 
+            MessagingStats.registerHandler(ipi);
+
             JUMPAppModel appModel = JUMPAppModel.fromName(args[0]);
             if (appModel == null) {
                 // Unknown app model
@@ -203,6 +206,13 @@ public class JUMPIsolateProcessImpl
 
         this.windowing = new WindowingIsolateClient();
 
+        // With an ixc transport addressed by process id, the executive
+        // sends no ixc port message, since its address is known.
+        if (com.sun.jumpimpl.ixc.IxcTransport.getTransport()
+                .isAddressedByProcess()) {
+            serviceRegistry = new ServiceRegistryClient(getImplClassLoader());
+        }
+
         System.err.println(
             this + " config: " + JUMPModulesConfig.getProperties());
 
@@ -228,7 +238,8 @@ public class JUMPIsolateProcessImpl
     //
     public void handleMessage(JUMPMessage in) {
 	JUMPOutgoingMessage responseMessage;
-	JUMPCommand raw = JUMPRequest.fromMessage(in);
+	// Decoded once here, to the class that goes with its id
+	JUMPCommand raw = JUMPCommand.fromMessage(in);
 	String id = raw.getCommandId();
 
 	System.err.println("RECEIVED MESSAGE TYPE "+id);
@@ -240,25 +251,31 @@ public class JUMPIsolateProcessImpl
         try {
             // Now let's figure out the type
             if (id.equals(JUMPExecutiveLifecycleRequest.ID_START_APP)) {
-                responseMessage = handleStartAppMessage(in);
+                responseMessage = handleStartAppMessage(
+                    in, (JUMPExecutiveLifecycleRequest)raw);
             } else if (id.equals(JUMPExecutiveLifecycleRequest.ID_PAUSE_APP)) {
-                responseMessage = handlePauseAppMessage(in);
+                responseMessage = handlePauseAppMessage(
+                    in, (JUMPExecutiveLifecycleRequest)raw);
             } else if (
                     id.equals(JUMPExecutiveLifecycleRequest.ID_RESUME_APP)) {
-                responseMessage = handleResumeAppMessage(in);
+                responseMessage = handleResumeAppMessage(
+                    in, (JUMPExecutiveLifecycleRequest)raw);
             } else if (
                     id.equals(JUMPExecutiveLifecycleRequest.ID_DESTROY_APP)) {
-                responseMessage = handleDestroyAppMessage(in);
+                responseMessage = handleDestroyAppMessage(
+                    in, (JUMPExecutiveLifecycleRequest)raw);
             } else if (
                 id.equals(com.sun.jumpimpl.ixc.IxcMessage.ID_PORT)) {
                 // Tell the isolate about the ixc port.
                 // FIXME: should go away once ixc is on messaging.
-                responseMessage = handleIxcMessage(in);
+                responseMessage = handleIxcMessage(
+                    in, (com.sun.jumpimpl.ixc.IxcMessage)raw);
             } else {
-                responseMessage = handleUnknownMessage(in);
+                responseMessage = handleUnknownMessage(in, raw);
             }
 
             in.getSender().sendResponseMessage(responseMessage);
+            responseMessage.release();
 
         } catch (Throwable e) {
             e.printStackTrace();
@@ -309,7 +326,7 @@ public class JUMPIsolateProcessImpl
 	String[] reqArgs = new String[] { Integer.toString(isolateId), "" };
 	JUMPRequest req = new JUMPIsolateLifecycleRequest(reqId, this);
 					    
-	rsh.sendRequestAsync(e, req);
+	rsh.postRequest(e, req);
     }
 
     /** {@inheritDoc} */
@@ -317,9 +334,8 @@ public class JUMPIsolateProcessImpl
         return serviceRegistry.getRemoteService(name);
     }
 
-    private JUMPOutgoingMessage handleStartAppMessage(JUMPMessage in) {
-        JUMPExecutiveLifecycleRequest elr = (JUMPExecutiveLifecycleRequest)
-            JUMPExecutiveLifecycleRequest.fromMessage(in);
+    private JUMPOutgoingMessage handleStartAppMessage(
+            JUMPMessage in, JUMPExecutiveLifecycleRequest elr) {
         byte[] barr = elr.getAppBytes();
         JUMPApplication app = JUMPApplication.fromByteArray(barr);
         String[] args = elr.getArgs();
@@ -355,11 +371,9 @@ public class JUMPIsolateProcessImpl
         return resp.toMessageInResponseTo(in, this);
     }
 
-    private JUMPOutgoingMessage handlePauseAppMessage(JUMPMessage in) {
-        JUMPExecutiveLifecycleRequest elr = (JUMPExecutiveLifecycleRequest)
-            JUMPExecutiveLifecycleRequest.fromMessage(in);
-        String[] args = elr.getArgs();
-        int appID = Integer.parseInt(args[0]);
+    private JUMPOutgoingMessage handlePauseAppMessage(
+            JUMPMessage in, JUMPExecutiveLifecycleRequest elr) {
+        int appID = elr.getIntData(0);
         String responseId;
 
         System.err.println("PAUSE_APP("+appID+")");
@@ -376,11 +390,9 @@ public class JUMPIsolateProcessImpl
         return resp.toMessageInResponseTo(in, this);
     }
 
-    private JUMPOutgoingMessage handleResumeAppMessage(JUMPMessage in) {
-        JUMPExecutiveLifecycleRequest elr = (JUMPExecutiveLifecycleRequest)
-            JUMPExecutiveLifecycleRequest.fromMessage(in);
-        String[] args = elr.getArgs();
-        int appID = Integer.parseInt(args[0]);
+    private JUMPOutgoingMessage handleResumeAppMessage(
+            JUMPMessage in, JUMPExecutiveLifecycleRequest elr) {
+        int appID = elr.getIntData(0);
         String responseId;
 
         System.err.println("RESUME_APP("+appID+")");
@@ -397,12 +409,10 @@ public class JUMPIsolateProcessImpl
         return resp.toMessageInResponseTo(in, this);
     }
 
-    private JUMPOutgoingMessage handleDestroyAppMessage(JUMPMessage in) {
-        JUMPExecutiveLifecycleRequest elr = (JUMPExecutiveLifecycleRequest)
-            JUMPExecutiveLifecycleRequest.fromMessage(in);
-        String[] args = elr.getArgs();
-        int appID = Integer.parseInt(args[0]);
-        boolean unconditional = Boolean.getBoolean(args[1]);
+    private JUMPOutgoingMessage handleDestroyAppMessage(
+            JUMPMessage in, JUMPExecutiveLifecycleRequest elr) {
+        int appID = elr.getIntData(0);
+        boolean unconditional = elr.getBooleanData(1);
         System.err.println("DESTROY_APP("+appID+")");
         String responseCode = JUMPResponseInteger.ID_SUCCESS;
 
@@ -416,20 +426,20 @@ public class JUMPIsolateProcessImpl
         return resp.toMessageInResponseTo(in, this);
     }
 
-    private JUMPOutgoingMessage handleUnknownMessage(JUMPMessage in) {
+    private JUMPOutgoingMessage handleUnknownMessage(JUMPMessage in,
+                                                    JUMPCommand command) {
         // Assumption of default message
-        // A utf array, expecting a generic JUMPResponse
-        JUMPMessageReader reader = new JUMPMessageReader(in);
-        System.err.println("Incoming client message:");
-        String[] responseStrings = reader.getUTFArray();
+        // A command, expecting a generic JUMPResponse
+        System.err.println("Incoming client message "+
+                           command.getCommandId()+":");
+        String[] args = command.getCommandData();
 
-        for (int j = 0; j < responseStrings.length; j++) {
-            System.err.println("    \""+responseStrings[j]+"\"");
+        for (int j = 0; args != null && j < args.length; j++) {
+            System.err.println("    \""+args[j]+"\"");
         }
 
-        JUMPOutgoingMessage out = newOutgoingMessage(in);
-        out.addUTFArray(new String[] {"SUCCESS"});
-        return out;
+        JUMPResponse resp = new JUMPResponse(in.getType(), JUMPResponseInteger.ID_SUCCESS);
+        return resp.toMessageInResponseTo(in, this);
     }
 
     /**
@@ -446,11 +456,9 @@ public class JUMPIsolateProcessImpl
      * service registry client.
      * FIXME: should be removed once ixc is on messaging.
      */
-    private JUMPOutgoingMessage handleIxcMessage(JUMPMessage in) {
-        JUMPCommand message = JUMPCommand.fromMessage(in, 
-                                  com.sun.jumpimpl.ixc.IxcMessage.class);
-
-        int port = Integer.parseInt(message.getCommandData()[0]);
+    private JUMPOutgoingMessage handleIxcMessage(
+            JUMPMessage in, com.sun.jumpimpl.ixc.IxcMessage message) {
+        int port = message.getPort();
  
         serviceRegistry = new ServiceRegistryClient(getImplClassLoader(), port);
 
@@ -0,0 +1,131 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.ixc;
+
+import java.io.ObjectStreamClass;
+import java.util.HashMap;
+
+/*
+ * The class descriptors one end of a connection has sent over it and
+ * received from it, so that a class is described in full only the
+ * first time, and by a number after that.  Both ends keep one of
+ * these for as long as the connection lasts.
+ *
+ * Calls on a connection are pipelined and unmarshalled by different
+ * threads, so a descriptor is numbered only once the other end is
+ * known to have read it: each message carries the numbers of the
+ * descriptors its sender has received since its last message, and
+ * until a descriptor's number comes back so, it is sent in full
+ * again, with the same number.
+ *
+ * IxcOutputStream writes before each class descriptor an int n:
+ *    n >= 0   the descriptor the other end numbered n,
+ *    n == -1  a descriptor in full, not to be numbered,
+ *    n <= -2  a descriptor in full, to be numbered -n - 2.
+ */
+
+final class ClassTable {
+
+   // How many descriptors are numbered each way.
+   static final int LIMIT = 256;
+
+   // Guarded by this.
+   private final HashMap sentNumbers = new HashMap(); // ObjectStreamClass -> Integer
+   private final boolean[] confirmed = new boolean[LIMIT];
+   private final ObjectStreamClass[] received = new ObjectStreamClass[LIMIT];
+   private final boolean[] isAckPending = new boolean[LIMIT];
+   private int[] acks = new int[8];
+   private int ackCount = 0;
+
+   /*
+    * Returns what to write before desc, as above.
+    */
+   synchronized int lookup(ObjectStreamClass desc) {
+      Integer number = (Integer) sentNumbers.get(desc);
+      if (number == null) {
+         if (sentNumbers.size() == LIMIT) {
+            return -1;
+         }
+         number = new Integer(sentNumbers.size());
+         sentNumbers.put(desc, number);
+      }
+      int n = number.intValue();
+      return confirmed[n] ? n : -n - 2;
+   }
+
+   /*
+    * Notes that the other end has read the descriptor numbered n.
+    */
+   synchronized void confirm(int n) {
+      if (n >= 0 && n < LIMIT) {
+         confirmed[n] = true;
+      }
+   }
+
+   /*
+    * Records desc, numbered n by the other end, and that the other
+    * end is to be told it has arrived.  A number is acknowledged once
+    * however often it arrives before the next message goes, since
+    * one-way calls have no replies to carry acknowledgements.
+    */
+   synchronized void define(int n, ObjectStreamClass desc) {
+      if (n >= LIMIT) {
+         return;
+      }
+      received[n] = desc;
+      if (isAckPending[n]) {
+         return;
+      }
+      isAckPending[n] = true;
+      if (ackCount == acks.length) {
+         int[] a = new int[acks.length * 2];
+         System.arraycopy(acks, 0, a, 0, ackCount);
+         acks = a;
+      }
+      acks[ackCount++] = n;
+   }
+
+   /*
+    * Returns the received descriptor numbered n, or null if there is
+    * none.
+    */
+   synchronized ObjectStreamClass get(int n) {
+      return (n < LIMIT) ? received[n] : null;
+   }
+
+   /*
+    * Returns the numbers to acknowledge in the next message, and
+    * forgets them.
+    */
+   synchronized int[] takeAcks() {
+      int[] a = new int[ackCount];
+      System.arraycopy(acks, 0, a, 0, ackCount);
+      for (int i = 0; i < ackCount; i++) {
+         isAckPending[acks[i]] = false;
+      }
+      ackCount = 0;
+      return a;
+   }
+}
@@ -24,8 +24,12 @@
 
 package com.sun.jumpimpl.ixc;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.ObjectOutputStream;
@@ -34,58 +38,38 @@ import java.io.IOException;
 import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.rmi.Remote;
 import java.security.AccessController;
 import java.security.AccessControlContext;
-import java.security.PrivilegedAction;
 import java.security.PrivilegedExceptionAction;
 import java.security.PrivilegedActionException;
 import java.util.HashMap;
+import java.util.LinkedList;
 import sun.security.action.GetIntegerAction;
 
+import com.sun.jumpimpl.process.JUMPModulesConfig;
+
 import javax.microedition.xlet.*;
 import javax.microedition.xlet.ixc.*;
 
 /* 
- * This is VM-wide singleton class for accepting incoming
- * connections from other clients, with it's ServerSocket.
- * It's used for receiving IXC method invocation requests.
- * This ServerSocket's port number is included in the RemoteRef
- * of the objects exported by this VM's xlet(s).
+ * This is VM-wide singleton class for receiving IXC method invocation
+ * requests from other clients.  With the TCP transport it listens on
+ * a ServerSocket, whose port number is included in the RemoteRef of
+ * the objects exported by this VM's xlet(s), and its connections are
+ * read by a SocketReceiver.
+ *
+ * The invocation requests of every IxcTransport are executed here.
  */
    
-public class ConnectionReceiver implements Runnable {
+public class ConnectionReceiver {
 
    private static int execVMServicePort;
    private static boolean initialized = false;
-   private static ServerSocket serverSocket;
+   private static SocketReceiver socketReceiver;
    private static boolean debug = false; // Enable/disable debug output
 
-   private ConnectionReceiver(final int port) {
-      serverSocket = (ServerSocket) AccessController.doPrivileged(
-         new PrivilegedAction() {
-            public Object run() {
-               ServerSocket socket = null;
-               try {
-                  if (port == 0) {
-                     socket = new ServerSocket();
-                     socket.bind(null);
-                  } else {
-                     socket = new ServerSocket(port);
-                  }
-               } catch (IOException e) { 
-                  System.err.println("Error opening ServerSocket");
-                  e.printStackTrace();
-               }
-               return socket;
-            }
-         });
-
-       if (serverSocket != null)
-          new Thread(this).start();
-    }
+   private ConnectionReceiver() {}
 
     public synchronized static void setExecVMServicePort(int portNumber) {
        if (initialized) { 
@@ -95,15 +79,23 @@ public class ConnectionReceiver implements Runnable {
        initialized = true;
     }
 
+    /*
+     * Returns the IXC address of the executive VM, which is its port
+     * if the transport is over TCP.  Other transports address VMs by
+     * process id, so that of the executive is known without being set.
+     */
     public synchronized static int getExecVMServicePort() {
        if (!initialized) { 
+          if (IxcTransport.getTransport().isAddressedByProcess()) {
+             return Utils.getMtaskServerID();
+          }
           throw new InternalError("ExecutiveVM port not yet set");
        }
        return execVMServicePort;
     }
 
     /*
-     * Starts the executive VM ServerSocket.
+     * Starts receiving IXC calls in the executive VM.
      * Should only be called in the ExecutiveVM.
      */
     public static void startExecVMService() {
@@ -111,66 +103,275 @@ public class ConnectionReceiver implements Runnable {
     }
 
     /*
-     * Starts the ConnectionReceiver if necessary, and returns the local
-     * VM's ServerSocket. 
+     * Starts receiving IXC calls if necessary, and returns the local
+     * VM's IXC address, as included in the RemoteRefs it exports.
      */
     static int getLocalServicePort() {
-       if (serverSocket == null) {
-          new ConnectionReceiver(0);
+       return IxcTransport.getTransport().getLocalAddress();
+    }
+
+    /*
+     * Starts the SocketReceiver if necessary, and returns the local
+     * VM's server port, for the TCP transport. 
+     */
+    static synchronized int getServerSocketPort() {
+       if (socketReceiver == null) {
+          try {
+             socketReceiver = SocketReceiver.open();
+          } catch (IOException e) { 
+             e.printStackTrace();
+             throw new InternalError("Cannot open the IXC ServerSocket: " + e);
+          }
        }
 
-       return serverSocket.getLocalPort();
+       return socketReceiver.getPort();
     }
 
     private static void debugOut(String s) {
        System.out.println("ConnectionReceiver: " + s);
     }
 
+    private static int getConfig(String key, int defaultValue) {
+       Object value = JUMPModulesConfig.getProperties().get(key);
+       if (value != null) {
+          try {
+             return Integer.parseInt(((String) value).trim());
+          } catch (NumberFormatException e) {
+             e.printStackTrace();
+          }
+       }
+       return defaultValue;
+    }
+
+    /*
+     * Reads invocation requests from a stream connection of a client
+     * VM, until the client closes it, with a thread of its own.
+     * Closing the streams closes the connection.  Used for the
+     * connections of the Unix transport, which have no read timeout.
+     */
+    static void serve(String name, InputStream in, OutputStream out) {
+       Thread t = new Thread(new ConnectionReader(name, in, out), 
+                             "IxcConnectionReader-" + name);
+       t.setDaemon(true);
+       t.start();
+    }
+
+    /*
+     * Executes an invocation request in a worker thread, and sends its
+     * reply to channel.  The request counts against the quota of the
+     * xlet that exported the object called.  If the IxcExecutor is too
+     * busy to take it, the call fails with a StubException at once.
+     *
+     * A request with the ID IxcConnection.ONE_WAY_REQUEST is one-way,
+     * and gets no reply.  It waits its turn in the channel's
+     * OneWayQueue instead, which may make the caller wait for room.
+     */
+    static void execute(ReplyChannel channel, int requestID, byte[] request) {
+       RemoteMethodExecutor executor = 
+          new RemoteMethodExecutor(channel, requestID, request);
+       if (requestID == IxcConnection.ONE_WAY_REQUEST) {
+          channel.getOneWayQueue().add(executor);
+       } else if (!submit(executor)) {
+          if (debug) debugOut("Rejected request " + requestID);
+          executor.reject();
+       }
+    }
 
-   // Waits for the connection request to come to this ServerSocket.
-   public void run() {
-      Socket clientSocket = null;
+    private static boolean submit(RemoteMethodExecutor executor) {
+       return IxcExecutor.getInstance().execute(getOwner(executor.request),
+                                                executor);
+    }
 
-      while (true) {
-        if (debug) debugOut("ConnectionReceiver waiting for new connection");
-           
-        final ServerSocket finalSocket = serverSocket;
-        clientSocket = (Socket) AccessController.doPrivileged(
-           new PrivilegedAction() {
-              public Object run() {
-                 try {
-                    Socket s = serverSocket.accept(); 
-                    s.setReuseAddress(true);
-                    return s;
-                 } catch (IOException e) {
-                    e.printStackTrace();
-                 }
-                 return null;
-              }
-           });
-
-        if (clientSocket != null) {
-           // Connected - execute the method invocation in this vm.
-           if (debug) debugOut("Connected with " +  clientSocket);
-           Runnable executor = new RemoteMethodExecutor(clientSocket);
-           WorkerThreadPool.execute(Thread.NORM_PRIORITY, executor);
-        }
-      }
+    // Returns the context of the xlet that exported the object a
+    // request calls, from the object ID it starts with, or null if
+    // there is no such object.
+    private static XletContext getOwner(byte[] request) {
+       if (request.length < 8) {
+          return null;
+       }
+       long objectID = 0;
+       for (int i = 0; i < 8; i++) {
+          objectID = (objectID << 8) | (request[i] & 0xff);
+       }
+       ExportedObject exportedObject = 
+          ExportedObject.findExportedObject(objectID);
+       return (exportedObject == null) ? null : exportedObject.context;
+    }
+
+    /*
+     * Where the reply to an invocation request goes.
+     */
+    interface ReplyChannel {
+       // The class descriptors of the connection, or null if the
+       // channel is no connection.
+       ClassTable getClassTable();
+
+       // Where the one-way requests of the channel wait their turn.
+       OneWayQueue getOneWayQueue();
+
+       void reply(int requestID, ByteArrayOutputStream body) 
+          throws IOException;
+
+       // Called when no reply can be made.  The client's call must
+       // fail rather than wait forever.
+       void close();
+    }
+
+    /*
+     * Reads the requests from one client VM, which keeps its connection
+     * open for all of its calls to this VM.  Each request is executed
+     * by a worker thread, so calls from different client threads run
+     * concurrently, and a call can call back into its client.  Requests
+     * and replies are framed as described in IxcConnection.
+     */
+    static class ConnectionReader implements Runnable, ReplyChannel {
+       String name;
+       DataInputStream in;
+       DataOutputStream out;
+       ClassTable classTable = new ClassTable();
+       OneWayQueue oneWayQueue = new OneWayQueue();
+
+       public ConnectionReader(String name, InputStream in, OutputStream out) {
+          this.name = name;
+          this.in = new DataInputStream(new BufferedInputStream(in));
+          this.out = new DataOutputStream(new BufferedOutputStream(out));
+       }
+
+       public void run() {
+          try {
+             while (true) {
+                int requestID = in.readInt();
+                byte[] request = IxcConnection.readFrame(in);
+                if (debug) debugOut("Read request " + requestID);
+
+                execute(this, requestID, request);
+             }
+          } catch (EOFException e) {
+             if (debug) debugOut("Client closed " + name);
+          } catch (IOException e) {
+             if (debug) debugOut("Error reading from " + name + ": " + e);
+          }
+
+          close();
+       }
+
+       public ClassTable getClassTable() {
+          return classTable;
+       }
+
+       public OneWayQueue getOneWayQueue() {
+          return oneWayQueue;
+       }
+
+       public void reply(int requestID, ByteArrayOutputStream body) 
+          throws IOException {
+          synchronized (out) {
+             IxcConnection.writeFrame(out, requestID, body);
+          }
+       }
+
+       public void close() {
+          try {
+             in.close();
+          } catch (IOException e) {}
+          try {
+             out.close();
+          } catch (IOException e) {}
+       }
+    }
+
+    /*
+     * The one-way requests of a channel, which are executed one at a
+     * time, in the order they came.  Their clients don't wait for them,
+     * so this is the only way to keep them in order.  Requests with
+     * replies are executed as soon as they come, as before.
+     *
+     * At most jump.ixc.oneway.max requests (100) wait, and the reader
+     * of the channel waits for room to add another, so that a client
+     * sending faster than its calls run is slowed down to their pace.
+     * None is ever dropped: one the IxcExecutor is too busy to take is
+     * run by the thread handing it over, which holds up the requests
+     * behind it.
+     */
+    static class OneWayQueue {
+       private static final int MAX_WAITING =
+          getConfig("jump.ixc.oneway.max", 100);
+
+       private final LinkedList waiting = new LinkedList();
+       private boolean isRunning = false;
+
+       void add(RemoteMethodExecutor executor) {
+          synchronized (this) {
+             boolean interrupted = false;
+             while (waiting.size() >= MAX_WAITING) {
+                try {
+                   wait();
+                } catch (InterruptedException e) {
+                   interrupted = true;
+                }
+             }
+             if (interrupted) {
+                Thread.currentThread().interrupt();
+             }
+             waiting.add(executor);
+             if (isRunning) {
+                return;
+             }
+             isRunning = true;
+          }
+          runNext();
+       }
+
+       // Hands the next request to the IxcExecutor, if there is one.
+       // Called when the last one has finished.
+       void runNext() {
+          while (true) {
+             RemoteMethodExecutor executor;
+             synchronized (this) {
+                if (waiting.isEmpty()) {
+                   isRunning = false;
+                   return;
+                }
+                executor = (RemoteMethodExecutor) waiting.removeFirst();
+                notifyAll();
+             }
+             if (submit(executor)) {
+                return;
+             }
+             if (debug) debugOut("IXC calls are queued to the limit, " +
+                                 "running a one-way call in " +
+                                 Thread.currentThread().getName());
+             executor.invoke();
+          }
+       }
     }
 
-    // Handles each incoming connection request.
-    class RemoteMethodExecutor implements Runnable {
-       Socket clientSocket;
+    // Handles each incoming invocation request.
+    static class RemoteMethodExecutor implements Runnable {
+       ReplyChannel connection;
+       int requestID;
+       byte[] request;
 
-       public RemoteMethodExecutor(Socket s) {
-          clientSocket = s;
+       public RemoteMethodExecutor(ReplyChannel c, int id, byte[] b) {
+          connection = c;
+          requestID = id;
+          request = b;
        }
   
        // Executed by the worker thread. 
        public void run() {
+          if (requestID != IxcConnection.ONE_WAY_REQUEST) {
+             invoke();
+             return;
+          }
+          try {
+             invoke();
+          } finally {
+             connection.getOneWayQueue().runNext();
+          }
+       }
 
-          InputStream in = null;
-          OutputStream out = null;
+       private void invoke() {
 
           boolean isExecutiveIxcRegistry = false;
 
@@ -180,13 +381,13 @@ public class ConnectionReceiver implements Runnable {
               * Invocation request comes in this order.
               * 1.The object ID (long).
               * 2.The method ID (long).
-              * 3.Parameters marshalled out (if needed)
+              * 3.Parameters marshalled out (if needed), as described
+              *   in IxcCall
               */
-             in = clientSocket.getInputStream();
-
-             DataInputStream din = new DataInputStream(in);
-             long objectID = din.readLong();
-             long methodID = din.readLong();
+             IxcCall call = IxcCall.receive(request, 
+                                            connection.getClassTable());
+             long objectID = call.getObjectID();
+             long methodID = call.getMethodID();
 
              Object    remoteObject = null;
              Method    method = null;
@@ -202,6 +403,7 @@ public class ConnectionReceiver implements Runnable {
                 remoteObject = exportedObject.remoteObject;
                 isExecutiveIxcRegistry = 
                    (remoteObject instanceof JUMPExecIxcRegistryRemote); 
+                call.setContext(exportedObject.context, isExecutiveIxcRegistry);
              }
 
              if (debug) debugOut("Found corresponding Object " + remoteObject + ", isExecutiveIxcRegistry=" + isExecutiveIxcRegistry);
@@ -214,44 +416,55 @@ public class ConnectionReceiver implements Runnable {
              } 
 
              // Next, find the method 
+             int index = -1;
              if (remoteObject != null) {
-                method = exportedObject.findExportedMethod(methodID);
-                if (method == null) {
+                index = exportedObject.type.indexOf(methodID);
+                if (index < 0) {
                    /* problem here */
                    hasExceptionThrown = true; 
                    returnValue = 
                       new StubException("Cannot find corresponding method:" + methodID);
-                } 
+                } else {
+                   method = exportedObject.type.getMethods()[index];
+                }
              }
  
              if (debug) debugOut("Found corresponding method " + method);
 
-             // If both object and method are found, read params and invoke
+             // If both object and method are found, read params and invoke.
+             // The skeleton reads the params, and writes the return
+             // value after the boolean, itself.
+             boolean isDispatched = false;
              if (method != null) {
 
-                Class[]  paramTypes = method.getParameterTypes();
-                Object[] paramObjects = new Object[paramTypes.length];
-           
+                SkeletonObject skeleton = exportedObject.type.getSkeleton();
+
                 try {
-                   if (paramTypes.length > 0) {
+                   if (skeleton != null) {
+                      // This runs in the worker thread's own context,
+                      // as the reflective call does.
+                      call.writeBoolean(false);
+                      skeleton.com_sun_xlet_dispatch(remoteObject, index, call);
+                      isDispatched = true;
+                   } else {
+                      Class[]  paramTypes = 
+                         exportedObject.type.getParameterTypes(index);
+                      Object[] paramObjects = new Object[paramTypes.length];
            
-                      IxcInputStream oin = new IxcInputStream(in, 
-                               exportedObject.context, isExecutiveIxcRegistry);
-
                       for (int i = 0; i < paramObjects.length; i++) {
-                         paramObjects[i] = oin.readObject();
+                         paramObjects[i] = call.readValue(paramTypes[i]);
                          if (debug) debugOut("Read param " + i + " : " + paramObjects[i]);
                       }
-                   }
 
-                   // Need to find out the client's AccessControlContext,
-                   // so that the method invocation can happen in the proper
-                   // security context.
-                   AccessControlContext acc = AccessController.getContext();
-                   returnValue = invokeMethod(method, 
-                                              remoteObject, 
-                                              paramObjects, 
-                                              acc); 
+                      // Need to find out the client's AccessControlContext,
+                      // so that the method invocation can happen in the proper
+                      // security context.
+                      AccessControlContext acc = AccessController.getContext();
+                      returnValue = invokeMethod(method, 
+                                                 remoteObject, 
+                                                 paramObjects, 
+                                                 acc); 
+                   }
 
                 } catch (StubException se) { // Error in importing parameters
                    hasExceptionThrown = true;
@@ -279,44 +492,86 @@ public class ConnectionReceiver implements Runnable {
              if (debug) debugOut("hasExceptionThrown = " + hasExceptionThrown);
              if (debug && hasExceptionThrown) debugOut("Exception: " + returnValue);
 
-             out = clientSocket.getOutputStream();
-
-             /**
-              * Invocation results are sent out in this order.
-              * 1.Whether the method invocation ended abnormally (bool).
-              * 2.Return value (In normal ending, object or NullObject
-              *   for null return, else the corresponding Throwable)
-              */
-             
-             IxcOutputStream oout = new IxcOutputStream(out, 
-                                exportedObject.context, isExecutiveIxcRegistry);
+             // Nobody waits for the result of a one-way call, so an
+             // exception it threw is only shown here.
+             if (requestID == IxcConnection.ONE_WAY_REQUEST) {
+                if (hasExceptionThrown) {
+                   System.out.println("Exception in one-way method " + 
+                                      method + ": " + returnValue);
+                   if (returnValue instanceof Throwable) {
+                      ((Throwable) returnValue).printStackTrace();
+                   }
+                }
+                return;
+             }
 
-             oout.writeBoolean(hasExceptionThrown); 
-             oout.writeObject(returnValue);
-           
-             if (debug) debugOut("Done with this RMI, closing the output");
-             Thread.sleep(200);
+             Class returnType = 
+                (method == null) ? Void.TYPE : method.getReturnType();
+             ByteArrayOutputStream out;
+             try {
+                if (isDispatched) {
+                   out = call.marshal(connection.getClassTable());
+                } else {
+                   if (hasExceptionThrown) {
+                      call.resetOutput(); // The skeleton may have written
+                   }
+                   out = marshalResult(call, returnType, 
+                                       hasExceptionThrown, returnValue);
+                }
+             } catch (IOException e) { // Return value not serializable
+                call.resetOutput();
+                out = marshalResult(call, returnType, true,
+                         new StubException("Cannot marshal the result: " + e));
+             }
 
-             oout.flush();
-             in.close();
-             oout.close();
+             if (debug) debugOut("Done with this RMI, sending the reply");
+             connection.reply(requestID, out);
 
           } catch (Exception e) {
              System.out.println("Caught exception while processing method invocation"); 
              e.printStackTrace();
+
+             // The client would wait for the reply forever, so fail
+             // all of its calls instead.
+             connection.close();
           }
-  
+       }
+
+       // Replies that the call can't be run now.
+       void reject() {
           try {
-             clientSocket.shutdownInput();
-             clientSocket.shutdownOutput();
-             clientSocket.close();
-          } catch (Exception e) {
-             //e.printStackTrace();
+             connection.reply(requestID, 
+                marshalResult(IxcCall.newReply(), Void.TYPE, true, 
+                   new StubException("IXC calls are queued to the limit")));
+          } catch (IOException e) {
+             e.printStackTrace();
+             connection.close();
+          }
+       }
+
+       /**
+        * Invocation results are sent out in this order, as described
+        * in IxcCall.
+        * 1.Whether the method invocation ended abnormally (bool).
+        * 2.In normal ending, the return value of returnType,
+        *   else the corresponding Throwable
+        */
+       private ByteArrayOutputStream marshalResult(IxcCall call,
+                                                   Class returnType,
+                                                   boolean hasExceptionThrown,
+                                                   Object returnValue) 
+          throws IOException {
+          call.writeBoolean(hasExceptionThrown); 
+          if (hasExceptionThrown) {
+             call.writeObject(returnValue);
+          } else {
+             call.writeValue(returnType, returnValue);
           }
+          return call.marshal(connection.getClassTable());
        }
     }
 
-    private Object invokeMethod(final Method method, 
+    private static Object invokeMethod(final Method method, 
                                 final Object remoteObject, 
                                 final Object[] paramObjects, 
                                 final AccessControlContext xletACC) 
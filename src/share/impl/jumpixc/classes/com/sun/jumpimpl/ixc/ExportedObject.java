@@ -108,7 +108,8 @@ public class ExportedObject {
    }
 
    public Method findExportedMethod(long methodID) {
-      return (Method) type.methodsByID.get(new Long(methodID));
+      int index = type.indexOf(methodID);
+      return (index < 0) ? null : type.getMethods()[index];
    }
 
    public RemoteRef getRemoteRef() {
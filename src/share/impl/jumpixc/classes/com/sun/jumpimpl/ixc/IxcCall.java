@@ -0,0 +1,472 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.ixc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+
+import javax.microedition.xlet.XletContext;
+
+/**
+ * One remote method invocation, as its stub writes the arguments and
+ * reads the result, and as the ConnectionReceiver reads the arguments
+ * and writes the result.  Both ends know the method's signature, so
+ * primitives and Strings are written as they are, without boxing or
+ * type information.  Other objects are serialized with an
+ * IxcOutputStream, one per message, after the rest; over a connection
+ * their class descriptors are sent in full only once, as described
+ * in ClassTable.
+ * <p>
+ * A message is laid out in this order.
+ * <ol>
+ * <li>In a request, the object ID and the method ID (longs).
+ * <li>The number of class descriptor acknowledgements (unsigned
+ *     short), and the acknowledged numbers (ints).
+ * <li>The length of the data (int), and the data: the primitives and
+ *     Strings, in the order they were written.
+ * <li>The serialized objects, in the order they were written, if any.
+ * </ol>
+ * A result is a boolean, true if the method threw an exception, and
+ * then either the exception, as an object, or the return value.  A
+ * one-way call has no result.
+ */
+public final class IxcCall {
+
+   private static final int STRING_NULL = 0;
+   private static final int STRING_UTF = 1;
+   private static final int STRING_CHARS = 2;
+
+   // Strings no longer than this always fit writeUTF().
+   private static final int MAX_UTF_CHARS = 65535 / 3;
+
+   private static boolean debug = false; // Enable/disable debug output
+
+   // The stub making the call, or null at the receiving end.
+   private final StubObject stub;
+   private long objectID;
+   private long methodID;
+
+   // The xlet objects are serialized for.
+   private XletContext context;
+   private boolean isExecutiveIxcRegistry = false;
+
+   // The descriptors of the connection the call went over, set when
+   // it is marshalled or received.
+   private ClassTable classTable = null;
+
+   // What this end sends.
+   private ByteArrayOutputStream data;
+   private DataOutputStream dataOut;
+   private ArrayList objects;
+
+   // What this end received.
+   private byte[] received = null;
+   private int objectsOffset;
+   private DataInputStream dataIn = null;
+   private IxcInputStream objectIn = null;
+
+   /*
+    * Starts a call from stub.
+    */
+   IxcCall(StubObject stub, long methodID) {
+      this.stub = stub;
+      this.objectID = stub.remoteRef.getObjectID();
+      this.methodID = methodID;
+      this.context = stub.context;
+      resetOutput();
+   }
+
+   // At the receiving end.
+   private IxcCall() {
+      this.stub = null;
+      resetOutput();
+   }
+
+   /*
+    * Makes a reply that answers no request, for the ConnectionReceiver
+    * to say why it won't run one.
+    */
+   static IxcCall newReply() {
+      return new IxcCall();
+   }
+
+   /*
+    * Reads the request a ConnectionReceiver received over a connection
+    * with classTable, or with null if there is no connection.
+    */
+   static IxcCall receive(byte[] request, ClassTable classTable)
+      throws IOException {
+      IxcCall call = new IxcCall();
+      DataInputStream in =
+         new DataInputStream(new ByteArrayInputStream(request));
+      call.objectID = in.readLong();
+      call.methodID = in.readLong();
+      call.unmarshal(request, 16, classTable);
+      return call;
+   }
+
+   long getObjectID() {
+      return objectID;
+   }
+
+   long getMethodID() {
+      return methodID;
+   }
+
+   /*
+    * Sets the xlet whose object was called, once it is known at the
+    * receiving end.  Objects are read and written for it.
+    */
+   void setContext(XletContext context, boolean isExecutiveIxcRegistry) {
+      this.context = context;
+      this.isExecutiveIxcRegistry = isExecutiveIxcRegistry;
+   }
+
+   /*
+    * Discards what has been written, so that a reply can be written
+    * afresh.
+    */
+   void resetOutput() {
+      data = new ByteArrayOutputStream(64);
+      dataOut = new DataOutputStream(data);
+      objects = null;
+   }
+
+   public void writeBoolean(boolean v) throws IOException {
+      dataOut.writeBoolean(v);
+   }
+
+   public void writeByte(byte v) throws IOException {
+      dataOut.writeByte(v);
+   }
+
+   public void writeChar(char v) throws IOException {
+      dataOut.writeChar(v);
+   }
+
+   public void writeShort(short v) throws IOException {
+      dataOut.writeShort(v);
+   }
+
+   public void writeInt(int v) throws IOException {
+      dataOut.writeInt(v);
+   }
+
+   public void writeLong(long v) throws IOException {
+      dataOut.writeLong(v);
+   }
+
+   public void writeFloat(float v) throws IOException {
+      dataOut.writeFloat(v);
+   }
+
+   public void writeDouble(double v) throws IOException {
+      dataOut.writeDouble(v);
+   }
+
+   public void writeString(String s) throws IOException {
+      if (s == null) {
+         dataOut.writeByte(STRING_NULL);
+      } else if (s.length() <= MAX_UTF_CHARS) {
+         dataOut.writeByte(STRING_UTF);
+         dataOut.writeUTF(s);
+      } else {
+         dataOut.writeByte(STRING_CHARS);
+         dataOut.writeInt(s.length());
+         dataOut.writeChars(s);
+      }
+   }
+
+   /**
+    * Writes an object of any other type.  It is serialized when the
+    * call is sent.
+    */
+   public void writeObject(Object o) {
+      if (objects == null) {
+         objects = new ArrayList();
+      }
+      objects.add(o);
+   }
+
+   /**
+    * Sends the call and waits for the result.  Returns this call, to
+    * read the return value from, or throws the exception the method
+    * threw.  A failure to make the call is a RemoteException.
+    */
+   public IxcCall invoke() throws Exception {
+      Exception exceptionValue = null;
+
+      try {
+         if (debug) debugOut("Client calling " + objectID + "," + methodID);
+
+         byte[] reply = IxcTransport.getTransport().call(
+            stub.remoteRef.getPortID(), this);
+
+         if (debug) debugOut("Stub got reply, reading result");
+
+         unmarshal(reply, 0, classTable);
+         if (readBoolean()) {
+            exceptionValue = (Exception) readObject();
+         }
+
+      } catch (RemoteException re) {
+         throw re;
+      } catch (EOFException eofe) {
+         if (debug) debugOut("Problem in communicating with the other xlet: " + eofe);
+         throw new RemoteException("Error in remote method invocation", eofe);
+      } catch (java.net.ConnectException ce) {
+         if (debug) debugOut("Cannot connect to the other xlet (Xlet died?)" + ce);
+         throw new RemoteException("Cannot connect to the exported xlet (xlet died?)", ce);
+      } catch (Exception e) {
+         if (debug) debugOut("General Exception in invoke(): " + e);
+         throw new RemoteException("Error in remote method invocation", e);
+      }
+
+      if (exceptionValue != null) {
+         if (debug) exceptionValue.printStackTrace();
+         throw exceptionValue;
+      }
+      return this;
+   }
+
+   /**
+    * Sends the call to a one-way method, and returns without waiting
+    * for it to run.  A failure to send the call is a RemoteException.
+    */
+   public void invokeOneWay() throws RemoteException {
+      try {
+         if (debug) debugOut("Client sending " + objectID + "," + methodID);
+
+         IxcTransport.getTransport().send(stub.remoteRef.getPortID(), this);
+
+      } catch (java.net.ConnectException ce) {
+         if (debug) debugOut("Cannot connect to the other xlet (Xlet died?)" + ce);
+         throw new RemoteException("Cannot connect to the exported xlet (xlet died?)", ce);
+      } catch (Exception e) {
+         if (debug) debugOut("General Exception in invokeOneWay(): " + e);
+         throw new RemoteException("Error in remote method invocation", e);
+      }
+   }
+
+   public boolean readBoolean() throws IOException {
+      return dataIn.readBoolean();
+   }
+
+   public byte readByte() throws IOException {
+      return dataIn.readByte();
+   }
+
+   public char readChar() throws IOException {
+      return dataIn.readChar();
+   }
+
+   public short readShort() throws IOException {
+      return dataIn.readShort();
+   }
+
+   public int readInt() throws IOException {
+      return dataIn.readInt();
+   }
+
+   public long readLong() throws IOException {
+      return dataIn.readLong();
+   }
+
+   public float readFloat() throws IOException {
+      return dataIn.readFloat();
+   }
+
+   public double readDouble() throws IOException {
+      return dataIn.readDouble();
+   }
+
+   public String readString() throws IOException {
+      int kind = dataIn.readByte();
+      switch (kind) {
+      case STRING_NULL:
+         return null;
+      case STRING_UTF:
+         return dataIn.readUTF();
+      case STRING_CHARS:
+         int length = dataIn.readInt();
+         if (length < 0 || length > dataIn.available() / 2) {
+            throw new StreamCorruptedException("Bad String length " + length);
+         }
+         char[] chars = new char[length];
+         for (int i = 0; i < length; i++) {
+            chars[i] = dataIn.readChar();
+         }
+         return new String(chars);
+      default:
+         throw new StreamCorruptedException("Bad String kind " + kind);
+      }
+   }
+
+   /**
+    * Reads the next object written with <code>writeObject</code>.
+    */
+   public Object readObject() throws IOException, ClassNotFoundException {
+      if (objectIn == null) {
+         objectIn = new IxcInputStream(
+            new ByteArrayInputStream(received, objectsOffset,
+                                     received.length - objectsOffset),
+            context, isExecutiveIxcRegistry, classTable);
+      }
+      return objectIn.readObject();
+   }
+
+   /*
+    * Writes v, of the given declared type, which is boxed if that is
+    * primitive.  For the ConnectionReceiver, which calls methods by
+    * reflection.
+    */
+   void writeValue(Class type, Object v) throws IOException {
+      if (!type.isPrimitive()) {
+         if (type == String.class) {
+            writeString((String) v);
+         } else {
+            writeObject(v);
+         }
+      } else if (type == Integer.TYPE) {
+         writeInt(((Integer) v).intValue());
+      } else if (type == Boolean.TYPE) {
+         writeBoolean(((Boolean) v).booleanValue());
+      } else if (type == Long.TYPE) {
+         writeLong(((Long) v).longValue());
+      } else if (type == Byte.TYPE) {
+         writeByte(((Byte) v).byteValue());
+      } else if (type == Character.TYPE) {
+         writeChar(((Character) v).charValue());
+      } else if (type == Short.TYPE) {
+         writeShort(((Short) v).shortValue());
+      } else if (type == Float.TYPE) {
+         writeFloat(((Float) v).floatValue());
+      } else if (type == Double.TYPE) {
+         writeDouble(((Double) v).doubleValue());
+      }
+      // Nothing for void
+   }
+
+   /*
+    * Reads a value of the given declared type, boxed if that is
+    * primitive.
+    */
+   Object readValue(Class type) throws IOException, ClassNotFoundException {
+      if (!type.isPrimitive()) {
+         if (type == String.class) {
+            return readString();
+         }
+         return readObject();
+      } else if (type == Integer.TYPE) {
+         return new Integer(readInt());
+      } else if (type == Boolean.TYPE) {
+         return readBoolean() ? Boolean.TRUE : Boolean.FALSE;
+      } else if (type == Long.TYPE) {
+         return new Long(readLong());
+      } else if (type == Byte.TYPE) {
+         return new Byte(readByte());
+      } else if (type == Character.TYPE) {
+         return new Character(readChar());
+      } else if (type == Short.TYPE) {
+         return new Short(readShort());
+      } else if (type == Float.TYPE) {
+         return new Float(readFloat());
+      } else if (type == Double.TYPE) {
+         return new Double(readDouble());
+      }
+      return null;   // void
+   }
+
+   /*
+    * Returns the message to send, over a connection with classTable,
+    * or with null if there is no connection.  Called by the transport.
+    */
+   ByteArrayOutputStream marshal(ClassTable classTable) throws IOException {
+      this.classTable = classTable;
+      ByteArrayOutputStream out = new ByteArrayOutputStream(data.size() + 32);
+      DataOutputStream dout = new DataOutputStream(out);
+      if (stub != null) {
+         dout.writeLong(objectID);
+         dout.writeLong(methodID);
+      }
+
+      int[] acks = (classTable == null) ? new int[0] : classTable.takeAcks();
+      dout.writeShort(acks.length);
+      for (int i = 0; i < acks.length; i++) {
+         dout.writeInt(acks[i]);
+      }
+
+      dout.writeInt(data.size());
+      data.writeTo(dout);
+
+      if (objects != null) {
+         IxcOutputStream oout = new IxcOutputStream(out, context,
+                                   isExecutiveIxcRegistry, classTable);
+         for (int i = 0; i < objects.size(); i++) {
+            oout.writeObject(objects.get(i));
+         }
+         oout.flush();
+      }
+      return out;
+   }
+
+   // Reads the layout of a message from offset, after any IDs.
+   private void unmarshal(byte[] b, int offset, ClassTable classTable)
+      throws IOException {
+      this.classTable = classTable;
+      DataInputStream in = new DataInputStream(
+         new ByteArrayInputStream(b, offset, b.length - offset));
+
+      int count = in.readUnsignedShort();
+      for (int i = 0; i < count; i++) {
+         int n = in.readInt();
+         if (classTable != null) {
+            classTable.confirm(n);
+         }
+      }
+
+      int length = in.readInt();
+      int dataOffset = offset + 2 + 4 * count + 4;
+      if (length < 0 || length > b.length - dataOffset) {
+         throw new StreamCorruptedException("Bad IXC data length " + length);
+      }
+      received = b;
+      objectsOffset = dataOffset + length;
+      dataIn = new DataInputStream(
+         new ByteArrayInputStream(b, dataOffset, length));
+      objectIn = null;
+   }
+
+   private static void debugOut(String s) {
+      System.out.println("IxcCall: " + s);
+   }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.ixc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import com.sun.jumpimpl.process.JUMPModulesConfig;
+
+/*
+ * A persistent stream connection from this VM to the ConnectionReceiver
+ * of another VM, shared by every stub which imports objects from
+ * that VM.  Each call is tagged with a request ID, so calls from
+ * several threads are pipelined over the one connection, and a reader
+ * thread hands each reply to the thread waiting for it.
+ *
+ * Frames go both ways in this order.
+ * 1.The request ID (int).
+ * 2.The length of the body (int).
+ * 3.The body.
+ * The reader thread only moves bytes; bodies are unmarshalled by
+ * the calling thread, since that can itself make IXC calls.
+ *
+ * A one-way call has the request ID ONE_WAY_REQUEST, and no reply.
+ */
+
+class IxcConnection implements Runnable {
+
+   // Bodies larger than this, jump.ixc.frame.max bytes, are treated
+   // as a broken stream.
+   static final int MAX_FRAME_LENGTH = getMaxFrameLength();
+
+   // Bodies are read into a buffer this big at first, which grows as
+   // the bytes arrive, so a frame only takes as much memory as has
+   // actually been sent of it.
+   static final int FRAME_CHUNK = 8192;
+
+   // The request ID of one-way calls, which no other request has.
+   static final int ONE_WAY_REQUEST = 0;
+
+   private static boolean debug = false; // Enable/disable debug output
+
+   private final StreamTransport transport;
+   final int address;
+   private final DataInputStream in;
+   private final DataOutputStream out;
+
+   // The class descriptors sent and received over this connection.
+   private final ClassTable classTable = new ClassTable();
+
+   // Calls waiting for their reply, by request ID.  Guarded by
+   // pending, as are the rest.
+   private final HashMap pending = new HashMap();
+   int nextRequestID = 1;
+   private IOException failure = null;
+
+   /*
+    * Makes a connection to the VM at address over the streams of a
+    * connection the transport has opened.  Closing the streams
+    * closes the connection.
+    */
+   IxcConnection(StreamTransport transport, int address,
+                 InputStream in, OutputStream out) {
+      this.transport = transport;
+      this.address = address;
+      this.in = new DataInputStream(new BufferedInputStream(in));
+      this.out = new DataOutputStream(new BufferedOutputStream(out));
+   }
+
+   /*
+    * Starts the reader thread.
+    */
+   void start() {
+      Thread t = new Thread(this, "IxcConnection-" + address);
+      t.setDaemon(true);
+      t.start();
+   }
+
+   /*
+    * Sends c as a request and waits for the reply body.
+    */
+   byte[] call(IxcCall c) throws IOException {
+      ByteArrayOutputStream body = c.marshal(classTable);
+      Call call = new Call();
+      int requestID;
+      synchronized (pending) {
+         if (failure != null) {
+            throw failure;
+         }
+         requestID = newRequestID();
+         pending.put(new Integer(requestID), call);
+      }
+
+      try {
+         synchronized (out) {
+            writeFrame(out, requestID, body);
+         }
+      } catch (IOException e) {
+         close(e);
+         throw e;
+      }
+
+      if (debug) debugOut("Sent request " + requestID + ", waiting for reply");
+
+      synchronized (call) {
+         while (call.reply == null && call.failure == null) {
+            try {
+               call.wait();
+            } catch (InterruptedException e) {
+               // ignore.
+            }
+         }
+      }
+      if (call.failure != null) {
+         throw call.failure;
+      }
+      return call.reply;
+   }
+
+   /*
+    * Returns the ID of a new request, which is never ONE_WAY_REQUEST,
+    * even once the IDs have wrapped around.  Externally synchronized
+    * on pending.
+    */
+   int newRequestID() {
+      int requestID = nextRequestID++;
+      if (nextRequestID == ONE_WAY_REQUEST) {
+         nextRequestID++;
+      }
+      return requestID;
+   }
+
+   /*
+    * Sends c as a one-way request, which has no reply.
+    */
+   void send(IxcCall c) throws IOException {
+      ByteArrayOutputStream body = c.marshal(classTable);
+      synchronized (pending) {
+         if (failure != null) {
+            throw failure;
+         }
+      }
+
+      try {
+         synchronized (out) {
+            writeFrame(out, ONE_WAY_REQUEST, body);
+         }
+      } catch (IOException e) {
+         close(e);
+         throw e;
+      }
+
+      if (debug) debugOut("Sent one-way request");
+   }
+
+   // Reads replies and hands them to their callers.
+   public void run() {
+      try {
+         while (true) {
+            int requestID = in.readInt();
+            byte[] reply = readFrame(in);
+
+            Call call;
+            synchronized (pending) {
+               call = (Call) pending.remove(new Integer(requestID));
+            }
+            if (call == null) {
+               if (debug) debugOut("Reply to unknown request " + requestID);
+               continue;
+            }
+            synchronized (call) {
+               call.reply = reply;
+               call.notify();
+            }
+         }
+      } catch (IOException e) {
+         if (debug) debugOut("Connection to " + address + " closed: " + e);
+         close(e);
+      }
+   }
+
+   /*
+    * Fails every outstanding call with e, and forgets this connection
+    * so that the next call opens a new one.
+    */
+   private void close(IOException e) {
+      transport.closed(this);
+
+      HashMap calls;
+      synchronized (pending) {
+         if (failure != null) {
+            return;
+         }
+         failure = (e instanceof EOFException) ? e :
+                   (IOException) new EOFException("IXC connection closed: " + e);
+         calls = new HashMap(pending);
+         pending.clear();
+      }
+      for (Iterator i = calls.values().iterator(); i.hasNext(); ) {
+         Call call = (Call) i.next();
+         synchronized (call) {
+            call.failure = failure;
+            call.notify();
+         }
+      }
+
+      try {
+         in.close();
+      } catch (IOException ioe) {}
+      try {
+         out.close();
+      } catch (IOException ioe) {}
+   }
+
+   /*
+    * Writes one frame and flushes it.
+    */
+   static void writeFrame(DataOutputStream out, int requestID,
+                          ByteArrayOutputStream body) throws IOException {
+      out.writeInt(requestID);
+      out.writeInt(body.size());
+      body.writeTo(out);
+      out.flush();
+   }
+
+   /*
+    * Reads the body of a frame whose request ID has been read.
+    */
+   static byte[] readFrame(DataInputStream in) throws IOException {
+      int length = in.readInt();
+      if (length < 0 || length > MAX_FRAME_LENGTH) {
+         throw new IOException("Bad IXC frame length: " + length);
+      }
+      byte[] body = new byte[Math.min(length, FRAME_CHUNK)];
+      int read = 0;
+      while (true) {
+         in.readFully(body, read, body.length - read);
+         read = body.length;
+         if (read == length) {
+            return body;
+         }
+         byte[] larger = new byte[(int) Math.min(length, 2L * read)];
+         System.arraycopy(body, 0, larger, 0, read);
+         body = larger;
+      }
+   }
+
+   private static int getMaxFrameLength() {
+      Object value =
+         JUMPModulesConfig.getProperties().get("jump.ixc.frame.max");
+      if (value != null) {
+         try {
+            return Integer.parseInt(((String) value).trim());
+         } catch (NumberFormatException e) {
+            e.printStackTrace();
+         }
+      }
+      return 1024 * 1024;
+   }
+
+   private static void debugOut(String s) {
+      System.out.println("IxcConnection: " + s);
+   }
+
+   // A call waiting for its reply.
+   private static class Call {
+      byte[] reply;
+      IOException failure;
+   }
+}
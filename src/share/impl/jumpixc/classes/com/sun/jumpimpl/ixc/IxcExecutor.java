@@ -0,0 +1,318 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.ixc;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+
+import com.sun.jumpimpl.process.JUMPModulesConfig;
+import com.sun.jumpimpl.process.MessagingStats;
+
+/**
+ * Runs the IXC calls this VM receives on a bounded pool of worker
+ * threads.  The pool keeps <code>jump.ixc.executor.core</code>
+ * threads (2 by default) and grows to at most
+ * <code>jump.ixc.executor.max</code> (10) when calls arrive faster
+ * than they finish.  Threads beyond the core ones stop after
+ * <code>jump.ixc.executor.keepalive</code> milliseconds (10 seconds)
+ * without work.
+ * <p>
+ * Each task has an owner, the xlet that exported the object called.
+ * At most <code>jump.ixc.executor.quota</code> tasks (5) of one owner
+ * run or wait ready to run at once.  The owner's other tasks are held
+ * back in the order they came, so one busy exporter can't take every
+ * thread from the others.  At most <code>jump.ixc.executor.queue</code>
+ * tasks (100) wait ready in all, and at most
+ * <code>jump.ixc.executor.held</code> tasks (100) of each owner are
+ * held back.  Held tasks don't count towards the shared limit, so one
+ * busy exporter can't use it up either.  <code>execute()</code>
+ * rejects the tasks beyond these limits rather than block its caller,
+ * which is often the thread reading every client's requests.
+ * <p>
+ * A call that waits for a call back into this VM holds its thread,
+ * so chains of nested calls deeper than the quota can't complete.
+ */
+public class IxcExecutor {
+
+   private static IxcExecutor instance;
+
+   private final int coreThreads;
+   private final int maxThreads;
+   private final int queueLimit;
+   private final int heldLimit;
+   private final int quota;
+   private final long keepAlive;
+
+   // Tasks whose owner is within its quota, in the order they are to
+   // run.  Guarded by this, as are the other fields below.
+   private final LinkedList ready = new LinkedList();
+
+   // Maps the owner of each running or waiting task to its Owner.
+   private final HashMap owners = new HashMap();
+
+   private int queued = 0;     // Tasks ready or held back
+   private int threads = 0;
+   private int idle = 0;
+   private int active = 0;
+   private int largestPoolSize = 0;
+   private long completed = 0;
+   private long rejected = 0;
+   private int nextThread = 1; // For unique names, which helps debugging
+
+   private final MessagingStats.Histogram waitTimes =
+      new MessagingStats.Histogram();
+   private final MessagingStats.Histogram runTimes =
+      new MessagingStats.Histogram();
+
+   /**
+    * Makes an executor with the given limits.  A quota of 0 lets one
+    * owner use every thread.
+    */
+   public IxcExecutor(int coreThreads, int maxThreads, int queueLimit,
+                      int heldLimit, int quota, long keepAlive) {
+      if (coreThreads < 0 || maxThreads < 1 || coreThreads > maxThreads ||
+          queueLimit < 0 || heldLimit < 0 || quota < 0 || keepAlive < 0) {
+         throw new IllegalArgumentException("Bad IXC executor limits");
+      }
+      this.coreThreads = coreThreads;
+      this.maxThreads = maxThreads;
+      this.queueLimit = queueLimit;
+      this.heldLimit = heldLimit;
+      this.quota = (quota == 0) ? Integer.MAX_VALUE : quota;
+      this.keepAlive = keepAlive;
+   }
+
+   /**
+    * Returns the executor of this VM's IXC calls, configured by the
+    * <code>jump.ixc.executor.*</code> properties.
+    */
+   public static synchronized IxcExecutor getInstance() {
+      if (instance == null) {
+         int max = getConfig("jump.ixc.executor.max", 10);
+         instance = new IxcExecutor(
+            Math.min(getConfig("jump.ixc.executor.core", 2), max),
+            max,
+            getConfig("jump.ixc.executor.queue", 100),
+            getConfig("jump.ixc.executor.held", 100),
+            getConfig("jump.ixc.executor.quota", 5),
+            getConfig("jump.ixc.executor.keepalive", 10000));
+      }
+      return instance;
+   }
+
+   /**
+    * Runs task in a worker thread, after the tasks before it of the
+    * same owner if that has reached its quota.  Returns false without
+    * running it if too many tasks are ready to run already, or, if the
+    * owner has reached its quota, too many of the owner's are held
+    * back.
+    */
+   public synchronized boolean execute(Object owner, Runnable task) {
+      Owner o = (Owner) owners.get(owner);
+      boolean isAdmitted = (o == null || o.admitted < quota);
+      if (isAdmitted ? ready.size() >= queueLimit
+                     : o.held.size() >= heldLimit) {
+         rejected++;
+         return false;
+      }
+      queued++;
+      Task t = new Task(owner, task);
+      if (o == null) {
+         o = new Owner();
+         owners.put(owner, o);
+      }
+      if (isAdmitted) {
+         o.admitted++;
+         makeReady(t);
+      } else {
+         o.held.add(t);
+      }
+      return true;
+   }
+
+   // Called holding the lock.
+   private void makeReady(Task t) {
+      ready.add(t);
+      if (ready.size() > idle && threads < maxThreads) {
+         startThread();
+      } else {
+         notify();
+      }
+   }
+
+   private void startThread() {
+      Thread t = new Thread(new Worker(), "IxcExecutor-" + nextThread++);
+      t.setDaemon(true);
+      t.start();
+      threads++;
+      if (threads > largestPoolSize) {
+         largestPoolSize = threads;
+      }
+   }
+
+   // Called holding the lock when a task of owner has finished.  The
+   // next task held back for the owner, if any, takes its place, to
+   // be run by the thread that finished.
+   private void release(Object owner) {
+      Owner o = (Owner) owners.get(owner);
+      if (o.held.isEmpty()) {
+         if (--o.admitted == 0) {
+            owners.remove(owner);
+         }
+      } else {
+         ready.add(o.held.removeFirst());
+      }
+   }
+
+   /**
+    * Returns how many tasks are waiting to run, including those held
+    * back by their owner's quota.
+    */
+   public synchronized int getQueueLength() {
+      return queued;
+   }
+
+   /**
+    * Returns how many tasks are running.
+    */
+   public synchronized int getActiveCount() {
+      return active;
+   }
+
+   public synchronized int getPoolSize() {
+      return threads;
+   }
+
+   public synchronized int getLargestPoolSize() {
+      return largestPoolSize;
+   }
+
+   public synchronized long getCompletedCount() {
+      return completed;
+   }
+
+   /**
+    * Returns how many tasks <code>execute()</code> has turned away.
+    */
+   public synchronized long getRejectedCount() {
+      return rejected;
+   }
+
+   /**
+    * Returns the times tasks waited before they started.
+    */
+   public MessagingStats.Histogram getWaitTimes() {
+      return waitTimes;
+   }
+
+   /**
+    * Returns the times tasks took to run.
+    */
+   public MessagingStats.Histogram getRunTimes() {
+      return runTimes;
+   }
+
+   public synchronized String toString() {
+      return "IxcExecutor: threads " + threads + " (largest " +
+         largestPoolSize + "), active " + active + ", queued " + queued +
+         ", completed " + completed + ", rejected " + rejected +
+         ", waits " + waitTimes + ", runs " + runTimes;
+   }
+
+   private static int getConfig(String key, int defaultValue) {
+      Object value = JUMPModulesConfig.getProperties().get(key);
+      if (value != null) {
+         try {
+            return Integer.parseInt(((String) value).trim());
+         } catch (NumberFormatException e) {
+            e.printStackTrace();
+         }
+      }
+      return defaultValue;
+   }
+
+   private static class Task {
+      final Object owner;
+      final Runnable runnable;
+      final long submitted = System.currentTimeMillis();
+
+      Task(Object owner, Runnable runnable) {
+         this.owner = owner;
+         this.runnable = runnable;
+      }
+   }
+
+   // The tasks of one owner.
+   private static class Owner {
+      int admitted = 0;   // Running or ready
+      final LinkedList held = new LinkedList();
+   }
+
+   private class Worker implements Runnable {
+      public void run() {
+         while (true) {
+            Task t;
+            synchronized (IxcExecutor.this) {
+               long deadline = System.currentTimeMillis() + keepAlive;
+               while (ready.isEmpty()) {
+                  long timeout = 0;
+                  if (threads > coreThreads) {
+                     timeout = deadline - System.currentTimeMillis();
+                     if (timeout <= 0) {
+                        threads--;
+                        return;
+                     }
+                  }
+                  idle++;
+                  try {
+                     IxcExecutor.this.wait(timeout);
+                  } catch (InterruptedException e) {
+                     // ignore.
+                  }
+                  idle--;
+               }
+               t = (Task) ready.removeFirst();
+               queued--;
+               active++;
+            }
+
+            long start = System.currentTimeMillis();
+            waitTimes.record(start - t.submitted);
+            try {
+               t.runnable.run();
+            } catch (Throwable e) {
+               e.printStackTrace();
+            }
+            runTimes.record(System.currentTimeMillis() - start);
+
+            synchronized (IxcExecutor.this) {
+               active--;
+               completed++;
+               release(t.owner);
+            }
+         }
+      }
+   }
+}
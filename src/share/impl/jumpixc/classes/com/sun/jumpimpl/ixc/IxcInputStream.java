@@ -30,6 +30,7 @@ import java.io.ObjectInputStream;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.ObjectStreamClass;
+import java.io.StreamCorruptedException;
 import java.rmi.Remote;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
@@ -48,10 +49,21 @@ public class IxcInputStream extends ObjectInputStream {
 
    XletContext context;
 
+   // The class descriptors received over the connection, or null if
+   // every descriptor comes in full.
+   private ClassTable classTable;
+
    IxcInputStream(InputStream in, XletContext context, boolean isExecutiveVM) 
       throws IOException {
+      this(in, context, isExecutiveVM, null);
+   }
+
+   IxcInputStream(InputStream in, XletContext context, boolean isExecutiveVM,
+                  ClassTable classTable) 
+      throws IOException {
       super(in);
       this.context = context;
+      this.classTable = classTable;
 
       /*** 
        * isExecutiveVM value indicates that this IxcInputStream is used
@@ -70,6 +82,30 @@ public class IxcInputStream extends ObjectInputStream {
       }
    }
 
+   // Reads the numbered descriptors IxcOutputStream writes.  One
+   // read in full stays valid for later calls, since it only serves
+   // as the model for the descriptor each stream makes from it.
+   protected ObjectStreamClass readClassDescriptor()
+      throws IOException, ClassNotFoundException {
+      if (classTable == null) {
+         return super.readClassDescriptor();
+      }
+      int n = readInt();
+      if (n >= 0) {
+         ObjectStreamClass desc = classTable.get(n);
+         if (desc == null) {
+            throw new StreamCorruptedException(
+               "Unknown class descriptor " + n);
+         }
+         return desc;
+      }
+      ObjectStreamClass desc = super.readClassDescriptor();
+      if (n <= -2) {
+         classTable.define(-n - 2, desc);
+      }
+      return desc;
+   }
+
    protected Class resolveClass(ObjectStreamClass desc)
       throws IOException, StubException {
       String name = desc.getName();
@@ -24,6 +24,7 @@
 
 package com.sun.jumpimpl.ixc;
 
+import com.sun.jump.command.JUMPCommand;
 import com.sun.jump.command.JUMPRequest;
 
 /**
@@ -38,7 +39,24 @@ public class IxcMessage extends JUMPRequest {
 
     public IxcMessage() {}
 
+    /**
+     * Make <code>JUMPCommand.fromMessage()</code> decode port
+     * messages to <code>IxcMessage</code>.
+     */
+    public static void registerFactory() {
+       JUMPCommand.registerFactory(ID_PORT, IxcMessage.class,
+           new JUMPCommand.Factory() {
+               public JUMPCommand newCommand() {
+                   return new IxcMessage();
+               }
+           });
+    }
+
     public IxcMessage(int portNumber) { 
-       super(messageType, ID_PORT, new String[] {Integer.toString(portNumber)}); 
+       super(messageType, ID_PORT, new Object[] {new Integer(portNumber)}); 
+    }
+
+    public int getPort() {
+       return getIntData(0);
     }
 }
@@ -42,12 +42,23 @@ public class IxcOutputStream extends ObjectOutputStream {
 
    private XletContext context;
 
+   // The class descriptors sent over the connection, or null to
+   // write every descriptor in full.
+   private ClassTable classTable;
+
    static private NullObject nullObject = new NullObject();
 
    IxcOutputStream(OutputStream out, XletContext context, boolean isExecutiveVM)
       throws IOException {
+      this(out, context, isExecutiveVM, null);
+   }
+
+   IxcOutputStream(OutputStream out, XletContext context, boolean isExecutiveVM,
+                   ClassTable classTable)
+      throws IOException {
       super(out);
       this.context = context;
+      this.classTable = classTable;
 
       /***
        * isExecutiveVM value indicates that this IxcOutputStream is used
@@ -66,6 +77,21 @@ public class IxcOutputStream extends ObjectOutputStream {
       }
    }
 
+   // Numbers the descriptors the other end has already read, as
+   // described in ClassTable.
+   protected void writeClassDescriptor(ObjectStreamClass desc)
+      throws IOException {
+      if (classTable == null) {
+         super.writeClassDescriptor(desc);
+         return;
+      }
+      int n = classTable.lookup(desc);
+      writeInt(n);
+      if (n < 0) {
+         super.writeClassDescriptor(desc);
+      }
+   }
+
    protected Object replaceObject(Object obj) 
       throws IOException { 
 
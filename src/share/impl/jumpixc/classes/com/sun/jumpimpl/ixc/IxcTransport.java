@@ -0,0 +1,109 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.ixc;
+
+import java.io.IOException;
+
+import com.sun.jumpimpl.process.JUMPModulesConfig;
+
+/**
+ * The way IXC calls travel between VMs.  Every VM uses the transport
+ * named by the <code>jump.ixc.transport</code> configuration
+ * property.
+ * <ul>
+ * <li><code>socket</code>, the default: TCP connections to
+ *     <code>localhost</code>, addressed by the port each VM listens on.
+ * <li><code>message</code>: the JUMP message queues the processes
+ *     already share, addressed by process id.
+ * <li><code>unix</code>: Unix domain sockets, addressed by process id.
+ * </ul>
+ * The address of the exporting VM is what a <code>RemoteRef</code>
+ * carries as its port.  With the transports addressed by process id,
+ * every VM knows the executive VM's address without being told.
+ */
+public abstract class IxcTransport {
+
+    public static final String TRANSPORT_SOCKET = "socket";
+    public static final String TRANSPORT_MESSAGE = "message";
+    public static final String TRANSPORT_UNIX = "unix";
+
+    private static IxcTransport transport = null;
+
+    /**
+     * Returns the transport of this VM.
+     *
+     * @throws IllegalArgumentException if the configured transport is
+     *         not one of the above
+     */
+    public static synchronized IxcTransport getTransport() {
+       if (transport == null) {
+          String name = TRANSPORT_SOCKET;
+          Object value =
+             JUMPModulesConfig.getProperties().get("jump.ixc.transport");
+          if (value != null) {
+             name = ((String) value).trim();
+          }
+
+          if (name.equalsIgnoreCase(TRANSPORT_SOCKET)) {
+             transport = new SocketTransport();
+          } else if (name.equalsIgnoreCase(TRANSPORT_MESSAGE)) {
+             transport = new MessageTransport();
+          } else if (name.equalsIgnoreCase(TRANSPORT_UNIX)) {
+             transport = new UnixSocketTransport();
+          } else {
+             throw new IllegalArgumentException(
+                "Unknown IXC transport: " + name);
+          }
+       }
+       return transport;
+    }
+
+    /**
+     * Returns true if VMs are addressed by their process id, so the
+     * executive VM's address need not be sent to each isolate.
+     */
+    public abstract boolean isAddressedByProcess();
+
+    /*
+     * Starts receiving calls for this VM if it hasn't yet, and returns
+     * the address of this VM.
+     */
+    abstract int getLocalAddress();
+
+    /*
+     * Sends call to the VM at address, and waits for the reply.  The
+     * transport marshals the call with the ClassTable of the
+     * connection it goes over, and the caller unmarshals the reply
+     * with the same one.
+     */
+    abstract byte[] call(int address, IxcCall call) throws IOException;
+
+    /*
+     * Sends the one-way call to the VM at address, without waiting
+     * for it to run.  The calls sent to one VM run there in the order
+     * they were sent.
+     */
+    abstract void send(int address, IxcCall call) throws IOException;
+}
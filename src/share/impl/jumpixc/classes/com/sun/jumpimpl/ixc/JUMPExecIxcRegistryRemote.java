@@ -32,8 +32,10 @@ import java.rmi.registry.Registry;
  */
 
 public interface JUMPExecIxcRegistryRemote extends Registry {
+   // One-way, so that importing an object doesn't wait for the
+   // executive VM to note it.
    void notifyObjectImport(int importingXletID, Remote ref)   
-      throws RemoteException;
+      throws RemoteException, OneWayException;
    Remote lookupWithXletID(String name, int importingXletID)   
       throws RemoteException, NotBoundException, AccessException;
 }
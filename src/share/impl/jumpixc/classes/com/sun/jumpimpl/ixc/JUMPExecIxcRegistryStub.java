@@ -92,8 +92,9 @@ public final class JUMPExecIxcRegistryStub extends StubObject
         throws RemoteException, NotBoundException, AccessException {
 
         try {
-           Object r = com_sun_xlet_execute(getMethodID("lookup"),new Object[] { name });
-           return (Remote) r;
+           IxcCall call = com_sun_xlet_newCall(getMethodID("lookup"));
+           call.writeString(name);
+           return (Remote) call.invoke().readObject();
         } catch (RemoteException re) { 
            throw re; 
         } catch (NotBoundException nbe) {
@@ -108,9 +109,10 @@ public final class JUMPExecIxcRegistryStub extends StubObject
         throws RemoteException, NotBoundException, AccessException {
 
         try {
-           Object r = com_sun_xlet_execute(
-               getMethodID("lookupWithXletID"), new Object[] { name, new Integer(xletID) });
-           return (Remote) r;
+           IxcCall call = com_sun_xlet_newCall(getMethodID("lookupWithXletID"));
+           call.writeString(name);
+           call.writeInt(xletID);
+           return (Remote) call.invoke().readObject();
         } catch (RemoteException re) { 
            throw re; 
         } catch (NotBoundException nbe) {
@@ -125,7 +127,10 @@ public final class JUMPExecIxcRegistryStub extends StubObject
         throws RemoteException, AlreadyBoundException, AccessException {
 
         try {
-           com_sun_xlet_execute(getMethodID("bind"),new Object[] { name, obj });
+           IxcCall call = com_sun_xlet_newCall(getMethodID("bind"));
+           call.writeString(name);
+           call.writeObject(obj);
+           call.invoke();
         } catch (RemoteException re) { 
            throw re; 
         } catch (AlreadyBoundException nbe) {
@@ -138,7 +143,9 @@ public final class JUMPExecIxcRegistryStub extends StubObject
     public void unbind(String name)
         throws RemoteException, NotBoundException, AccessException {
         try {
-           com_sun_xlet_execute(getMethodID("unbind"),new Object[] { name });
+           IxcCall call = com_sun_xlet_newCall(getMethodID("unbind"));
+           call.writeString(name);
+           call.invoke();
         } catch (RemoteException re) { 
            throw re; 
         } catch (NotBoundException nbe) {
@@ -151,7 +158,10 @@ public final class JUMPExecIxcRegistryStub extends StubObject
     public void rebind(String name, Remote obj)
         throws RemoteException, AccessException {
         try {
-           com_sun_xlet_execute(getMethodID("rebind"),new Object[] { name, obj });
+           IxcCall call = com_sun_xlet_newCall(getMethodID("rebind"));
+           call.writeString(name);
+           call.writeObject(obj);
+           call.invoke();
         } catch (RemoteException re) { 
            throw re; 
         } catch (Exception e) {
@@ -162,8 +172,8 @@ public final class JUMPExecIxcRegistryStub extends StubObject
     public String[] list()
         throws RemoteException, AccessException {
         try {
-           Object r = com_sun_xlet_execute(getMethodID("list"),new Object[] {});
-           return (String[]) r;
+           IxcCall call = com_sun_xlet_newCall(getMethodID("list"));
+           return (String[]) call.invoke().readObject();
         } catch (RemoteException re) { 
            throw re; 
         } catch (Exception e) {
@@ -174,8 +184,10 @@ public final class JUMPExecIxcRegistryStub extends StubObject
 
     public void notifyObjectImport(int importingXletID, Remote obj) {
         try {
-           com_sun_xlet_execute(getMethodID("notifyObjectImport"),
-                                new Object[] { new Integer(importingXletID), obj });
+           IxcCall call = com_sun_xlet_newCall(getMethodID("notifyObjectImport"));
+           call.writeInt(importingXletID);
+           call.writeObject(obj);
+           call.invokeOneWay();
         } catch (Exception e) {
            e.printStackTrace();
         }
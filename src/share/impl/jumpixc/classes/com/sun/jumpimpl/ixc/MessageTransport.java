@@ -0,0 +1,239 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.ixc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.HashMap;
+
+import com.sun.jump.message.JUMPMessage;
+import com.sun.jump.message.JUMPMessageDispatcher;
+import com.sun.jump.message.JUMPMessageHandler;
+import com.sun.jump.message.JUMPMessageReader;
+import com.sun.jump.message.JUMPMessageResponseSender;
+import com.sun.jump.message.JUMPOutgoingMessage;
+import com.sun.jump.message.JUMPTimedOutException;
+import com.sun.jumpimpl.process.JUMPMessageDispatcherImpl;
+import com.sun.jumpimpl.process.JUMPModulesConfig;
+import com.sun.jumpimpl.process.JUMPProcessProxyImpl;
+
+/*
+ * IXC over the JUMP message queues.  A VM's address is its process
+ * id.  Each call is a request message of type "mvm/ixc/call" holding
+ * the request as a byte array, and the response holds the reply, or
+ * null if there is none.  The messaging layer fragments messages too
+ * large for the queue, and each calling thread waits on its own
+ * return queue, so calls from several threads are in flight at once.
+ * A one-way call is a message of type "mvm/ixc/send", with no
+ * response.  Those go through the target's outbound queue, which
+ * sends them in order and makes the caller wait while it is full,
+ * and the dispatcher hands them to this transport in the order they
+ * came, so those from one VM run in that order.  The one-way calls of
+ * different VMs don't wait for each other.
+ *
+ * A call waits jump.ixc.message.timeout milliseconds for its reply,
+ * or for ever if that is 0, the default.
+ */
+
+class MessageTransport extends IxcTransport implements JUMPMessageHandler {
+
+   static final String MESSAGE_TYPE = "mvm/ixc/call";
+   static final String ONE_WAY_MESSAGE_TYPE = "mvm/ixc/send";
+
+   private static final long TIMEOUT = getTimeout();
+
+   // Guarded by this.
+   private boolean receiving = false;
+
+   // There is no connection to keep the one-way calls of a VM in
+   // order, so they are kept in order by the process id of the
+   // sender.  Maps Integer pid to ConnectionReceiver.OneWayQueue.
+   // Guarded by itself.
+   private static final HashMap oneWayQueues = new HashMap();
+
+   static {
+      JUMPProcessProxyImpl.setOverflowPolicy(ONE_WAY_MESSAGE_TYPE,
+         JUMPProcessProxyImpl.OVERFLOW_BLOCK);
+   }
+
+   // Releases each one-way message once it has gone.  The caller has
+   // returned by then, so a failure can only be shown.
+   private static final JUMPProcessProxyImpl.SendCallback sendCallback =
+      new JUMPProcessProxyImpl.SendCallback() {
+         public void sendCompleted(JUMPOutgoingMessage m, 
+                                   IOException failure) {
+            m.release();
+            if (failure != null) {
+               System.out.println("One-way IXC call not sent: " + failure);
+            }
+         }
+      };
+
+   public boolean isAddressedByProcess() {
+      return true;
+   }
+
+   synchronized int getLocalAddress() {
+      if (!receiving) {
+         try {
+            JUMPMessageDispatcher dispatcher =
+               JUMPMessageDispatcherImpl.getInstance();
+            dispatcher.registerHandler(MESSAGE_TYPE, this);
+            dispatcher.setDispatchPolicy(ONE_WAY_MESSAGE_TYPE,
+               JUMPMessageDispatcher.DISPATCH_ORDERED_PER_SENDER);
+            dispatcher.registerHandler(ONE_WAY_MESSAGE_TYPE, this);
+         } catch (Exception e) {
+            throw new InternalError("Cannot receive IXC messages: " + e);
+         }
+         receiving = true;
+      }
+      return Utils.getMtaskClientID();
+   }
+
+   // There is no connection to keep class descriptors for, so each
+   // message describes its classes in full.
+   byte[] call(int pid, IxcCall call) throws IOException {
+      JUMPProcessProxyImpl proxy =
+         JUMPProcessProxyImpl.createProcessProxyImpl(pid);
+      JUMPOutgoingMessage m = proxy.newOutgoingMessage(MESSAGE_TYPE);
+      m.addByteArray(call.marshal(null).toByteArray());
+
+      JUMPMessage response;
+      try {
+         response = proxy.sendMessage(m, TIMEOUT);
+      } catch (JUMPTimedOutException e) {
+         throw new EOFException("No reply to IXC call from process " + pid);
+      } finally {
+         m.release();
+      }
+
+      byte[] reply = new JUMPMessageReader(response).getByteArray();
+      if (reply == null) {
+         throw new EOFException("IXC call failed in process " + pid);
+      }
+      return reply;
+   }
+
+   void send(int pid, IxcCall call) throws IOException {
+      JUMPProcessProxyImpl proxy =
+         JUMPProcessProxyImpl.createProcessProxyImpl(pid);
+      JUMPOutgoingMessage m = proxy.newOutgoingMessage(ONE_WAY_MESSAGE_TYPE);
+      m.addByteArray(call.marshal(null).toByteArray());
+      proxy.sendWithCallback(m, sendCallback);
+   }
+
+   // Called by the message dispatcher; the call runs in a worker thread.
+   public void handleMessage(JUMPMessage in) {
+      byte[] request;
+      try {
+         request = new JUMPMessageReader(in).getByteArray();
+      } catch (RuntimeException e) {
+         e.printStackTrace();
+         request = null;
+      }
+      boolean isOneWay = ONE_WAY_MESSAGE_TYPE.equals(in.getType());
+      MessageReply reply = new MessageReply(in);
+      if (request == null) {
+         if (!isOneWay) {
+            reply.close();
+         }
+         return;
+      }
+      // The reply is the response, whatever the request ID, so long
+      // as that isn't the one of one-way calls.
+      ConnectionReceiver.execute(reply, 
+         isOneWay ? IxcConnection.ONE_WAY_REQUEST : 1, request);
+   }
+
+   // The one-way calls from the process pid.
+   static ConnectionReceiver.OneWayQueue getOneWayQueue(int pid) {
+      synchronized (oneWayQueues) {
+         Integer key = new Integer(pid);
+         ConnectionReceiver.OneWayQueue queue =
+            (ConnectionReceiver.OneWayQueue) oneWayQueues.get(key);
+         if (queue == null) {
+            queue = new ConnectionReceiver.OneWayQueue();
+            oneWayQueues.put(key, queue);
+         }
+         return queue;
+      }
+   }
+
+   private static long getTimeout() {
+      Object value =
+         JUMPModulesConfig.getProperties().get("jump.ixc.message.timeout");
+      if (value != null) {
+         try {
+            return Long.parseLong(((String) value).trim());
+         } catch (NumberFormatException e) {
+            e.printStackTrace();
+         }
+      }
+      return 0L;
+   }
+
+   /*
+    * Sends the reply to a call as the response to its message.
+    */
+   static class MessageReply implements ConnectionReceiver.ReplyChannel {
+      private final JUMPMessage request;
+
+      MessageReply(JUMPMessage request) {
+         this.request = request;
+      }
+
+      public ClassTable getClassTable() {
+         return null;
+      }
+
+      public ConnectionReceiver.OneWayQueue getOneWayQueue() {
+         return MessageTransport.getOneWayQueue(
+            ((JUMPProcessProxyImpl) request.getSender()).getProcessId());
+      }
+
+      public void reply(int requestID, ByteArrayOutputStream body)
+         throws IOException {
+         send(body.toByteArray());
+      }
+
+      public void close() {
+         try {
+            send(null);
+         } catch (IOException e) {
+            e.printStackTrace();
+         }
+      }
+
+      private void send(byte[] reply) throws IOException {
+         JUMPMessageResponseSender sender = request.getSender();
+         JUMPOutgoingMessage m =
+            ((JUMPProcessProxyImpl) sender).newOutgoingMessage(request);
+         m.addByteArray(reply);
+         sender.sendResponseMessage(m);
+         m.release();
+      }
+   }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.ixc;
+
+/**
+ * Marks a remote method as one-way by appearing in its throws clause.
+ * It is never thrown.  A one-way method must return void.  Its stub
+ * returns as soon as the call has been sent, without waiting for the
+ * method to run, so nothing the method throws reaches the caller.  A
+ * call that can't be sent at all is a <code>RemoteException</code>,
+ * but one lost on the way is not reported to the caller.
+ * <p>
+ * The one-way calls a VM makes to another VM run there one at a
+ * time, in the order they were made.  Calls that wait for their
+ * result are not ordered with them, and may run first.
+ */
+public class OneWayException extends RuntimeException {
+
+   private OneWayException() {
+   }
+}
@@ -49,7 +49,22 @@ class RemoteObjectType {
    String[] classNames; // Names of the Classes in the above Class[] array.
    HashMap methodsByID; // All remote methods, by <MethodID, Method>
 
+   // The remote methods in the order of their IDs, which numbers them
+   // for skeletons, with their parameter types.
+   private long[] sortedIDs;
+   private Method[] sortedMethods;
+   private Class[][] parameterTypes;
+
+   // The class of the exported objects of this type, or null if the
+   // type is of an imported object, and its skeleton, made for the
+   // first call.
+   private Class exportedClass = null;
+   private SkeletonObject skeleton = null;
+   private boolean isSkeletonTried = false;
+
    public RemoteObjectType(Class remoteObjectClass) throws RemoteException { 
+      this.exportedClass = remoteObjectClass;
+
       // List is an ArrayList of interface classes
       this.remoteInterfaces = getRemoteInterfacesFor(remoteObjectClass);
 
@@ -84,6 +99,77 @@ class RemoteObjectType {
          Method m = methods[i];
          this.methodsByID.put(new Long(Utils.computeMethodHash(m)), m);
       }
+
+      sortedIDs = getMethodIDsAslongs();
+      Arrays.sort(sortedIDs);
+      sortedMethods = new Method[sortedIDs.length];
+      parameterTypes = new Class[sortedIDs.length][];
+      for (int i = 0; i < sortedIDs.length; i++) {
+         sortedMethods[i] = (Method) methodsByID.get(new Long(sortedIDs[i]));
+         parameterTypes[i] = sortedMethods[i].getParameterTypes();
+      }
+   }
+
+   /*
+    * Returns the number of the remote method with methodID, or -1 if
+    * there is no such method.
+    */
+   int indexOf(long methodID) {
+      int index = Arrays.binarySearch(sortedIDs, methodID);
+      return (index < 0) ? -1 : index;
+   }
+
+   /*
+    * Returns the remote methods, numbered by their index.  The array
+    * must not be changed.
+    */
+   Method[] getMethods() {
+      return sortedMethods;
+   }
+
+   /*
+    * Returns the parameter types of the method numbered index.  The
+    * array must not be changed.
+    */
+   Class[] getParameterTypes(int index) {
+      return parameterTypes[index];
+   }
+
+   /*
+    * Returns true if m is one-way, declaring OneWayException.
+    */
+   static boolean isOneWay(Method m) {
+      Class[] exceptions = m.getExceptionTypes();
+      for (int i = 0; i < exceptions.length; i++) {
+         if (exceptions[i].equals(OneWayException.class)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /*
+    * Returns the skeleton calling the methods of the exported class,
+    * generating it the first time, or null if there is none, and the
+    * methods are to be called by reflection.  There is none for a
+    * class of the bootstrap class loader, nor for a class whose
+    * remote methods the skeleton couldn't link to.
+    */
+   synchronized SkeletonObject getSkeleton() {
+      if (!isSkeletonTried) {
+         isSkeletonTried = true;
+         ClassLoader loader = 
+            (exportedClass == null) ? null : exportedClass.getClassLoader();
+         if (loader != null) {
+            try {
+               skeleton = new StubClassGenerator(loader).generateSkeleton(
+                             this, exportedClass);
+            } catch (StubException e) {
+               e.printStackTrace();
+            }
+         }
+      }
+      return skeleton;
    }
   
    public String[] getRemoteInterfaceNames() {
@@ -216,6 +302,12 @@ class RemoteObjectType {
                 }
             }
             Class rt = methods[i].getReturnType();
+            if (isOneWay(methods[i]) && !Void.TYPE.equals(rt)) {
+                errorMsg +=
+                        "One-way method does not return void : \n" +
+                        methods[i].toString() + "\n";
+                continue next;
+            }
             if ((rt.isPrimitive()) ||
                 (Void.TYPE.equals(rt)) ||
                 ((java.io.Serializable.class).isAssignableFrom(rt)) ||
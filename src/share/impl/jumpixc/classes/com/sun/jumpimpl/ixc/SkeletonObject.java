@@ -0,0 +1,48 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.ixc;
+
+/*
+ * The superclass of a generated skeleton, the server side counterpart
+ * of a stub.  There is one skeleton for each class of exported
+ * object, which calls its remote methods directly rather than by
+ * reflection.  The methods are numbered by their place in
+ * RemoteObjectType.getMethods().
+ */
+
+public abstract class SkeletonObject {
+
+    protected SkeletonObject() {
+    }
+
+    //
+    // Reads the arguments of the method numbered index from call,
+    // calls the method on target, and writes its return value, if any,
+    // to call.  Whatever the method throws is thrown as it is.
+    //
+    public abstract void com_sun_xlet_dispatch(Object target, int index,
+                                               IxcCall call)
+       throws Exception;
+}
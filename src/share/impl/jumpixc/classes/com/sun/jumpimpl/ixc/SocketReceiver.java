@@ -0,0 +1,384 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+
+package com.sun.jumpimpl.ixc;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.security.PrivilegedExceptionAction;
+import java.security.PrivilegedActionException;
+import java.util.ArrayList;
+
+import com.sun.jumpimpl.process.JUMPModulesConfig;
+
+/*
+ * Receives the IXC calls of the TCP transport.  One thread accepts the
+ * connections of every client VM, and each connection is read by a
+ * thread of its own, which only reads request frames.  The calls run
+ * on the IxcExecutor, whose threads write their replies themselves.
+ *
+ * A client that stops part way through a frame for longer than
+ * jump.ixc.read.timeout milliseconds, 10 seconds by default, is
+ * disconnected, so that it can't hold on to a buffer for ever.  A
+ * connection with no frame in progress stays open however long it
+ * is idle.  So is a client that takes none of a reply for as long,
+ * so that it can't hold on to the worker writing it.  A timeout of 0
+ * disables both.
+ *
+ * A client is disconnected too if the replies waiting to be written
+ * to it come to more than jump.ixc.pending.max bytes, 4 MB by default.
+ * A single reply is always taken.
+ */
+
+class SocketReceiver implements Runnable {
+
+   private static boolean debug = false; // Enable/disable debug output
+
+   private static final long READ_TIMEOUT =
+      getLongConfig("jump.ixc.read.timeout", 10000L);
+
+   private static final long MAX_PENDING =
+      getLongConfig("jump.ixc.pending.max", 4L * 1024 * 1024);
+
+   private final ServerSocket server;
+
+   // The open connections.  Guarded by itself.
+   private final ArrayList connections = new ArrayList();
+
+   private SocketReceiver(ServerSocket server) {
+      this.server = server;
+   }
+
+   /*
+    * Listens on an ephemeral port and starts the accepting thread.
+    */
+   static SocketReceiver open() throws IOException {
+      ServerSocket server;
+      try {
+         server = (ServerSocket) AccessController.doPrivileged(
+            new PrivilegedExceptionAction() {
+               public Object run() throws IOException {
+                  ServerSocket socket = new ServerSocket();
+                  socket.bind(null);
+                  return socket;
+               }
+            });
+      } catch (PrivilegedActionException e) {
+         throw (IOException) e.getException();
+      }
+
+      // The accepting thread wakes up now and then to look for
+      // stalled writes.
+      if (READ_TIMEOUT > 0) {
+         server.setSoTimeout((int) Math.max(READ_TIMEOUT / 2, 1));
+      }
+
+      SocketReceiver receiver = new SocketReceiver(server);
+      Thread t = new Thread(receiver, "IxcSocketReceiver");
+      t.setDaemon(true);
+      t.start();
+      return receiver;
+   }
+
+   int getPort() {
+      return server.getLocalPort();
+   }
+
+   // The accepts are privileged as a whole, rather than each one in
+   // turn.
+   public void run() {
+      AccessController.doPrivileged(new PrivilegedAction() {
+         public Object run() {
+            accept();
+            return null;
+         }
+      });
+   }
+
+   private void accept() {
+      while (!server.isClosed()) {
+         Socket s = null;
+         try {
+            s = server.accept();
+         } catch (InterruptedIOException e) {
+            // Time to look for stalled writes
+         } catch (IOException e) {
+            e.printStackTrace();
+         }
+
+         if (s != null) {
+            start(s);
+         }
+         if (READ_TIMEOUT > 0) {
+            closeStalled(System.currentTimeMillis());
+         }
+      }
+   }
+
+   private void start(Socket s) {
+      String name = "port " + s.getPort();
+      Connection c;
+      try {
+         s.setTcpNoDelay(true);
+         if (READ_TIMEOUT > 0) {
+            s.setSoTimeout((int) READ_TIMEOUT);
+         }
+         c = new Connection(name, s);
+      } catch (IOException e) {
+         e.printStackTrace();
+         try {
+            s.close();
+         } catch (IOException ioe) {}
+         return;
+      }
+
+      synchronized (connections) {
+         connections.add(c);
+         if (debug) debugOut("Connected with " + name + ", " +
+                             connections.size() + " open");
+      }
+      Thread t = new Thread(c, "IxcSocketReader-" + name);
+      t.setDaemon(true);
+      t.start();
+   }
+
+   // Closes the connections whose current reply has taken too long
+   // to write.  Their readers close those whose frame has.
+   private void closeStalled(long now) {
+      Object[] open;
+      synchronized (connections) {
+         open = connections.toArray();
+      }
+      for (int i = 0; i < open.length; i++) {
+         Connection c = (Connection) open[i];
+         if (c.isWriteStalled(now)) {
+            if (debug) debugOut("Timed out writing to " + c.name);
+            c.close();
+         }
+      }
+   }
+
+   private static long getLongConfig(String key, long defaultValue) {
+      Object value = JUMPModulesConfig.getProperties().get(key);
+      if (value != null) {
+         try {
+            return Long.parseLong(((String) value).trim());
+         } catch (NumberFormatException e) {
+            e.printStackTrace();
+         }
+      }
+      return defaultValue;
+   }
+
+   private static void debugOut(String s) {
+      System.out.println("SocketReceiver: " + s);
+   }
+
+   /*
+    * One client VM's connection.  Requests and replies are framed as
+    * described in IxcConnection.
+    */
+   class Connection implements Runnable, ConnectionReceiver.ReplyChannel {
+      final String name;
+      private final Socket socket;
+      private final InputStream in;
+      private final DataOutputStream out;
+
+      // When the frame being read began, or 0 between frames.  Used
+      // only by the reader thread.
+      private long frameStart = 0;
+
+      private final ClassTable classTable = new ClassTable();
+      private final ConnectionReceiver.OneWayQueue oneWayQueue =
+         new ConnectionReceiver.OneWayQueue();
+
+      // The bytes of the replies being written or waiting to be, and
+      // when the write under way began, or 0.  Guarded by this.
+      private long pendingBytes = 0;
+      private long writeStart = 0;
+      private boolean closed = false;
+
+      Connection(String name, Socket socket) throws IOException {
+         this.name = name;
+         this.socket = socket;
+         this.in = socket.getInputStream();
+         this.out = new DataOutputStream(
+            new BufferedOutputStream(socket.getOutputStream()));
+      }
+
+      // Reads the requests until the client closes the connection,
+      // executing each one as soon as it is complete.
+      public void run() {
+         byte[] header = new byte[8];
+         try {
+            while (readFully(header, 0, header.length)) {
+               int requestID = getInt(header, 0);
+               int length = getInt(header, 4);
+               if (length < 0 || length > IxcConnection.MAX_FRAME_LENGTH) {
+                  throw new IOException("Bad IXC frame length: " + length);
+               }
+
+               // The buffer grows as the body arrives.
+               byte[] body = new byte[Math.min(length,
+                                               IxcConnection.FRAME_CHUNK)];
+               int read = 0;
+               while (true) {
+                  if (!readFully(body, read, body.length - read)) {
+                     throw new EOFException("Client closed mid-frame");
+                  }
+                  read = body.length;
+                  if (read == length) {
+                     break;
+                  }
+                  byte[] larger = new byte[(int) Math.min(length, 2L * read)];
+                  System.arraycopy(body, 0, larger, 0, read);
+                  body = larger;
+               }
+
+               if (debug) debugOut("Read request " + requestID);
+               frameStart = 0;
+               ConnectionReceiver.execute(this, requestID, body);
+            }
+            if (debug) debugOut("Client closed " + name);
+         } catch (IOException e) {
+            if (debug) debugOut("Error reading from " + name + ": " + e);
+         }
+
+         close();
+      }
+
+      // Reads len bytes into b, or returns false if the client closed
+      // the connection between frames.  Waits for ever between frames,
+      // and at most READ_TIMEOUT for the rest of a frame once it has
+      // begun.
+      private boolean readFully(byte[] b, int off, int len)
+         throws IOException {
+         while (len > 0) {
+            int n;
+            try {
+               n = in.read(b, off, len);
+            } catch (InterruptedIOException e) {
+               n = 0;
+            }
+            if (n == -1) {
+               if (frameStart == 0) {
+                  return false;
+               }
+               throw new EOFException("Client closed mid-frame");
+            }
+
+            long now = System.currentTimeMillis();
+            if (frameStart == 0) {
+               if (n > 0) {
+                  frameStart = now;
+               }
+            } else if (READ_TIMEOUT > 0 && now - frameStart > READ_TIMEOUT) {
+               throw new InterruptedIOException("Timed out mid-frame");
+            }
+            off += n;
+            len -= n;
+         }
+         return true;
+      }
+
+      private int getInt(byte[] b, int off) {
+         return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16) |
+                ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+      }
+
+      public ClassTable getClassTable() {
+         return classTable;
+      }
+
+      public ConnectionReceiver.OneWayQueue getOneWayQueue() {
+         return oneWayQueue;
+      }
+
+      public void reply(int requestID, ByteArrayOutputStream body)
+         throws IOException {
+         long size = 8 + body.size();
+         synchronized (this) {
+            if (closed) {
+               throw new IOException("Connection closed: " + name);
+            }
+            if (pendingBytes > 0 && pendingBytes + size > MAX_PENDING) {
+               if (debug) debugOut("Too many replies pending for " + name);
+               close();
+               throw new IOException("Too many replies pending: " + name);
+            }
+            pendingBytes += size;
+         }
+
+         try {
+            synchronized (out) {
+               synchronized (this) {
+                  writeStart = System.currentTimeMillis();
+               }
+               try {
+                  IxcConnection.writeFrame(out, requestID, body);
+               } finally {
+                  synchronized (this) {
+                     writeStart = 0;
+                  }
+               }
+            }
+         } finally {
+            synchronized (this) {
+               pendingBytes -= size;
+            }
+         }
+      }
+
+      synchronized boolean isWriteStalled(long now) {
+         return writeStart != 0 && now - writeStart > READ_TIMEOUT;
+      }
+
+      // The client's outstanding calls fail when it sees the close.  A
+      // worker blocked writing to it gets an IOException.
+      public void close() {
+         synchronized (this) {
+            if (closed) {
+               return;
+            }
+            closed = true;
+         }
+         synchronized (connections) {
+            connections.remove(this);
+         }
+         try {
+            socket.close();
+         } catch (IOException e) {}
+      }
+   }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.ixc;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.security.AccessController;
+import java.security.PrivilegedExceptionAction;
+import java.security.PrivilegedActionException;
+
+/*
+ * IXC over TCP connections to localhost.  A VM's address is the port
+ * of its ConnectionReceiver's ServerSocket.
+ */
+
+class SocketTransport extends StreamTransport {
+
+   public boolean isAddressedByProcess() {
+      return false;
+   }
+
+   int getLocalAddress() {
+      return ConnectionReceiver.getServerSocketPort();
+   }
+
+   IxcConnection open(final int port) throws IOException {
+      Socket s;
+      try {
+         s = (Socket) AccessController.doPrivileged(
+            new PrivilegedExceptionAction() {
+               public Object run() throws IOException {
+                  return new Socket("localhost", port);
+               }
+            });
+      } catch (PrivilegedActionException e) {
+         throw (IOException) e.getException();
+      }
+      s.setTcpNoDelay(true);
+      return new IxcConnection(this, port,
+                               s.getInputStream(), s.getOutputStream());
+   }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.ixc;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+/*
+ * A transport over stream connections, with one persistent
+ * IxcConnection from this VM to each VM it calls.
+ */
+
+abstract class StreamTransport extends IxcTransport {
+
+   // Connections by the address of the VM they go to.
+   private final HashMap connections = new HashMap();
+
+   /*
+    * Opens a new connection to the VM at address.
+    */
+   abstract IxcConnection open(int address) throws IOException;
+
+   byte[] call(int address, IxcCall call) throws IOException {
+      return getConnection(address).call(call);
+   }
+
+   void send(int address, IxcCall call) throws IOException {
+      getConnection(address).send(call);
+   }
+
+   /*
+    * Returns the connection to the VM at address, opening it if there
+    * is none or the last one failed.
+    */
+   private IxcConnection getConnection(int address) throws IOException {
+      synchronized (connections) {
+         Integer key = new Integer(address);
+         IxcConnection conn = (IxcConnection) connections.get(key);
+         if (conn == null) {
+            conn = open(address);
+            connections.put(key, conn);
+            conn.start();
+         }
+         return conn;
+      }
+   }
+
+   /*
+    * Forgets conn, which has failed, so that the next call opens a
+    * new connection.
+    */
+   void closed(IxcConnection conn) {
+      synchronized (connections) {
+         Integer key = new Integer(conn.address);
+         if (connections.get(key) == conn) {
+            connections.remove(key);
+         }
+      }
+   }
+}
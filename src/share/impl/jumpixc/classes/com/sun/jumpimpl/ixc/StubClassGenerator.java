@@ -31,16 +31,17 @@ import javax.microedition.xlet.ixc.StubException;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Modifier;
 import java.security.AccessController;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.security.ProtectionDomain;
 import java.rmi.RemoteException;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 
@@ -72,12 +73,43 @@ import java.util.Iterator;
  *	}
  *
  *      public void frob(Something arg1) throws RemoteException {
- *          com_sun_xlet_execute("frob", new Object[] { arg1 });
+ *          IxcCall call = com_sun_xlet_newCall(frobMethodID);
+ *          call.writeObject(arg1);
+ *          call.invoke();
  *      }
  *
  *      public int glorp(float arg1) throws RemoteException {
- *	    Object r = com_sun_xlet_execute("glorb",new Object[] { new Float(arg1) });
- *          return ((Integer) r).intValue();
+ *          IxcCall call = com_sun_xlet_newCall(glorpMethodID);
+ *          call.writeFloat(arg1);
+ *          return call.invoke().readInt();
+ *      }
+ *  }
+ *
+ * </pre>
+ * If frob were one-way, declaring OneWayException, it would end with
+ * <code>call.invokeOneWay()</code> instead, which doesn't wait.
+ * <p>
+ * The exporting VM likewise generates a skeleton for the user class,
+ * in that class's ClassLoader, which the ConnectionReceiver calls
+ * instead of using reflection.  With the methods numbered by their
+ * method IDs, it is equivalent to:
+ * <pre>
+ *
+ *  public final class StubClass_skel43
+ *              extends com.sun.jumpimpl.ixc.SkeletonObject {
+ *
+ *      public final void com_sun_xlet_dispatch(Object target, int index,
+ *                                              IxcCall call) {
+ *          switch (index) {
+ *          case 0:
+ *              ((UserIF) target).frob((Something) call.readObject());
+ *              return;
+ *          case 1:
+ *              call.writeInt(((UserIF) target).glorp(call.readFloat()));
+ *              return;
+ *          default:
+ *              throw new IllegalArgumentException();
+ *          }
  *      }
  *  }
  *
@@ -110,21 +142,93 @@ public class StubClassGenerator {
 
     //Class generate(RemoteRef remoteRef) throws StubException {
     Class generate(RemoteObjectType remoteRef) throws StubException {
-	final String stubName = "StubClass_stub"
-				+ (nextStubNumber++); 
-	byte[] tmp = null;
+	final String stubName = nextClassName("StubClass_stub");
+	byte[] classBytes = null;
 	try {
-	    tmp = generateClassBytes(stubName, remoteRef);
+	    classBytes = generateClassBytes(stubName, remoteRef);
 	} catch (IOException ex) {
 	    throw new StubException("error generating stub", ex);
 	}
-	final byte[] classBytes = tmp;
+	return defineClass(stubName, classBytes, null);
+    }
+
+    /*
+     * Generates the skeleton of an exported class, in the class's own
+     * ClassLoader and ProtectionDomain, and returns an instance of it.
+     * Throws a StubException if the skeleton couldn't call one of the
+     * remote methods, because its interface or one of its parameter or
+     * return types isn't public, or isn't the class of that name in the
+     * ClassLoader.
+     */
+    SkeletonObject generateSkeleton(RemoteObjectType type, 
+                                    final Class exportedClass) 
+            throws StubException {
+	Method[] methods = type.getMethods();
+	for (int i = 0; i < methods.length; i++) {
+	    checkLinkable(methods[i].getDeclaringClass());
+	    checkLinkable(methods[i].getReturnType());
+	    Class[] params = type.getParameterTypes(i);
+	    for (int j = 0; j < params.length; j++) {
+		checkLinkable(params[j]);
+	    }
+	}
+
+	String skeletonName = nextClassName("StubClass_skel");
+	byte[] classBytes = null;
+	try {
+	    classBytes = generateSkeletonBytes(skeletonName, type);
+	} catch (IOException ex) {
+	    throw new StubException("error generating skeleton", ex);
+	}
+	ProtectionDomain domain = (ProtectionDomain) 
+	    AccessController.doPrivileged(new PrivilegedAction() {
+		public Object run() {
+		    return exportedClass.getProtectionDomain();
+		}
+	    });
+	Class skeletonClass = defineClass(skeletonName, classBytes, domain);
+	try {
+	    return (SkeletonObject) skeletonClass.newInstance();
+	} catch (Exception ex) {
+	    throw new StubException("error creating skeleton", ex);
+	} catch (LinkageError err) {
+	    throw new StubException("error creating skeleton:  " + err);
+	}
+    }
 
+    private static synchronized String nextClassName(String prefix) {
+	return prefix + (nextStubNumber++);
+    }
+
+    private void checkLinkable(Class c) throws StubException {
+	while (c.isArray()) {
+	    c = c.getComponentType();
+	}
+	if (c.isPrimitive()) {
+	    return;
+	}
+	Class linked = null;
+	if (Modifier.isPublic(c.getModifiers())) {
+	    try {
+		linked = Class.forName(c.getName(), false, xletClassLoader);
+	    } catch (ClassNotFoundException e) {
+	    }
+	}
+	if (linked != c) {
+	    throw new StubException("Cannot link a skeleton to " + c);
+	}
+    }
+
+    private Class defineClass(final String className, 
+                              final byte[] classBytes,
+                              final ProtectionDomain domain) 
+            throws StubException {
 	java.lang.reflect.Method tmp2 = null;
 	try {
 	    tmp2 = ClassLoader.class.getDeclaredMethod("defineClass",
 		       new Class[] { String.class, classBytes.getClass(), 
-				     int.class, int.class });
+				     int.class, int.class, 
+				     ProtectionDomain.class });
 	} catch (NoSuchMethodException ex) {
 	    throw new StubException("internal error", ex);
 	}
@@ -148,10 +252,11 @@ public class StubClassGenerator {
                 Object result = null;
 		try {
 		   Object[] args = new Object[] {
-		      stubName.replace('/', '.'),
+		      className.replace('/', '.'),
 		      classBytes,
 		      new Integer(0),
-		      new Integer(classBytes.length)
+		      new Integer(classBytes.length),
+		      domain
 		   };
 
 		   result = m.invoke(xletClassLoader, args);
@@ -191,6 +296,46 @@ public class StubClassGenerator {
         return descriptor;
     }
 
+    private static final String IXC_CALL = "com/sun/jumpimpl/ixc/IxcCall";
+
+    // The IxcCall method that writes an argument of type t, as
+    // { name, descriptor }.
+    private static String[] writeMethodFor(Class t) {
+        if (t.isPrimitive()) {
+            TypeInfo info = TypeInfo.get(t);
+            return new String[] { "write" + info.callSuffix,
+                                  "(" + info.typeDescriptor + ")V" };
+        } else if (String.class.equals(t)) {
+            return new String[] { "writeString", "(Ljava/lang/String;)V" };
+        } else {
+            return new String[] { "writeObject", "(Ljava/lang/Object;)V" };
+        }
+    }
+
+    // The IxcCall method that reads a return value of type t.
+    private static String[] readMethodFor(Class t) {
+        if (t.isPrimitive()) {
+            TypeInfo info = TypeInfo.get(t);
+            return new String[] { "read" + info.callSuffix,
+                                  "()" + info.typeDescriptor };
+        } else if (String.class.equals(t)) {
+            return new String[] { "readString", "()Ljava/lang/String;" };
+        } else {
+            return new String[] { "readObject", "()Ljava/lang/Object;" };
+        }
+    }
+
+    private static void addCallMethod(ConstantPool cp, HashSet done,
+                                      String[] method) {
+        if (done.add(method[0] + method[1])) {
+            cp.addMethodReference(IXC_CALL, method[0], method[1]);
+        }
+    }
+
+    private static int lookupCallMethod(ConstantPool cp, String[] method) {
+        return cp.lookupMethod(IXC_CALL, method[0], method[1]);
+    }
+
     //
     // The stub includes methods defined in 'remote interface',
     // which is an interface that directly or indirectly extends
@@ -214,7 +359,8 @@ public class StubClassGenerator {
         //String importedObject = "sun/mtask/xlet/ixc/StubObject";
         String constructorDescriptor =
 		"(Ljava/lang/Object;Ljava/lang/Object;)V";
-        String executeDescriptor = "(J[Ljava/lang/Object;)Ljava/lang/Object;";
+        String newCallDescriptor = "(J)L" + IXC_CALL + ";";
+        String invokeDescriptor = "()L" + IXC_CALL + ";";
         // Add constant pool entries for names derived from the stuff
         // we're implementing.
         cp.addClass(importedObject);
@@ -225,6 +371,7 @@ public class StubClassGenerator {
         cp.addClass("java/rmi/RemoteException");
         cp.addClass("java/lang/RuntimeException");
         cp.addClass("java/rmi/UnexpectedException");
+        cp.addClass(IXC_CALL);
 
         String[] remoteInterfaces = type.getRemoteInterfaceNames();
         Long[] methodIDs = (Long[])type.methodsByID.keySet().toArray(new Long[]{});
@@ -233,8 +380,8 @@ public class StubClassGenerator {
             cp.addClass(remoteInterfaces[i].replace('.', '/'));
         }
 
-        HashMap primArgsDone = new HashMap();
-        HashMap primRetsDone = new HashMap();
+        // The IxcCall methods already in the constant pool
+        HashSet callMethodsDone = new HashSet();
 
         for (int i = 0; i < methodIDs.length; i++) {
 	    remoteMethods[i] = (Method)type.methodsByID.get(methodIDs[i]);
@@ -247,36 +394,15 @@ public class StubClassGenerator {
 				    descriptorFor(m));
             cp.addStringConstant(m.getDeclaringClass().getName());
             Class rt = m.getReturnType();
-            if (Void.TYPE.equals(rt)) {
-		// do nothing
-	    } else if (rt.isPrimitive()) {
-                TypeInfo info = TypeInfo.get(rt);
-                String rtNm = info.primitiveWrapper.getName().replace('.', '/');
-                cp.addClass(rtNm);
-                cp.addMethodReference(rtNm, info.valueMethod,
-                    "()" + info.typeDescriptor);
-            } else {
-                cp.addClass(rt.getName().replace('.', '/'));
+            if (!Void.TYPE.equals(rt)) {
+                addCallMethod(cp, callMethodsDone, readMethodFor(rt));
+                if (!rt.isPrimitive() && !String.class.equals(rt)) {
+                    cp.addClass(rt.getName().replace('.', '/'));
+                }
             }
             Class[] params = m.getParameterTypes();
             for (int j = 0; j < params.length; j++) {
-                if (params[j].isPrimitive()) {
-                    // Don't need to worry about void here
-                    TypeInfo info = TypeInfo.get(params[j]);
-                    Class p = info.primitiveWrapper;
-                    String nm = p.getName().replace('.', '/');
-                    if (primArgsDone.get(nm) == null) {
-                        primArgsDone.put(nm, nm);
-                        cp.addClass(nm);
-                        // The constructor for the wrapper class:
-                        cp.addMethodReference(nm, "<init>", 
-                            "(" + TypeInfo.descriptorFor(params[j]) + ")V");
-                        // The TYPE field
-                        cp.addField(nm, "TYPE", "Ljava/lang/Class;");
-                    }
-                } else {
-                    cp.addStringConstant(params[j].getName());
-                }
+                addCallMethod(cp, callMethodsDone, writeMethodFor(params[j]));
             }
             // Adding exception types
             Class[] exceptions = m.getExceptionTypes();
@@ -288,8 +414,10 @@ public class StubClassGenerator {
         // Add constructor constants...
         cp.addString("<init>");
         cp.addMethodReference(importedObject, "<init>", constructorDescriptor);
-        cp.addMethodReference(importedObject, "com_sun_xlet_execute",
-			      executeDescriptor);
+        cp.addMethodReference(importedObject, "com_sun_xlet_newCall",
+			      newCallDescriptor);
+        cp.addMethodReference(IXC_CALL, "invoke", invokeDescriptor);
+        cp.addMethodReference(IXC_CALL, "invokeOneWay", "()V");
         // For creating UnexpectedException
         String unexpectedExceptionDescriptor = 
                 "(Ljava/lang/String;Ljava/lang/Exception;)V";
@@ -344,10 +472,21 @@ public class StubClassGenerator {
             dos.writeShort(0);		// attribute_count
         }
 
-        int executeMethod = cp.lookupMethod(importedObject, 
-					    "com_sun_xlet_execute",
-					    executeDescriptor);
-        // Now the stub methods:
+        int newCallMethod = cp.lookupMethod(importedObject, 
+					    "com_sun_xlet_newCall",
+					    newCallDescriptor);
+        int invokeMethod = cp.lookupMethod(IXC_CALL, "invoke",
+                                           invokeDescriptor);
+        int invokeOneWayMethod = cp.lookupMethod(IXC_CALL, "invokeOneWay",
+                                                 "()V");
+        // Now the stub methods.  Each is like
+        //
+        //    IxcCall call = com_sun_xlet_newCall(methodID);
+        //    call.writeFloat(arg1);
+        //    return call.invoke().readInt();
+        //
+        // with the calls on the operand stack rather than in a local.
+        // A one-way method ends with call.invokeOneWay() instead.
         for (int i = 0; i < remoteMethods.length; i++) {
             Method m = remoteMethods[i];
             Class[] args = m.getParameterTypes();
@@ -356,40 +495,79 @@ public class StubClassGenerator {
             for (int j = 0; j < args.length; j++) {
                 maxLocals += TypeInfo.localSlotsFor(args[j]);
             }
-            int codeLen = 9;
+            Class[] exceptions = m.getExceptionTypes();
+            Class ret = m.getReturnType();
+
+            ByteArrayOutputStream codeBytes = new ByteArrayOutputStream();
+            DataOutputStream code = new DataOutputStream(codeBytes);
+            code.write(0x2a);	// aload_0
+            code.write(0x14);	// ldc2_w
+            code.writeShort(cp.lookupLongConstant(methodIDs[i]));
+            code.write(0xb6);	// invokevirtual
+            code.writeShort(newCallMethod);
+            int slot = 1;
             for (int j = 0; j < args.length; j++) {
+                code.write(0x59);	// dup
                 if (args[j].isPrimitive()) {
-                    codeLen += 9 + 4;
+                    TypeInfo info = TypeInfo.get(args[j]);
+                    code.write(info.loadInstruction);
+                    code.write(slot);
+                    slot += info.localSlots;
                 } else {
-                    codeLen += 2 + 4;
+                    code.write(0x19);	// aload
+                    code.write(slot);
+                    slot++;
                 }
+                code.write(0xb6);	// invokevirtual
+                code.writeShort(lookupCallMethod(cp, writeMethodFor(args[j])));
             }
-            codeLen += 3;
-            Class ret = m.getReturnType();
-            if (Void.TYPE.equals(ret)) {
-                //codeLen += 2;
-                codeLen += 5;
-            } else if (ret.isPrimitive()) {
-                codeLen += 7;
+            if (RemoteObjectType.isOneWay(m)) {
+                code.write(0xb6);	// invokevirtual
+                code.writeShort(invokeOneWayMethod);
+                code.write(0xb1);	// return
+            } else if (Void.TYPE.equals(ret)) {
+                code.write(0xb6);	// invokevirtual
+                code.writeShort(invokeMethod);
+                code.write(0x57);	// pop
+                code.write(0xb1);	// return
             } else {
-                codeLen += 4;
+                code.write(0xb6);	// invokevirtual
+                code.writeShort(invokeMethod);
+                code.write(0xb6);	// invokevirtual
+                code.writeShort(lookupCallMethod(cp, readMethodFor(ret)));
+                if (ret.isPrimitive()) {
+                    code.write(TypeInfo.get(ret).returnInstruction);
+                } else {
+                    if (!String.class.equals(ret)) {
+                        code.write(0xc0);	// checkcast
+                        code.writeShort(cp.lookupClass(
+                            ret.getName().replace('.', '/')));
+                    }
+                    code.write(0xb0);	// areturn
+                }
             }
+            int pc_end = code.size();
 
-            int pc_end = codeLen;
-            if (Void.TYPE.equals(ret)) {
-               pc_end -= 4;  
-            } else {
-               pc_end -= 1;  
+            // csaito: for catched exceptions, and RuntimeException
+            for (int j = 0; j < exceptions.length + 1; j++) {
+               code.write(0x4c); // astore_1
+               code.write(0x2b); // aload_1
+               code.write(0xbf); // athrow
             }
-  
-            // For exception handling.
-            // Each exception catch/throw takes 3 bytes.
-            // For RuntimeException and Exception.
-            codeLen += 6;
-            // For all other catched Exceptions.
-            Class[] exceptions = m.getExceptionTypes();
-            codeLen += (exceptions.length*3);
-            codeLen += 9; // For creating UnexpectedException
+
+            {// For General Exception
+               code.write(0x4c); // astore_1
+               code.write(0xbb);	// new
+               code.writeShort(cp.lookupClass("java/rmi/UnexpectedException"));
+               code.write(0x59);	// dup 
+               code.write(0x13);	// ldc_w
+               code.writeShort(cp.lookupStringConstant(""));
+               code.write(0x2b); // aload_1
+               code.write(0xb7);	// invokespecial
+               code.writeShort(cp.lookupMethod("java/rmi/UnexpectedException", "<init>", unexpectedExceptionDescriptor));
+               code.write(0xbf); // athrow
+            }
+            code.close();
 
             dos.writeShort(0x1 | 0x10);		// PUBLIC | FINAL
             dos.writeShort(cp.lookupString(m.getName()));
@@ -401,111 +579,19 @@ public class StubClassGenerator {
             // 4 for attribute_count and exception_length fields;
             // Each exception table takes 8 bytes,
             // There are two additional exceptions: Runtime and Exception.
-            int codeAttributeLen = (8  + codeLen + 4 + (exceptions.length*8) + 16); 
+            int codeAttributeLen = 
+                8 + codeBytes.size() + 4 + (exceptions.length*8) + 16; 
             dos.writeInt(codeAttributeLen);
             dos.writeShort(10);			// max_stack; be conservative
             dos.writeShort(maxLocals);
-            dos.writeInt(codeLen);
-            // Now the code
-            dos.write(0x2a);	// aload_0
-            dos.write(0x14);	// ldc2_w
-            dos.writeShort(cp.lookupLongConstant(methodIDs[i]));
-            dos.write(0x10);		// bipush
-            dos.write(args.length);
-            dos.write(0xbd);	// anewarray  java.lang.Object
-            dos.writeShort(cp.lookupClass("java/lang/Object"));
-            int slot = 1;
-            for (int j = 0; j < args.length; j++) {
-                dos.write(0x59);	// dup
-                dos.write(0x10);	// bipush
-                dos.write(j);
-                if (args[j].isPrimitive()) {
-                    TypeInfo info = TypeInfo.get(args[j]);
-                    Class p = info.primitiveWrapper;
-                    String pName = p.getName().replace('.', '/');
-                    dos.write(0xbb);	// new
-                    dos.writeShort(cp.lookupClass(pName));
-                    dos.write(0x59);	// dup
-                    dos.write(info.loadInstruction);
-                    dos.write(slot);
-                    // Invoke constructor of primitive wrapper type:
-                    dos.write(0xb7);	// invokespecial
-                    String d = "(" + info.typeDescriptor + ")V";
-                    dos.writeShort(cp.lookupMethod(pName, "<init>", d));
-                    slot += info.localSlots;
-                } else {
-                    dos.write(0x19);
-                    dos.write(slot);
-                    slot++;
-                }
-                dos.write(0x53);	// aastore
-            }
-            dos.write(0xb6);		// invokevirtual
-
-            dos.writeShort(executeMethod);
-
-            if (Void.TYPE.equals(ret)) {
-                dos.write(0x57);	// pop
-                //dos.write(0xb1);	// return
-                dos.write(0xa7);	// goto
-                dos.writeShort(codeLen - pc_end - 1); // target of goto
-            } else if (ret.isPrimitive()) {
-                TypeInfo info = TypeInfo.get(ret);
-                Class wr = info.primitiveWrapper;
-                String wrNm = wr.getName().replace('.', '/');
-                dos.write(0xc0);	// checkcast
-                dos.writeShort(cp.lookupClass(wrNm));
-                dos.write(0xb6);		// invokevirtual
-                dos.writeShort(cp.lookupMethod(wrNm, info.valueMethod,
-                        "()" + info.typeDescriptor));
-                dos.write(info.returnInstruction);
-            } else {
-                dos.write(0xc0);	// checkcast
-                dos.writeShort(cp.lookupClass(ret.getName().replace('.', '/')));
-                dos.write(0xb0);	// areturn
-            }
-
-            // csaito: for catched exceptions
-            for (int j = 0; j < exceptions.length; j++) {
-               dos.write(0x4c); // astore_1
-               dos.write(0x2b); // aload_1
-               dos.write(0xbf); // athrow
-            }
-
-            {// For RuntimeException
-               dos.write(0x4c); // astore_1
-               dos.write(0x2b); // aload_1
-               dos.write(0xbf); // athrow
-            }
-
-            {// For General Exception
-               dos.write(0x4c); // astore_1
-               dos.write(0xbb);	// new
-               dos.writeShort(cp.lookupClass("java/rmi/UnexpectedException"));
-               dos.write(0x59);	// dup 
-               dos.write(0x12);	// lcd
-               dos.write(cp.lookupStringConstant(""));	// lcd
-               dos.write(0x2b); // aload_1
-               dos.write(0xb7);	// invokespecial
-               dos.writeShort(cp.lookupMethod("java/rmi/UnexpectedException", "<init>", unexpectedExceptionDescriptor));
-               dos.write(0xbf); // athrow
-            }
-
-            // finally, a return.
-            if (Void.TYPE.equals(ret)) {
-                dos.write(0xb1);	// return
-            } 
+            dos.writeInt(codeBytes.size());
+            codeBytes.writeTo(dos);
 
             // The rest of the code attribute:
             // First, the exception table.
             dos.writeShort(exceptions.length + 2);// exception_table_length
 
-            int astore_start;
-            if (Void.TYPE.equals(ret)) {
-               astore_start = pc_end + 3; // after goto
-            } else {
-               astore_start = pc_end + 1; // after return
-            }
+            int astore_start = pc_end;
 
             for (int j = exceptions.length-1; j >= 0; j--) {
                dos.writeShort(0); // pc_start
@@ -560,4 +646,191 @@ public class StubClassGenerator {
 **/
         return bos.toByteArray();
     }
+
+    private static final String SKELETON_OBJECT = 
+        "com/sun/jumpimpl/ixc/SkeletonObject";
+
+    //
+    // The skeleton of the remote methods of type, numbered as in
+    // type.getMethods(), with a tableswitch over the number.  See the
+    // example in the class comment.
+    //
+    private byte[] generateSkeletonBytes(String skeletonName, 
+                                         RemoteObjectType type) 
+	    throws IOException
+    {
+        ConstantPool cp = new ConstantPool();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        String dispatchDescriptor = 
+                "(Ljava/lang/Object;IL" + IXC_CALL + ";)V";
+        cp.addString("Code");
+        cp.addString("<init>");
+        cp.addString("()V");
+        cp.addString("com_sun_xlet_dispatch");
+        cp.addString(dispatchDescriptor);
+        cp.addClass(skeletonName);
+        cp.addClass(SKELETON_OBJECT);
+        cp.addClass(IXC_CALL);
+        cp.addClass("java/lang/IllegalArgumentException");
+        cp.addMethodReference(SKELETON_OBJECT, "<init>", "()V");
+        cp.addMethodReference("java/lang/IllegalArgumentException", 
+                              "<init>", "()V");
+
+        Method[] methods = type.getMethods();
+        HashSet callMethodsDone = new HashSet();
+        int maxStack = 3;
+        for (int i = 0; i < methods.length; i++) {
+            Method m = methods[i];
+            String declaringClass = 
+                m.getDeclaringClass().getName().replace('.', '/');
+            cp.addClass(declaringClass);
+            cp.addIfMethodReference(declaringClass, m.getName(),
+                                    descriptorFor(m));
+            Class[] params = type.getParameterTypes(i);
+            int slots = 0;
+            for (int j = 0; j < params.length; j++) {
+                addCallMethod(cp, callMethodsDone, readMethodFor(params[j]));
+                if (!params[j].isPrimitive() && 
+                    !String.class.equals(params[j])) {
+                    cp.addClass(params[j].getName().replace('.', '/'));
+                }
+                slots += TypeInfo.localSlotsFor(params[j]);
+            }
+            Class rt = m.getReturnType();
+            if (!Void.TYPE.equals(rt)) {
+                addCallMethod(cp, callMethodsDone, writeMethodFor(rt));
+            }
+            // The call and the target under the arguments, and a call
+            // to read the next argument from
+            maxStack = Math.max(maxStack, 3 + slots);
+        }
+
+        // Now write out the .class, up to the code of the methods, which
+        // needs the constant pool's numbering.
+        dos.writeInt(0xcafebabe);
+        dos.writeShort(0x3a);	// Minor version, JDK 1.1.3
+        dos.writeShort(0x2d);	// Major version, JDK 1.1.3
+        cp.write(dos);		// Constant pool
+        dos.writeShort(0x31);	// ACC_SUPER | ACC_PUBLIC | ACC_FINAL
+        dos.writeShort(cp.lookupClass(skeletonName));
+        dos.writeShort(cp.lookupClass(SKELETON_OBJECT));
+        dos.writeShort(0);	// Interfaces
+        dos.writeShort(0);	// Fields
+        dos.writeShort(2);	// Methods
+
+        // Each method's case is like
+        //
+        //    call.writeInt(((UserIF) target).glorp(call.readFloat()));
+        //    return;
+        //
+        byte[][] cases = new byte[methods.length][];
+        for (int i = 0; i < methods.length; i++) {
+            Method m = methods[i];
+            String declaringClass = 
+                m.getDeclaringClass().getName().replace('.', '/');
+            Class[] params = type.getParameterTypes(i);
+            Class rt = m.getReturnType();
+            ByteArrayOutputStream caseBytes = new ByteArrayOutputStream();
+            DataOutputStream code = new DataOutputStream(caseBytes);
+            if (!Void.TYPE.equals(rt)) {
+                code.write(0x2d);	// aload_3, the call for the result
+            }
+            code.write(0x2b);		// aload_1
+            code.write(0xc0);		// checkcast
+            code.writeShort(cp.lookupClass(declaringClass));
+            int argSlots = 0;
+            for (int j = 0; j < params.length; j++) {
+                code.write(0x2d);	// aload_3
+                code.write(0xb6);	// invokevirtual
+                code.writeShort(lookupCallMethod(cp, readMethodFor(params[j])));
+                if (!params[j].isPrimitive() && 
+                    !String.class.equals(params[j])) {
+                    code.write(0xc0);	// checkcast
+                    code.writeShort(cp.lookupClass(
+                        params[j].getName().replace('.', '/')));
+                }
+                argSlots += TypeInfo.localSlotsFor(params[j]);
+            }
+            code.write(0xb9);		// invokeinterface
+            code.writeShort(cp.lookupIfMethod(declaringClass, m.getName(),
+                                              descriptorFor(m)));
+            code.write(1 + argSlots);	// count, with the target
+            code.write(0);
+            if (!Void.TYPE.equals(rt)) {
+                code.write(0xb6);	// invokevirtual
+                code.writeShort(lookupCallMethod(cp, writeMethodFor(rt)));
+            }
+            code.write(0xb1);		// return
+            code.close();
+            cases[i] = caseBytes.toByteArray();
+        }
+
+        ByteArrayOutputStream codeBytes = new ByteArrayOutputStream();
+        DataOutputStream code = new DataOutputStream(codeBytes);
+        if (methods.length > 0) {
+            code.write(0x1c);		// iload_2
+            code.write(0xaa);		// tableswitch, at pc 1
+            while (code.size() % 4 != 0) {
+                code.write(0);		// padding
+            }
+            int offset = code.size() + 12 + 4 * methods.length - 1;
+            code.writeInt(offset);	// default
+            code.writeInt(0);		// low
+            code.writeInt(methods.length - 1);	// high
+            offset += 8;		// The default's code
+            for (int i = 0; i < methods.length; i++) {
+                code.writeInt(offset);
+                offset += cases[i].length;
+            }
+        }
+        // default: throw new IllegalArgumentException();
+        code.write(0xbb);		// new
+        code.writeShort(cp.lookupClass("java/lang/IllegalArgumentException"));
+        code.write(0x59);		// dup
+        code.write(0xb7);		// invokespecial
+        code.writeShort(cp.lookupMethod("java/lang/IllegalArgumentException",
+                                        "<init>", "()V"));
+        code.write(0xbf);		// athrow
+        for (int i = 0; i < methods.length; i++) {
+            code.write(cases[i]);
+        }
+        code.close();
+
+
+        // The constructor
+        dos.writeShort(0x1);		// PUBLIC
+        dos.writeShort(cp.lookupString("<init>"));
+        dos.writeShort(cp.lookupString("()V"));
+        dos.writeShort(1);	// 1 attribute, the Code attribute
+        dos.writeShort(cp.lookupString("Code"));
+        dos.writeInt(12 + 5);	// attribute_length
+        dos.writeShort(1);	// max_stack
+        dos.writeShort(1);	// max_locals
+        dos.writeInt(5);
+        dos.write(0x2a);	// aload_0
+        dos.write(0xb7);	// invokespecial, super()
+        dos.writeShort(cp.lookupMethod(SKELETON_OBJECT, "<init>", "()V"));
+        dos.write(0xb1);	// return
+        dos.writeShort(0);	// exception_table_length
+        dos.writeShort(0);	// attribute_count
+
+        // com_sun_xlet_dispatch(Object target, int index, IxcCall call)
+        dos.writeShort(0x1 | 0x10);	// PUBLIC | FINAL
+        dos.writeShort(cp.lookupString("com_sun_xlet_dispatch"));
+        dos.writeShort(cp.lookupString(dispatchDescriptor));
+        dos.writeShort(1);	// 1 attribute, the Code attribute
+        dos.writeShort(cp.lookupString("Code"));
+        dos.writeInt(12 + codeBytes.size());
+        dos.writeShort(maxStack);
+        dos.writeShort(4);	// max_locals: this, target, index, call
+        dos.writeInt(codeBytes.size());
+        codeBytes.writeTo(dos);
+        dos.writeShort(0);	// exception_table_length
+        dos.writeShort(0);	// attribute_count
+
+        dos.writeShort(0);	// Attributes (of ClassFile)
+        dos.close();
+        return bos.toByteArray();
+    }
 }
@@ -40,34 +40,43 @@ class TypeInfo {
     byte returnInstruction;  	// ireturn, dreturn, ...
     Class primitiveWrapper;	// null for non-primitive
     String valueMethod;		// "intValue(), floatValue(), ..."
+    String callSuffix;		// For IxcCall.writeInt(), readInt(), ...
     // A Mapping from the java.lang.Class instance for each primitive
     // type to some information that relevant to us about these types:
     private static HashMap primitiveMap;
     static {
         primitiveMap = new HashMap();
         primitiveMap.put(Boolean.TYPE, new TypeInfo(
-	    "Z", 1, (byte) 0x15, (byte) 0xac, Boolean.class, "booleanValue"));
+	    "Z", 1, (byte) 0x15, (byte) 0xac, Boolean.class, "booleanValue",
+	    "Boolean"));
         primitiveMap.put(Byte.TYPE, new TypeInfo(
-	    "B", 1, (byte) 0x15, (byte) 0xac, Byte.class, "byteValue"));
+	    "B", 1, (byte) 0x15, (byte) 0xac, Byte.class, "byteValue",
+	    "Byte"));
         primitiveMap.put(Character.TYPE, new TypeInfo(
-	    "C", 1, (byte) 0x15, (byte) 0xac, Character.class, "charValue"));
+	    "C", 1, (byte) 0x15, (byte) 0xac, Character.class, "charValue",
+	    "Char"));
         primitiveMap.put(Integer.TYPE, new TypeInfo(
-	    "I", 1, (byte) 0x15, (byte) 0xac, Integer.class, "intValue"));
+	    "I", 1, (byte) 0x15, (byte) 0xac, Integer.class, "intValue",
+	    "Int"));
         primitiveMap.put(Long.TYPE, new TypeInfo(
-	    "J", 2, (byte) 0x16, (byte) 0xad, Long.class, "longValue"));
+	    "J", 2, (byte) 0x16, (byte) 0xad, Long.class, "longValue",
+	    "Long"));
         primitiveMap.put(Short.TYPE, new TypeInfo(
-	    "S", 1, (byte) 0x15, (byte) 0xac, Short.class, "shortValue"));
+	    "S", 1, (byte) 0x15, (byte) 0xac, Short.class, "shortValue",
+	    "Short"));
         primitiveMap.put(Float.TYPE, new TypeInfo(
-	    "F", 1, (byte) 0x17, (byte) 0xae, Float.class, "floatValue"));
+	    "F", 1, (byte) 0x17, (byte) 0xae, Float.class, "floatValue",
+	    "Float"));
         primitiveMap.put(Double.TYPE, new TypeInfo(
-	    "D", 2, (byte) 0x18, (byte) 0xaf, Double.class, "doubleValue"));
+	    "D", 2, (byte) 0x18, (byte) 0xaf, Double.class, "doubleValue",
+	    "Double"));
         primitiveMap.put(Void.TYPE, new TypeInfo(
-	    "V", -1, (byte) 0xff, (byte) 0xb1, null, null));
+	    "V", -1, (byte) 0xff, (byte) 0xb1, null, null, null));
     }
 
     TypeInfo(String typeDescriptor, int localSlots, byte loadInstruction,
         byte returnInstruction, Class primitiveWrapper, 
-        String valueMethod) 
+        String valueMethod, String callSuffix) 
     {
         this.typeDescriptor = typeDescriptor;
         this.localSlots = localSlots;
@@ -75,6 +84,7 @@ class TypeInfo {
         this.returnInstruction = returnInstruction;
         this.primitiveWrapper = primitiveWrapper;
         this.valueMethod = valueMethod;
+        this.callSuffix = callSuffix;
     }
 
     static TypeInfo get(Class type) {
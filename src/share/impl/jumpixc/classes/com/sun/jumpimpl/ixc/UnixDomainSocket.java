@@ -0,0 +1,155 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.ixc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/*
+ * A connected Unix domain stream socket, which java.net can't make.
+ * Closing either of its streams closes the socket, and wakes up any
+ * thread blocked reading or writing it.
+ */
+
+final class UnixDomainSocket {
+
+   // The file descriptor, or -1 once closed.  Guarded by this.
+   private int fd;
+
+   private final InputStream in = new InputStream() {
+      public int read() throws IOException {
+         byte[] b = new byte[1];
+         return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xff);
+      }
+
+      public int read(byte[] b, int off, int len) throws IOException {
+         if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+         }
+         if (len == 0) {
+            return 0;
+         }
+         int n = read0(getFD(), b, off, len);
+         return (n == 0) ? -1 : n;
+      }
+
+      public void close() {
+         UnixDomainSocket.this.close();
+      }
+   };
+
+   private final OutputStream out = new OutputStream() {
+      public void write(int b) throws IOException {
+         write(new byte[] {(byte) b}, 0, 1);
+      }
+
+      public void write(byte[] b, int off, int len) throws IOException {
+         if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+         }
+         write0(getFD(), b, off, len);
+      }
+
+      public void close() {
+         UnixDomainSocket.this.close();
+      }
+   };
+
+   private UnixDomainSocket(int fd) {
+      this.fd = fd;
+   }
+
+   /*
+    * Connects to the socket listening at path.
+    */
+   static UnixDomainSocket connect(String path) throws IOException {
+      return new UnixDomainSocket(connect0(path));
+   }
+
+   InputStream getInputStream() {
+      return in;
+   }
+
+   OutputStream getOutputStream() {
+      return out;
+   }
+
+   private synchronized int getFD() throws IOException {
+      if (fd == -1) {
+         throw new IOException("Socket closed");
+      }
+      return fd;
+   }
+
+   synchronized void close() {
+      if (fd != -1) {
+         close0(fd);
+         fd = -1;
+      }
+   }
+
+   /*
+    * A Unix domain socket listening for connections at a path.
+    */
+   static final class Server {
+
+      private final String path;
+      private int fd;
+
+      /*
+       * Listens at path, removing whatever was left there first.
+       */
+      Server(String path) throws IOException {
+         this.path = path;
+         this.fd = listen0(path);
+      }
+
+      String getPath() {
+         return path;
+      }
+
+      UnixDomainSocket accept() throws IOException {
+         return new UnixDomainSocket(accept0(fd));
+      }
+   }
+
+   private static native int connect0(String path) throws IOException;
+
+   private static native int listen0(String path) throws IOException;
+
+   private static native int accept0(int fd) throws IOException;
+
+   // Returns 0 at end of stream.
+   private static native int read0(int fd, byte[] b, int off, int len)
+      throws IOException;
+
+   private static native void write0(int fd, byte[] b, int off, int len)
+      throws IOException;
+
+   // Shuts the socket down before closing it, so that threads
+   // blocked on it return.
+   private static native void close0(int fd);
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.ixc;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.sun.jumpimpl.process.JUMPModulesConfig;
+
+/*
+ * IXC over Unix domain sockets.  A VM's address is its process id,
+ * and it listens at jump-ixc-<pid> in the directory named by the
+ * jump.ixc.unix.dir configuration property, /tmp by default.
+ */
+
+class UnixSocketTransport extends StreamTransport implements Runnable {
+
+   private static boolean debug = false; // Enable/disable debug output
+
+   // Created on first use.  Guarded by this.
+   private UnixDomainSocket.Server server = null;
+
+   public boolean isAddressedByProcess() {
+      return true;
+   }
+
+   synchronized int getLocalAddress() {
+      int pid = Utils.getMtaskClientID();
+      if (server == null) {
+         String path = getPath(pid);
+         try {
+            server = new UnixDomainSocket.Server(path);
+         } catch (IOException e) {
+            throw new InternalError("Cannot open the IXC socket " +
+                                    path + ": " + e.getMessage());
+         }
+         new File(path).deleteOnExit();
+
+         Thread t = new Thread(this, "IxcUnixSocketReceiver");
+         t.setDaemon(true);
+         t.start();
+      }
+      return pid;
+   }
+
+   IxcConnection open(int pid) throws IOException {
+      UnixDomainSocket s = UnixDomainSocket.connect(getPath(pid));
+      return new IxcConnection(this, pid,
+                               s.getInputStream(), s.getOutputStream());
+   }
+
+   // Accepts connections from the VMs calling this one.
+   public void run() {
+      int connections = 0;
+      while (true) {
+         UnixDomainSocket s;
+         try {
+            s = server.accept();
+         } catch (IOException e) {
+            e.printStackTrace();
+            return;
+         }
+         if (debug) System.out.println("IxcUnixSocketReceiver: connected");
+         ConnectionReceiver.serve("unix-" + (++connections),
+                                  s.getInputStream(), s.getOutputStream());
+      }
+   }
+
+   private static String getPath(int pid) {
+      String dir = "/tmp";
+      Object value =
+         JUMPModulesConfig.getProperties().get("jump.ixc.unix.dir");
+      if (value != null) {
+         dir = ((String) value).trim();
+      }
+      return dir + File.separator + "jump-ixc-" + pid;
+   }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+/*
+ * Unix domain stream sockets for the "unix" IXC transport,
+ * com.sun.jumpimpl.ixc.UnixDomainSocket.  POSIX platforms only.
+ */
+
+#include <jni.h>
+#include <errno.h>
+#include <stdio.h>
+#include <string.h>
+#include <unistd.h>
+#include <sys/types.h>
+#include <sys/socket.h>
+#include <sys/un.h>
+#include "jni_util.h"
+
+/* Bytes copied between the Java array and the socket at a time. */
+#define IXC_UNIX_CHUNK 8192
+
+#ifndef MSG_NOSIGNAL
+#define MSG_NOSIGNAL 0
+#endif
+
+/* Throws an IOException saying what failed and why. */
+static void
+throw_IOException(JNIEnv *env, const char *what, int err)
+{
+    char message[128];
+
+    snprintf(message, sizeof(message), "%s: %s", what, strerror(err));
+    JNU_ThrowByName(env, "java/io/IOException", message);
+}
+
+/* Fills in addr for path, or throws an IOException if it won't fit. */
+static int
+make_address(JNIEnv *env, jstring path, struct sockaddr_un *addr)
+{
+    const char *p;
+    int ok;
+
+    if (path == NULL) {
+	JNU_ThrowNullPointerException(env, "path");
+	return 0;
+    }
+    p = (*env)->GetStringUTFChars(env, path, NULL);
+    if (p == NULL) {
+	return 0;
+    }
+    memset(addr, 0, sizeof(*addr));
+    addr->sun_family = AF_UNIX;
+    ok = strlen(p) < sizeof(addr->sun_path);
+    if (ok) {
+	strcpy(addr->sun_path, p);
+    } else {
+	JNU_ThrowByName(env, "java/io/IOException", "Socket path too long");
+    }
+    (*env)->ReleaseStringUTFChars(env, path, p);
+    return ok;
+}
+
+/* private static native int connect0(String path) throws IOException; */
+JNIEXPORT jint JNICALL
+Java_com_sun_jumpimpl_ixc_UnixDomainSocket_connect0(
+    JNIEnv *env, jclass cls, jstring path)
+{
+    struct sockaddr_un addr;
+    int fd;
+    int rc;
+
+    if (!make_address(env, path, &addr)) {
+	return -1;
+    }
+    fd = socket(AF_UNIX, SOCK_STREAM, 0);
+    if (fd == -1) {
+	throw_IOException(env, "socket", errno);
+	return -1;
+    }
+    do {
+	rc = connect(fd, (struct sockaddr *)&addr, sizeof(addr));
+    } while (rc == -1 && errno == EINTR);
+    if (rc == -1) {
+	int err = errno;
+	close(fd);
+	throw_IOException(env, addr.sun_path, err);
+	return -1;
+    }
+    return fd;
+}
+
+/* private static native int listen0(String path) throws IOException; */
+JNIEXPORT jint JNICALL
+Java_com_sun_jumpimpl_ixc_UnixDomainSocket_listen0(
+    JNIEnv *env, jclass cls, jstring path)
+{
+    struct sockaddr_un addr;
+    int fd;
+
+    if (!make_address(env, path, &addr)) {
+	return -1;
+    }
+    fd = socket(AF_UNIX, SOCK_STREAM, 0);
+    if (fd == -1) {
+	throw_IOException(env, "socket", errno);
+	return -1;
+    }
+    /* Left behind by an earlier process with the same pid */
+    unlink(addr.sun_path);
+    if (bind(fd, (struct sockaddr *)&addr, sizeof(addr)) == -1 ||
+	listen(fd, SOMAXCONN) == -1) {
+	int err = errno;
+	close(fd);
+	throw_IOException(env, addr.sun_path, err);
+	return -1;
+    }
+    return fd;
+}
+
+/* private static native int accept0(int fd) throws IOException; */
+JNIEXPORT jint JNICALL
+Java_com_sun_jumpimpl_ixc_UnixDomainSocket_accept0(
+    JNIEnv *env, jclass cls, jint fd)
+{
+    int s;
+
+    do {
+	s = accept(fd, NULL, NULL);
+    } while (s == -1 && errno == EINTR);
+    if (s == -1) {
+	throw_IOException(env, "accept", errno);
+	return -1;
+    }
+    return s;
+}
+
+/* private static native int read0(int fd, byte[] b, int off, int len)
+       throws IOException; */
+JNIEXPORT jint JNICALL
+Java_com_sun_jumpimpl_ixc_UnixDomainSocket_read0(
+    JNIEnv *env, jclass cls, jint fd, jbyteArray b, jint off, jint len)
+{
+    jbyte buf[IXC_UNIX_CHUNK];
+    ssize_t n;
+
+    if (len > IXC_UNIX_CHUNK) {
+	len = IXC_UNIX_CHUNK;
+    }
+    do {
+	n = recv(fd, buf, len, 0);
+    } while (n == -1 && errno == EINTR);
+    if (n == -1) {
+	throw_IOException(env, "recv", errno);
+	return -1;
+    }
+    (*env)->SetByteArrayRegion(env, b, off, (jsize)n, buf);
+    return (jint)n;
+}
+
+/* private static native void write0(int fd, byte[] b, int off, int len)
+       throws IOException; */
+JNIEXPORT void JNICALL
+Java_com_sun_jumpimpl_ixc_UnixDomainSocket_write0(
+    JNIEnv *env, jclass cls, jint fd, jbyteArray b, jint off, jint len)
+{
+    jbyte buf[IXC_UNIX_CHUNK];
+
+    while (len > 0) {
+	int chunk = (len > IXC_UNIX_CHUNK) ? IXC_UNIX_CHUNK : len;
+	int sent = 0;
+
+	(*env)->GetByteArrayRegion(env, b, off, chunk, buf);
+	if ((*env)->ExceptionCheck(env)) {
+	    return;
+	}
+	while (sent < chunk) {
+	    /* MSG_NOSIGNAL: a closed peer is an IOException, not SIGPIPE */
+	    ssize_t n = send(fd, buf + sent, chunk - sent, MSG_NOSIGNAL);
+	    if (n == -1) {
+		if (errno == EINTR) {
+		    continue;
+		}
+		throw_IOException(env, "send", errno);
+		return;
+	    }
+	    sent += (int)n;
+	}
+	off += chunk;
+	len -= chunk;
+    }
+}
+
+/* private static native void close0(int fd); */
+JNIEXPORT void JNICALL
+Java_com_sun_jumpimpl_ixc_UnixDomainSocket_close0(
+    JNIEnv *env, jclass cls, jint fd)
+{
+    shutdown(fd, SHUT_RDWR);
+    close(fd);
+}
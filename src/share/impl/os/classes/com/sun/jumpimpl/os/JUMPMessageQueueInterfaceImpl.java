@@ -48,32 +48,47 @@ public class JUMPMessageQueueInterfaceImpl extends JUMPMessageQueueInterface {
     public native int getDataOffset();
 
     /**
-     * Send an asynchronous message to process pid
+     * Get the size of the largest message that can be sent in one piece,
+     * including the data offset.
+     */
+    public native int getMaxMessageSize();
+
+    /**
+     * Send an asynchronous message to process pid.  Only the first
+     * <code>length</code> bytes of <code>message</code> are sent.
      *
+     * @return the request id given to the message.  A response to
+     *         the message carries it as its response id.
      * @throws JUMPTargetNonexistentException
      * @throws JUMPWouldBlockException
      * @throws IOException
      */
-    public native void sendMessageAsync(int pid,
-					byte[] message,
-					boolean isResponse)
+    public native int sendMessageAsync(int pid,
+				       byte[] message,
+				       int length,
+				       boolean isResponse)
 	throws IOException;
     
 
     /**
      * Send a response to a process (return information in the message).
+     * Only the first <code>length</code> bytes of <code>message</code>
+     * are sent.
      *
      * @throws JUMPTargetNonexistentException
      * @throws JUMPWouldBlockException
      * @throws IOException
      */
     public native void sendMessageResponse(byte[] message,
+					   int length,
 					   boolean isResponse)
 	throws IOException;
     
     /**
      * Send a synchronous message and get byte[] back from which
-     * we can construct a JUMPMessage.
+     * we can construct a JUMPMessage.  Only the first <code>length</code>
+     * bytes of <code>message</code> are sent.  The returned array is
+     * exactly as long as the response received.
      *
      * @throws JUMPTimedOutException
      * @throws JUMPTargetNonexistentException
@@ -82,11 +97,15 @@ public class JUMPMessageQueueInterfaceImpl extends JUMPMessageQueueInterface {
      */
     public native byte[] sendMessageSync(int pid,
 					 byte[] message,
+					 int length,
 					 boolean isResponse,
 					 long timeout)
 	throws JUMPTimedOutException, IOException;
 
     /**
+     * Receive a message of the given type.  The returned array is
+     * exactly as long as the message received.
+     *
      * @throws JUMPTimedOutException
      * @throws JUMPUnblockedException
      * @throws IOException
@@ -95,10 +114,78 @@ public class JUMPMessageQueueInterfaceImpl extends JUMPMessageQueueInterface {
 					long timeout) 
 	throws JUMPTimedOutException, IOException;
 
+    /**
+     * Wait until a message is available for any of the given message
+     * types, all of which must be reserved.  The message is not read;
+     * a following <code>receiveMessage()</code> for the type returns
+     * it without blocking.  A timeout of 0 means wait forever.  Of
+     * several types with messages, one with the highest priority set
+     * by <code>setPriority()</code> is returned.
+     *
+     * @return the index in <code>messageTypes</code> of a type with
+     *         a message available
+     * @throws JUMPTimedOutException
+     * @throws IOException
+     */
+    public native int waitForMessages(String[] messageTypes,
+				      long timeout)
+	throws JUMPTimedOutException, IOException;
+
+    // Each thread's ReturnQueue, looked up once per thread.
+    private final ThreadLocal returnQueue = new ThreadLocal();
+
     /*
      * Get return type for caller thread
      */
-    public native String getReturnType();
+    public String getReturnType() {
+	return getReturnQueue().returnType;
+    }
+
+    /**
+     * Make sure the caller thread's response queue exists.  It is kept
+     * until the thread is gone, so that synchronous sends don't have
+     * to create and destroy it each time.
+     */
+    public void reserveReturnQueue() throws IOException {
+	ReturnQueue rq = getReturnQueue();
+	if (!rq.reserved) {
+	    reserve(rq.returnType);
+	    rq.reserved = true;
+	}
+    }
+
+    private ReturnQueue getReturnQueue() {
+	ReturnQueue rq = (ReturnQueue)returnQueue.get();
+	if (rq == null) {
+	    rq = new ReturnQueue(getThreadReturnType());
+	    returnQueue.set(rq);
+	}
+	return rq;
+    }
+
+    /*
+     * Get return type for caller thread from the native layer
+     */
+    private native String getThreadReturnType();
+
+    /*
+     * A thread's return type, and whether its queue is reserved.  The
+     * queue is unreserved when the thread, and so this, is collected.
+     */
+    private class ReturnQueue {
+	final String returnType;
+	boolean reserved = false;
+
+	ReturnQueue(String returnType) {
+	    this.returnType = returnType;
+	}
+
+	protected void finalize() {
+	    if (reserved) {
+		unreserve(returnType);
+	    }
+	}
+    }
 
     /**
      * To make sure that the OS structures exist for the type we
@@ -118,4 +205,37 @@ public class JUMPMessageQueueInterfaceImpl extends JUMPMessageQueueInterface {
      */
     public native void unblock(String messageType)
 	throws IOException;
+
+    /**
+     * Returns how many bytes of messages of messageType are waiting
+     * to be received, or -1 if not known.
+     */
+    public native int getPendingBytes(String messageType);
+
+    /**
+     * Set the priority of the reserved queue for messageType.  When
+     * several of the queues passed to <code>waitForMessages()</code>
+     * have messages, the one with the highest priority is returned.
+     * Queues start out with priority 0.
+     */
+    public native void setPriority(String messageType, int priority);
+
+    /**
+     * Returns how many bytes of messages of messageType are waiting
+     * to be received by process processId, or -1 if not known.
+     */
+    public native int getTargetPendingBytes(int processId,
+					    String messageType);
+
+    /**
+     * Give the queues reserved from now on a shared-memory ring of at
+     * least <code>size</code> bytes, which other processes send
+     * through without copying through the kernel, and send through
+     * the rings of other processes' queues.  A size of 0 turns rings
+     * off.  Queues without a ring still work as before, so processes
+     * with and without rings can talk to each other.
+     *
+     * @return the ring size used, or 0 if there will be no rings
+     */
+    public native int setRingSize(int size);
 }
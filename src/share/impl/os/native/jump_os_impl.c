@@ -95,6 +95,8 @@ code_to_string(JUMPMessageStatusCode code)
 	return "JUMP_UNBLOCKED";
       case JUMP_NO_SUCH_QUEUE:
 	return "JUMP_NO_SUCH_QUEUE";
+      case JUMP_BAD_STRING:
+	return "JUMP_BAD_STRING";
       default:
 	return NULL;
     }
@@ -141,8 +143,14 @@ Java_com_sun_jumpimpl_os_JUMPMessageQueueInterfaceImpl_getDataOffset(JNIEnv *env
     return jumpMessageQueueDataOffset();
 }
 
+JNIEXPORT jint JNICALL
+Java_com_sun_jumpimpl_os_JUMPMessageQueueInterfaceImpl_getMaxMessageSize(JNIEnv *env, jobject thisObj)
+{
+    return JUMP_MESSAGE_BUFFER_SIZE;
+}
+
 JNIEXPORT jstring JNICALL
-Java_com_sun_jumpimpl_os_JUMPMessageQueueInterfaceImpl_getReturnType(JNIEnv *env, jobject thisObj)
+Java_com_sun_jumpimpl_os_JUMPMessageQueueInterfaceImpl_getThreadReturnType(JNIEnv *env, jobject thisObj)
 {
     char* name;
     jstring ret;
@@ -160,27 +168,33 @@ Java_com_sun_jumpimpl_os_JUMPMessageQueueInterfaceImpl_getReturnType(JNIEnv *env
     return ret;
 }
 
-/* On success, returns a new JUMPOutgoingMessage.  On failure, returns
-   NULL and throws an OutOfMemoryError or IOException. */
+/* Copies the first 'length' bytes of messageBytes, the part of the
+   array actually used by the message.  On success, returns a new
+   JUMPOutgoingMessage.  On failure, returns NULL and throws an
+   OutOfMemoryError or IOException. */
 static JUMPOutgoingMessage
 new_outgoing_message_from_byte_array(
     JNIEnv *env, 
     jbyteArray messageBytes,
+    jint length,
     jboolean isResponse)
 {
     jbyte *buffer = NULL;
-    jsize length;
     JUMPOutgoingMessage m;
     JUMPMessageStatusCode code;
 
-    length = (*env)->GetArrayLength(env, messageBytes);
+    if (length < 0 || length > (*env)->GetArrayLength(env, messageBytes)) {
+	JNU_ThrowByName(env, "java/lang/ArrayIndexOutOfBoundsException",
+			"Bad message length.");
+	goto error;
+    }
     if (length > JUMP_MESSAGE_BUFFER_SIZE) {
 	JNU_ThrowByName(env, "java/io/IOException",
 			"Maximum message size exceeded.");
 	goto error;
     }
 
-    buffer = malloc(JUMP_MESSAGE_BUFFER_SIZE);
+    buffer = (jbyte*)jumpMessageBufferAlloc();
     if (buffer == NULL) {
 	JNU_ThrowOutOfMemoryError(env, "in new_outgoing_message_from_byte_array");
 	goto error;
@@ -191,7 +205,8 @@ new_outgoing_message_from_byte_array(
 	goto error;
     }
 
-    m = jumpMessageNewOutgoingFromBuffer(buffer, isResponse, &code);
+    m = jumpMessageNewOutgoingFromBuffer((uint8*)buffer, (uint32)length,
+					 isResponse, &code);
     if (m == NULL) {
 	switch (code) {
 	  case JUMP_OUT_OF_MEMORY:
@@ -208,7 +223,7 @@ new_outgoing_message_from_byte_array(
     return m;
 
   error:
-    free(buffer);
+    jumpMessageBufferFree((uint8*)buffer);
     return NULL;
 }
 
@@ -220,14 +235,16 @@ new_byte_array_from_message(
     JUMPMessage message)
 {
     jbyteArray retVal;
+    jsize length = (jsize)jumpMessageGetDataLength(message);
 
-    retVal = (*env)->NewByteArray(env, JUMP_MESSAGE_BUFFER_SIZE);
+    /* Only the bytes actually received are copied. */
+    retVal = (*env)->NewByteArray(env, length);
     if (retVal == NULL) {
 	return NULL;
     }
 
-    (*env)->SetByteArrayRegion(env, retVal, 0, JUMP_MESSAGE_BUFFER_SIZE,
-			       jumpMessageGetData(message));
+    (*env)->SetByteArrayRegion(env, retVal, 0, length,
+			       (jbyte*)jumpMessageGetData(message));
     if ((*env)->ExceptionOccurred(env)) {
 	(*env)->DeleteLocalRef(env, retVal);
 	return NULL;
@@ -242,6 +259,7 @@ Java_com_sun_jumpimpl_os_JUMPMessageQueueInterfaceImpl_sendMessageSync(
     jobject thisObj, 
     jint pid, 
     jbyteArray messageBytes,
+    jint length,
     jboolean isResponse,
     jlong timeout)
 {
@@ -253,7 +271,8 @@ Java_com_sun_jumpimpl_os_JUMPMessageQueueInterfaceImpl_sendMessageSync(
 
     ensureInitialized();
 
-    m = new_outgoing_message_from_byte_array(env, messageBytes, isResponse);
+    m = new_outgoing_message_from_byte_array(env, messageBytes, length,
+					     isResponse);
     if (m == NULL) {
 	/* Exception already thrown. */
 	goto out;
@@ -368,21 +387,105 @@ Java_com_sun_jumpimpl_os_JUMPMessageQueueInterfaceImpl_receiveMessage(
     return retVal;
 }
 
-JNIEXPORT void JNICALL
+JNIEXPORT jint JNICALL
+Java_com_sun_jumpimpl_os_JUMPMessageQueueInterfaceImpl_waitForMessages(
+    JNIEnv *env, 
+    jobject thisObj, 
+    jobjectArray messageTypes, 
+    jlong timeout)
+{
+    jsize count;
+    jstring* strings = NULL;
+    const char** types = NULL;
+    JUMPMessageStatusCode code;
+    jint retVal = -1;
+    int i;
+
+    ensureInitialized();
+
+    count = (*env)->GetArrayLength(env, messageTypes);
+    strings = calloc(count, sizeof(jstring));
+    types = calloc(count, sizeof(char*));
+    if (strings == NULL || types == NULL) {
+	JNU_ThrowOutOfMemoryError(env, "in waitForMessages");
+	goto out;
+    }
+
+    for (i = 0; i < count; i++) {
+	strings[i] = (*env)->GetObjectArrayElement(env, messageTypes, i);
+	if (strings[i] == NULL) {
+	    /* NullPointerException, unless an exception is pending. */
+	    if ((*env)->ExceptionOccurred(env) == NULL) {
+		JNU_ThrowByName(env, "java/lang/NullPointerException",
+				"null message type");
+	    }
+	    goto out;
+	}
+	types[i] = (*env)->GetStringUTFChars(env, strings[i], NULL);
+	if (types[i] == NULL) {
+	    goto out;
+	}
+    }
+
+    retVal = jumpMessageWaitForAny((JUMPPlatformCString*)types, count,
+				   (int32)timeout, &code);
+    if (retVal == -1) {
+	switch (code) {
+	  case JUMP_OUT_OF_MEMORY:
+	    JNU_ThrowOutOfMemoryError(env, "in jumpMessageWaitForAny");
+	    break;
+
+	  case JUMP_TIMEOUT:
+	    throw_by_name(env, "com/sun/jump/message/JUMPTimedOutException");
+	    break;
+
+	  case JUMP_NO_SUCH_QUEUE:
+	    // The design of the Java code should not allow this.
+	    // Fall through to default.
+	  default:
+	    throw_IOException(env, code);
+	    break;
+	}
+    }
+
+  out:
+    if (types != NULL) {
+	for (i = 0; i < count; i++) {
+	    if (types[i] != NULL) {
+		(*env)->ReleaseStringUTFChars(env, strings[i], types[i]);
+	    }
+	}
+    }
+    if (strings != NULL) {
+	for (i = 0; i < count; i++) {
+	    if (strings[i] != NULL) {
+		(*env)->DeleteLocalRef(env, strings[i]);
+	    }
+	}
+    }
+    free(types);
+    free(strings);
+    return retVal;
+}
+
+JNIEXPORT jint JNICALL
 Java_com_sun_jumpimpl_os_JUMPMessageQueueInterfaceImpl_sendMessageAsync(
     JNIEnv *env, 
     jobject thisObj, 
     jint pid, 
     jbyteArray messageBytes,
+    jint length,
     jboolean isResponse)
 {
     JUMPOutgoingMessage m = NULL;
     JUMPAddress target;
     JUMPMessageStatusCode code;
+    jint requestId = -1;
 
     ensureInitialized();
 
-    m = new_outgoing_message_from_byte_array(env, messageBytes, isResponse);
+    m = new_outgoing_message_from_byte_array(env, messageBytes, length,
+					     isResponse);
     if (m == NULL) {
 	/* Exception already thrown. */
 	goto out;
@@ -392,6 +495,7 @@ Java_com_sun_jumpimpl_os_JUMPMessageQueueInterfaceImpl_sendMessageAsync(
     jumpMessageSendAsync(target, m, &code);
     switch (code) {
       case JUMP_SUCCESS:
+	requestId = jumpMessageGetRequestId(m);
 	break;
 
       case JUMP_OUT_OF_MEMORY:
@@ -419,6 +523,7 @@ Java_com_sun_jumpimpl_os_JUMPMessageQueueInterfaceImpl_sendMessageAsync(
     if (m != NULL) {
 	jumpMessageFreeOutgoing(m);
     }
+    return requestId;
 }
 
 JNIEXPORT void JNICALL
@@ -426,6 +531,7 @@ Java_com_sun_jumpimpl_os_JUMPMessageQueueInterfaceImpl_sendMessageResponse(
     JNIEnv *env, 
     jobject thisObj, 
     jbyteArray messageBytes,
+    jint length,
     jboolean isResponse)
 {
     JUMPOutgoingMessage m = NULL;
@@ -433,7 +539,8 @@ Java_com_sun_jumpimpl_os_JUMPMessageQueueInterfaceImpl_sendMessageResponse(
 
     ensureInitialized();
 
-    m = new_outgoing_message_from_byte_array(env, messageBytes, isResponse);
+    m = new_outgoing_message_from_byte_array(env, messageBytes, length,
+					     isResponse);
     if (m == NULL) {
 	/* Exception already thrown. */
 	goto out;
@@ -552,6 +659,76 @@ Java_com_sun_jumpimpl_os_JUMPMessageQueueInterfaceImpl_unblock(
     (*env)->ReleaseStringUTFChars(env, messageType, type);
 }
 
+JNIEXPORT jint JNICALL
+Java_com_sun_jumpimpl_os_JUMPMessageQueueInterfaceImpl_getPendingBytes(
+    JNIEnv *env, 
+    jobject thisObj, 
+    jstring messageType)
+{
+    const char* type;
+    int pending;
+
+    type = (*env)->GetStringUTFChars(env, messageType, NULL);
+    if (type == NULL) {
+	return -1;
+    }
+
+    pending = jumpMessageQueueGetPendingBytes((JUMPPlatformCString)type);
+
+    (*env)->ReleaseStringUTFChars(env, messageType, type);
+    return pending;
+}
+
+JNIEXPORT void JNICALL
+Java_com_sun_jumpimpl_os_JUMPMessageQueueInterfaceImpl_setPriority(
+    JNIEnv *env, 
+    jobject thisObj, 
+    jstring messageType,
+    jint priority)
+{
+    const char* type;
+
+    type = (*env)->GetStringUTFChars(env, messageType, NULL);
+    if (type == NULL) {
+	return;
+    }
+
+    jumpMessageQueueSetPriority((JUMPPlatformCString)type, priority);
+
+    (*env)->ReleaseStringUTFChars(env, messageType, type);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_sun_jumpimpl_os_JUMPMessageQueueInterfaceImpl_getTargetPendingBytes(
+    JNIEnv *env, 
+    jobject thisObj, 
+    jint processId,
+    jstring messageType)
+{
+    const char* type;
+    int pending;
+
+    type = (*env)->GetStringUTFChars(env, messageType, NULL);
+    if (type == NULL) {
+	return -1;
+    }
+
+    pending = jumpMessageQueueGetTargetPendingBytes(
+	processId, (JUMPPlatformCString)type);
+
+    (*env)->ReleaseStringUTFChars(env, messageType, type);
+    return pending;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_sun_jumpimpl_os_JUMPMessageQueueInterfaceImpl_setRingSize(
+    JNIEnv *env, 
+    jobject thisObj, 
+    jint size)
+{
+    return jumpMessageQueueSetRingSize(size);
+}
+
 static int
 create_process(
     JNIEnv *env, 
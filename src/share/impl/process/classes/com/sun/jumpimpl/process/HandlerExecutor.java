@@ -0,0 +1,204 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+package com.sun.jumpimpl.process;
+
+import java.util.LinkedList;
+
+/**
+ * Runs tasks on a bounded number of daemon threads.  Threads are
+ * started on demand, up to <code>maxThreads</code>, and exit after
+ * being idle for a while, so an idle process keeps no threads here.
+ * <p>
+ * Control tasks go in a lane of their own, which is always served
+ * first.  When all the threads are busy one more thread may be
+ * started for a control task, so it doesn't have to wait for a slow
+ * ordinary task to finish.
+ * <p>
+ * A task may block waiting for another process, as a handler does
+ * when it sends a request and waits for the response.  It tells its
+ * executor with <code>blockingBegin()</code> and
+ * <code>blockingEnd()</code>, and while it is blocked one more thread
+ * may run, so that handlers blocked in round trips can't take every
+ * thread from the tasks they may be waiting for.
+ */
+class HandlerExecutor
+{
+    // How long a thread waits for a new task before exiting.
+    private static final long IDLE_TIMEOUT = 30000L;
+
+    // The executor the current thread belongs to, if any.
+    private static final ThreadLocal current = new ThreadLocal();
+
+    private final String name;
+    private final int maxThreads;
+
+    // Guarded by this.
+    private final LinkedList tasks = new LinkedList();
+    private final LinkedList controlTasks = new LinkedList();
+    private int threads = 0;
+    private int idleThreads = 0;
+    private int blockedThreads = 0;
+
+    HandlerExecutor (String name, int maxThreads)
+    {
+	if (maxThreads < 1) {
+	    throw new IllegalArgumentException("maxThreads must be positive");
+	}
+	this.name = name;
+	this.maxThreads = maxThreads;
+    }
+
+    /**
+     * Queue a task to be run by one of the threads.  Tasks are
+     * started in the order they are queued.
+     */
+    synchronized void execute (Runnable task)
+    {
+	tasks.addLast(task);
+	wakeThread(maxThreads + blockedThreads);
+    }
+
+    /**
+     * Queue a control task, to be run before any ordinary task.
+     * Control tasks are started in the order they are queued.
+     */
+    synchronized void executeControl (Runnable task)
+    {
+	controlTasks.addLast(task);
+	wakeThread(maxThreads + blockedThreads + 1);
+    }
+
+    /**
+     * Called before the current thread blocks waiting for another
+     * process.  If it is a thread of an executor, another thread may
+     * be started to run the tasks waiting meanwhile.  Returns the
+     * executor, to be passed to <code>blockingEnd()</code> once the
+     * thread is done waiting, or null.
+     */
+    static HandlerExecutor blockingBegin ()
+    {
+	HandlerExecutor executor = (HandlerExecutor) current.get();
+	if (executor != null) {
+	    synchronized (executor) {
+		executor.blockedThreads++;
+		executor.wakeThread(
+		    executor.maxThreads + executor.blockedThreads);
+	    }
+	}
+	return executor;
+    }
+
+    /**
+     * Called when the thread that called <code>blockingBegin()</code>
+     * is done waiting.  The executor is back to its usual number of
+     * threads as soon as a thread finishes a task.
+     */
+    static void blockingEnd (HandlerExecutor executor)
+    {
+	if (executor != null) {
+	    synchronized (executor) {
+		executor.blockedThreads--;
+	    }
+	}
+    }
+
+    // Externally synchronized on this.  A thread that has been
+    // notified counts as idle until it gets the monitor back, so a
+    // thread is started whenever there are more tasks waiting than
+    // idle threads to take them.
+    private void wakeThread (int limit)
+    {
+	if (idleThreads > 0) {
+	    notify();
+	}
+	if (tasks.size() + controlTasks.size() > idleThreads
+	    && threads < limit) {
+	    startThread();
+	}
+    }
+
+    // Externally synchronized on this.
+    private void startThread ()
+    {
+	Thread thread = new Thread(
+	    new Runnable() {
+		public void run() {
+		    try {
+			work();
+		    }
+		    finally {
+			synchronized (HandlerExecutor.this) {
+			    threads--;
+			}
+		    }
+		}
+	    });
+	thread.setName(name + "-" + threads);
+	thread.setDaemon(true);
+	thread.start();
+	threads++;
+    }
+
+    // Returns when the thread has been idle for IDLE_TIMEOUT, or when
+    // there are more threads running tasks than there should be.
+    private void work ()
+    {
+	current.set(this);
+	while (true) {
+	    Runnable task;
+	    synchronized (this) {
+		if (threads - blockedThreads > maxThreads &&
+		    controlTasks.isEmpty()) {
+		    return;
+		}
+		long deadline = System.currentTimeMillis() + IDLE_TIMEOUT;
+		while (tasks.isEmpty() && controlTasks.isEmpty()) {
+		    long remaining = deadline - System.currentTimeMillis();
+		    if (remaining <= 0) {
+			return;
+		    }
+		    idleThreads++;
+		    try {
+			wait(remaining);
+		    } catch (InterruptedException e) {
+			// Check for tasks again.
+		    } finally {
+			idleThreads--;
+		    }
+		}
+		if (!controlTasks.isEmpty()) {
+		    task = (Runnable) controlTasks.removeFirst();
+		} else {
+		    task = (Runnable) tasks.removeFirst();
+		}
+	    }
+
+	    try {
+		task.run();
+	    } catch (RuntimeException e) {
+		e.printStackTrace();
+	    }
+	}
+    }
+}
@@ -25,10 +25,14 @@
 package com.sun.jumpimpl.process;
 
 import com.sun.jump.command.JUMPExecutiveLifecycleRequest;
+import com.sun.jump.command.JUMPRequest;
 import com.sun.jump.command.JUMPResponse;
 import com.sun.jump.common.JUMPApplication;
 import com.sun.jump.executive.JUMPApplicationProxy;
 import com.sun.jump.executive.JUMPIsolateProxy;
+import com.sun.jump.message.JUMPMessageSender;
+
+import java.util.Vector;
 
 public class JUMPApplicationProxyImpl implements JUMPApplicationProxy {
 
@@ -90,7 +94,7 @@ public class JUMPApplicationProxyImpl implements JUMPApplicationProxy {
                    isolateProxy,
                    new JUMPExecutiveLifecycleRequest(
                        JUMPExecutiveLifecycleRequest.ID_PAUSE_APP,
-                       new String[] { Integer.toString(applicationId) }));
+                       new Object[] { new Integer(applicationId) }));
            requestSender.handleBooleanResponse(response);
         }
     }
@@ -106,7 +110,7 @@ public class JUMPApplicationProxyImpl implements JUMPApplicationProxy {
                    isolateProxy,
                    new JUMPExecutiveLifecycleRequest(
                        JUMPExecutiveLifecycleRequest.ID_RESUME_APP,
-                       new String[] { Integer.toString(applicationId) }));
+                       new Object[] { new Integer(applicationId) }));
            requestSender.handleBooleanResponse(response);
         }
     }
@@ -126,10 +130,56 @@ public class JUMPApplicationProxyImpl implements JUMPApplicationProxy {
                 isolateProxy,
                 new JUMPExecutiveLifecycleRequest(
                     JUMPExecutiveLifecycleRequest.ID_DESTROY_APP,
-                    new String[] { Integer.toString(applicationId), "true" }));
+                    new Object[] { new Integer(applicationId), Boolean.TRUE }));
         requestSender.handleBooleanResponse(response);
     }
 
+    /**
+     * Pauses all of <code>apps</code>.  The requests go out to all
+     * the isolates at once, rather than one round trip at a time.
+     */
+    public static void pauseApps(JUMPApplicationProxy[] apps) {
+        sendToAll(apps, JUMPExecutiveLifecycleRequest.ID_PAUSE_APP);
+    }
+
+    /**
+     * Resumes all of <code>apps</code>, concurrently.
+     */
+    public static void resumeApps(JUMPApplicationProxy[] apps) {
+        sendToAll(apps, JUMPExecutiveLifecycleRequest.ID_RESUME_APP);
+    }
+
+    /*
+     * Send the lifecycle request <code>id</code> to the isolates of
+     * all live <code>apps</code>, and wait for all the responses.
+     */
+    private static void sendToAll(JUMPApplicationProxy[] apps, String id) {
+        Vector targets = new Vector();
+        Vector requests = new Vector();
+        for (int i = 0; i < apps.length; i++) {
+            JUMPApplicationProxyImpl app = (JUMPApplicationProxyImpl)apps[i];
+            if (app.isolateProxy.isAlive()) {
+                targets.add(app.isolateProxy);
+                requests.add(new JUMPExecutiveLifecycleRequest(
+                    id, new Object[] { new Integer(app.applicationId) }));
+            }
+        }
+        if (targets.isEmpty()) {
+            return;
+        }
+
+        RequestSenderHelper requestSender =
+            ((JUMPApplicationProxyImpl)apps[0]).requestSender;
+        JUMPResponse[] responses = requestSender.sendRequests(
+            (JUMPMessageSender[])targets.toArray(
+                new JUMPMessageSender[targets.size()]),
+            (JUMPRequest[])requests.toArray(
+                new JUMPRequest[requests.size()]));
+        for (int i = 0; i < responses.length; i++) {
+            requestSender.handleBooleanResponse(responses[i]);
+        }
+    }
+
     /**
      * Returns the state of the application associated with this
      * <code>JUMPApplicationProxy</code>.
@@ -195,7 +195,7 @@ public class JUMPIsolateProxyImpl extends JUMPProcessProxyImpl implements JUMPIs
                    this,
                    new JUMPExecutiveLifecycleRequest(
                        JUMPExecutiveLifecycleRequest.ID_DESTROY_ISOLATE,
-                       new String[] { Boolean.toString(force) }));
+                       new Object[] { Boolean.valueOf(force) }));
            requestSender.handleBooleanResponse(response);
 	}   
     }
@@ -26,10 +26,15 @@
 
 package com.sun.jumpimpl.process;
 
+import com.sun.jump.command.JUMPCommand;
+import com.sun.jump.command.JUMPCommandBatch;
 import com.sun.jump.message.JUMPMessage;
 import com.sun.jump.message.JUMPMessageHandler;
+import com.sun.jump.message.JUMPMessageReader;
+import com.sun.jump.message.JUMPMessageResponseSender;
 import com.sun.jump.message.JUMPMessageDispatcher;
 import com.sun.jump.message.JUMPMessageDispatcherTypeException;
+import com.sun.jump.message.JUMPOutgoingMessage;
 import com.sun.jump.message.JUMPTimedOutException;
 import com.sun.jump.message.JUMPUnblockedException;
 
@@ -39,8 +44,11 @@ import com.sun.jumpimpl.os.JUMPMessageQueueInterfaceImpl;
 import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.StringTokenizer;
 
 /**
  * A generic JUMPMessageDispatcher implementation.
@@ -53,19 +61,57 @@ public class JUMPMessageDispatcherImpl implements JUMPMessageDispatcher
     // somewhat intertwined, as explained here.
     // JUMPMessageDispatcherImpl.register() creates Listeners on
     // demand and adds them to listeners.  Listeners are not removed
-    // by cancelRegistration(); instead, Listeners remove themselves
-    // and exit some time after all their handlers have been canceled
+    // by cancelRegistration(); instead, the selector thread removes a
+    // Listener some time after all its handlers have been canceled
     // and no other handlers have been registered.  This ensures that
-    // at most one thread is ever listening for any messageType, and
-    // that no message that has a registered handler will be dropped
-    // since there will always be a Listener running for that
-    // messageType.  Both JUMPMessageDispatcherImpl and Listener
-    // synchronize on lock while accessing listeners.  Additionally,
-    // Listener synchronizes on lock when accessing Listener.handlers.
-    // It could synchronize on itself, but in most cases we already
-    // need to synchronize on lock, so using lock for everything is
-    // simpler.  We never block while holding lock and there shouldn't
-    // be much if any contention for it.
+    // no message that has a registered handler will be dropped since
+    // there will always be a Listener for that messageType.  Both
+    // JUMPMessageDispatcherImpl and Listener synchronize on lock
+    // while accessing listeners.  Additionally, Listener synchronizes
+    // on lock when accessing Listener.handlers.  It could synchronize
+    // on itself, but in most cases we already need to synchronize on
+    // lock, so using lock for everything is simpler.  We never block
+    // while holding lock and there shouldn't be much if any
+    // contention for it.
+
+    // All Listeners share one selector thread, which waits for
+    // messages on all their message types at once, and reads each
+    // message off its queue as it becomes available.  Handlers are
+    // not called on the selector thread, but on a HandlerExecutor
+    // with a small bounded number of threads, shared by all
+    // messageTypes.  How a Listener hands its messages to the
+    // executor depends on the dispatch policy of its messageType.
+    // Under DISPATCH_ORDERED_PER_TYPE all its messages go into one
+    // Lane, which dispatches them one at a time and in order.  Under
+    // DISPATCH_ORDERED_PER_SENDER there is a Lane for each sender
+    // process, and the Lanes run concurrently.  Under
+    // DISPATCH_UNORDERED each message is its own task.  When a
+    // Listener has too many messages waiting for dispatch the
+    // selector stops listening for its messageType until they drain,
+    // leaving further messages in the low-level queue.  The selector
+    // thread exits when there are no Listeners left.  The selector
+    // also listens on WAKEUP_MESSAGE_TYPE; it is unblocked to make the
+    // selector notice a change in the set of message types to listen
+    // for.
+
+    // Control messages take a fast lane.  The queue of a control
+    // messageType has a higher priority in the low-level code, so the
+    // selector reads from it first when several queues have messages,
+    // and a control message, whatever its type, is handed to the
+    // executor's control lane, which is served before any other task.
+
+    // Responses to asynchronous requests, on ResponseRouter's return
+    // type, are dispatched on an executor of their own.  A handler
+    // may wait for a JUMPResponseFuture, and the response it waits
+    // for must not be stuck behind it waiting for a handler thread.
+
+    // While there are Listeners the selector also listens on
+    // JUMPCommandBatch.MESSAGE_TYPE.  The messages in a batch are
+    // unpacked as BatchEntries and handed to the Listeners for their
+    // types, as if they had arrived on their own.  A BatchResponse
+    // collects the responses the handlers send to the entries, and
+    // sends them back in one response when all the entries have been
+    // handled.
 
     // A JUMPMessageDispatcherImpl has one DirectRegistration for each
     // messageType with at least one outstanding registration.  We
@@ -82,6 +128,20 @@ public class JUMPMessageDispatcherImpl implements JUMPMessageDispatcher
 
     private static JUMPMessageDispatcherImpl INSTANCE = null;
 
+    private static final String WAKEUP_MESSAGE_TYPE =
+	"jump/dispatcher/wakeup";
+
+    private static final String BATCH_MESSAGE_TYPE =
+	JUMPCommandBatch.MESSAGE_TYPE;
+
+    // Number of threads that call handlers.
+    private static final int HANDLER_THREADS =
+	getIntConfig("jump.message.dispatcher.threads", 4);
+
+    // Number of messages of one type received but not yet handled.
+    private static final int MAX_PENDING_MESSAGES =
+	getIntConfig("jump.message.dispatcher.pending", 32);
+
     // directRegistrations maps String messageType to DirectRegistration.
     // Guarded by lock.
     // Invariant: If there is a mapping from messageType to a
@@ -98,12 +158,49 @@ public class JUMPMessageDispatcherImpl implements JUMPMessageDispatcher
 
     private final Map listeners = new HashMap();
 
+    // dispatchPolicies maps String messageType to Integer dispatch
+    // policy, for messageTypes whose policy has been set.
+    // Guarded by lock.
+
+    private final Map dispatchPolicies = new HashMap();
+
+    // messagePriorities maps String messageType to Integer priority,
+    // for messageTypes whose priority isn't PRIORITY_NORMAL.
+    // Guarded by itself.
+
+    private static final Map messagePriorities = new HashMap();
+
+    static {
+	Object value = JUMPModulesConfig.getProperties().get(
+	    "jump.message.priority.control");
+	if (value != null) {
+	    StringTokenizer st = new StringTokenizer((String) value, ", ");
+	    while (st.hasMoreTokens()) {
+		messagePriorities.put(
+		    st.nextToken(), new Integer(JUMPMessage.PRIORITY_CONTROL));
+	    }
+	}
+    }
+
     // lock guards both directRegistrations and listeners.  We need
     // one lock so we can tell whether a messageType is registered one
     // way or the other without races.
 
     private final Object lock = new Object();
 
+    // Whether the selector thread is running.  Guarded by lock.
+    private boolean selecting = false;
+
+    // Handlers that send a request and wait for the response don't
+    // count against HANDLER_THREADS while they wait, see
+    // HandlerExecutor.blockingBegin().
+    private final HandlerExecutor executor =
+	new HandlerExecutor("JUMPMessageDispatcherImpl handler",
+			    HANDLER_THREADS);
+
+    private final HandlerExecutor responseExecutor =
+	new HandlerExecutor("JUMPMessageDispatcherImpl response", 1);
+
     public static synchronized JUMPMessageDispatcherImpl getInstance() 
     {
 	if (INSTANCE == null) {
@@ -112,11 +209,32 @@ public class JUMPMessageDispatcherImpl implements JUMPMessageDispatcher
 	return INSTANCE;
     }
 
+    static int getIntConfig(String key, int defaultValue)
+    {
+	Object value = JUMPModulesConfig.getProperties().get(key);
+	if (value != null) {
+	    try {
+		return Integer.parseInt(((String) value).trim());
+	    } catch (NumberFormatException e) {
+		e.printStackTrace();
+	    }
+	}
+	return defaultValue;
+    }
+
     /**
      * Construction allowed only by getInstance().
      */
     private JUMPMessageDispatcherImpl ()
     {
+	// Commands are sent in the legacy string format only when
+	// asked to, for talking to processes that predate the typed one.
+	Object legacy = JUMPModulesConfig.getProperties().get(
+	    "jump.command.legacy-encoding");
+	if (legacy != null) {
+	    JUMPCommand.setLegacyEncoding(
+		"true".equalsIgnoreCase(((String) legacy).trim()));
+	}
     }
 
     public Object registerDirect(String messageType)
@@ -197,9 +315,23 @@ public class JUMPMessageDispatcherImpl implements JUMPMessageDispatcher
     private JUMPMessage doWaitForMessage(String messageType, long timeout)
         throws JUMPTimedOutException, IOException 
     {
-	byte[] raw = jumpMessageQueueInterfaceImpl.receiveMessage(
-	    messageType, timeout);
-	return new MessageImpl.Message(raw);
+	long deadline = System.currentTimeMillis() + timeout;
+	while (true) {
+	    byte[] raw = jumpMessageQueueInterfaceImpl.receiveMessage(
+		messageType, timeout);
+	    JUMPMessage message = MessageReassembler.receive(raw);
+	    if (message != null) {
+		return message;
+	    }
+	    // Only a fragment of a larger message.  Wait for the rest
+	    // within the original timeout.
+	    if (timeout != 0L) {
+		timeout = deadline - System.currentTimeMillis();
+		if (timeout <= 0L) {
+		    throw new JUMPTimedOutException();
+		}
+	    }
+	}
     }
 
     /**
@@ -247,7 +379,8 @@ public class JUMPMessageDispatcherImpl implements JUMPMessageDispatcher
     {
 	Listener listener = (Listener) listeners.get(messageType);
 	if (listener == null) {
-	    listener = new Listener(messageType);
+	    listener = new Listener(messageType,
+				    getDispatchPolicy(messageType));
 
 	    // Be careful to maintain our invariant (and free
 	    // resources) even on OutOfMemoryError, etc.
@@ -255,7 +388,7 @@ public class JUMPMessageDispatcherImpl implements JUMPMessageDispatcher
 	    boolean success = false;
 	    try {
 		listeners.put(messageType, listener);
-		listener.start();
+		startSelectingOrWakeup();
 		success = true;
 	    }
 	    finally {
@@ -271,6 +404,242 @@ public class JUMPMessageDispatcherImpl implements JUMPMessageDispatcher
 	return listener;
     }
 
+    // Externally synchronized on lock.
+    private void startSelectingOrWakeup ()
+	throws IOException
+    {
+	if (selecting) {
+	    wakeupSelector();
+	    return;
+	}
+
+	jumpMessageQueueInterfaceImpl.reserve(WAKEUP_MESSAGE_TYPE);
+	boolean success = false;
+	try {
+	    jumpMessageQueueInterfaceImpl.reserve(BATCH_MESSAGE_TYPE);
+	    Thread thread = new Thread(
+		new Runnable() {
+		    public void run() {
+			select();
+		    }
+		});
+	    thread.setName(this.getClass().getName() + ": selector");
+	    thread.setDaemon(true);
+	    thread.start();
+	    selecting = true;
+	    success = true;
+	}
+	finally {
+	    if (!success) {
+		jumpMessageQueueInterfaceImpl.unreserve(WAKEUP_MESSAGE_TYPE);
+		jumpMessageQueueInterfaceImpl.unreserve(BATCH_MESSAGE_TYPE);
+	    }
+	}
+    }
+
+    private void wakeupSelector ()
+	throws IOException
+    {
+	jumpMessageQueueInterfaceImpl.unblock(WAKEUP_MESSAGE_TYPE);
+    }
+
+    /*
+     * The selector thread.
+     */
+    private void select ()
+    {
+	// FIXME We should either log Errors and RuntimeExceptions
+	// and continue, or cleanup and make sure they're thrown.
+	while (true) {
+	    String[] messageTypes;
+	    Listener[] selected;
+
+	    synchronized (lock) {
+		if (listeners.isEmpty()) {
+		    selecting = false;
+		    jumpMessageQueueInterfaceImpl.unreserve(
+			WAKEUP_MESSAGE_TYPE);
+		    jumpMessageQueueInterfaceImpl.unreserve(
+			BATCH_MESSAGE_TYPE);
+		    return;
+		}
+		List l = new ArrayList(listeners.size());
+		for (Iterator i = listeners.values().iterator();
+		     i.hasNext(); ) {
+		    Listener listener = (Listener) i.next();
+		    if (!listener.isFull()) {
+			l.add(listener);
+		    }
+		}
+		selected = (Listener[]) l.toArray(new Listener[l.size()]);
+		messageTypes = new String[selected.length + 2];
+		messageTypes[0] = WAKEUP_MESSAGE_TYPE;
+		messageTypes[1] = BATCH_MESSAGE_TYPE;
+		for (int i = 0; i < selected.length; i++) {
+		    messageTypes[i + 2] = selected[i].messageType;
+		}
+	    }
+
+	    try {
+		int index =
+		    jumpMessageQueueInterfaceImpl.waitForMessages(
+			messageTypes, 0L);
+		if (index == 0) {
+		    // Consume the wakeup and look at the listeners again.
+		    try {
+			jumpMessageQueueInterfaceImpl.receiveMessage(
+			    WAKEUP_MESSAGE_TYPE, 0L);
+		    } catch (JUMPUnblockedException e) {
+			// This is normal.
+		    }
+		} else if (index == 1) {
+		    receiveBatch();
+		} else {
+		    selected[index - 2].receive();
+		}
+	    } catch (JUMPTimedOutException e) {
+		// This shouldn't happen.  Handle like IOException.
+	    } catch (IOException e) {
+		// Unexpected exception.
+		e.printStackTrace();
+	    }
+	}
+    }
+
+    /*
+     * Called on the selector thread when a batch is available.
+     */
+    private void receiveBatch ()
+	throws JUMPTimedOutException, IOException
+    {
+	byte[] raw;
+	try {
+	    raw = jumpMessageQueueInterfaceImpl.receiveMessage(
+		BATCH_MESSAGE_TYPE, 0L);
+	} catch (JUMPUnblockedException e) {
+	    return;
+	}
+
+	JUMPMessage batch = MessageReassembler.receive(raw);
+	if (batch == null) {
+	    // Only a fragment so far.
+	    return;
+	}
+
+	JUMPMessageReader reader = new JUMPMessageReader(batch);
+	int count = reader.getInt();
+	BatchResponse batchResponse = new BatchResponse(batch, count);
+	for (int i = 0; i < count; i++) {
+	    BatchEntry entry =
+		new BatchEntry(reader.getByteArray(), batchResponse, i);
+	    Listener listener;
+	    synchronized (lock) {
+		listener = (Listener) listeners.get(entry.getType());
+	    }
+	    if (listener != null) {
+		listener.enqueue(entry);
+	    } else {
+		// Nobody to handle it, so it has no response.
+		entry.handled();
+	    }
+	}
+	if (count == 0) {
+	    batchResponse.send();
+	}
+    }
+
+    public void setDispatchPolicy(String messageType, int policy)
+    {
+        if (messageType == null) {
+            throw new NullPointerException("messageType can't be null");
+        }
+	switch (policy) {
+	  case DISPATCH_ORDERED_PER_TYPE:
+	  case DISPATCH_ORDERED_PER_SENDER:
+	  case DISPATCH_UNORDERED:
+	    break;
+	  default:
+	    throw new IllegalArgumentException(
+		"Unknown dispatch policy " + policy);
+	}
+
+	synchronized (lock) {
+	    dispatchPolicies.put(messageType, new Integer(policy));
+	    Listener listener = (Listener) listeners.get(messageType);
+	    if (listener != null) {
+		listener.setDispatchPolicy(policy);
+	    }
+	}
+    }
+
+    public void setPriority(String messageType, int priority)
+    {
+        if (messageType == null) {
+            throw new NullPointerException("messageType can't be null");
+        }
+	if (priority != JUMPMessage.PRIORITY_NORMAL &&
+	    priority != JUMPMessage.PRIORITY_CONTROL) {
+	    throw new IllegalArgumentException(
+		"Unknown message priority " + priority);
+	}
+
+	synchronized (lock) {
+	    synchronized (messagePriorities) {
+		if (priority == JUMPMessage.PRIORITY_NORMAL) {
+		    messagePriorities.remove(messageType);
+		} else {
+		    messagePriorities.put(messageType, new Integer(priority));
+		}
+	    }
+	    Listener listener = (Listener) listeners.get(messageType);
+	    if (listener != null) {
+		listener.setPriority(priority);
+	    }
+	}
+    }
+
+    /**
+     * Returns the priority of <code>messageType</code>, which new
+     * messages of the type are sent with.
+     */
+    static int getPriority(String messageType)
+    {
+	synchronized (messagePriorities) {
+	    Integer priority = (Integer) messagePriorities.get(messageType);
+	    if (priority == null) {
+		return JUMPMessage.PRIORITY_NORMAL;
+	    }
+	    return priority.intValue();
+	}
+    }
+
+    /**
+     * Returns how many received messages of <code>messageType</code>
+     * are waiting for their handlers, or -1 if no handler is
+     * registered for the type.
+     */
+    int getPendingCount(String messageType)
+    {
+	Listener listener;
+	synchronized (lock) {
+	    listener = (Listener) listeners.get(messageType);
+	}
+	if (listener == null) {
+	    return -1;
+	}
+	return listener.getPendingCount();
+    }
+
+    // Externally synchronized on lock.
+    private int getDispatchPolicy(String messageType)
+    {
+	Integer policy = (Integer) dispatchPolicies.get(messageType);
+	if (policy == null) {
+	    return DISPATCH_ORDERED_PER_TYPE;
+	}
+	return policy.intValue();
+    }
+
     public void cancelRegistration(Object registrationToken)
 	throws IOException
     {
@@ -386,47 +755,51 @@ public class JUMPMessageDispatcherImpl implements JUMPMessageDispatcher
 	}
     }
 
-    /*
-     * Frequently asked questions:
-     * 1. Why doesn't Listener extend Thread?  Extending Thread would
-     *    put lots of unnecessary and inappropriate methods into its
-     *    API.  It should keep control over those things to itself.
-     * 2. How about implementing Runnable then?  The fact that Listener
-     *    uses a Thread and/or Runnable is an implementation detail
-     *    and shouldn't be exposed in its API.  The inner class
-     *    implementing Runnable keeps the implementation private.
-     *    Only those methods intended to be called from outside the
-     *    class itself are public.
-     * 3. How can we get the thread to exit when it's blocking in
-     *    JUMPMessageReceiveQueue.receiveMessage()?
-     *    There are three choices:
-     *    1. Make JUMPMessageReceiveQueue.receiveMessage() interruptible,
-     *       and interrupt the thread.  We probably don't want to go there.
-     *    2. Send a message that the thread will see and exit on.
-     *       This isn't as easy as it sounds since sending messages
-     *       may fail, e.g., if the Listener is processing messages
-     *       slowly and its queue has filled up.  But in that case
-     *       it should exit after reading one of the "real" messages
-     *       whether our sentinel is sent/received or not.
-     *    3. Periodically time out and check for exit.  We do this,
-     *       it's simple and effective and doesn't need any extra low-level
-     *       support such as interrupt handling, although it doesn't stop
-     *       the thread immediately, and requires the thread to wake up
-     *       periodically.
-     */
     private class Listener
     {
-	// Guarded by this.
+	// Guarded by lock.
 	private final List handlers = new ArrayList();
 
 	private final String messageType;
 
-	public Listener (String messageType)
+	// Runs the dispatch tasks.
+	private final HandlerExecutor executor;
+
+	// The dispatch policy, the number of messages received but not
+	// yet dispatched, and the Lanes that have messages waiting or
+	// are dispatching, by lane key.
+	// Guarded by this.
+	private int dispatchPolicy;
+	private int pendingCount = 0;
+	private final Map lanes = new HashMap();
+
+	public Listener (String messageType, int dispatchPolicy)
 	    throws IOException
 	{
 	    this.messageType = messageType;
+	    this.dispatchPolicy = dispatchPolicy;
+	    if (messageType.equals(ResponseRouter.RESPONSE_TYPE)) {
+		this.executor = responseExecutor;
+	    } else {
+		this.executor = JUMPMessageDispatcherImpl.this.executor;
+	    }
 	    // Make sure we've got a receive queue for the messageType.
 	    jumpMessageQueueInterfaceImpl.reserve(messageType);
+	    int priority = getPriority(messageType);
+	    if (priority != JUMPMessage.PRIORITY_NORMAL) {
+		jumpMessageQueueInterfaceImpl.setPriority(
+		    messageType, priority);
+	    }
+	}
+
+	public synchronized void setDispatchPolicy (int dispatchPolicy)
+	{
+	    this.dispatchPolicy = dispatchPolicy;
+	}
+
+	public void setPriority (int priority)
+	{
+	    jumpMessageQueueInterfaceImpl.setPriority(messageType, priority);
 	}
 
 	// Externally synchronized on lock.
@@ -441,59 +814,193 @@ public class JUMPMessageDispatcherImpl implements JUMPMessageDispatcher
 	    synchronized (lock) {
 		handlers.remove(handler);
 		if (handlers.isEmpty()) {
-		    // Wake up the listening thread so it can exit if
-		    // it finds handlers is still empty.
+		    // Wake up the selector thread so it can remove us
+		    // if it finds handlers is still empty.
 		    jumpMessageQueueInterfaceImpl.unblock(messageType);
 		}
 	    }
 	}
 
-	public void start ()
+	public void close ()
 	{
-	    Thread thread = new Thread(
-		new Runnable() {
-		    public void run() {
-			try {
-			    listen();
-			}
-			finally {
-			    close();
+	    // Tell the low-level code we're done with the message queue.
+	    jumpMessageQueueInterfaceImpl.unreserve(messageType);
+	}
+
+	public synchronized int getPendingCount ()
+	{
+	    return pendingCount;
+	}
+
+	public synchronized boolean isFull ()
+	{
+	    return pendingCount >= MAX_PENDING_MESSAGES;
+	}
+
+	/*
+	 * Called on the selector thread when a message is available.
+	 */
+	public void receive ()
+	    throws JUMPTimedOutException, IOException
+	{
+	    byte[] raw;
+	    try {
+		raw = jumpMessageQueueInterfaceImpl.receiveMessage(
+		    messageType, 0L);
+	    } catch (JUMPUnblockedException e) {
+		// This is normal.  It's time to check for exit.
+		synchronized (lock) {
+		    if (handlers.isEmpty()) {
+			// Remove ourselves from the map.
+			listeners.remove(messageType);
+			close();
+		    }
+		}
+		return;
+	    }
+
+	    JUMPMessage msg = MessageReassembler.receive(raw);
+	    if (msg == null) {
+		// Only a fragment so far.
+		return;
+	    }
+	    enqueue(msg);
+	}
+
+	/*
+	 * Queue a message for dispatch according to the dispatch
+	 * policy.  Called on the selector thread.
+	 */
+	public void enqueue (JUMPMessage msg)
+	{
+	    Runnable task;
+	    boolean control =
+		msg.getPriority() >= JUMPMessage.PRIORITY_CONTROL;
+	    synchronized (this) {
+		pendingCount++;
+		if (dispatchPolicy == DISPATCH_UNORDERED) {
+		    task = new Dispatch(msg);
+		} else {
+		    Object key = messageType;
+		    if (dispatchPolicy == DISPATCH_ORDERED_PER_SENDER) {
+			key = new Integer(
+			    ((MessageImpl.Message) msg).getSenderPid());
+		    }
+		    Lane lane = (Lane) lanes.get(key);
+		    if (lane != null) {
+			// The Lane's task will get to it, but a control
+			// message has the Lane moved to the control lane
+			// if it is still waiting for a thread.
+			lane.pending.addLast(msg);
+			if (!control || lane.control || lane.running) {
+			    return;
 			}
+			lane.control = true;
+			task = lane;
+		    } else {
+			lane = new Lane(key);
+			lane.pending.addLast(msg);
+			lane.control = control;
+			lanes.put(key, lane);
+			task = lane;
 		    }
-		});
-	    thread.setName(this.getClass().getName() + ": " + messageType);
-	    thread.setDaemon(true);
-	    thread.start();
+		}
+	    }
+	    if (control) {
+		executor.executeControl(task);
+	    } else {
+		executor.execute(task);
+	    }
 	}
 
-	public void close ()
+	// Externally synchronized on this.  Called when a message is
+	// taken out of pending for dispatch.
+	private boolean decrementPendingWasFull ()
 	{
-	    // Tell the low-level code we're done with the message queue.
-	    jumpMessageQueueInterfaceImpl.unreserve(messageType);
+	    boolean wasFull = isFull();
+	    pendingCount--;
+	    return wasFull;
 	}
 
-	private void listen ()
+	private void wakeupIfWasFull (boolean wasFull)
 	{
-	    // FIXME We should either log Errors and RuntimeExceptions
-	    // and continue, or cleanup and make sure they're thrown.
-	    while (true) {
+	    if (wasFull) {
+		// Have the selector listen to our messageType again.
 		try {
-		    JUMPMessage msg = doWaitForMessage(messageType, 0L);
-		    dispatchMessage(msg);
-		} catch (JUMPUnblockedException e) {
-		    // This is normal.  It's time to check for exit.
-		} catch (JUMPTimedOutException e) {
-		    // This shouldn't happen.  Handle like IOException.
+		    wakeupSelector();
 		} catch (IOException e) {
-		    // Unexpected exception.
 		    e.printStackTrace();
 		}
-		synchronized (lock) {
-		    if (handlers.isEmpty()) {
-			// Remove ourselves from the map and exit.
-			listeners.remove(messageType);
-			break;
+	    }
+	}
+
+	/*
+	 * Dispatches one message, unordered.
+	 */
+	private class Dispatch implements Runnable
+	{
+	    private final JUMPMessage msg;
+
+	    Dispatch (JUMPMessage msg)
+	    {
+		this.msg = msg;
+	    }
+
+	    public void run ()
+	    {
+		boolean wasFull;
+		synchronized (Listener.this) {
+		    wasFull = decrementPendingWasFull();
+		}
+		wakeupIfWasFull(wasFull);
+		dispatchMessage(msg);
+	    }
+	}
+
+	/*
+	 * Dispatches messages with the same key one at a time, in the
+	 * order they were received.  The Lane removes itself from lanes
+	 * when it runs out of messages.
+	 */
+	private class Lane implements Runnable
+	{
+	    private final Object key;
+
+	    // Guarded by Listener.this.
+	    final LinkedList pending = new LinkedList();
+	    // Whether the Lane has been queued in the executor's control
+	    // lane, and whether a thread has started on it.
+	    boolean control = false;
+	    boolean running = false;
+
+	    Lane (Object key)
+	    {
+		this.key = key;
+	    }
+
+	    public void run ()
+	    {
+		// A Lane moved to the control lane is queued twice, and
+		// only the first of the two to run dispatches.
+		synchronized (Listener.this) {
+		    if (running || lanes.get(key) != this) {
+			return;
+		    }
+		    running = true;
+		}
+		while (true) {
+		    JUMPMessage msg;
+		    boolean wasFull;
+		    synchronized (Listener.this) {
+			if (pending.isEmpty()) {
+			    lanes.remove(key);
+			    return;
+			}
+			msg = (JUMPMessage) pending.removeFirst();
+			wasFull = decrementPendingWasFull();
 		    }
+		    wakeupIfWasFull(wasFull);
+		    dispatchMessage(msg);
 		}
 	    }
 	}
@@ -525,6 +1032,121 @@ public class JUMPMessageDispatcherImpl implements JUMPMessageDispatcher
 		    e.printStackTrace();
 		}
 	    }
+
+	    if (msg instanceof BatchEntry) {
+		((BatchEntry) msg).handled();
+	    }
+	}
+    }
+
+    /*
+     * One message unpacked from a batch.  Responses to it go to the
+     * BatchResponse of the batch.
+     */
+    private static class BatchEntry extends MessageImpl.Message
+    {
+	private final EntryResponseSender responseSender;
+
+	BatchEntry (byte[] raw, BatchResponse batchResponse, int index)
+	{
+	    super(raw);
+	    responseSender =
+		new EntryResponseSender(getSenderPid(), batchResponse, index);
+	}
+
+	protected JUMPMessageResponseSender getMessageSender ()
+	{
+	    return responseSender;
+	}
+
+	void handled ()
+	{
+	    responseSender.batchResponse.entryHandled();
+	}
+    }
+
+    /*
+     * Stands in for the sender of a BatchEntry, so that a handler's
+     * response to the entry is collected instead of being sent.  The
+     * handler may release its message as soon as this returns, as
+     * RequestSenderHelper does, so only a copy of its bytes is kept.
+     */
+    private static class EntryResponseSender extends JUMPProcessProxyImpl
+    {
+	final BatchResponse batchResponse;
+	private final int index;
+
+	EntryResponseSender (int processId, BatchResponse batchResponse,
+			     int index)
+	{
+	    super(processId, false);
+	    this.batchResponse = batchResponse;
+	    this.index = index;
+	}
+
+	public void sendResponseMessage (JUMPOutgoingMessage message)
+	{
+	    byte[] response = new byte[message.getLength()];
+	    System.arraycopy(message.serialize(), 0, response, 0,
+			     response.length);
+	    batchResponse.setResponse(index, response);
+	}
+    }
+
+    /*
+     * Collects the responses to the entries of a batch, and sends
+     * them back once every entry has been handled.
+     */
+    private static class BatchResponse
+    {
+	private final JUMPMessage batch;
+
+	// Guarded by this.
+	private final byte[][] responses;
+	private int unhandled;
+
+	BatchResponse (JUMPMessage batch, int count)
+	{
+	    this.batch = batch;
+	    this.responses = new byte[count][];
+	    this.unhandled = count;
+	}
+
+	synchronized void setResponse (int index, byte[] response)
+	{
+	    responses[index] = response;
+	}
+
+	void entryHandled ()
+	{
+	    synchronized (this) {
+		unhandled--;
+		if (unhandled > 0) {
+		    return;
+		}
+	    }
+	    send();
+	}
+
+	void send ()
+	{
+	    try {
+		// Make sure there is a proxy to respond through.
+		JUMPProcessProxyImpl sender =
+		    JUMPProcessProxyImpl.createProcessProxyImpl(
+			((MessageImpl.Message) batch).getSenderPid());
+		JUMPOutgoingMessage m = sender.newOutgoingMessage(batch);
+		synchronized (this) {
+		    m.addInt(responses.length);
+		    for (int i = 0; i < responses.length; i++) {
+			m.addByteArray(responses[i]);
+		    }
+		}
+		sender.sendResponseMessage(m);
+		m.release();
+	    } catch (IOException e) {
+		e.printStackTrace();
+	    }
 	}
     }
 }
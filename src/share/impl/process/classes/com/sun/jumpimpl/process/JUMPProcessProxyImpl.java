@@ -31,6 +31,7 @@ import com.sun.jump.message.JUMPMessageDispatcher;
 import com.sun.jump.message.JUMPMessagable;
 import com.sun.jump.message.JUMPOutgoingMessage;
 import com.sun.jump.message.JUMPTimedOutException;
+import com.sun.jump.message.JUMPWouldBlockException;
 
 import com.sun.jump.os.JUMPOSInterface;
 import com.sun.jumpimpl.os.JUMPMessageQueueInterfaceImpl;
@@ -42,21 +43,95 @@ import java.io.IOException;
  * Base class for any proxy that refers to another process
  */
 public class JUMPProcessProxyImpl implements JUMPProcessProxy, JUMPMessagingService, JUMPMessageSender, JUMPMessagable {
+    /**
+     * Overflow policy under which a message that finds the process's
+     * outbound queue full is not queued.  This is the default.
+     */
+    public static final int OVERFLOW_FAIL = 0;
+
+    /**
+     * Overflow policy under which a message that finds the process's
+     * outbound queue full replaces the oldest waiting message of the
+     * same type, which is dropped.  Meant for notifications, where
+     * only the latest one matters.
+     */
+    public static final int OVERFLOW_DROP_OLDEST = 1;
+
+    /**
+     * Overflow policy under which <code>sendWithCallback()</code>
+     * waits for room in a full outbound queue.  Meant for messages
+     * that must not be lost, like lifecycle requests.
+     */
+    public static final int OVERFLOW_BLOCK = 2;
+
+    /**
+     * Told when a message queued by <code>sendWithCallback()</code>
+     * has been sent, or could not be.
+     */
+    public interface SendCallback {
+	/**
+	 * Called once the message has been sent, with a null
+	 * <code>failure</code>, or has failed.  A message dropped
+	 * from a full queue fails with
+	 * <code>JUMPWouldBlockException</code>.
+	 */
+	public void sendCompleted(JUMPOutgoingMessage message,
+				  IOException failure);
+    }
+
     int processId;
 
+    // Created on first use.  Guarded by this.
+    private OutboundQueue outbound = null;
+
     private static final JUMPMessageQueueInterfaceImpl queue =
         (JUMPMessageQueueInterfaceImpl)JUMPOSInterface.getInstance().getQueueInterface();
     private static final HashMap proxyMap = new HashMap();
+
+    static {
+	// With the "ring" transport, the queues this process reserves
+	// get shared-memory rings.  This runs before the process has
+	// reserved any queue, since every process makes a proxy first.
+	Object transport = JUMPModulesConfig.getProperties().get(
+	    "jump.message.queue.transport");
+	if (transport != null &&
+	    "ring".equalsIgnoreCase(((String) transport).trim())) {
+	    queue.setRingSize(JUMPMessageDispatcherImpl.getIntConfig(
+		"jump.message.queue.ring-size", 65536));
+	}
+
+	// Released messages leave behind buffers big enough for any
+	// message the queue takes in one piece.
+	JUMPOutgoingMessage.setBufferPool(
+	    JUMPMessageDispatcherImpl.getIntConfig(
+		"jump.message.pool.buffers", 16),
+	    queue.getMaxMessageSize());
+    }
+
+    // How long to keep retrying a fragment when the receiving queue
+    // is full, and how long to wait between tries.
+    private static final long FRAGMENT_SEND_TIMEOUT = 5000L;
+    private static final long FRAGMENT_RETRY_DELAY = 10L;
     
     /** 
      * Given a process id, create a proxy that can forward messages 
      */
     protected JUMPProcessProxyImpl(int processId) {
+	this(processId, true);
+    }
+
+    /**
+     * Create a proxy for a process id, without registering it as the
+     * proxy for the process unless <code>register</code> is true.
+     */
+    JUMPProcessProxyImpl(int processId, boolean register) {
 	this.processId = processId;
-	// Register this instance
-	Integer pidObj = new Integer(processId);
-	synchronized(JUMPProcessProxyImpl.class) {
-	    proxyMap.put(pidObj, this);
+	if (register) {
+	    // Register this instance
+	    Integer pidObj = new Integer(processId);
+	    synchronized(JUMPProcessProxyImpl.class) {
+		proxyMap.put(pidObj, this);
+	    }
 	}
     }
     
@@ -115,7 +190,15 @@ public class JUMPProcessProxyImpl implements JUMPProcessProxy, JUMPMessagingServ
      */
     public void
     sendResponseMessage(JUMPOutgoingMessage message) throws IOException {
+	MessagingStats.messageSent(
+	    processId, message.getType(), message.getLength());
+	MessageFragmenter fragmenter = newFragmenter(message);
+	if (fragmenter != null) {
+	    sendFragments(fragmenter, fragmenter.getFragmentCount(), true);
+	    return;
+	}
         queue.sendMessageResponse(message.serialize(),
+				  message.getLength(),
 				  message.isResponseMessage());
     }
 
@@ -127,19 +210,208 @@ public class JUMPProcessProxyImpl implements JUMPProcessProxy, JUMPMessagingServ
      */
     public void
     sendMessage(JUMPOutgoingMessage message) throws IOException {
-        queue.sendMessageAsync(this.processId, 
-			       message.serialize(),
-			       message.isResponseMessage());
+	sendRequestMessage(message);
+    }
+
+    /**
+     * Sends a message to the <code>process</code> without waiting for
+     * a response, and returns the id a response to it will carry as
+     * its response id.
+     * 
+     * @throws java.io.IOException is the message cannot be sent due to
+     *         I/O error.
+     */
+    int
+    sendRequestMessage(JUMPOutgoingMessage message) throws IOException {
+	MessagingStats.messageSent(
+	    processId, message.getType(), message.getLength());
+	MessageFragmenter fragmenter = newFragmenter(message);
+	if (fragmenter != null) {
+	    return sendFragments(
+		fragmenter, fragmenter.getFragmentCount(), false);
+	}
+        return queue.sendMessageAsync(this.processId, 
+				      message.serialize(),
+				      message.getLength(),
+				      message.isResponseMessage());
+    }
+
+    /**
+     * Sets the overflow policy for messages of the type queued by
+     * <code>trySend()</code> or <code>sendWithCallback()</code>, one
+     * of <code>OVERFLOW_FAIL</code>, <code>OVERFLOW_DROP_OLDEST</code>
+     * or <code>OVERFLOW_BLOCK</code>.
+     *
+     * @throws IllegalArgumentException if <code>policy</code> is not
+     * one of the overflow policies.
+     */
+    public static void
+    setOverflowPolicy(String messageType, int policy) {
+	OutboundQueue.setPolicy(messageType, policy);
+    }
+
+    /**
+     * Queues a message to be sent to the <code>process</code> and
+     * returns without waiting for it to be sent.  Messages are sent
+     * in the order they are queued, no faster than the process reads
+     * them, so a process that falls behind only delays its own
+     * messages.
+     *
+     * @return false if the process's outbound queue is full and the
+     *         message's type doesn't have the
+     *         <code>OVERFLOW_DROP_OLDEST</code> policy, in which case
+     *         the message is not sent.
+     */
+    public boolean
+    trySend(JUMPOutgoingMessage message) {
+	return getOutboundQueue().add(message, null, false);
+    }
+
+    /**
+     * Queues a message to be sent to the <code>process</code> like
+     * <code>trySend()</code>, and tells <code>callback</code> when it
+     * has been sent or has failed.  If the outbound queue is full and
+     * the message's type has the <code>OVERFLOW_BLOCK</code> policy,
+     * this waits for room first.
+     */
+    public void
+    sendWithCallback(JUMPOutgoingMessage message, SendCallback callback) {
+	if (!getOutboundQueue().add(message, callback, true)) {
+	    callback.sendCompleted(
+		message, new JUMPWouldBlockException("Outbound queue full"));
+	}
+    }
+
+    private synchronized OutboundQueue
+    getOutboundQueue() {
+	if (outbound == null) {
+	    outbound = new OutboundQueue(this, queue);
+	}
+	return outbound;
     }
 
     public JUMPMessage
     sendMessage(JUMPOutgoingMessage message, long timeout)
         throws JUMPTimedOutException, IOException {
-	byte[] raw = queue.sendMessageSync(this.processId, 
-					   message.serialize(),
-					   message.isResponseMessage(),
-					   timeout);
-	return new MessageImpl.Message(raw);
+	String type = message.getType();
+	long start = System.currentTimeMillis();
+	MessagingStats.messageSent(processId, type, message.getLength());
+
+	// A large request goes out as fragments.  All but the last are
+	// sent ahead, and the response is matched against the last.
+	MessageFragmenter fragmenter = newFragmenter(message);
+	if (fragmenter != null) {
+	    int count = fragmenter.getFragmentCount();
+	    sendFragments(fragmenter, count - 1, false);
+	    message = fragmenter.getFragment(count - 1);
+	}
+
+	// Keep the return queue around for the whole call.  If the
+	// response is fragmented, sendMessageSync() only returns its
+	// first fragment and the rest are read from the queue here.
+	// This thread's own return queue is simply kept reserved.
+	String returnType = message.getReturnType();
+	boolean threadQueue = returnType.equals(queue.getReturnType());
+	if (threadQueue) {
+	    queue.reserveReturnQueue();
+	} else {
+	    queue.reserve(returnType);
+	}
+	// If this is a handler thread, let its executor start another
+	// while this one waits, in case the response needs a handler.
+	HandlerExecutor executor = HandlerExecutor.blockingBegin();
+	try {
+	    long deadline = System.currentTimeMillis() + timeout;
+	    byte[] raw = queue.sendMessageSync(this.processId, 
+					       message.serialize(),
+					       message.getLength(),
+					       message.isResponseMessage(),
+					       timeout);
+	    JUMPMessage response = MessageReassembler.receive(raw);
+	    while (response == null) {
+		long remaining = 0L;
+		if (timeout != 0L) {
+		    remaining = deadline - System.currentTimeMillis();
+		    if (remaining <= 0L) {
+			throw new JUMPTimedOutException();
+		    }
+		}
+		raw = queue.receiveMessage(returnType, remaining);
+		response = MessageReassembler.receive(raw);
+	    }
+	    MessagingStats.roundTrip(
+		processId, type, System.currentTimeMillis() - start);
+	    return response;
+	} catch (JUMPTimedOutException e) {
+	    MessagingStats.timedOut(processId, type);
+	    throw e;
+	} catch (IOException e) {
+	    MessagingStats.sendFailed(processId, type);
+	    throw e;
+	} finally {
+	    HandlerExecutor.blockingEnd(executor);
+	    if (!threadQueue) {
+		queue.unreserve(returnType);
+	    }
+	}
+    }
+
+    /**
+     * Returns a fragmenter if the message is too large to be sent
+     * in one piece, null otherwise.
+     */
+    private static MessageFragmenter
+    newFragmenter(JUMPOutgoingMessage message) throws IOException {
+	if (!(message instanceof MessageImpl.OutgoingMessage)) {
+	    return null;
+	}
+	return MessageFragmenter.newFragmenter(
+	    (MessageImpl.OutgoingMessage)message, queue.getMaxMessageSize());
+    }
+
+    /**
+     * Send the first <code>count</code> fragments of a message.
+     * The receiving queue's capacity is the send window: while it is
+     * full, the send is retried until it drains or
+     * FRAGMENT_SEND_TIMEOUT passes.  Returns the request id of the
+     * last fragment sent, which is the one a response is matched
+     * against.
+     */
+    private int
+    sendFragments(MessageFragmenter fragmenter, int count, boolean response)
+	throws IOException {
+	int requestId = -1;
+	for (int i = 0; i < count; i++) {
+	    JUMPOutgoingMessage fragment = fragmenter.getFragment(i);
+	    long deadline = System.currentTimeMillis() + FRAGMENT_SEND_TIMEOUT;
+	    while (true) {
+		try {
+		    if (response) {
+			queue.sendMessageResponse(fragment.serialize(),
+						  fragment.getLength(),
+						  fragment.isResponseMessage());
+		    } else {
+			requestId = queue.sendMessageAsync(
+			    this.processId,
+			    fragment.serialize(),
+			    fragment.getLength(),
+			    fragment.isResponseMessage());
+		    }
+		    fragment.release();
+		    break;
+		} catch (JUMPWouldBlockException e) {
+		    if (System.currentTimeMillis() >= deadline) {
+			throw e;
+		    }
+		    try {
+			Thread.sleep(FRAGMENT_RETRY_DELAY);
+		    } catch (InterruptedException ie) {
+			throw e;
+		    }
+		}
+	    }
+	}
+	return requestId;
     }
 
 
@@ -155,31 +427,43 @@ public class JUMPProcessProxyImpl implements JUMPProcessProxy, JUMPMessagingServ
     /**
      * Creates a new, <i>blank</i> <Code>JUMPOutgoingMessage</code> for the
      * message type. The sender of the message is automatically filled
-     * in by the factory implementation.
+     * in by the factory implementation, and the priority is that of
+     * the message type.
      */
     public JUMPOutgoingMessage newOutgoingMessage (String mesgType)
     {
 	JUMPMessagable s = this;
-	return new MessageImpl.OutgoingMessage(s, 
-					       mesgType,
-					       queue.getReturnType(), 
-					       -1);
+	JUMPOutgoingMessage m =
+	    new MessageImpl.OutgoingMessage(s, 
+					    mesgType,
+					    queue.getReturnType(), 
+					    -1);
+	int priority = JUMPMessageDispatcherImpl.getPriority(mesgType);
+	if (priority != JUMPMessage.PRIORITY_NORMAL) {
+	    m.setPriority(priority);
+	}
+	return m;
     }
     
     /**
      * Create a new, <i>blank</i> <code>JUMPOutgoingMessage</code> as a
      * response to the request message passed. The sender of the
      * message is automatically filled in by the factory
-     * implementation.
+     * implementation.  The response has the priority of the request.
      * Make sure to pass the return type of the request message.
      */
     public JUMPOutgoingMessage newOutgoingMessage (JUMPMessage requestMessage)
     {
 	JUMPMessagable s = (JUMPMessagable)requestMessage.getSender();
-	return new MessageImpl.OutgoingMessage(s, 
-					       requestMessage.getType(), 
-					       requestMessage.getReturnType(), 
-					       requestMessage.getResponseId());
+	JUMPOutgoingMessage m =
+	    new MessageImpl.OutgoingMessage(s, 
+					    requestMessage.getType(), 
+					    requestMessage.getReturnType(), 
+					    requestMessage.getResponseId());
+	if (requestMessage.getPriority() != JUMPMessage.PRIORITY_NORMAL) {
+	    m.setPriority(requestMessage.getPriority());
+	}
+	return m;
     }
     
 
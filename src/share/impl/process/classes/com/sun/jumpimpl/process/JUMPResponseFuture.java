@@ -0,0 +1,273 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.process;
+
+import com.sun.jump.command.JUMPCommand;
+import com.sun.jump.command.JUMPResponse;
+import com.sun.jump.message.JUMPMessage;
+import com.sun.jump.message.JUMPTimedOutException;
+
+import java.io.IOException;
+import java.util.TimerTask;
+import java.util.Vector;
+
+/**
+ * The response to a request sent with
+ * {@link RequestSenderHelper#sendRequestAsync}.  The future completes
+ * when the response arrives, when the request times out, or when the
+ * request could not be sent.  The sender can wait for it, or register
+ * callbacks to be told when it completes.
+ */
+public class JUMPResponseFuture {
+    /**
+     * Called when a <code>JUMPResponseFuture</code> completes.
+     */
+    public interface Callback {
+	/**
+	 * Called once, when <code>future</code> completes.  This is
+	 * called on an arbitrary thread, which may be needed to
+	 * deliver other responses, so it should not block.
+	 */
+	public void requestCompleted(JUMPResponseFuture future);
+    }
+
+    // Guarded by this.
+    private boolean done = false;
+    private JUMPMessage message;
+    private Exception failure;
+    private Vector callbacks = new Vector();
+    private TimerTask expiry;
+
+    JUMPResponseFuture() {
+    }
+
+    /**
+     * Returns true if the response has arrived or the request has
+     * failed.
+     */
+    public synchronized boolean isDone() {
+	return done;
+    }
+
+    /**
+     * Returns true if the request timed out before a response
+     * arrived.
+     */
+    public synchronized boolean isTimedOut() {
+	return failure instanceof JUMPTimedOutException;
+    }
+
+    /**
+     * Waits for the response and returns it.  The wait lasts until
+     * the request's own timeout, if it was sent with one; a request
+     * sent with a timeout of 0 is waited for for ever.  Use
+     * {@link #getMessage(long)} to bound the wait.
+     *
+     * @throws JUMPTimedOutException if the request timed out
+     * @throws IOException if the request could not be sent
+     */
+    public JUMPMessage getMessage()
+	throws JUMPTimedOutException, IOException {
+	return getMessage(0L);
+    }
+
+    /**
+     * Waits at most <code>timeout</code> milliseconds for the
+     * response and returns it.  A timeout of 0 waits like
+     * {@link #getMessage()}.  If this wait times out, the request is
+     * still pending, and the response can be waited for again.
+     *
+     * @throws JUMPTimedOutException if the request, or this wait,
+     *         timed out
+     * @throws IOException if the request could not be sent
+     */
+    public synchronized JUMPMessage getMessage(long timeout)
+	throws JUMPTimedOutException, IOException {
+	long deadline = System.currentTimeMillis() + timeout;
+	boolean interrupted = false;
+	// The response may need a handler thread, see
+	// JUMPProcessProxyImpl.sendMessage().
+	HandlerExecutor executor = done ? null : HandlerExecutor.blockingBegin();
+	try {
+	    while (!done) {
+		long remaining = 0L;
+		if (timeout != 0L) {
+		    remaining = deadline - System.currentTimeMillis();
+		    if (remaining <= 0L) {
+			throw new JUMPTimedOutException();
+		    }
+		}
+		try {
+		    wait(remaining);
+		} catch (InterruptedException e) {
+		    interrupted = true;
+		}
+	    }
+	} finally {
+	    HandlerExecutor.blockingEnd(executor);
+	    if (interrupted) {
+		Thread.currentThread().interrupt();
+	    }
+	}
+	if (failure instanceof JUMPTimedOutException) {
+	    throw (JUMPTimedOutException)failure;
+	}
+	if (failure != null) {
+	    throw (IOException)failure;
+	}
+	return message;
+    }
+
+    /**
+     * Waits for the response and returns it as a command of class
+     * <code>responseClass</code>.  Like
+     * {@link RequestSenderHelper#sendRequest}, returns null if the
+     * request failed.
+     */
+    public JUMPCommand getResponse(Class responseClass) {
+	try {
+	    return JUMPCommand.fromMessage(getMessage(), responseClass);
+	} catch (JUMPTimedOutException e) {
+	    e.printStackTrace();
+	} catch (IOException e) {
+	    e.printStackTrace();
+	}
+	return null;
+    }
+
+    /**
+     * Waits for the response and returns it as a
+     * <code>JUMPResponse</code>, or null if the request failed.
+     */
+    public JUMPResponse getResponse() {
+	return (JUMPResponse)getResponse(JUMPResponse.class);
+    }
+
+    /**
+     * Registers a callback to be called when this future completes.
+     * If it has already completed, the callback is called right away
+     * in the calling thread.
+     */
+    public void addCallback(Callback callback) {
+	synchronized (this) {
+	    if (!done) {
+		callbacks.add(callback);
+		return;
+	    }
+	}
+	callCallback(callback);
+    }
+
+    /**
+     * Waits until all of <code>futures</code> have completed, or
+     * until <code>timeout</code> milliseconds have passed.  A timeout
+     * of 0 waits for as long as the requests' own timeouts.  Returns
+     * true if all of them completed.
+     */
+    public static boolean
+    waitForAll(JUMPResponseFuture[] futures, long timeout) {
+	long deadline = System.currentTimeMillis() + timeout;
+	boolean interrupted = false;
+	HandlerExecutor executor = HandlerExecutor.blockingBegin();
+	try {
+	    for (int i = 0; i < futures.length; i++) {
+		JUMPResponseFuture future = futures[i];
+		synchronized (future) {
+		    while (!future.done) {
+			long remaining = 0L;
+			if (timeout != 0L) {
+			    remaining = deadline - System.currentTimeMillis();
+			    if (remaining <= 0L) {
+				return false;
+			    }
+			}
+			try {
+			    future.wait(remaining);
+			} catch (InterruptedException e) {
+			    interrupted = true;
+			}
+		    }
+		}
+	    }
+	    return true;
+	} finally {
+	    HandlerExecutor.blockingEnd(executor);
+	    if (interrupted) {
+		Thread.currentThread().interrupt();
+	    }
+	}
+    }
+
+    synchronized void setExpiry(TimerTask expiry) {
+	this.expiry = expiry;
+    }
+
+    /**
+     * Completes this future with the response.
+     */
+    void complete(JUMPMessage message) {
+	finish(message, null);
+    }
+
+    /**
+     * Completes this future with a failure, either a
+     * <code>JUMPTimedOutException</code> or an
+     * <code>IOException</code>.
+     */
+    void fail(Exception failure) {
+	finish(null, failure);
+    }
+
+    private void finish(JUMPMessage message, Exception failure) {
+	Callback[] toCall;
+	synchronized (this) {
+	    if (done) {
+		return;
+	    }
+	    this.done = true;
+	    this.message = message;
+	    this.failure = failure;
+	    if (expiry != null) {
+		expiry.cancel();
+		expiry = null;
+	    }
+	    toCall = (Callback[])callbacks.toArray(
+		new Callback[callbacks.size()]);
+	    callbacks = null;
+	    notifyAll();
+	}
+	for (int i = 0; i < toCall.length; i++) {
+	    callCallback(toCall[i]);
+	}
+    }
+
+    private void callCallback(Callback callback) {
+	try {
+	    callback.requestCompleted(this);
+	} catch (RuntimeException e) {
+	    e.printStackTrace();
+	}
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+package com.sun.jumpimpl.process;
+
+import java.io.IOException;
+
+/**
+ * Splits an outgoing message that is too large for the message queue
+ * into fragments that each fit.  Every fragment carries the header of
+ * the original message, with its fragment flag set, followed by:
+ * <ul>
+ *   <li>a stream id, unique within the sending process, tagging all
+ *       fragments of one message</li>
+ *   <li>the index of the fragment and the number of fragments</li>
+ *   <li>a byte array with the fragment's part of the user data</li>
+ * </ul>
+ * Fragments are created one at a time as they are sent, so the
+ * sender never holds more than one fragment in addition to the
+ * original message.  A message is split into at most
+ * <code>jump.message.fragments.max</code> fragments (1024); a larger
+ * one can't be sent, since the receiver would discard it.
+ *
+ * @see MessageReassembler
+ */
+class MessageFragmenter {
+    /** stream id, index, count and data length */
+    static final int FRAGMENT_HEADER_SIZE = 16;
+
+    /** The most fragments a message is split into */
+    static final int MAX_FRAGMENTS =
+	JUMPMessageDispatcherImpl.getIntConfig(
+	    "jump.message.fragments.max", 1024);
+
+    private static int nextStreamId = 0;
+
+    private final MessageImpl.OutgoingMessage message;
+    private final int streamId;
+    private final int dataOffset;
+    private final int fragmentDataSize;
+    private final int fragmentCount;
+
+    /**
+     * Returns a fragmenter for the message, or null if the message
+     * fits in <code>maxSize</code> bytes and can be sent as is.
+     *
+     * @throws IOException if the message needs more than
+     *         MAX_FRAGMENTS fragments
+     */
+    static MessageFragmenter
+    newFragmenter(MessageImpl.OutgoingMessage message, int maxSize)
+	throws IOException {
+	if (message.getLength() <= maxSize) {
+	    return null;
+	}
+	MessageFragmenter fragmenter = new MessageFragmenter(message, maxSize);
+	if (fragmenter.fragmentCount > MAX_FRAGMENTS) {
+	    throw new IOException("Message of " + message.getLength() +
+				  " bytes is too large to send");
+	}
+	return fragmenter;
+    }
+
+    private static synchronized int newStreamId() {
+	return nextStreamId++;
+    }
+
+    private MessageFragmenter(MessageImpl.OutgoingMessage message,
+			      int maxSize) {
+	this.message = message;
+	this.streamId = newStreamId();
+	this.dataOffset = message.getUserDataOffset();
+	// All fragments have the same header, so each has the same room
+	// left for data.
+	int headerSize = message.getUserDataOffset();
+	this.fragmentDataSize = maxSize - headerSize - FRAGMENT_HEADER_SIZE;
+	if (fragmentDataSize <= 0) {
+	    throw new IllegalArgumentException(
+		"Message header too large to fragment");
+	}
+	int dataSize = message.getLength() - dataOffset;
+	this.fragmentCount =
+	    (dataSize + fragmentDataSize - 1) / fragmentDataSize;
+    }
+
+    int getFragmentCount() {
+	return fragmentCount;
+    }
+
+    /**
+     * Create fragment <code>index</code> of the message.
+     */
+    MessageImpl.OutgoingMessage getFragment(int index) {
+	int offset = dataOffset + index * fragmentDataSize;
+	int length = Math.min(fragmentDataSize,
+			      message.getLength() - offset);
+	MessageImpl.OutgoingMessage fragment = message.newFragment();
+	fragment.addInt(streamId);
+	fragment.addInt(index);
+	fragment.addInt(fragmentCount);
+	fragment.addByteArray(message.serialize(), offset, length);
+	return fragment;
+    }
+}
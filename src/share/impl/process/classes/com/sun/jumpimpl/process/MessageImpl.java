@@ -40,13 +40,64 @@ public class MessageImpl {
 	public Message(byte[] rawBytes) {
 	    super(rawBytes);
 	}
+
+	/**
+	 * A message reassembled from fragments.  The header comes from
+	 * the fragments, with the ids of the last one, which is the one
+	 * a response is matched against.  The user data in fragment i
+	 * lies between offsets[i] and limits[i].
+	 */
+	Message(byte[][] fragments, int[] offsets, int[] limits) {
+	    super(fragments[0]);
+	    Message last = new Message(fragments[fragments.length - 1]);
+	    this.id = last.id;
+	    this.responseId = last.responseId;
+	    this.messageDataChunks = fragments;
+	    this.messageDataChunkOffsets = offsets;
+	    this.messageDataChunkLimits = limits;
+	    this.messageDataOffset = offsets[0];
+	    this.messageUserDataOffset = offsets[0];
+	    this.messageMarkOffset = offsets[0];
+	    this.flags &= ~FLAG_FRAGMENT;
+	}
+
+	/**
+	 * Returns true if this is one fragment of a larger message.
+	 */
+	boolean isFragment() {
+	    return (flags & FLAG_FRAGMENT) != 0;
+	}
 	
 	protected void readMessageSender(int id) {
 	    this.senderPid = id;
 	}
+
+	int getSenderPid() {
+	    return senderPid;
+	}
+
+	/**
+	 * Number of bytes the message arrived in, counting every
+	 * fragment of a reassembled message.
+	 */
+	int getReceivedLength() {
+	    if (messageDataChunks == null) {
+		return messageDataBytes.length;
+	    }
+	    int length = 0;
+	    for (int i = 0; i < messageDataChunks.length; i++) {
+		length += messageDataChunks[i].length;
+	    }
+	    return length;
+	}
 	
+	// A request can come from a process this one has never sent
+	// to, such as another isolate, so make its proxy if need be.
 	protected JUMPMessageResponseSender getMessageSender() {
-	    return JUMPProcessProxyImpl.getProcessProxyImpl(this.senderPid);
+	    if (this.senderPid == -1) {
+		return null;
+	    }
+	    return JUMPProcessProxyImpl.createProcessProxyImpl(this.senderPid);
 	}
     }
 
@@ -66,5 +117,26 @@ public class MessageImpl {
 	    JUMPProcessProxyImpl ppi = (JUMPProcessProxyImpl)messagable;
 	    return ppi.getProcessId();
 	}
+
+	/**
+	 * Create a blank message with the same header as this one, to
+	 * carry one fragment of it.
+	 */
+	OutgoingMessage newFragment() {
+	    OutgoingMessage fragment =
+		new OutgoingMessage(sender, type, returnType, responseId);
+	    if (priority != PRIORITY_NORMAL) {
+		fragment.setPriority(priority);
+	    }
+	    fragment.setFragment();
+	    return fragment;
+	}
+
+	/**
+	 * Offset of the user data, just past the header.
+	 */
+	int getUserDataOffset() {
+	    return headerOffset;
+	}
     }
 }
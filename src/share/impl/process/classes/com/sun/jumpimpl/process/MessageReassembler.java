@@ -0,0 +1,149 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+package com.sun.jumpimpl.process;
+
+import com.sun.jump.message.JUMPMessage;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Reassembles messages split up by <code>MessageFragmenter</code>.
+ * Every raw message received from a message queue is passed through
+ * <code>receive()</code>.  Ordinary messages are returned as is.
+ * Fragments are kept until all fragments of their message have
+ * arrived; the message is then returned as a single
+ * <code>JUMPMessage</code> that reads its data straight out of the
+ * fragments, so no buffer the size of the whole message is allocated.
+ * Since every message passes through here, this is also where
+ * received messages are counted in <code>MessagingStats</code>.
+ *
+ * @see MessageFragmenter
+ */
+class MessageReassembler {
+    // Limit on the number of partially received messages.  If the
+    // sender of one dies half way through, its fragments would
+    // otherwise be kept forever.
+    private static final int MAX_PENDING_MESSAGES = 16;
+
+    // Maps Long (sender pid, stream id) to PendingMessage.
+    // Guarded by MessageReassembler.class.
+    private static final Map pending = new HashMap();
+
+    // Keys of pending, oldest first.
+    // Guarded by MessageReassembler.class.
+    private static final LinkedList pendingOrder = new LinkedList();
+
+    private static class PendingMessage {
+	final byte[][] fragments;
+	final int[] offsets;
+	final int[] limits;
+	int received;
+
+	PendingMessage(int count) {
+	    fragments = new byte[count][];
+	    offsets = new int[count];
+	    limits = new int[count];
+	}
+    }
+
+    private MessageReassembler() {
+    }
+
+    private static int getInt(byte[] b, int offset) {
+	return ((b[offset] & 0xff) << 24) + ((b[offset+1] & 0xff) << 16) +
+	    ((b[offset+2] & 0xff) << 8) + (b[offset+3] & 0xff);
+    }
+
+    /**
+     * Returns the message in <code>raw</code>, or the message it
+     * completes if it is the last missing fragment of a message.
+     * Returns null if <code>raw</code> is a fragment and more
+     * fragments are needed.
+     */
+    static JUMPMessage receive(byte[] raw) {
+	MessageImpl.Message message = new MessageImpl.Message(raw);
+	if (!message.isFragment()) {
+	    MessagingStats.messageReceived(message);
+	    return message;
+	}
+
+	int offset = message.getPayloadDataOffset();
+	if (raw.length - offset < MessageFragmenter.FRAGMENT_HEADER_SIZE) {
+	    System.err.println("Discarding bad message fragment of type " +
+			       message.getType());
+	    return null;
+	}
+	int streamId = getInt(raw, offset);
+	int index = getInt(raw, offset + 4);
+	int count = getInt(raw, offset + 8);
+	int length = getInt(raw, offset + 12);
+	int dataOffset = offset + MessageFragmenter.FRAGMENT_HEADER_SIZE;
+	// The count is only trusted up to the most fragments a sender
+	// makes, since the fragments' slots are allocated up front.
+	if (count <= 0 || count > MessageFragmenter.MAX_FRAGMENTS ||
+	    index < 0 || index >= count ||
+	    length < 0 || length > raw.length - dataOffset) {
+	    System.err.println("Discarding bad message fragment of type " +
+			       message.getType());
+	    return null;
+	}
+
+	Long key = new Long(((long)message.getSenderPid() << 32) |
+			    (streamId & 0xffffffffL));
+	PendingMessage p;
+	synchronized (MessageReassembler.class) {
+	    p = (PendingMessage)pending.get(key);
+	    if (p == null) {
+		if (pending.size() >= MAX_PENDING_MESSAGES) {
+		    Object oldest = pendingOrder.removeFirst();
+		    pending.remove(oldest);
+		    System.err.println("Discarding incomplete message " +
+				       oldest);
+		}
+		p = new PendingMessage(count);
+		pending.put(key, p);
+		pendingOrder.addLast(key);
+	    }
+	    if (count != p.fragments.length || p.fragments[index] != null) {
+		System.err.println("Discarding bad message fragment of type " +
+				   message.getType());
+		return null;
+	    }
+	    p.fragments[index] = raw;
+	    p.offsets[index] = dataOffset;
+	    p.limits[index] = dataOffset + length;
+	    p.received++;
+	    if (p.received < count) {
+		return null;
+	    }
+	    pending.remove(key);
+	    pendingOrder.remove(key);
+	}
+	message = new MessageImpl.Message(p.fragments, p.offsets, p.limits);
+	MessagingStats.messageReceived(message);
+	return message;
+    }
+}
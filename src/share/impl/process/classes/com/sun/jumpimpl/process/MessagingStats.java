@@ -0,0 +1,578 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.process;
+
+import com.sun.jump.command.JUMPRequest;
+import com.sun.jump.command.JUMPResponse;
+import com.sun.jump.message.JUMPMessage;
+import com.sun.jump.message.JUMPMessageDispatcher;
+import com.sun.jump.message.JUMPMessageHandler;
+import com.sun.jump.message.JUMPMessagingService;
+import com.sun.jump.message.JUMPOutgoingMessage;
+import com.sun.jump.os.JUMPOSInterface;
+import com.sun.jumpimpl.os.JUMPMessageQueueInterfaceImpl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the messages this process sends and receives, by message
+ * type and by the process at the other end, and keeps histograms of
+ * how long synchronous and asynchronous requests take to be
+ * answered.  Responses, which each go to a queue of the thread
+ * that sent the request, are counted under the single type
+ * RESPONSE_TYPES.  A process's counts are dropped when its isolate
+ * is destroyed.  The counts can be read in-process with
+ * <code>getTypeStats()</code> and <code>getProcessStats()</code>, or
+ * from another process by sending a request of MESSAGE_TYPE, which
+ * is answered with a <code>JUMPResponse</code> decoded by
+ * <code>fromResponse()</code>.
+ * <p>
+ * Recording can be turned off with
+ * <code>jump.message.stats=false</code>.
+ */
+public class MessagingStats implements JUMPMessageHandler {
+    /** Type of the messages that ask a process for its statistics */
+    public static final String MESSAGE_TYPE = "mvm/stats";
+
+    /** Id of a request for statistics */
+    public static final String ID_GET_STATS = "GetStats";
+
+    /** Key of the statistics of all responses */
+    public static final String RESPONSE_TYPES = "<response-thread>";
+
+    private static final String RESPONSE_THREAD_PREFIX = "<response-thread-";
+
+    private static final boolean ENABLED = !"false".equals(
+	JUMPModulesConfig.getProperties().get("jump.message.stats"));
+
+    private static final JUMPMessageQueueInterfaceImpl queue =
+	(JUMPMessageQueueInterfaceImpl)
+	JUMPOSInterface.getInstance().getQueueInterface();
+
+    // How many values in a response describe one Stats.
+    private static final int FIELDS = 12;
+
+    // byType maps String message type to Stats.
+    // byProcess maps Integer process id to Stats.
+    private static final StatsTable byType = new StatsTable();
+    private static final StatsTable byProcess = new StatsTable();
+
+    private final JUMPMessagingService service;
+
+    /**
+     * Statistics for the messages of one type, or to and from one
+     * process.
+     */
+    public static class Stats {
+	private final String key;
+	// Guarded by this.
+	private long sent;
+	private long sentBytes;
+	private long received;
+	private long receivedBytes;
+	private long timeouts;
+	private long failures;
+	private final Histogram roundTrips;
+	// Filled in only in snapshots.
+	private int queuedMessages = -1;
+	private int queuedBytes = -1;
+
+	Stats(String key) {
+	    this.key = key;
+	    this.roundTrips = new Histogram();
+	}
+
+	private Stats(String key, Histogram roundTrips) {
+	    this.key = key;
+	    this.roundTrips = roundTrips;
+	}
+
+	/**
+	 * Returns the message type or process id these are for.
+	 */
+	public String getKey() {
+	    return key;
+	}
+
+	public synchronized long getSent() {
+	    return sent;
+	}
+
+	public synchronized long getSentBytes() {
+	    return sentBytes;
+	}
+
+	public synchronized long getReceived() {
+	    return received;
+	}
+
+	public synchronized long getReceivedBytes() {
+	    return receivedBytes;
+	}
+
+	/**
+	 * Returns how many requests got no response in time.
+	 */
+	public synchronized long getTimeouts() {
+	    return timeouts;
+	}
+
+	/**
+	 * Returns how many sends failed with an I/O error.
+	 */
+	public synchronized long getFailures() {
+	    return failures;
+	}
+
+	/**
+	 * Returns the times requests took to be answered.
+	 */
+	public Histogram getRoundTrips() {
+	    return roundTrips;
+	}
+
+	/**
+	 * For a message type, returns how many received messages of the
+	 * type were waiting for a handler when the snapshot was taken,
+	 * or -1 if not known.
+	 */
+	public int getQueuedMessages() {
+	    return queuedMessages;
+	}
+
+	/**
+	 * For a message type, returns how many bytes were waiting in
+	 * the native queue for the type when the snapshot was taken,
+	 * or -1 if not known.
+	 */
+	public int getQueuedBytes() {
+	    return queuedBytes;
+	}
+
+	synchronized void recordSent(int length) {
+	    sent++;
+	    sentBytes += length;
+	}
+
+	synchronized void recordReceived(int length) {
+	    received++;
+	    receivedBytes += length;
+	}
+
+	synchronized void recordTimeout() {
+	    timeouts++;
+	}
+
+	synchronized void recordFailure() {
+	    failures++;
+	}
+
+	synchronized Stats snapshot() {
+	    Stats s = new Stats(key, roundTrips.snapshot());
+	    s.sent = sent;
+	    s.sentBytes = sentBytes;
+	    s.received = received;
+	    s.receivedBytes = receivedBytes;
+	    s.timeouts = timeouts;
+	    s.failures = failures;
+	    return s;
+	}
+
+	public String toString() {
+	    return key + ": sent " + sent + " (" + sentBytes +
+		" bytes), received " + received + " (" + receivedBytes +
+		" bytes), timeouts " + timeouts + ", failures " + failures +
+		", round trips " + roundTrips +
+		((queuedMessages < 0) ? "" : ", queued " + queuedMessages) +
+		((queuedBytes < 0) ? "" : ", queued bytes " + queuedBytes);
+	}
+    }
+
+    /**
+     * A histogram of times in milliseconds.  Bucket 0 counts times of
+     * 0, and bucket i counts times from 2^(i-1) up to 2^i - 1, so the
+     * error of a percentile is at most a factor of two however long
+     * the times are.
+     */
+    public static class Histogram {
+	public static final int BUCKETS = 32;
+
+	// Guarded by this.
+	private final long[] buckets = new long[BUCKETS];
+	private long count;
+	private long total;
+	private long max;
+
+	/**
+	 * Counts a time of <code>millis</code> milliseconds.
+	 */
+	public synchronized void record(long millis) {
+	    if (millis < 0) {
+		millis = 0;
+	    }
+	    int i = 0;
+	    for (long m = millis; m != 0 && i < BUCKETS - 1; m >>>= 1) {
+		i++;
+	    }
+	    buckets[i]++;
+	    count++;
+	    total += millis;
+	    if (millis > max) {
+		max = millis;
+	    }
+	}
+
+	synchronized Histogram snapshot() {
+	    Histogram h = new Histogram();
+	    System.arraycopy(buckets, 0, h.buckets, 0, BUCKETS);
+	    h.count = count;
+	    h.total = total;
+	    h.max = max;
+	    return h;
+	}
+
+	public synchronized long getCount() {
+	    return count;
+	}
+
+	public synchronized long getTotal() {
+	    return total;
+	}
+
+	public synchronized long getMax() {
+	    return max;
+	}
+
+	public synchronized long getBucket(int i) {
+	    return buckets[i];
+	}
+
+	/**
+	 * Returns the upper bound of the bucket holding the
+	 * <code>percent</code>th percentile time.
+	 */
+	public synchronized long getPercentile(int percent) {
+	    long n = (count * percent + 99) / 100;
+	    long seen = 0;
+	    for (int i = 0; i < BUCKETS; i++) {
+		seen += buckets[i];
+		if (seen >= n && seen > 0) {
+		    return Math.min(max, (1L << i) - 1);
+		}
+	    }
+	    return max;
+	}
+
+	public synchronized String toString() {
+	    return count + ", mean " + ((count == 0) ? 0 : total / count) +
+		" ms, 99% " + getPercentile(99) + " ms, max " + max + " ms";
+	}
+    }
+
+    /**
+     * The Stats of each message type or process.  The map is copied
+     * whenever an entry is added or removed, so looking one up takes
+     * no lock.  A Stats updated after it was removed just loses the
+     * update.
+     */
+    private static class StatsTable {
+	// Replaced, never changed, holding the lock of this.
+	private volatile Map map = new HashMap();
+
+	Stats get(Object key) {
+	    Stats s = (Stats)map.get(key);
+	    if (s != null) {
+		return s;
+	    }
+	    synchronized (this) {
+		s = (Stats)map.get(key);
+		if (s == null) {
+		    s = new Stats(key.toString());
+		    Map copy = new HashMap(map);
+		    copy.put(key, s);
+		    map = copy;
+		}
+		return s;
+	    }
+	}
+
+	synchronized void remove(Object key) {
+	    if (map.containsKey(key)) {
+		Map copy = new HashMap(map);
+		copy.remove(key);
+		map = copy;
+	    }
+	}
+
+	Stats[] toArray() {
+	    Map m = map;
+	    return (Stats[])m.values().toArray(new Stats[m.size()]);
+	}
+    }
+
+    private static Stats statsOfType(String type) {
+	if (type.startsWith(RESPONSE_THREAD_PREFIX)) {
+	    type = RESPONSE_TYPES;
+	}
+	return byType.get(type);
+    }
+
+    private static Stats statsOfProcess(int pid) {
+	return byProcess.get(new Integer(pid));
+    }
+
+    /**
+     * Record a message of <code>length</code> bytes sent to
+     * process <code>pid</code>.
+     */
+    static void messageSent(int pid, String type, int length) {
+	if (ENABLED) {
+	    statsOfType(type).recordSent(length);
+	    statsOfProcess(pid).recordSent(length);
+	}
+    }
+
+    /**
+     * Record a message received from another process.
+     */
+    static void messageReceived(MessageImpl.Message message) {
+	if (ENABLED) {
+	    int length = message.getReceivedLength();
+	    statsOfType(message.getType()).recordReceived(length);
+	    statsOfProcess(message.getSenderPid()).recordReceived(length);
+	}
+    }
+
+    /**
+     * Record a request to process <code>pid</code> that was answered
+     * <code>millis</code> milliseconds after it was sent.
+     */
+    static void roundTrip(int pid, String type, long millis) {
+	if (ENABLED) {
+	    statsOfType(type).getRoundTrips().record(millis);
+	    statsOfProcess(pid).getRoundTrips().record(millis);
+	}
+    }
+
+    /**
+     * Record a request to process <code>pid</code> that was not
+     * answered in time.
+     */
+    static void timedOut(int pid, String type) {
+	if (ENABLED) {
+	    statsOfType(type).recordTimeout();
+	    statsOfProcess(pid).recordTimeout();
+	}
+    }
+
+    /**
+     * Record a send to process <code>pid</code> that failed.
+     */
+    static void sendFailed(int pid, String type) {
+	if (ENABLED) {
+	    statsOfType(type).recordFailure();
+	    statsOfProcess(pid).recordFailure();
+	}
+    }
+
+    /**
+     * Drops the statistics of process <code>pid</code>, whose isolate
+     * has been destroyed, so that they don't pile up as isolates come
+     * and go.
+     */
+    public static void processDestroyed(int pid) {
+	byProcess.remove(new Integer(pid));
+    }
+
+    /**
+     * Returns a snapshot of the statistics of each message type sent
+     * or received, including how many messages of the type are
+     * waiting to be handled.
+     */
+    public static Stats[] getTypeStats() {
+	Stats[] stats = snapshot(byType);
+	JUMPMessageDispatcherImpl dispatcher =
+	    JUMPMessageDispatcherImpl.getInstance();
+	for (int i = 0; i < stats.length; i++) {
+	    stats[i].queuedMessages =
+		dispatcher.getPendingCount(stats[i].key);
+	    stats[i].queuedBytes = queue.getPendingBytes(stats[i].key);
+	}
+	return stats;
+    }
+
+    /**
+     * Returns a snapshot of the statistics of each process messages
+     * were sent to or received from.  The key of each is the process
+     * id.
+     */
+    public static Stats[] getProcessStats() {
+	return snapshot(byProcess);
+    }
+
+    private static Stats[] snapshot(StatsTable table) {
+	Stats[] stats = table.toArray();
+	for (int i = 0; i < stats.length; i++) {
+	    stats[i] = stats[i].snapshot();
+	}
+	return stats;
+    }
+
+    /**
+     * Answer requests of MESSAGE_TYPE sent to this process, which is
+     * represented by <code>service</code>.
+     */
+    public static void registerHandler(JUMPMessagingService service) {
+	JUMPMessageDispatcher d = service.getMessageDispatcher();
+	try {
+	    d.setDispatchPolicy(
+		MESSAGE_TYPE, JUMPMessageDispatcher.DISPATCH_UNORDERED);
+	    d.registerHandler(MESSAGE_TYPE, new MessagingStats(service));
+	} catch (Throwable e) {
+	    e.printStackTrace();
+	}
+    }
+
+    private MessagingStats(JUMPMessagingService service) {
+	this.service = service;
+    }
+
+    public void handleMessage(JUMPMessage in) {
+	List values = new ArrayList();
+	addValues(values, "type", getTypeStats());
+	addValues(values, "pid", getProcessStats());
+	JUMPResponse resp = new JUMPResponse(
+	    in.getType(), JUMPResponse.ID_DATA, values.toArray());
+	try {
+	    JUMPOutgoingMessage m = resp.toMessageInResponseTo(in, service);
+	    in.getSender().sendResponseMessage(m);
+	    m.release();
+	} catch (IOException e) {
+	    e.printStackTrace();
+	}
+    }
+
+    private static void addValues(List values, String kind, Stats[] stats) {
+	for (int i = 0; i < stats.length; i++) {
+	    Stats s = stats[i];
+	    Histogram h = s.roundTrips;
+	    values.add(kind);
+	    values.add(s.key);
+	    values.add(new Long(s.sent));
+	    values.add(new Long(s.sentBytes));
+	    values.add(new Long(s.received));
+	    values.add(new Long(s.receivedBytes));
+	    values.add(new Long(s.timeouts));
+	    values.add(new Long(s.failures));
+	    values.add(new Integer(s.queuedMessages));
+	    values.add(new Integer(s.queuedBytes));
+	    values.add(new Long(h.total));
+	    values.add(toBytes(h.buckets));
+	}
+    }
+
+    /**
+     * Ask the process behind <code>target</code> for its statistics.
+     * Returns the type statistics in <code>result[0]</code> and the
+     * process statistics in <code>result[1]</code>, or null if the
+     * request failed.
+     */
+    public static Stats[][] requestStats(JUMPProcessProxyImpl target) {
+	JUMPProcessProxyImpl self = JUMPProcessProxyImpl.createProcessProxyImpl(
+	    JUMPOSInterface.getInstance().getProcessID());
+	RequestSenderHelper rsh = new RequestSenderHelper(self);
+	JUMPResponse response = rsh.sendRequest(
+	    target, new JUMPRequest(MESSAGE_TYPE, ID_GET_STATS));
+	if (response == null ||
+	    !JUMPResponse.ID_DATA.equals(response.getCommandId())) {
+	    return null;
+	}
+	return fromResponse(response);
+    }
+
+    /**
+     * Decode a response to a request of MESSAGE_TYPE into type
+     * statistics, in <code>result[0]</code>, and process statistics,
+     * in <code>result[1]</code>.
+     */
+    public static Stats[][] fromResponse(JUMPResponse response) {
+	List types = new ArrayList();
+	List processes = new ArrayList();
+	for (int i = 0; i + FIELDS <= response.getDataCount(); i += FIELDS) {
+	    Histogram h = new Histogram();
+	    fromBytes(response.getBytesData(i + 11), h.buckets);
+	    for (int j = 0; j < Histogram.BUCKETS; j++) {
+		h.count += h.buckets[j];
+		if (h.buckets[j] != 0) {
+		    // Only the bucket of the largest time is known.
+		    h.max = (j == 0) ? 0 : (1L << j) - 1;
+		}
+	    }
+	    h.total = response.getLongData(i + 10);
+	    Stats s = new Stats(response.getStringData(i + 1), h);
+	    s.sent = response.getLongData(i + 2);
+	    s.sentBytes = response.getLongData(i + 3);
+	    s.received = response.getLongData(i + 4);
+	    s.receivedBytes = response.getLongData(i + 5);
+	    s.timeouts = response.getLongData(i + 6);
+	    s.failures = response.getLongData(i + 7);
+	    s.queuedMessages = response.getIntData(i + 8);
+	    s.queuedBytes = response.getIntData(i + 9);
+	    if ("type".equals(response.getStringData(i))) {
+		types.add(s);
+	    } else {
+		processes.add(s);
+	    }
+	}
+	return new Stats[][] {
+	    (Stats[])types.toArray(new Stats[types.size()]),
+	    (Stats[])processes.toArray(new Stats[processes.size()]),
+	};
+    }
+
+    private static byte[] toBytes(long[] l) {
+	byte[] b = new byte[l.length * 8];
+	for (int i = 0; i < l.length; i++) {
+	    for (int j = 0; j < 8; j++) {
+		b[i * 8 + j] = (byte)(l[i] >>> (56 - j * 8));
+	    }
+	}
+	return b;
+    }
+
+    private static void fromBytes(byte[] b, long[] l) {
+	for (int i = 0; i < l.length && i * 8 + 8 <= b.length; i++) {
+	    long v = 0;
+	    for (int j = 0; j < 8; j++) {
+		v = (v << 8) | (b[i * 8 + j] & 0xff);
+	    }
+	    l[i] = v;
+	}
+    }
+}
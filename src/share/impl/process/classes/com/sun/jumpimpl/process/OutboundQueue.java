@@ -0,0 +1,370 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+package com.sun.jumpimpl.process;
+
+import com.sun.jump.message.JUMPOutgoingMessage;
+import com.sun.jump.message.JUMPWouldBlockException;
+
+import com.sun.jumpimpl.os.JUMPMessageQueueInterfaceImpl;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * The messages waiting to be sent to one process by
+ * <code>JUMPProcessProxyImpl.trySend()</code> and
+ * <code>sendWithCallback()</code>.  They are sent in order by a few
+ * shared threads, as fast as the process reads them.
+ * <p>
+ * Sending is credit based.  For each message type, the sender may
+ * leave at most <code>WINDOW</code> bytes unread in the process's
+ * queue.  Every message sent spends credit, and when it runs out it
+ * is refilled from how many bytes the process has yet to read.  While
+ * the process is behind, its messages wait here and are retried later,
+ * so a slow or wedged process only holds up messages to itself.
+ * <p>
+ * Control messages are queued ahead of all other waiting messages,
+ * in the order they come, and are never refused or dropped because
+ * the queue is full.
+ */
+class OutboundQueue {
+    // Most messages that may wait to be sent to one process.
+    private static final int CAPACITY =
+	JUMPMessageDispatcherImpl.getIntConfig(
+	    "jump.message.outbound.capacity", 64);
+
+    // Most bytes of one message type left unread by the process.
+    private static final int WINDOW =
+	JUMPMessageDispatcherImpl.getIntConfig(
+	    "jump.message.outbound.window", 16384);
+
+    // How long a message may wait for room in the outbound queue, or
+    // for the process to catch up, before it fails.
+    private static final long TIMEOUT =
+	JUMPMessageDispatcherImpl.getIntConfig(
+	    "jump.message.outbound.timeout", 5000);
+
+    // How long to wait before trying a process that is behind again.
+    private static final long RETRY_DELAY = 10L;
+
+    private static final HandlerExecutor senders = new HandlerExecutor(
+	"jump-outbound",
+	JUMPMessageDispatcherImpl.getIntConfig(
+	    "jump.message.outbound.threads", 2));
+
+    private static final Timer timer = new Timer(true);
+
+    // policies maps String messageType to Integer overflow policy, for
+    // message types whose policy isn't OVERFLOW_FAIL.  Guarded by
+    // itself.
+    private static final Map policies = new HashMap();
+
+    static {
+	setPolicies("jump.message.outbound.drop-oldest",
+		    JUMPProcessProxyImpl.OVERFLOW_DROP_OLDEST);
+	setPolicies("jump.message.outbound.block",
+		    JUMPProcessProxyImpl.OVERFLOW_BLOCK);
+    }
+
+    private final JUMPProcessProxyImpl target;
+    private final JUMPMessageQueueInterfaceImpl queue;
+
+    // Guarded by this.
+    private final LinkedList entries = new LinkedList();
+    // The entry being sent, which can't be dropped.
+    private Entry sending = null;
+    // Whether a drain is running or waiting to be retried.
+    private boolean draining = false;
+
+    // credits maps String messageType to an int[1] holding how many
+    // more bytes of the type may be sent.  Only used by the drain,
+    // which runs on one thread at a time.
+    private final Map credits = new HashMap();
+
+    private final Runnable drain = new Runnable() {
+	public void run() {
+	    drain();
+	}
+    };
+
+    OutboundQueue(JUMPProcessProxyImpl target,
+		  JUMPMessageQueueInterfaceImpl queue) {
+	this.target = target;
+	this.queue = queue;
+    }
+
+    private static void setPolicies(String key, int policy) {
+	Object value = JUMPModulesConfig.getProperties().get(key);
+	if (value == null) {
+	    return;
+	}
+	StringTokenizer st = new StringTokenizer((String)value, ", ");
+	while (st.hasMoreTokens()) {
+	    setPolicy(st.nextToken(), policy);
+	}
+    }
+
+    static void setPolicy(String messageType, int policy) {
+	if (policy != JUMPProcessProxyImpl.OVERFLOW_FAIL &&
+	    policy != JUMPProcessProxyImpl.OVERFLOW_DROP_OLDEST &&
+	    policy != JUMPProcessProxyImpl.OVERFLOW_BLOCK) {
+	    throw new IllegalArgumentException(
+		"Unknown overflow policy " + policy);
+	}
+	synchronized (policies) {
+	    if (policy == JUMPProcessProxyImpl.OVERFLOW_FAIL) {
+		policies.remove(messageType);
+	    } else {
+		policies.put(messageType, new Integer(policy));
+	    }
+	}
+    }
+
+    static int getPolicy(String messageType) {
+	synchronized (policies) {
+	    Integer policy = (Integer)policies.get(messageType);
+	    if (policy == null) {
+		return JUMPProcessProxyImpl.OVERFLOW_FAIL;
+	    }
+	    return policy.intValue();
+	}
+    }
+
+    /**
+     * Queue a message to be sent.  If the queue is full, the overflow
+     * policy of the message's type decides: OVERFLOW_DROP_OLDEST drops
+     * the oldest waiting message of the same type to make room, and
+     * OVERFLOW_BLOCK waits up to TIMEOUT for room if
+     * <code>mayBlock</code> is true.  Returns false if the message
+     * was not queued.  <code>callback</code>, if not null, is told
+     * when the message has been sent or has failed.
+     */
+    boolean add(JUMPOutgoingMessage message,
+		JUMPProcessProxyImpl.SendCallback callback,
+		boolean mayBlock) {
+	String type = message.getType();
+	int policy = getPolicy(type);
+	Entry dropped = null;
+	boolean start = false;
+	synchronized (this) {
+	    if (message.getPriority() != JUMPOutgoingMessage.PRIORITY_NORMAL) {
+		ListIterator i = entries.listIterator();
+		while (i.hasNext()) {
+		    if (!((Entry)i.next()).control) {
+			i.previous();
+			break;
+		    }
+		}
+		i.add(new Entry(message, callback));
+	    } else {
+		if (entries.size() >= CAPACITY) {
+		    if (policy == JUMPProcessProxyImpl.OVERFLOW_DROP_OLDEST) {
+			dropped = removeOldest(type);
+		    } else if (policy == JUMPProcessProxyImpl.OVERFLOW_BLOCK &&
+			       mayBlock) {
+			waitForRoom();
+		    }
+		    if (entries.size() >= CAPACITY) {
+			return false;
+		    }
+		}
+		entries.addLast(new Entry(message, callback));
+	    }
+	    if (!draining) {
+		draining = true;
+		start = true;
+	    }
+	}
+	if (dropped != null) {
+	    MessagingStats.sendFailed(target.getProcessId(), type);
+	    if (dropped.callback != null) {
+		done(dropped, new JUMPWouldBlockException(
+		    "Dropped for a newer message"));
+	    }
+	}
+	if (start) {
+	    senders.execute(drain);
+	}
+	return true;
+    }
+
+    // Externally synchronized on this.
+    private Entry removeOldest(String type) {
+	Iterator i = entries.iterator();
+	while (i.hasNext()) {
+	    Entry entry = (Entry)i.next();
+	    if (entry != sending && !entry.control &&
+		entry.message.getType().equals(type)) {
+		i.remove();
+		return entry;
+	    }
+	}
+	return null;
+    }
+
+    // Externally synchronized on this.
+    private void waitForRoom() {
+	long deadline = System.currentTimeMillis() + TIMEOUT;
+	while (entries.size() >= CAPACITY) {
+	    long remaining = deadline - System.currentTimeMillis();
+	    if (remaining <= 0) {
+		return;
+	    }
+	    try {
+		wait(remaining);
+	    } catch (InterruptedException e) {
+		return;
+	    }
+	}
+    }
+
+    /*
+     * Send waiting messages in order until there are none left, or the
+     * process falls behind, in which case the drain is retried after
+     * RETRY_DELAY.  Only one drain runs at a time.
+     */
+    private void drain() {
+	while (true) {
+	    Entry entry;
+	    synchronized (this) {
+		if (entries.isEmpty()) {
+		    draining = false;
+		    return;
+		}
+		entry = (Entry)entries.getFirst();
+		sending = entry;
+	    }
+
+	    IOException failure = null;
+	    String type = entry.message.getType();
+	    int length = entry.message.getLength();
+	    int[] credit = getCredit(type, length);
+	    boolean tried = false;
+	    try {
+		if (credit[0] < length) {
+		    throw new JUMPWouldBlockException(
+			"Process " + target.getProcessId() +
+			" is behind on " + type);
+		}
+		tried = true;
+		target.sendRequestMessage(entry.message);
+		credit[0] -= length;
+	    } catch (JUMPWouldBlockException e) {
+		credit[0] = 0;
+		// A fragmented message may have been sent in part, so
+		// it isn't tried again.
+		if ((!tried || length <= queue.getMaxMessageSize()) &&
+		    System.currentTimeMillis() < entry.deadline) {
+		    synchronized (this) {
+			sending = null;
+		    }
+		    retryLater();
+		    return;
+		}
+		failure = e;
+	    } catch (IOException e) {
+		failure = e;
+	    }
+
+	    synchronized (this) {
+		entries.remove(entry);
+		sending = null;
+		notifyAll();
+	    }
+	    if (failure != null) {
+		MessagingStats.sendFailed(target.getProcessId(), type);
+	    }
+	    done(entry, failure);
+	}
+    }
+
+    /*
+     * Returns the credit for a message type, refilled from what the
+     * process has yet to read if it can't cover <code>length</code>
+     * bytes.  A message larger than the window is let through once
+     * the process has read everything.
+     */
+    private int[] getCredit(String type, int length) {
+	int[] credit = (int[])credits.get(type);
+	if (credit == null) {
+	    credit = new int[] { WINDOW };
+	    credits.put(type, credit);
+	}
+	if (credit[0] < length) {
+	    int pending = queue.getTargetPendingBytes(
+		target.getProcessId(), type);
+	    if (pending <= 0) {
+		// Caught up, or unknown, in which case a full queue
+		// still shows up as JUMPWouldBlockException.
+		credit[0] = Math.max(WINDOW, length);
+	    } else {
+		credit[0] = WINDOW - pending;
+	    }
+	}
+	return credit;
+    }
+
+    private void retryLater() {
+	timer.schedule(new TimerTask() {
+		public void run() {
+		    senders.execute(drain);
+		}
+	    }, RETRY_DELAY);
+    }
+
+    private void done(Entry entry, IOException failure) {
+	if (entry.callback != null) {
+	    try {
+		entry.callback.sendCompleted(entry.message, failure);
+	    } catch (RuntimeException e) {
+		e.printStackTrace();
+	    }
+	} else if (failure != null) {
+	    failure.printStackTrace();
+	}
+    }
+
+    private static class Entry {
+	final JUMPOutgoingMessage message;
+	final JUMPProcessProxyImpl.SendCallback callback;
+	final long deadline;
+	final boolean control;
+
+	Entry(JUMPOutgoingMessage message,
+	      JUMPProcessProxyImpl.SendCallback callback) {
+	    this.message = message;
+	    this.callback = callback;
+	    this.control =
+		message.getPriority() != JUMPOutgoingMessage.PRIORITY_NORMAL;
+	    this.deadline = System.currentTimeMillis() + TIMEOUT;
+	}
+    }
+}
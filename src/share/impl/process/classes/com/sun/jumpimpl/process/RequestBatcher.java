@@ -0,0 +1,199 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.process;
+
+import com.sun.jump.command.JUMPCommandBatch;
+import com.sun.jump.command.JUMPRequest;
+import com.sun.jump.message.JUMPMessage;
+import com.sun.jump.message.JUMPOutgoingMessage;
+import com.sun.jump.message.JUMPTimedOutException;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimerTask;
+import java.util.Vector;
+
+/**
+ * Batches requests to the same process.  A request is held back for
+ * a short linger time, and all the requests for the same process that
+ * come in meanwhile are sent with it in one
+ * <code>JUMPCommandBatch</code>.  A batch is sent early when it is
+ * full.  A lone request is sent as is, and so is a control request,
+ * which is never held back.
+ */
+class RequestBatcher {
+    private static final long LINGER =
+	JUMPMessageDispatcherImpl.getIntConfig("jump.message.batch.linger", 2);
+
+    private static final int MAX_BATCH_SIZE =
+	JUMPMessageDispatcherImpl.getIntConfig("jump.message.batch.size", 16);
+
+    private static RequestBatcher INSTANCE = null;
+
+    private final ResponseRouter router;
+
+    // batches maps JUMPProcessProxyImpl target to the Batch waiting to
+    // be sent to it.  Guarded by this.
+    private final Map batches = new HashMap();
+
+    static synchronized RequestBatcher getInstance() throws IOException {
+	if (INSTANCE == null) {
+	    INSTANCE = new RequestBatcher(ResponseRouter.getInstance());
+	}
+	return INSTANCE;
+    }
+
+    private RequestBatcher(ResponseRouter router) {
+	this.router = router;
+    }
+
+    /**
+     * Add a request for <code>target</code> to its batch.  The future
+     * completes with the response to the request, or fails if the
+     * batch gets no response within <code>timeout</code>
+     * milliseconds.
+     */
+    JUMPResponseFuture
+    add(JUMPProcessProxyImpl target, JUMPRequest request, long timeout) {
+	if (request.getPriority() != JUMPMessage.PRIORITY_NORMAL) {
+	    JUMPOutgoingMessage m = request.toMessage(router);
+	    JUMPResponseFuture sent = router.send(target, m, timeout);
+	    m.release();
+	    return sent;
+	}
+	JUMPResponseFuture future = new JUMPResponseFuture();
+	Batch full = null;
+	synchronized (this) {
+	    Batch batch = (Batch)batches.get(target);
+	    if (batch == null) {
+		batch = new Batch(target);
+		batches.put(target, batch);
+		router.getTimer().schedule(batch, LINGER);
+	    }
+	    batch.add(request, future, timeout);
+	    if (batch.size() >= MAX_BATCH_SIZE) {
+		batches.remove(target);
+		batch.cancel();
+		full = batch;
+	    }
+	}
+	if (full != null) {
+	    full.send();
+	}
+	return future;
+    }
+
+    /*
+     * The requests waiting to be sent to one target.  Runs when the
+     * linger time is up.
+     */
+    private class Batch extends TimerTask
+	implements JUMPResponseFuture.Callback {
+	private final JUMPProcessProxyImpl target;
+
+	// Guarded by RequestBatcher.this until the batch is sent.
+	private final Vector requests = new Vector();
+	private final Vector futures = new Vector();
+	private long timeout = -1L;
+
+	Batch(JUMPProcessProxyImpl target) {
+	    this.target = target;
+	}
+
+	void add(JUMPRequest request, JUMPResponseFuture future,
+		 long timeout) {
+	    requests.add(request);
+	    futures.add(future);
+	    // The batch waits as long as its most patient request.
+	    if (this.timeout != 0L &&
+		(timeout == 0L || timeout > this.timeout)) {
+		this.timeout = timeout;
+	    }
+	}
+
+	int size() {
+	    return requests.size();
+	}
+
+	public void run() {
+	    synchronized (RequestBatcher.this) {
+		if (batches.get(target) != this) {
+		    // Already sent because it was full.
+		    return;
+		}
+		batches.remove(target);
+	    }
+	    send();
+	}
+
+	void send() {
+	    JUMPOutgoingMessage m;
+	    if (requests.size() == 1) {
+		m = ((JUMPRequest)requests.get(0)).toMessage(router);
+	    } else {
+		JUMPCommandBatch batch = new JUMPCommandBatch();
+		for (int i = 0; i < requests.size(); i++) {
+		    batch.add((JUMPRequest)requests.get(i));
+		}
+		m = batch.toMessage(router);
+	    }
+	    JUMPResponseFuture sent = router.send(target, m, timeout);
+	    m.release();
+	    sent.addCallback(this);
+	}
+
+	/*
+	 * Hand the response to the batch out to the requests.
+	 */
+	public void requestCompleted(JUMPResponseFuture batchFuture) {
+	    JUMPMessage[] responses = null;
+	    Exception failure = null;
+	    try {
+		JUMPMessage response = batchFuture.getMessage();
+		if (requests.size() == 1) {
+		    responses = new JUMPMessage[] { response };
+		} else {
+		    responses = JUMPCommandBatch.getResponses(response, router);
+		}
+	    } catch (JUMPTimedOutException e) {
+		failure = e;
+	    } catch (IOException e) {
+		failure = e;
+	    }
+
+	    for (int i = 0; i < futures.size(); i++) {
+		JUMPResponseFuture future = (JUMPResponseFuture)futures.get(i);
+		if (failure != null) {
+		    future.fail(failure);
+		} else if (i < responses.length && responses[i] != null) {
+		    future.complete(responses[i]);
+		} else {
+		    future.fail(new IOException("No response to request"));
+		}
+	    }
+	}
+    }
+}
@@ -31,6 +31,7 @@ import com.sun.jump.message.JUMPMessageSender;
 import com.sun.jump.message.JUMPMessagingService;
 import com.sun.jump.message.JUMPTimedOutException;
 import java.io.IOException;
+import java.util.Vector;
 import com.sun.jump.command.JUMPCommand;
 import com.sun.jump.command.JUMPRequest;
 import com.sun.jump.command.JUMPResponse;
@@ -82,8 +83,8 @@ public class RequestSenderHelper {
      */
     private JUMPMessage
     sendRequestWork(JUMPMessageSender target, JUMPRequest request) {
+        JUMPOutgoingMessage m = request.toMessage(host);
         try {
-            JUMPOutgoingMessage m = request.toMessage(host);
             JUMPMessage         r = target.sendMessage(m, DEFAULT_TIMEOUT);
 
 	    return r;
@@ -91,7 +92,9 @@ public class RequestSenderHelper {
             e.printStackTrace();
         } catch(IOException e) {
             e.printStackTrace();
-        }
+        } finally {
+	    m.release();
+	}
         return null;
     }
 
@@ -134,16 +137,256 @@ public class RequestSenderHelper {
     }
 
     /**
-     * Send async request
+     * Send outgoing request without waiting for a response.  The
+     * response, or the failure of the request, is delivered through
+     * the returned future.  If no response arrives within
+     * <code>timeout</code> milliseconds the request fails; a timeout
+     * of 0 never expires.
      */
-    public void
+    public JUMPResponseFuture
+    sendRequestAsync(JUMPMessageSender target, JUMPRequest request,
+		     long timeout) {
+	JUMPResponseFuture future;
+	if (target instanceof JUMPProcessProxyImpl) {
+	    // Responses come back on the shared response queue.
+	    try {
+		ResponseRouter router = ResponseRouter.getInstance();
+		JUMPOutgoingMessage m = request.toMessage(router);
+		future = router.send((JUMPProcessProxyImpl)target, m, timeout);
+		m.release();
+		return future;
+	    } catch(IOException e) {
+		future = new JUMPResponseFuture();
+		future.fail(e);
+		return future;
+	    }
+	}
+
+	// We can't match responses from other senders, so wait here.
+	future = new JUMPResponseFuture();
+	JUMPOutgoingMessage m = request.toMessage(host);
+        try {
+	    future.complete(target.sendMessage(m, timeout));
+        } catch(JUMPTimedOutException e) {
+	    future.fail(e);
+        } catch(IOException e) {
+	    future.fail(e);
+        } finally {
+	    m.release();
+	}
+	return future;
+    }
+
+    /**
+     * Send outgoing request without waiting for a response, failing
+     * it after the default timeout.
+     */
+    public JUMPResponseFuture
     sendRequestAsync(JUMPMessageSender target, JUMPRequest request) {
+	return sendRequestAsync(target, request, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Like <code>sendRequestAsync</code>, but the request may wait a
+     * few milliseconds to be sent in one batch with other requests to
+     * the same target.  Use this for bursts of small requests.
+     */
+    public JUMPResponseFuture
+    sendRequestBatched(JUMPMessageSender target, JUMPRequest request,
+		       long timeout) {
+	if (!(target instanceof JUMPProcessProxyImpl)) {
+	    return sendRequestAsync(target, request, timeout);
+	}
+	try {
+	    return RequestBatcher.getInstance().add(
+		(JUMPProcessProxyImpl)target, request, timeout);
+	} catch(IOException e) {
+	    JUMPResponseFuture future = new JUMPResponseFuture();
+	    future.fail(e);
+	    return future;
+	}
+    }
+
+    /**
+     * Send <code>requests[i]</code> to <code>targets[i]</code> for
+     * every i, all at once, and wait for all the responses.  This
+     * takes about as long as the slowest single request, instead of
+     * the sum of all of them.  Element i of the result is null if
+     * request i failed.
+     */
+    public JUMPResponse[]
+    sendRequests(JUMPMessageSender[] targets, JUMPRequest[] requests) {
+	JUMPResponseFuture[] futures = new JUMPResponseFuture[targets.length];
+	for (int i = 0; i < targets.length; i++) {
+	    futures[i] = sendRequestAsync(targets[i], requests[i]);
+	}
+	JUMPResponse[] responses = new JUMPResponse[targets.length];
+	for (int i = 0; i < targets.length; i++) {
+	    responses[i] = futures[i].getResponse();
+	}
+	return responses;
+    }
+
+    /**
+     * Send the same request to all of <code>targets</code> without
+     * waiting for the responses.  The request is serialized once, and
+     * all the copies go out before any response is waited for.  The
+     * requests share one deadline, <code>timeout</code> milliseconds
+     * from now, after which those still without a response fail.
+     * Future i is for <code>targets[i]</code>.
+     */
+    public JUMPResponseFuture[]
+    broadcastRequestAsync(JUMPMessageSender[] targets, JUMPRequest request,
+			  long timeout) {
+	JUMPResponseFuture[] futures = new JUMPResponseFuture[targets.length];
+	Vector proxies = new Vector();
+	Vector indexes = new Vector();
+	for (int i = 0; i < targets.length; i++) {
+	    if (targets[i] instanceof JUMPProcessProxyImpl) {
+		proxies.add(targets[i]);
+		indexes.add(new Integer(i));
+	    }
+	}
+
+	if (!proxies.isEmpty()) {
+	    JUMPResponseFuture[] sent;
+	    try {
+		ResponseRouter router = ResponseRouter.getInstance();
+		JUMPOutgoingMessage m = request.toMessage(router);
+		sent = router.broadcast(
+		    (JUMPProcessProxyImpl[])proxies.toArray(
+			new JUMPProcessProxyImpl[proxies.size()]),
+		    m, timeout);
+		m.release();
+	    } catch(IOException e) {
+		sent = new JUMPResponseFuture[proxies.size()];
+		for (int i = 0; i < sent.length; i++) {
+		    sent[i] = new JUMPResponseFuture();
+		    sent[i].fail(e);
+		}
+	    }
+	    for (int i = 0; i < sent.length; i++) {
+		futures[((Integer)indexes.get(i)).intValue()] = sent[i];
+	    }
+	}
+
+	// Other senders are sent to one at a time.
+	for (int i = 0; i < targets.length; i++) {
+	    if (futures[i] == null) {
+		futures[i] = sendRequestAsync(targets[i], request, timeout);
+	    }
+	}
+	return futures;
+    }
+
+    /**
+     * Send the same request to all of <code>targets</code>, and wait
+     * for all the responses, for no longer than the default timeout
+     * in total.  Element i of the result is null if the request to
+     * <code>targets[i]</code> failed.
+     */
+    public JUMPResponse[]
+    broadcastRequest(JUMPMessageSender[] targets, JUMPRequest request) {
+	JUMPResponseFuture[] futures =
+	    broadcastRequestAsync(targets, request, DEFAULT_TIMEOUT);
+	JUMPResponse[] responses = new JUMPResponse[targets.length];
+	for (int i = 0; i < targets.length; i++) {
+	    responses[i] = futures[i].getResponse();
+	}
+	return responses;
+    }
+
+    /**
+     * Send the same request, which has no response, to all of
+     * <code>targets</code>.  The request is serialized once.
+     */
+    public void
+    postRequest(JUMPMessageSender[] targets, JUMPRequest request) {
+	JUMPOutgoingMessage m = request.toMessage(host);
+	int queued = 0;
+	for (int i = 0; i < targets.length; i++) {
+	    if (isQueued(targets[i], m)) {
+		queued++;
+	    }
+	}
+	// One more for this thread, so the message isn't released
+	// before it has been queued for all the targets.
+	ReleaseCallback callback = new ReleaseCallback(queued + 1);
+	for (int i = 0; i < targets.length; i++) {
+	    if (isQueued(targets[i], m)) {
+		((JUMPProcessProxyImpl)targets[i]).sendWithCallback(
+		    m, callback);
+		continue;
+	    }
+	    try {
+		targets[i].sendMessage(m);
+	    } catch(IOException e) {
+		e.printStackTrace();
+	    }
+	}
+	callback.sendCompleted(m, null);
+    }
+
+    /**
+     * Send request that has no response
+     */
+    public void
+    postRequest(JUMPMessageSender target, JUMPRequest request) {
+        JUMPOutgoingMessage m = request.toMessage(host);
+	if (isQueued(target, m)) {
+	    ((JUMPProcessProxyImpl)target).sendWithCallback(
+		m, new ReleaseCallback(1));
+	    return;
+	}
         try {
-            JUMPOutgoingMessage m = request.toMessage(host);
             target.sendMessage(m);
         } catch(IOException e) {
             e.printStackTrace();
-        }
+        } finally {
+	    m.release();
+	}
+    }
+
+    //
+    // Whether a posted message goes through the outbound queue of
+    // its target, as it does when its type has an overflow policy
+    // other than OVERFLOW_FAIL (see jump.message.outbound.drop-oldest
+    // and jump.message.outbound.block).  It is then sent in order with
+    // the other messages queued for the target, and doesn't hold up
+    // the sender while the target is behind.
+    //
+    private static boolean
+    isQueued(JUMPMessageSender target, JUMPOutgoingMessage m) {
+	return target instanceof JUMPProcessProxyImpl &&
+	    OutboundQueue.getPolicy(m.getType()) !=
+	    JUMPProcessProxyImpl.OVERFLOW_FAIL;
+    }
+
+    /*
+     * Releases a posted message once it has been sent, or has failed,
+     * as many times as it was queued.
+     */
+    private static class ReleaseCallback
+	implements JUMPProcessProxyImpl.SendCallback {
+	// Guarded by this.
+	private int remaining;
+
+	ReleaseCallback(int count) {
+	    this.remaining = count;
+	}
+
+	public void sendCompleted(JUMPOutgoingMessage message,
+				  IOException failure) {
+	    if (failure != null) {
+		failure.printStackTrace();
+	    }
+	    synchronized (this) {
+		if (--remaining > 0) {
+		    return;
+		}
+	    }
+	    message.release();
+	}
     }
 
     /**
@@ -157,7 +400,9 @@ public class RequestSenderHelper {
 
             m.addUTF(
                 value ? JUMPResponse.ID_SUCCESS : JUMPResponse.ID_FAILURE);
+            m.addUTFArray(new String[0]);
             mrs.sendResponseMessage(m);
+	    m.release();
         } catch(IOException e) {
             e.printStackTrace();
         }
@@ -173,6 +418,7 @@ public class RequestSenderHelper {
 	    JUMPMessageResponseSender mrs = incoming.getSender();
 
             mrs.sendResponseMessage(m);
+	    m.release();
         } catch(IOException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,335 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.process;
+
+import com.sun.jump.message.JUMPMessage;
+import com.sun.jump.message.JUMPMessageDispatcher;
+import com.sun.jump.message.JUMPMessageDispatcherTypeException;
+import com.sun.jump.message.JUMPMessageHandler;
+import com.sun.jump.message.JUMPMessagingService;
+import com.sun.jump.message.JUMPOutgoingMessage;
+import com.sun.jump.message.JUMPTimedOutException;
+import com.sun.jump.os.JUMPOSInterface;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Matches responses to asynchronous requests with their
+ * <code>JUMPResponseFuture</code>s.  All asynchronous requests of a
+ * process name one shared return type, RESPONSE_TYPE, and the
+ * responses arriving on it are told apart by their response id.  The
+ * return type has an unordered handler with the message dispatcher,
+ * so no thread waits per request.  The dispatcher delivers responses
+ * on a thread of their own, not on its handler threads, so a handler
+ * may wait for a response.
+ */
+class ResponseRouter implements JUMPMessagingService, JUMPMessageHandler {
+    static final String RESPONSE_TYPE = "jump/response/async";
+
+    // How many responses to keep that arrived before their request
+    // was recorded as pending.  Responses to requests that already
+    // timed out end up here too, and are dropped oldest first.
+    private static final int MAX_EARLY_RESPONSES = 16;
+
+    private static ResponseRouter INSTANCE = null;
+
+    private final JUMPProcessProxyImpl self;
+
+    // pending maps Integer request id to Request.
+    // earlyResponses maps Integer response id to JUMPMessage, with
+    // the ids in arrival order in earlyOrder.
+    // Guarded by this.
+    private final Map pending = new HashMap();
+    private final Map earlyResponses = new HashMap();
+    private final LinkedList earlyOrder = new LinkedList();
+
+    private final Timer timer = new Timer(true);
+
+    static synchronized ResponseRouter getInstance() throws IOException {
+	if (INSTANCE == null) {
+	    ResponseRouter router = new ResponseRouter();
+	    JUMPMessageDispatcher dispatcher = router.getMessageDispatcher();
+	    dispatcher.setDispatchPolicy(
+		RESPONSE_TYPE, JUMPMessageDispatcher.DISPATCH_UNORDERED);
+	    try {
+		dispatcher.registerHandler(RESPONSE_TYPE, router);
+	    } catch (JUMPMessageDispatcherTypeException e) {
+		// Nothing else listens for RESPONSE_TYPE.
+		throw new IllegalStateException(e.toString());
+	    }
+	    INSTANCE = router;
+	}
+	return INSTANCE;
+    }
+
+    private ResponseRouter() {
+	self = JUMPProcessProxyImpl.createProcessProxyImpl(
+	    JUMPOSInterface.getInstance().getProcessID());
+    }
+
+    /**
+     * Send <code>message</code>, which must have been created by
+     * this router, to <code>target</code>.  The future completes with
+     * the response, or fails after <code>timeout</code> milliseconds.
+     * A timeout of 0 never expires.
+     */
+    JUMPResponseFuture
+    send(JUMPProcessProxyImpl target, JUMPOutgoingMessage message,
+	 long timeout) {
+	JUMPResponseFuture future = new JUMPResponseFuture();
+	Request request = new Request(future, target.getProcessId(),
+				      message.getType());
+	Integer key = sendRequest(target, message, request);
+	if (key != null && timeout != 0L) {
+	    TimerTask expiry = new Expiry(key, request);
+	    future.setExpiry(expiry);
+	    timer.schedule(expiry, timeout);
+	}
+	return future;
+    }
+
+    /**
+     * Send <code>message</code>, which must have been created by
+     * this router, to every one of <code>targets</code>.  The message
+     * is serialized once and the same bytes go to all the targets,
+     * without waiting for any response in between.  Future i completes
+     * with the response of <code>targets[i]</code>.  All of the
+     * requests share one deadline, <code>timeout</code> milliseconds
+     * from now, and one timer task; a timeout of 0 never expires.
+     */
+    JUMPResponseFuture[]
+    broadcast(JUMPProcessProxyImpl[] targets, JUMPOutgoingMessage message,
+	      long timeout) {
+	JUMPResponseFuture[] futures = new JUMPResponseFuture[targets.length];
+	Integer[] keys = new Integer[targets.length];
+	Request[] requests = new Request[targets.length];
+	int count = 0;
+
+	for (int i = 0; i < targets.length; i++) {
+	    futures[i] = new JUMPResponseFuture();
+	    Request request = new Request(futures[i],
+					  targets[i].getProcessId(),
+					  message.getType());
+	    Integer key = sendRequest(targets[i], message, request);
+	    if (key != null) {
+		keys[count] = key;
+		requests[count] = request;
+		count++;
+	    }
+	}
+
+	if (count != 0 && timeout != 0L) {
+	    BroadcastExpiry expiry = new BroadcastExpiry(keys, requests, count);
+	    timer.schedule(expiry, timeout);
+	    for (int i = 0; i < count; i++) {
+		requests[i].future.addCallback(expiry);
+	    }
+	}
+	return futures;
+    }
+
+    /*
+     * Send one request and record it as pending.  Returns the key it
+     * is pending under, or null if it has already completed or
+     * failed.
+     */
+    private Integer
+    sendRequest(JUMPProcessProxyImpl target, JUMPOutgoingMessage message,
+		Request request) {
+	int requestId;
+	try {
+	    requestId = target.sendRequestMessage(message);
+	} catch (IOException e) {
+	    MessagingStats.sendFailed(request.pid, request.type);
+	    request.future.fail(e);
+	    return null;
+	}
+
+	Integer key = new Integer(requestId);
+	JUMPMessage response;
+	synchronized (this) {
+	    response = (JUMPMessage)earlyResponses.remove(key);
+	    if (response == null) {
+		pending.put(key, request);
+	    } else {
+		earlyOrder.remove(key);
+	    }
+	}
+	if (response != null) {
+	    request.complete(response);
+	    return null;
+	}
+	return key;
+    }
+
+    /**
+     * The timer that expires requests.  Tasks run on it must be
+     * short.
+     */
+    Timer getTimer() {
+	return timer;
+    }
+
+    public void handleMessage(JUMPMessage message) {
+	Integer key = new Integer(message.getResponseId());
+	Request request;
+	synchronized (this) {
+	    request = (Request)pending.remove(key);
+	    if (request == null) {
+		earlyResponses.put(key, message);
+		earlyOrder.addLast(key);
+		if (earlyOrder.size() > MAX_EARLY_RESPONSES) {
+		    earlyResponses.remove(earlyOrder.removeFirst());
+		}
+		return;
+	    }
+	}
+	request.complete(message);
+    }
+
+    /*
+     * A request waiting for its response, with what MessagingStats
+     * needs to know about it.
+     */
+    private static class Request {
+	final JUMPResponseFuture future;
+	final int pid;
+	final String type;
+	final long sentAt = System.currentTimeMillis();
+
+	Request(JUMPResponseFuture future, int pid, String type) {
+	    this.future = future;
+	    this.pid = pid;
+	    this.type = type;
+	}
+
+	void complete(JUMPMessage response) {
+	    MessagingStats.roundTrip(
+		pid, type, System.currentTimeMillis() - sentAt);
+	    future.complete(response);
+	}
+
+	void expire() {
+	    MessagingStats.timedOut(pid, type);
+	    future.fail(new JUMPTimedOutException());
+	}
+    }
+
+    /*
+     * Fails a request that got no response in time.
+     */
+    private class Expiry extends TimerTask {
+	private final Integer key;
+	private final Request request;
+
+	Expiry(Integer key, Request request) {
+	    this.key = key;
+	    this.request = request;
+	}
+
+	public void run() {
+	    synchronized (ResponseRouter.this) {
+		if (pending.get(key) != request) {
+		    return;
+		}
+		pending.remove(key);
+	    }
+	    request.expire();
+	}
+    }
+
+    /*
+     * Fails the requests of a broadcast that got no response by the
+     * shared deadline.  Cancels itself once all of them have
+     * completed.
+     */
+    private class BroadcastExpiry
+	extends TimerTask implements JUMPResponseFuture.Callback {
+	private final Integer[] keys;
+	private final Request[] requests;
+	private final int count;
+	private int remaining; // Guarded by this.
+
+	BroadcastExpiry(Integer[] keys, Request[] requests, int count) {
+	    this.keys = keys;
+	    this.requests = requests;
+	    this.count = count;
+	    this.remaining = count;
+	}
+
+	public void requestCompleted(JUMPResponseFuture future) {
+	    synchronized (this) {
+		if (--remaining != 0) {
+		    return;
+		}
+	    }
+	    cancel();
+	}
+
+	public void run() {
+	    for (int i = 0; i < count; i++) {
+		synchronized (ResponseRouter.this) {
+		    if (pending.get(keys[i]) != requests[i]) {
+			continue;
+		    }
+		    pending.remove(keys[i]);
+		}
+		requests[i].expire();
+	    }
+	}
+    }
+
+    public JUMPMessageDispatcher getMessageDispatcher() {
+	return self.getMessageDispatcher();
+    }
+
+    /**
+     * Creates a request whose response goes to RESPONSE_TYPE.
+     */
+    public JUMPOutgoingMessage newOutgoingMessage(String mesgType) {
+	JUMPOutgoingMessage m = new MessageImpl.OutgoingMessage(self, 
+								mesgType,
+								RESPONSE_TYPE,
+								-1);
+	int priority = JUMPMessageDispatcherImpl.getPriority(mesgType);
+	if (priority != JUMPMessage.PRIORITY_NORMAL) {
+	    m.setPriority(priority);
+	}
+	return m;
+    }
+
+    public JUMPOutgoingMessage newOutgoingMessage(JUMPMessage requestMessage) {
+	return self.newOutgoingMessage(requestMessage);
+    }
+
+    public JUMPMessage newMessage(byte[] rawData) {
+	return self.newMessage(rawData);
+    }
+}
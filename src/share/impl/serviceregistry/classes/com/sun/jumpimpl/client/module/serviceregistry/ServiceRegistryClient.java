@@ -58,6 +58,20 @@ public class ServiceRegistryClient {
 
        ConnectionReceiver.setExecVMServicePort(portNumber);
 
+       init(classloader);
+    }
+
+    /**
+     * For an IXC transport that addresses VMs by process id, where
+     * the executive VM's address needs no setting up.
+     *
+     * @param classloader class loader to use
+     */
+    public ServiceRegistryClient(ClassLoader classloader) {
+       init(classloader);
+    }
+
+    private void init(ClassLoader classloader) {
        /*
 	* Grab the IxcRegistry instance for the client VM.
 	* Use the system classloader to get the registry.  This classloader
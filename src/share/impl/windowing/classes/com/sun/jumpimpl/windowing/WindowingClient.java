@@ -195,7 +195,7 @@ public class WindowingClient implements JUMPMessageHandler {
         }
 
         if(winId != -1) {
-            requestSender.sendRequestAsync(
+            requestSender.postRequest(
                 executive,
                 new JUMPIsolateWindowRequest(
                     requestId, winId, isolateId));
@@ -0,0 +1,127 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.benchmark;
+
+/**
+ * A benchmark of one operation.  <code>run()</code> performs the
+ * operation a given number of times; the harness calls it repeatedly
+ * for a fixed time per iteration, first for warmup iterations whose
+ * results are thrown away, then for measured iterations.
+ */
+public abstract class Benchmark {
+    private final String name;
+
+    protected Benchmark(String name) {
+	this.name = name;
+    }
+
+    public String getName() {
+	return name;
+    }
+
+    /**
+     * Called once before the first iteration.
+     */
+    protected void setUp() throws Exception {
+    }
+
+    /**
+     * Called once after the last iteration.
+     */
+    protected void tearDown() throws Exception {
+    }
+
+    /**
+     * Perform the operation <code>operations</code> times.
+     */
+    protected abstract void run(int operations) throws Exception;
+
+    /**
+     * How many operations to perform per call of <code>run()</code>.
+     * It should be large enough for the time of the call to be
+     * measurable.
+     */
+    protected int getBatchSize() {
+	return 1000;
+    }
+
+    /**
+     * Run the benchmark and return the throughput of each measured
+     * iteration in operations per second.
+     */
+    public double[] measure(int warmupIterations,
+			    int iterations,
+			    long iterationMillis)
+	throws Exception {
+	double[] results = new double[iterations];
+	setUp();
+	try {
+	    for (int i = 0; i < warmupIterations; i++) {
+		iterate(iterationMillis);
+	    }
+	    for (int i = 0; i < iterations; i++) {
+		results[i] = iterate(iterationMillis);
+	    }
+	} finally {
+	    tearDown();
+	}
+	return results;
+    }
+
+    // Call run() until iterationMillis have passed, and return the
+    // operations per second.
+    private double iterate(long iterationMillis) throws Exception {
+	int batch = getBatchSize();
+	long operations = 0;
+	long start = System.currentTimeMillis();
+	long elapsed;
+	do {
+	    run(batch);
+	    operations += batch;
+	    elapsed = System.currentTimeMillis() - start;
+	} while (elapsed < iterationMillis);
+	return operations * 1000.0 / elapsed;
+    }
+
+    // Keeps results alive, so the work that computes them can't be
+    // optimized away.
+    private static volatile Object sink;
+
+    /**
+     * Consume a result of the operation.
+     */
+    protected static void consume(Object o) {
+	sink = o;
+    }
+
+    /**
+     * Consume a result of the operation.
+     */
+    protected static void consume(long value) {
+	if (value == System.identityHashCode(sink)) {
+	    sink = null;
+	}
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.benchmark;
+
+import java.util.Vector;
+
+/**
+ * Runs the messaging benchmarks over the loopback transport, and
+ * prints the throughput of each.  Arguments, if any, select the
+ * benchmarks whose names contain one of them.  The system properties
+ * <code>benchmark.warmup</code> and <code>benchmark.iterations</code>
+ * set the number of warmup and measured iterations, and
+ * <code>benchmark.time</code> the length of each in milliseconds.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) {
+	LoopbackOSInterface.install();
+
+	int warmup = Integer.getInteger("benchmark.warmup", 3).intValue();
+	int iterations =
+	    Integer.getInteger("benchmark.iterations", 5).intValue();
+	long time = Long.getLong("benchmark.time", 1000L).longValue();
+
+	Vector benchmarks = new Vector();
+	add(benchmarks, MessageCodecBenchmark.getBenchmarks(), args);
+	add(benchmarks, CommandBenchmark.getBenchmarks(), args);
+	add(benchmarks, DispatcherBenchmark.getBenchmarks(), args);
+
+	System.out.println(pad("Benchmark", -32) + pad("ops/s", 14) +
+			   pad("+/-", 12) + pad("ns/op", 12));
+	boolean failed = false;
+	for (int i = 0; i < benchmarks.size(); i++) {
+	    Benchmark b = (Benchmark)benchmarks.elementAt(i);
+	    try {
+		double[] results = b.measure(warmup, iterations, time);
+		double mean = 0;
+		for (int j = 0; j < results.length; j++) {
+		    mean += results[j];
+		}
+		mean /= results.length;
+		double variance = 0;
+		for (int j = 0; j < results.length; j++) {
+		    variance += (results[j] - mean) * (results[j] - mean);
+		}
+		double error = results.length > 1 ?
+		    Math.sqrt(variance / (results.length - 1)) : 0;
+		System.out.println(pad(b.getName(), -32) +
+				   pad(Math.round(mean), 14) +
+				   pad(Math.round(error), 12) +
+				   pad(Math.round(1e9 / mean), 12));
+	    } catch (Exception e) {
+		System.out.println(pad(b.getName(), -32) + "FAILED");
+		e.printStackTrace();
+		failed = true;
+	    }
+	}
+	// The dispatcher's threads don't exit by themselves.
+	System.exit(failed ? 1 : 0);
+    }
+
+    private static void add(Vector benchmarks,
+			    Benchmark[] suite,
+			    String[] names) {
+	for (int i = 0; i < suite.length; i++) {
+	    if (selected(suite[i].getName(), names)) {
+		benchmarks.addElement(suite[i]);
+	    }
+	}
+    }
+
+    private static boolean selected(String name, String[] names) {
+	if (names.length == 0) {
+	    return true;
+	}
+	for (int i = 0; i < names.length; i++) {
+	    if (name.indexOf(names[i]) >= 0) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    private static String pad(long value, int width) {
+	return pad(String.valueOf(value), width);
+    }
+
+    // Pad s to width, on the left, or on the right if width is
+    // negative.
+    private static String pad(String s, int width) {
+	StringBuffer sb = new StringBuffer();
+	int n = Math.abs(width) - s.length();
+	if (width < 0) {
+	    sb.append(s);
+	}
+	for (int i = 0; i < n; i++) {
+	    sb.append(' ');
+	}
+	if (width > 0) {
+	    sb.append(s);
+	}
+	return sb.toString();
+    }
+}
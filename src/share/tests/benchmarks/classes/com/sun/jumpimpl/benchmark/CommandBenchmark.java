@@ -0,0 +1,108 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.benchmark;
+
+import com.sun.jump.command.JUMPCommand;
+import com.sun.jump.command.JUMPExecutiveLifecycleRequest;
+import com.sun.jump.command.JUMPRequest;
+import com.sun.jump.message.JUMPMessage;
+import com.sun.jump.message.JUMPOutgoingMessage;
+import com.sun.jumpimpl.process.JUMPProcessProxyImpl;
+
+/**
+ * Benchmarks of a <code>JUMPCommand</code> round trip: the command is
+ * encoded with <code>toMessage()</code>, decoded with
+ * <code>fromMessage()</code>, and its data read back.  The typed and
+ * the legacy string encodings are measured separately.
+ */
+public class CommandBenchmark extends Benchmark {
+    private static final String MESSAGE_TYPE = "bench/command";
+
+    private final boolean legacy;
+    private final boolean lifecycle;
+    private boolean wasLegacy;
+    private JUMPProcessProxyImpl proxy;
+
+    private CommandBenchmark(String name, boolean legacy, boolean lifecycle) {
+	super(name);
+	this.legacy = legacy;
+	this.lifecycle = lifecycle;
+    }
+
+    public static Benchmark[] getBenchmarks() {
+	return new Benchmark[] {
+	    new CommandBenchmark("command.request", false, false),
+	    new CommandBenchmark("command.request.legacy", true, false),
+	    new CommandBenchmark("command.lifecycle", false, true),
+	    new CommandBenchmark("command.lifecycle.legacy", true, true),
+	};
+    }
+
+    protected void setUp() {
+	proxy = JUMPProcessProxyImpl.createProcessProxyImpl(
+	    LoopbackOSInterface.PROCESS_ID);
+	wasLegacy = JUMPCommand.isLegacyEncoding();
+	JUMPCommand.setLegacyEncoding(legacy);
+    }
+
+    protected void tearDown() {
+	JUMPCommand.setLegacyEncoding(wasLegacy);
+    }
+
+    protected void run(int operations) {
+	for (int i = 0; i < operations; i++) {
+	    if (lifecycle) {
+		consume(lifecycleRoundTrip(i));
+	    } else {
+		consume(requestRoundTrip(i));
+	    }
+	}
+    }
+
+    private long requestRoundTrip(int i) {
+	JUMPRequest request = new JUMPRequest(MESSAGE_TYPE, "Bench",
+	    new Object[] {
+		new Integer(i), "argument", Boolean.TRUE, new Long(i)
+	    });
+	JUMPCommand c = JUMPRequest.fromMessage(toMessage(request));
+	return c.getIntData(0) + c.getStringData(1).length() +
+	    (c.getBooleanData(2) ? 1 : 0) + c.getLongData(3);
+    }
+
+    private long lifecycleRoundTrip(int i) {
+	JUMPExecutiveLifecycleRequest request =
+	    new JUMPExecutiveLifecycleRequest(
+		JUMPExecutiveLifecycleRequest.ID_START_APP,
+		new Object[] { new Integer(i), new Integer(i + 1), null });
+	JUMPCommand c =
+	    JUMPExecutiveLifecycleRequest.fromMessage(toMessage(request));
+	return c.getCommandId().length() + c.getIntData(0) + c.getIntData(1);
+    }
+
+    private JUMPMessage toMessage(JUMPCommand command) {
+	JUMPOutgoingMessage m = command.toMessage(proxy);
+	return proxy.newMessage(m.serialize());
+    }
+}
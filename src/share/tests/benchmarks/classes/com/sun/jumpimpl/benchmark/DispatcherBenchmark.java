@@ -0,0 +1,167 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.benchmark;
+
+import java.io.IOException;
+
+import com.sun.jump.message.JUMPMessage;
+import com.sun.jump.message.JUMPMessageDispatcher;
+import com.sun.jump.message.JUMPMessageHandler;
+import com.sun.jump.message.JUMPMessageReader;
+import com.sun.jump.message.JUMPOutgoingMessage;
+import com.sun.jump.message.JUMPWouldBlockException;
+import com.sun.jumpimpl.process.JUMPProcessProxyImpl;
+
+/**
+ * Benchmarks of <code>JUMPMessageDispatcherImpl</code> over the
+ * loopback queues.  "dispatcher.fanout" sends messages to a type with
+ * several handlers and waits until every handler has seen every
+ * message.  "dispatcher.requestResponse" sends synchronous requests to
+ * a handler that echoes them, so the time per operation is the round
+ * trip latency.
+ */
+public class DispatcherBenchmark extends Benchmark {
+    private static final String FANOUT_TYPE = "bench/fanout";
+    private static final String ECHO_TYPE = "bench/echo";
+
+    private static final int FANOUT_HANDLERS = 4;
+    private static final long TIMEOUT = 10000L;
+
+    private final boolean requestResponse;
+    private JUMPProcessProxyImpl proxy;
+    private JUMPMessageDispatcher dispatcher;
+    private Object[] registrations;
+
+    // Handler calls so far, and how many to wait for.  Guarded by this.
+    private long handled = 0;
+    private long expected = 0;
+
+    private DispatcherBenchmark(String name, boolean requestResponse) {
+	super(name);
+	this.requestResponse = requestResponse;
+    }
+
+    public static Benchmark[] getBenchmarks() {
+	return new Benchmark[] {
+	    new DispatcherBenchmark("dispatcher.fanout", false),
+	    new DispatcherBenchmark("dispatcher.requestResponse", true),
+	};
+    }
+
+    protected void setUp() throws Exception {
+	proxy = JUMPProcessProxyImpl.createProcessProxyImpl(
+	    LoopbackOSInterface.PROCESS_ID);
+	dispatcher = proxy.getMessageDispatcher();
+	if (requestResponse) {
+	    registrations = new Object[] {
+		dispatcher.registerHandler(ECHO_TYPE, new EchoHandler())
+	    };
+	} else {
+	    registrations = new Object[FANOUT_HANDLERS];
+	    for (int i = 0; i < FANOUT_HANDLERS; i++) {
+		registrations[i] = dispatcher.registerHandler(
+		    FANOUT_TYPE, new CountingHandler());
+	    }
+	}
+    }
+
+    protected void tearDown() throws Exception {
+	for (int i = 0; i < registrations.length; i++) {
+	    dispatcher.cancelRegistration(registrations[i]);
+	}
+    }
+
+    protected void run(int operations) throws Exception {
+	if (requestResponse) {
+	    for (int i = 0; i < operations; i++) {
+		JUMPOutgoingMessage m = proxy.newOutgoingMessage(ECHO_TYPE);
+		m.addInt(i);
+		JUMPMessage r = proxy.sendMessage(m, TIMEOUT);
+		if (new JUMPMessageReader(r).getInt() != i) {
+		    throw new IllegalStateException("Wrong response");
+		}
+	    }
+	    return;
+	}
+
+	synchronized (this) {
+	    expected = handled + (long)operations * FANOUT_HANDLERS;
+	}
+	for (int i = 0; i < operations; i++) {
+	    JUMPOutgoingMessage m = proxy.newOutgoingMessage(FANOUT_TYPE);
+	    m.addInt(i);
+	    send(m);
+	}
+	long deadline = System.currentTimeMillis() + TIMEOUT;
+	synchronized (this) {
+	    while (handled < expected) {
+		long remaining = deadline - System.currentTimeMillis();
+		if (remaining <= 0L) {
+		    throw new IllegalStateException("Messages not handled");
+		}
+		wait(remaining);
+	    }
+	}
+    }
+
+    // Send a message, waiting while the queue is full.
+    private void send(JUMPOutgoingMessage m) throws IOException {
+	while (true) {
+	    try {
+		proxy.sendMessage(m);
+		return;
+	    } catch (JUMPWouldBlockException e) {
+		Thread.yield();
+	    }
+	}
+    }
+
+    protected int getBatchSize() {
+	return requestResponse ? 100 : 1000;
+    }
+
+    private class CountingHandler implements JUMPMessageHandler {
+	public void handleMessage(JUMPMessage message) {
+	    new JUMPMessageReader(message).getInt();
+	    synchronized (DispatcherBenchmark.this) {
+		if (++handled == expected) {
+		    DispatcherBenchmark.this.notifyAll();
+		}
+	    }
+	}
+    }
+
+    private class EchoHandler implements JUMPMessageHandler {
+	public void handleMessage(JUMPMessage message) {
+	    JUMPOutgoingMessage r = proxy.newOutgoingMessage(message);
+	    r.addInt(new JUMPMessageReader(message).getInt());
+	    try {
+		message.getSender().sendResponseMessage(r);
+	    } catch (IOException e) {
+		e.printStackTrace();
+	    }
+	}
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.benchmark;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import com.sun.jump.message.JUMPTargetNonexistentException;
+import com.sun.jump.message.JUMPTimedOutException;
+import com.sun.jump.message.JUMPUnblockedException;
+import com.sun.jump.message.JUMPWouldBlockException;
+import com.sun.jumpimpl.os.JUMPMessageQueueInterfaceImpl;
+import com.sun.jumpimpl.process.MessageImpl;
+
+/**
+ * An in-JVM <code>JUMPMessageQueueInterfaceImpl</code>.  Whatever
+ * process a message is sent to, it is delivered back to this process:
+ * a request to the queue for its type and a response to the queue for
+ * its return type, as the native layer would deliver them in the
+ * target process.  Message and request ids are filled in the same way
+ * the native layer does, so the Java messaging code above it runs
+ * unchanged.
+ * <p>
+ * Like the native queues, a queue holds a bounded number of messages,
+ * and a send to a full queue throws <code>JUMPWouldBlockException</code>.
+ */
+public class LoopbackMessageQueueInterface
+    extends JUMPMessageQueueInterfaceImpl {
+
+    // The native buffer size, so messages are fragmented the same way.
+    private static final int MAX_MESSAGE_SIZE = 4092;
+
+    // Messages a queue holds before sends to it would block.
+    private static final int QUEUE_CAPACITY = 256;
+
+    // queues maps String messageType to Queue.  Guarded by this.
+    private final Map queues = new HashMap();
+
+    // Guarded by this.
+    private int nextMessageId = 1;
+    private int nextRequestId = 1;
+    private int nextReturnType = 1;
+
+    // Each thread's return type.
+    private final ThreadLocal returnType = new ThreadLocal();
+
+    LoopbackMessageQueueInterface() {
+    }
+
+    public int getDataOffset() {
+	return 0;
+    }
+
+    public int getMaxMessageSize() {
+	return MAX_MESSAGE_SIZE;
+    }
+
+    public int sendMessageAsync(int pid,
+				byte[] message,
+				int length,
+				boolean isResponse)
+	throws IOException {
+	byte[] data = new byte[length];
+	System.arraycopy(message, 0, data, 0, length);
+	MessageImpl.Message header = new MessageImpl.Message(data);
+	String type = isResponse ? header.getReturnType() : header.getType();
+	synchronized (this) {
+	    Queue q = getQueue(type);
+	    if (q.messages.size() >= QUEUE_CAPACITY) {
+		throw new JUMPWouldBlockException("Queue full: " + type);
+	    }
+	    putInt(data, 0, nextMessageId++);
+	    int requestId = -1;
+	    if (!isResponse) {
+		requestId = nextRequestId++;
+		putInt(data, 4, requestId);
+	    }
+	    q.messages.addLast(data);
+	    q.bytes += length;
+	    notifyAll();
+	    return requestId;
+	}
+    }
+
+    public void sendMessageResponse(byte[] message,
+				    int length,
+				    boolean isResponse)
+	throws IOException {
+	sendMessageAsync(LoopbackOSInterface.PROCESS_ID,
+			 message, length, isResponse);
+    }
+
+    public byte[] sendMessageSync(int pid,
+				  byte[] message,
+				  int length,
+				  boolean isResponse,
+				  long timeout)
+	throws JUMPTimedOutException, IOException {
+	MessageImpl.Message header = new MessageImpl.Message(message);
+	String returnType = header.getReturnType();
+	long deadline = System.currentTimeMillis() + timeout;
+	int requestId = sendMessageAsync(pid, message, length, isResponse);
+
+	// Discard any responses that don't match the request id.
+	while (true) {
+	    long remaining = 0L;
+	    if (timeout != 0L) {
+		remaining = deadline - System.currentTimeMillis();
+		if (remaining <= 0L) {
+		    throw new JUMPTimedOutException();
+		}
+	    }
+	    byte[] response = receiveMessage(returnType, remaining);
+	    if (getInt(response, 4) == requestId) {
+		return response;
+	    }
+	}
+    }
+
+    public synchronized byte[] receiveMessage(String messageType,
+					      long timeout)
+	throws JUMPTimedOutException, IOException {
+	Queue q = getQueue(messageType);
+	long deadline = System.currentTimeMillis() + timeout;
+	while (true) {
+	    if (q.unblocked) {
+		q.unblocked = false;
+		throw new JUMPUnblockedException();
+	    }
+	    if (!q.messages.isEmpty()) {
+		byte[] data = (byte[])q.messages.removeFirst();
+		q.bytes -= data.length;
+		notifyAll();
+		return data;
+	    }
+	    awaitUntil(deadline, timeout);
+	}
+    }
+
+    public synchronized int waitForMessages(String[] messageTypes,
+					    long timeout)
+	throws JUMPTimedOutException, IOException {
+	Queue[] qs = new Queue[messageTypes.length];
+	for (int i = 0; i < messageTypes.length; i++) {
+	    qs[i] = getQueue(messageTypes[i]);
+	}
+	long deadline = System.currentTimeMillis() + timeout;
+	while (true) {
+	    int ready = -1;
+	    for (int i = 0; i < qs.length; i++) {
+		if ((qs[i].unblocked || !qs[i].messages.isEmpty()) &&
+		    (ready == -1 || qs[i].priority > qs[ready].priority)) {
+		    ready = i;
+		}
+	    }
+	    if (ready != -1) {
+		return ready;
+	    }
+	    awaitUntil(deadline, timeout);
+	}
+    }
+
+    public String getReturnType() {
+	String type = (String)returnType.get();
+	if (type == null) {
+	    synchronized (this) {
+		type = "<response-thread-" + nextReturnType++ + ">";
+	    }
+	    returnType.set(type);
+	}
+	return type;
+    }
+
+    public void reserveReturnQueue() throws IOException {
+	String type = getReturnType();
+	synchronized (this) {
+	    if (!queues.containsKey(type)) {
+		reserve(type);
+	    }
+	}
+    }
+
+    public synchronized void reserve(String messageType)
+	throws IOException {
+	Queue q = (Queue)queues.get(messageType);
+	if (q == null) {
+	    q = new Queue();
+	    queues.put(messageType, q);
+	}
+	q.reservations++;
+    }
+
+    public synchronized void unreserve(String messageType) {
+	Queue q = (Queue)queues.get(messageType);
+	if (q != null && --q.reservations == 0) {
+	    queues.remove(messageType);
+	}
+    }
+
+    public synchronized void unblock(String messageType)
+	throws IOException {
+	Queue q = (Queue)queues.get(messageType);
+	if (q != null) {
+	    q.unblocked = true;
+	    notifyAll();
+	}
+    }
+
+    public synchronized int getPendingBytes(String messageType) {
+	Queue q = (Queue)queues.get(messageType);
+	return q == null ? -1 : q.bytes;
+    }
+
+    public synchronized void setPriority(String messageType, int priority) {
+	Queue q = (Queue)queues.get(messageType);
+	if (q != null) {
+	    q.priority = priority;
+	}
+    }
+
+    public int getTargetPendingBytes(int processId, String messageType) {
+	// Every process sends to itself here.
+	return getPendingBytes(messageType);
+    }
+
+    public int setRingSize(int size) {
+	// The loopback queues are already in memory.
+	return 0;
+    }
+
+    // Externally synchronized on this.
+    private Queue getQueue(String messageType)
+	throws JUMPTargetNonexistentException {
+	Queue q = (Queue)queues.get(messageType);
+	if (q == null) {
+	    throw new JUMPTargetNonexistentException(
+		"No queue for " + messageType);
+	}
+	return q;
+    }
+
+    // Externally synchronized on this.  Waits for a change to any
+    // queue, or throws if the deadline has passed.
+    private void awaitUntil(long deadline, long timeout)
+	throws JUMPTimedOutException, IOException {
+	long remaining = 0L;
+	if (timeout != 0L) {
+	    remaining = deadline - System.currentTimeMillis();
+	    if (remaining <= 0L) {
+		throw new JUMPTimedOutException();
+	    }
+	}
+	try {
+	    wait(remaining);
+	} catch (InterruptedException e) {
+	    throw new IOException("Interrupted");
+	}
+    }
+
+    private static void putInt(byte[] data, int offset, int value) {
+	data[offset] = (byte)(value >>> 24);
+	data[offset + 1] = (byte)(value >>> 16);
+	data[offset + 2] = (byte)(value >>> 8);
+	data[offset + 3] = (byte)value;
+    }
+
+    private static int getInt(byte[] data, int offset) {
+	return ((data[offset] & 0xff) << 24) |
+	    ((data[offset + 1] & 0xff) << 16) |
+	    ((data[offset + 2] & 0xff) << 8) |
+	    (data[offset + 3] & 0xff);
+    }
+
+    /*
+     * The messages waiting for one message type.
+     */
+    private static class Queue {
+	final LinkedList messages = new LinkedList();
+	int bytes = 0;
+	int reservations = 0;
+	int priority = 0;
+	boolean unblocked = false;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.benchmark;
+
+import com.sun.jump.os.JUMPMessageQueueInterface;
+import com.sun.jump.os.JUMPOSInterface;
+
+/**
+ * A <code>JUMPOSInterface</code> for running the messaging stack in a
+ * single JVM, without the native MVM.  Every process id is this
+ * process, and messages go through a
+ * <code>LoopbackMessageQueueInterface</code>.
+ * <p>
+ * It must be installed before anything asks for the
+ * <code>JUMPOSInterface</code>, since the messaging classes look the
+ * queue interface up once when they are initialized.
+ */
+public class LoopbackOSInterface extends JUMPOSInterface {
+
+    /**
+     * The process id of the loopback process.
+     */
+    public static final int PROCESS_ID = 1;
+
+    private final LoopbackMessageQueueInterface queue =
+	new LoopbackMessageQueueInterface();
+
+    private LoopbackOSInterface() {
+    }
+
+    /**
+     * Make the loopback the <code>JUMPOSInterface</code> of this JVM,
+     * unless it already is.
+     *
+     * @throws IllegalStateException if another
+     *         <code>JUMPOSInterface</code> is already installed
+     */
+    public static synchronized LoopbackOSInterface install() {
+	JUMPOSInterface os = JUMPOSInterface.getInstance();
+	if (os == null) {
+	    os = new LoopbackOSInterface();
+	}
+	if (!(os instanceof LoopbackOSInterface)) {
+	    throw new IllegalStateException(
+		"JUMPOSInterface already installed: " + os);
+	}
+	return (LoopbackOSInterface)os;
+    }
+
+    public void setTestingMode(String filePrefix) {
+    }
+
+    public int createProcess(String[] args) {
+	return -1;
+    }
+
+    public int createProcessNative(String[] args) {
+	return -1;
+    }
+
+    public int getProcessID() {
+	return PROCESS_ID;
+    }
+
+    public int getExecutiveProcessID() {
+	return PROCESS_ID;
+    }
+
+    public JUMPMessageQueueInterface getQueueInterface() {
+	return queue;
+    }
+
+    /**
+     * Returns the loopback queue interface.
+     */
+    public LoopbackMessageQueueInterface getLoopbackQueue() {
+	return queue;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.benchmark;
+
+import com.sun.jump.message.JUMPMessage;
+import com.sun.jump.message.JUMPMessageReader;
+import com.sun.jump.message.JUMPOutgoingMessage;
+import com.sun.jumpimpl.process.JUMPProcessProxyImpl;
+
+/**
+ * Benchmarks of <code>JUMPOutgoingMessage</code> encoding and
+ * <code>JUMPMessageReader</code> decoding, for a few payload shapes.
+ * A large payload measures the growth of the message buffer.  Encoded
+ * messages are released, as they would be once sent.
+ */
+public class MessageCodecBenchmark extends Benchmark {
+    static final String MESSAGE_TYPE = "bench/codec";
+
+    // Payload shapes.
+    private static final int INTS = 0;
+    private static final int UTFS = 1;
+    private static final int UTF_ARRAY = 2;
+    private static final int LARGE = 3;
+
+    private static final String[] STRINGS = new String[32];
+    static {
+	for (int i = 0; i < STRINGS.length; i++) {
+	    STRINGS[i] = "com.sun.jump.app" + i;
+	}
+    }
+
+    private final int payload;
+    private final boolean decode;
+    private JUMPProcessProxyImpl proxy;
+    private JUMPMessage message;
+
+    private MessageCodecBenchmark(String name, int payload, boolean decode) {
+	super(name);
+	this.payload = payload;
+	this.decode = decode;
+    }
+
+    public static Benchmark[] getBenchmarks() {
+	return new Benchmark[] {
+	    new MessageCodecBenchmark("encode.int", INTS, false),
+	    new MessageCodecBenchmark("encode.utf", UTFS, false),
+	    new MessageCodecBenchmark("encode.utfArray", UTF_ARRAY, false),
+	    new MessageCodecBenchmark("encode.large", LARGE, false),
+	    new MessageCodecBenchmark("decode.int", INTS, true),
+	    new MessageCodecBenchmark("decode.utf", UTFS, true),
+	    new MessageCodecBenchmark("decode.utfArray", UTF_ARRAY, true),
+	    new MessageCodecBenchmark("decode.large", LARGE, true),
+	};
+    }
+
+    protected void setUp() {
+	proxy = JUMPProcessProxyImpl.createProcessProxyImpl(
+	    LoopbackOSInterface.PROCESS_ID);
+	if (decode) {
+	    JUMPOutgoingMessage m = encode();
+	    byte[] data = new byte[m.getLength()];
+	    System.arraycopy(m.serialize(), 0, data, 0, data.length);
+	    message = proxy.newMessage(data);
+	}
+    }
+
+    protected void run(int operations) {
+	for (int i = 0; i < operations; i++) {
+	    if (decode) {
+		consume(decode(new JUMPMessageReader(message)));
+	    } else {
+		JUMPOutgoingMessage m = encode();
+		consume(m.getLength());
+		m.release();
+	    }
+	}
+    }
+
+    private JUMPOutgoingMessage encode() {
+	JUMPOutgoingMessage m = proxy.newOutgoingMessage(MESSAGE_TYPE);
+	switch (payload) {
+	case INTS:
+	    for (int i = 0; i < 64; i++) {
+		m.addInt(i);
+	    }
+	    break;
+	case UTFS:
+	    for (int i = 0; i < 16; i++) {
+		m.addUTF(STRINGS[i]);
+	    }
+	    break;
+	case UTF_ARRAY:
+	    m.addUTFArray(STRINGS);
+	    break;
+	case LARGE:
+	    for (int i = 0; i < 2048; i++) {
+		m.addInt(i);
+		m.addUTF(STRINGS[i % STRINGS.length]);
+	    }
+	    break;
+	}
+	return m;
+    }
+
+    private long decode(JUMPMessageReader r) {
+	long sum = 0;
+	switch (payload) {
+	case INTS:
+	    for (int i = 0; i < 64; i++) {
+		sum += r.getInt();
+	    }
+	    break;
+	case UTFS:
+	    for (int i = 0; i < 16; i++) {
+		sum += r.getUTF().length();
+	    }
+	    break;
+	case UTF_ARRAY:
+	    sum += r.getUTFArray().length;
+	    break;
+	case LARGE:
+	    for (int i = 0; i < 2048; i++) {
+		sum += r.getInt();
+		sum += r.getUTF().length();
+	    }
+	    break;
+	}
+	return sum;
+    }
+
+    protected int getBatchSize() {
+	return payload == LARGE ? 10 : 1000;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.ixc;
+
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+
+import javax.microedition.xlet.XletContext;
+
+import junit.framework.*;
+
+public class IxcCallTest extends TestCase {
+
+   private static final long METHOD_ID = 12345L;
+
+   public static class Point implements Serializable {
+      int x, y;
+      String tag;
+
+      Point(int x, int y, String tag) {
+         this.x = x;
+         this.y = y;
+         this.tag = tag;
+      }
+
+      public boolean equals(Object o) {
+         if (!(o instanceof Point)) {
+            return false;
+         }
+         Point p = (Point) o;
+         return x == p.x && y == p.y && tag.equals(p.tag);
+      }
+
+      public int hashCode() {
+         return x ^ y;
+      }
+   }
+
+   private final XletContext context = new TestXletContext();
+
+   public IxcCallTest(String testName) {
+      super(testName);
+   }
+
+   private IxcCall newCall() {
+      RemoteRef ref = new RemoteRef(1000L, 1, 1, new String[0], new long[0]);
+      return new IxcCall(new StubObject(ref, context) {}, METHOD_ID);
+   }
+
+   // Sends call from the end with sender to the end with receiver.
+   private IxcCall send(IxcCall call, ClassTable sender, ClassTable receiver)
+      throws Exception {
+      byte[] request = call.marshal(sender).toByteArray();
+      IxcCall received = IxcCall.receive(request, receiver);
+      received.setContext(context, false);
+      return received;
+   }
+
+   private static int length(IxcCall call, ClassTable classTable)
+      throws Exception {
+      return call.marshal(classTable).size();
+   }
+
+   public void testPrimitives() throws Exception {
+      IxcCall call = newCall();
+      call.writeBoolean(true);
+      call.writeByte(Byte.MIN_VALUE);
+      call.writeChar('\u20ac');
+      call.writeShort(Short.MAX_VALUE);
+      call.writeInt(-1);
+      call.writeLong(Long.MIN_VALUE);
+      call.writeFloat(1.5f);
+      call.writeDouble(Double.NaN);
+
+      IxcCall r = send(call, new ClassTable(), new ClassTable());
+      assertEquals(1000L, r.getObjectID());
+      assertEquals(METHOD_ID, r.getMethodID());
+      assertTrue(r.readBoolean());
+      assertEquals(Byte.MIN_VALUE, r.readByte());
+      assertEquals('\u20ac', r.readChar());
+      assertEquals(Short.MAX_VALUE, r.readShort());
+      assertEquals(-1, r.readInt());
+      assertEquals(Long.MIN_VALUE, r.readLong());
+      assertEquals(1.5f, r.readFloat(), 0f);
+      assertTrue(Double.isNaN(r.readDouble()));
+   }
+
+   public void testStrings() throws Exception {
+      // Too long for writeUTF() once encoded.
+      StringBuffer buffer = new StringBuffer();
+      for (int i = 0; i < 30000; i++) {
+         buffer.append('\u20ac');
+      }
+      String longString = buffer.toString();
+
+      IxcCall call = newCall();
+      call.writeString(null);
+      call.writeString("");
+      call.writeString("caf\u00e9");
+      call.writeString(longString);
+
+      IxcCall r = send(call, new ClassTable(), new ClassTable());
+      assertNull(r.readString());
+      assertEquals("", r.readString());
+      assertEquals("caf\u00e9", r.readString());
+      assertEquals(longString, r.readString());
+   }
+
+   /**
+    * Objects are serialized after the primitives and Strings, but are
+    * read back in their own order however the two are interleaved.
+    */
+   public void testSerializable() throws Exception {
+      IxcCall call = newCall();
+      call.writeObject(new Point(1, 2, "a"));
+      call.writeInt(7);
+      call.writeObject(null);
+      call.writeString("b");
+      call.writeObject(new Integer(3));
+
+      IxcCall r = send(call, null, null);
+      assertEquals(new Point(1, 2, "a"), r.readObject());
+      assertEquals(7, r.readInt());
+      assertNull(r.readObject());
+      assertEquals("b", r.readString());
+      assertEquals(new Integer(3), r.readObject());
+   }
+
+   public void testBoxedValues() throws Exception {
+      IxcCall call = newCall();
+      call.writeValue(Integer.TYPE, new Integer(5));
+      call.writeValue(Character.TYPE, new Character('c'));
+      call.writeValue(String.class, "s");
+      call.writeValue(Point.class, new Point(3, 4, "p"));
+
+      IxcCall r = send(call, new ClassTable(), new ClassTable());
+      assertEquals(new Integer(5), r.readValue(Integer.TYPE));
+      assertEquals(new Character('c'), r.readValue(Character.TYPE));
+      assertEquals("s", r.readValue(String.class));
+      assertEquals(new Point(3, 4, "p"), r.readValue(Point.class));
+   }
+
+   /**
+    * Until the receiving end acknowledges a descriptor, every call
+    * sends it in full again, and each can be read.
+    */
+   public void testDescriptorBeforeAck() throws Exception {
+      ClassTable sender = new ClassTable();
+      ClassTable receiver = new ClassTable();
+
+      int[] lengths = new int[3];
+      for (int i = 0; i < lengths.length; i++) {
+         IxcCall call = newCall();
+         call.writeObject(new Point(i, i, "p"));
+         lengths[i] = length(call, sender);
+         IxcCall r = send(call, sender, receiver);
+         assertEquals(new Point(i, i, "p"), r.readObject());
+      }
+      assertEquals(lengths[0], lengths[1]);
+      assertEquals(lengths[0], lengths[2]);
+
+      // Acknowledged once, however often it arrived.
+      int[] acks = receiver.takeAcks();
+      assertEquals(1, acks.length);
+      assertEquals(0, receiver.takeAcks().length);
+   }
+
+   /**
+    * Once acknowledged, a descriptor is sent as its number, and is
+    * still read as the same class.
+    */
+   public void testDescriptorAfterAck() throws Exception {
+      ClassTable sender = new ClassTable();
+      ClassTable receiver = new ClassTable();
+
+      IxcCall call = newCall();
+      call.writeObject(new Point(1, 1, "first"));
+      int fullLength = length(call, sender);
+      send(call, sender, receiver).readObject();
+
+      // The acknowledgement goes back in the next message the other
+      // way, here a call from the receiving end.
+      send(newCall(), receiver, sender);
+      assertEquals(0, receiver.takeAcks().length);
+      int n = sender.lookup(ObjectStreamClass.lookup(Point.class));
+      assertTrue("descriptor not acknowledged", n >= 0);
+
+      call = newCall();
+      call.writeObject(new Point(2, 2, "first"));
+      assertTrue(length(call, sender) < fullLength);
+      IxcCall r = send(call, sender, receiver);
+      assertEquals(new Point(2, 2, "first"), r.readObject());
+   }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+
+package com.sun.jumpimpl.ixc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Method;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+import javax.microedition.xlet.XletContext;
+
+import junit.framework.*;
+
+public class OneWayTest extends TestCase {
+
+   private static final long TIMEOUT = 5000L;
+   private static final int CALLS = 50;
+
+   public interface Log extends Remote {
+      void add(int n) throws RemoteException, OneWayException;
+   }
+
+   // Notes the numbers it is given, in the order it is given them.
+   // The first calls are slow, so that later ones would overtake them
+   // if they were run at once.
+   public static class LogImpl implements Log {
+      private final int[] numbers = new int[CALLS];
+      private int count = 0;
+
+      public void add(int n) {
+         if (n < 5) {
+            try {
+               Thread.sleep(50);
+            } catch (InterruptedException e) {
+            }
+         }
+         synchronized (this) {
+            numbers[count++] = n;
+            notifyAll();
+         }
+      }
+
+      synchronized boolean awaitCount(int count) throws InterruptedException {
+         long deadline = System.currentTimeMillis() + TIMEOUT;
+         while (this.count < count) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+               return false;
+            }
+            wait(remaining);
+         }
+         return true;
+      }
+
+      synchronized int[] getNumbers() {
+         int[] a = new int[count];
+         System.arraycopy(numbers, 0, a, 0, count);
+         return a;
+      }
+   }
+
+   public interface Gate extends Remote {
+      void pass(boolean open) throws RemoteException, OneWayException;
+   }
+
+   // A one-way call with false waits until one with true has run.
+   public static class GateImpl implements Gate {
+      private boolean isOpen = false;
+      private boolean isPassed = false;
+
+      public synchronized void pass(boolean open) {
+         if (open) {
+            isOpen = true;
+            notifyAll();
+            return;
+         }
+         long deadline = System.currentTimeMillis() + TIMEOUT;
+         while (!isOpen) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+               return;
+            }
+            try {
+               wait(remaining);
+            } catch (InterruptedException e) {
+               return;
+            }
+         }
+         isPassed = true;
+         notifyAll();
+      }
+
+      synchronized boolean awaitPassed() throws InterruptedException {
+         long deadline = System.currentTimeMillis() + TIMEOUT;
+         while (!isPassed) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+               return false;
+            }
+            wait(remaining);
+         }
+         return true;
+      }
+   }
+
+   private final XletContext context = new TestXletContext();
+
+   public OneWayTest(String testName) {
+      super(testName);
+   }
+
+   // Returns a one-way request calling the only method of the object
+   // exported, with the argument written by the caller.
+   private IxcCall newCall(ExportedObject exported) {
+      Method method = exported.type.getMethods()[0];
+      RemoteRef ref = new RemoteRef(exported.objectID, 0, 0,
+                                    new String[0], new long[0]);
+      return new IxcCall(new StubObject(ref, context) {},
+                         Utils.computeMethodHash(method));
+   }
+
+   /**
+    * The one-way calls over a connection run one at a time, in the
+    * order they came, and get no reply.
+    */
+   public void testOrderPerConnection() throws Exception {
+      LogImpl log = new LogImpl();
+      ExportedObject exported =
+         ExportedObject.registerExportedObject(log, context);
+      TestChannel channel = new TestChannel();
+
+      for (int i = 0; i < CALLS; i++) {
+         IxcCall call = newCall(exported);
+         call.writeInt(i);
+         ConnectionReceiver.execute(channel, IxcConnection.ONE_WAY_REQUEST,
+                                    channel.request(call));
+      }
+      assertTrue("calls did not run", log.awaitCount(CALLS));
+
+      int[] numbers = log.getNumbers();
+      for (int i = 0; i < CALLS; i++) {
+         assertEquals(i, numbers[i]);
+      }
+      assertNull(channel.awaitReply(IxcConnection.ONE_WAY_REQUEST, 200));
+      assertFalse(channel.isClosed());
+   }
+
+   /**
+    * A one-way call that waits holds up only the one-way calls of its
+    * own connection.
+    */
+   public void testConnectionsIndependent() throws Exception {
+      GateImpl gate = new GateImpl();
+      ExportedObject exported =
+         ExportedObject.registerExportedObject(gate, context);
+
+      IxcCall waiting = newCall(exported);
+      waiting.writeBoolean(false);
+      TestChannel first = new TestChannel();
+      ConnectionReceiver.execute(first, IxcConnection.ONE_WAY_REQUEST,
+                                 first.request(waiting));
+
+      IxcCall opening = newCall(exported);
+      opening.writeBoolean(true);
+      TestChannel second = new TestChannel();
+      ConnectionReceiver.execute(second, IxcConnection.ONE_WAY_REQUEST,
+                                 second.request(opening));
+
+      assertTrue("second connection held up", gate.awaitPassed());
+   }
+
+   /**
+    * Two-way requests are never given the one-way request ID, even
+    * once the IDs wrap around.
+    */
+   public void testRequestIDsSkipOneWay() throws Exception {
+      IxcConnection connection = new IxcConnection(
+         null, 0, new ByteArrayInputStream(new byte[0]),
+         new ByteArrayOutputStream());
+      assertTrue(connection.newRequestID() != IxcConnection.ONE_WAY_REQUEST);
+
+      connection.nextRequestID = Integer.MAX_VALUE;
+      assertEquals(Integer.MAX_VALUE, connection.newRequestID());
+      assertEquals(Integer.MIN_VALUE, connection.newRequestID());
+
+      connection.nextRequestID = -2;
+      assertEquals(-2, connection.newRequestID());
+      assertEquals(-1, connection.newRequestID());
+      assertEquals(1, connection.newRequestID());
+   }
+}
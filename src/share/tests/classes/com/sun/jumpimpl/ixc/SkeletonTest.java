@@ -0,0 +1,239 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+
+package com.sun.jumpimpl.ixc;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+import javax.microedition.xlet.XletContext;
+
+import junit.framework.*;
+
+public class SkeletonTest extends TestCase {
+
+   private static final long TIMEOUT = 5000L;
+
+   public static class Pair implements Serializable {
+      public int number;
+      public String name;
+
+      public Pair(int number, String name) {
+         this.number = number;
+         this.name = name;
+      }
+   }
+
+   public static class Failure extends Exception {
+      public Failure(String message) {
+         super(message);
+      }
+   }
+
+   public interface Calc extends Remote {
+      int add(int a, int b) throws RemoteException;
+      String echo(String s) throws RemoteException;
+      Pair next(Pair p, long step) throws RemoteException;
+      void fail(String message) throws RemoteException, Failure;
+   }
+
+   public static class CalcImpl implements Calc {
+      public int add(int a, int b) {
+         return a + b;
+      }
+      public String echo(String s) {
+         return s + "!";
+      }
+      public Pair next(Pair p, long step) {
+         return new Pair(p.number + (int) step, p.name);
+      }
+      public void fail(String message) throws Failure {
+         throw new Failure(message);
+      }
+   }
+
+   // Not public, so a skeleton couldn't link to it.
+   static class Tally implements Serializable {
+      int count;
+   }
+
+   public interface Counter extends Remote {
+      int count(Tally t, int more) throws RemoteException;
+   }
+
+   public static class CounterImpl implements Counter {
+      public int count(Tally t, int more) {
+         return t.count + more;
+      }
+   }
+
+   private final XletContext context = new TestXletContext();
+
+   public SkeletonTest(String testName) {
+      super(testName);
+   }
+
+   private static long methodID(Class type, String name) {
+      Method[] methods = type.getMethods();
+      for (int i = 0; i < methods.length; i++) {
+         if (methods[i].getName().equals(name)) {
+            return Utils.computeMethodHash(methods[i]);
+         }
+      }
+      throw new IllegalArgumentException(name);
+   }
+
+   private IxcCall newCall(long objectID, long methodID) {
+      RemoteRef ref = new RemoteRef(objectID, 0, 0, new String[0], new long[0]);
+      return new IxcCall(new StubObject(ref, context) {}, methodID);
+   }
+
+   // Runs call on target with skeleton, as ConnectionReceiver does,
+   // and returns the reply to read the result from.
+   private IxcCall dispatch(SkeletonObject skeleton, RemoteObjectType type,
+                            Object target, IxcCall call) throws Exception {
+      IxcCall r = IxcCall.receive(call.marshal(null).toByteArray(), null);
+      r.setContext(context, false);
+      r.writeBoolean(false);
+      skeleton.com_sun_xlet_dispatch(
+         target, type.indexOf(r.getMethodID()), r);
+
+      byte[] reply = r.marshal(null).toByteArray();
+      byte[] request = new byte[16 + reply.length];
+      System.arraycopy(reply, 0, request, 16, reply.length);
+      IxcCall result = IxcCall.receive(request, null);
+      result.setContext(context, false);
+      assertFalse("exception thrown", result.readBoolean());
+      return result;
+   }
+
+   /**
+    * The skeleton of an exported class is made in the class's own
+    * loader, and calls the typed methods directly.
+    */
+   public void testTypedDispatch() throws Exception {
+      RemoteObjectType type = new RemoteObjectType(CalcImpl.class);
+      SkeletonObject skeleton = type.getSkeleton();
+      assertNotNull(skeleton);
+      assertSame(CalcImpl.class.getClassLoader(),
+                 skeleton.getClass().getClassLoader());
+      assertSame(skeleton, type.getSkeleton());
+      CalcImpl target = new CalcImpl();
+
+      IxcCall call = newCall(0L, methodID(Calc.class, "add"));
+      call.writeInt(40);
+      call.writeInt(2);
+      assertEquals(42, dispatch(skeleton, type, target, call).readInt());
+
+      call = newCall(0L, methodID(Calc.class, "echo"));
+      call.writeString("hi");
+      assertEquals("hi!", dispatch(skeleton, type, target, call).readString());
+
+      call = newCall(0L, methodID(Calc.class, "next"));
+      call.writeObject(new Pair(1, "p"));
+      call.writeLong(2L);
+      Pair p = (Pair) dispatch(skeleton, type, target, call).readObject();
+      assertEquals(3, p.number);
+      assertEquals("p", p.name);
+   }
+
+   /**
+    * What the method throws comes out of the skeleton as it is, not
+    * wrapped as reflection would.
+    */
+   public void testExceptionThrownAsIs() throws Exception {
+      RemoteObjectType type = new RemoteObjectType(CalcImpl.class);
+      IxcCall call = newCall(0L, methodID(Calc.class, "fail"));
+      call.writeString("no");
+      IxcCall r = IxcCall.receive(call.marshal(null).toByteArray(), null);
+      r.setContext(context, false);
+      try {
+         type.getSkeleton().com_sun_xlet_dispatch(
+            new CalcImpl(), type.indexOf(r.getMethodID()), r);
+         fail("nothing thrown");
+      } catch (Failure e) {
+         assertEquals("no", e.getMessage());
+      }
+   }
+
+   public void testUnknownIndex() throws Exception {
+      RemoteObjectType type = new RemoteObjectType(CalcImpl.class);
+      IxcCall r = IxcCall.receive(
+         newCall(0L, 0L).marshal(null).toByteArray(), null);
+      try {
+         type.getSkeleton().com_sun_xlet_dispatch(
+            new CalcImpl(), type.getMethods().length, r);
+         fail("nothing thrown");
+      } catch (IllegalArgumentException e) {
+      }
+   }
+
+   /**
+    * A call of an exported object goes through its skeleton when the
+    * ConnectionReceiver executes it.
+    */
+   public void testExecuteWithSkeleton() throws Exception {
+      ExportedObject exported =
+         ExportedObject.registerExportedObject(new CalcImpl(), context);
+      assertNotNull(exported.type.getSkeleton());
+
+      TestChannel channel = new TestChannel();
+      IxcCall call = newCall(exported.objectID, methodID(Calc.class, "add"));
+      call.writeInt(1);
+      call.writeInt(2);
+      ConnectionReceiver.execute(channel, 1, channel.request(call));
+
+      IxcCall reply = channel.awaitReply(1, TIMEOUT);
+      assertNotNull("no reply", reply);
+      assertFalse(reply.readBoolean());
+      assertEquals(3, reply.readInt());
+   }
+
+   /**
+    * A class whose methods use a type the skeleton can't link to has
+    * none, and its methods are called by reflection instead.
+    */
+   public void testReflectiveFallback() throws Exception {
+      ExportedObject exported =
+         ExportedObject.registerExportedObject(new CounterImpl(), context);
+      assertNull(exported.type.getSkeleton());
+
+      TestChannel channel = new TestChannel();
+      Tally tally = new Tally();
+      tally.count = 5;
+      IxcCall call = newCall(exported.objectID,
+                             methodID(Counter.class, "count"));
+      call.writeObject(tally);
+      call.writeInt(2);
+      ConnectionReceiver.execute(channel, 1, channel.request(call));
+
+      IxcCall reply = channel.awaitReply(1, TIMEOUT);
+      assertNotNull("no reply", reply);
+      assertFalse(reply.readBoolean());
+      assertEquals(7, reply.readInt());
+   }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+
+package com.sun.jumpimpl.ixc;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+/*
+ * A ReplyChannel that keeps the replies to the requests executed
+ * for it, for the IXC tests to read as a stub would.  It stands for
+ * both ends of a connection, each with its ClassTable.
+ */
+class TestChannel implements ConnectionReceiver.ReplyChannel {
+
+   private final ClassTable classTable = new ClassTable();
+   private final ClassTable clientTable = new ClassTable();
+   private final ConnectionReceiver.OneWayQueue oneWayQueue =
+      new ConnectionReceiver.OneWayQueue();
+
+   // Guarded by this.
+   private final HashMap replies = new HashMap(); // Integer -> byte[]
+   private boolean isClosed = false;
+
+   public ClassTable getClassTable() {
+      return classTable;
+   }
+
+   public ConnectionReceiver.OneWayQueue getOneWayQueue() {
+      return oneWayQueue;
+   }
+
+   public synchronized void reply(int requestID, ByteArrayOutputStream body) {
+      replies.put(new Integer(requestID), body.toByteArray());
+      notifyAll();
+   }
+
+   public synchronized void close() {
+      isClosed = true;
+      notifyAll();
+   }
+
+   /*
+    * Returns call as the client end sends it.
+    */
+   byte[] request(IxcCall call) throws Exception {
+      return call.marshal(clientTable).toByteArray();
+   }
+
+   synchronized boolean isClosed() {
+      return isClosed;
+   }
+
+   /*
+    * Waits at most timeout milliseconds for the reply to requestID,
+    * and returns it, ready to read the result from, or null if none
+    * came.
+    */
+   IxcCall awaitReply(int requestID, long timeout) throws Exception {
+      byte[] reply;
+      synchronized (this) {
+         long deadline = System.currentTimeMillis() + timeout;
+         Integer key = new Integer(requestID);
+         while (!replies.containsKey(key)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+               return null;
+            }
+            wait(remaining);
+         }
+         reply = (byte[]) replies.remove(key);
+      }
+      // A reply has no object and method IDs in front of it, as a
+      // request has, so put zeros there to read it as one.
+      byte[] request = new byte[16 + reply.length];
+      System.arraycopy(reply, 0, request, 16, reply.length);
+      IxcCall call = IxcCall.receive(request, clientTable);
+      call.setContext(new TestXletContext(), false);
+      return call;
+   }
+}
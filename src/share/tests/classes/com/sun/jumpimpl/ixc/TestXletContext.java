@@ -0,0 +1,58 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+
+package com.sun.jumpimpl.ixc;
+
+import java.awt.Container;
+
+import javax.microedition.xlet.XletContext;
+
+/*
+ * The context of the xlet the IXC tests export and call objects for,
+ * which loads classes with the tests' own class loader.
+ */
+class TestXletContext implements XletContext {
+
+   public ClassLoader getClassLoader() {
+      return TestXletContext.class.getClassLoader();
+   }
+
+   public Object getXletProperty(String key) {
+      return null;
+   }
+
+   public Container getContainer() {
+      return null;
+   }
+
+   public void notifyDestroyed() {
+   }
+
+   public void notifyPaused() {
+   }
+
+   public void resumeRequest() {
+   }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.process;
+
+import junit.framework.*;
+
+public class HandlerExecutorTest extends TestCase {
+
+   private static final long TIMEOUT = 5000L;
+
+   // Tasks started so far.  Guarded by this.
+   private int started = 0;
+
+   public HandlerExecutorTest(String testName) {
+      super(testName);
+   }
+
+   // Waits until count tasks have started, or TIMEOUT has passed.
+   private synchronized boolean awaitStarted(int count)
+      throws InterruptedException {
+      long deadline = System.currentTimeMillis() + TIMEOUT;
+      while (started < count) {
+         long remaining = deadline - System.currentTimeMillis();
+         if (remaining <= 0) {
+            return false;
+         }
+         wait(remaining);
+      }
+      return true;
+   }
+
+   // A task that starts, then waits for count tasks to have started.
+   private Runnable meet(final int count, final boolean[] met) {
+      return new Runnable() {
+         public void run() {
+            synchronized (HandlerExecutorTest.this) {
+               started++;
+               HandlerExecutorTest.this.notifyAll();
+            }
+            try {
+               met[0] = awaitStarted(count);
+            } catch (InterruptedException e) {
+            }
+         }
+      };
+   }
+
+   /**
+    * Two tasks queued back to back while one thread is idle both
+    * run at once, rather than the second waiting for a thread that
+    * was notified only once.
+    */
+   public void testTasksOutnumberIdleThreads() throws Exception {
+      HandlerExecutor executor = new HandlerExecutor("test", 2);
+      boolean[] met = new boolean[1];
+
+      // Leave one thread idle.
+      executor.execute(meet(1, met));
+      assertTrue(awaitStarted(1));
+      Thread.sleep(200);
+
+      boolean[] first = new boolean[1];
+      boolean[] second = new boolean[1];
+      // Keep the notified thread from taking the first task before
+      // the second is queued.
+      synchronized (executor) {
+         executor.execute(meet(3, first));
+         executor.execute(meet(3, second));
+      }
+      assertTrue("tasks did not run together", awaitStarted(3));
+      Thread.sleep(200);
+      assertTrue(first[0]);
+      assertTrue(second[0]);
+   }
+
+   /**
+    * A control task gets a thread of its own when all the ordinary
+    * threads are busy.
+    */
+   public void testControlTaskWhileBusy() throws Exception {
+      HandlerExecutor executor = new HandlerExecutor("test", 1);
+      boolean[] busy = new boolean[1];
+      boolean[] control = new boolean[1];
+
+      executor.execute(meet(2, busy));
+      assertTrue(awaitStarted(1));
+      executor.executeControl(meet(2, control));
+      assertTrue("control task waited", awaitStarted(2));
+      Thread.sleep(200);
+      assertTrue(busy[0]);
+      assertTrue(control[0]);
+   }
+
+   /**
+    * While a task is blocked waiting for another process, another
+    * task gets a thread even though the executor has only one.
+    */
+   public void testTaskWhileBlocked() throws Exception {
+      HandlerExecutor executor = new HandlerExecutor("test", 1);
+      final boolean[] blocked = new boolean[1];
+      boolean[] other = new boolean[1];
+      final Runnable waiting = meet(2, blocked);
+
+      executor.execute(new Runnable() {
+         public void run() {
+            HandlerExecutor executor = HandlerExecutor.blockingBegin();
+            try {
+               waiting.run();
+            } finally {
+               HandlerExecutor.blockingEnd(executor);
+            }
+         }
+      });
+      assertTrue(awaitStarted(1));
+      executor.execute(meet(2, other));
+      assertTrue("task waited for the blocked one", awaitStarted(2));
+      Thread.sleep(200);
+      assertTrue(blocked[0]);
+      assertTrue(other[0]);
+
+      // Once no task is blocked, it is back to one task at a time.
+      synchronized (this) {
+         started = 0;
+      }
+      executor.execute(meet(2, new boolean[1]));
+      executor.execute(meet(2, new boolean[1]));
+      Thread.sleep(500);
+      synchronized (this) {
+         assertEquals(1, started);
+      }
+   }
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright  1990-2006 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.jumpimpl.process;
+
+import junit.framework.*;
+
+import com.sun.jump.command.JUMPCommand;
+import com.sun.jump.command.JUMPRequest;
+import com.sun.jump.command.JUMPResponse;
+import com.sun.jump.message.JUMPMessage;
+import com.sun.jump.message.JUMPMessageDispatcher;
+import com.sun.jump.message.JUMPMessageHandler;
+import com.sun.jump.message.JUMPMessageReader;
+import com.sun.jump.message.JUMPOutgoingMessage;
+import com.sun.jump.message.JUMPTimedOutException;
+import com.sun.jumpimpl.benchmark.LoopbackOSInterface;
+
+/**
+ * Round trips through the message dispatcher over the loopback
+ * transport, so they run without the native MVM.
+ */
+public class MessagingTest extends TestCase {
+
+   private static final String ECHO_TYPE = "test/echo";
+   private static final long TIMEOUT = 5000L;
+
+   private JUMPProcessProxyImpl proxy;
+   private JUMPMessageDispatcher dispatcher;
+   private RequestSenderHelper rsh;
+   private Object registration;
+
+   public MessagingTest(String testName) {
+      super(testName);
+   }
+
+   protected void setUp() {
+      LoopbackOSInterface.install();
+      proxy = JUMPProcessProxyImpl.createProcessProxyImpl(
+         LoopbackOSInterface.PROCESS_ID);
+      dispatcher = proxy.getMessageDispatcher();
+      rsh = new RequestSenderHelper(proxy);
+   }
+
+   protected void tearDown() throws Exception {
+      if (registration != null) {
+         dispatcher.cancelRegistration(registration);
+         registration = null;
+      }
+   }
+
+   // Answer requests to ECHO_TYPE with a response carrying their
+   // arguments, sent the usual way through RequestSenderHelper.
+   private void registerEcho() throws Exception {
+      registration = dispatcher.registerHandler(ECHO_TYPE,
+         new JUMPMessageHandler() {
+            public void handleMessage(JUMPMessage m) {
+               JUMPRequest r = (JUMPRequest)JUMPRequest.fromMessage(m);
+               rsh.sendResponse(m, new JUMPResponse(
+                  m.getType(), JUMPResponse.ID_DATA, r.getArgs()));
+            }
+         });
+   }
+
+   /**
+    * A handler's response to a batched request arrives, even though
+    * RequestSenderHelper releases the response as soon as it is sent.
+    */
+   public void testBatchedResponse() throws Exception {
+      registerEcho();
+      JUMPResponseFuture[] futures = new JUMPResponseFuture[4];
+      for (int i = 0; i < futures.length; i++) {
+         futures[i] = rsh.sendRequestBatched(proxy, new JUMPRequest(
+            ECHO_TYPE, "echo", new String[] { "batched " + i }), TIMEOUT);
+      }
+      for (int i = 0; i < futures.length; i++) {
+         JUMPResponse r = futures[i].getResponse();
+         assertNotNull("no response to " + i, r);
+         assertEquals(JUMPResponse.ID_DATA, r.getCommandId());
+         assertEquals("batched " + i, r.getCommandData()[0]);
+      }
+   }
+
+   /**
+    * A message built in a buffer returned by an earlier, larger
+    * message carries only its own data, both ways.
+    */
+   public void testReuseAfterRelease() throws Exception {
+      registration = dispatcher.registerHandler(ECHO_TYPE,
+         new JUMPMessageHandler() {
+            public void handleMessage(JUMPMessage m) {
+               JUMPMessageReader r = new JUMPMessageReader(m);
+               JUMPOutgoingMessage response = proxy.newOutgoingMessage(m);
+               response.addInt(r.getInt());
+               response.addUTF(r.getUTF());
+               try {
+                  m.getSender().sendResponseMessage(response);
+               } catch (java.io.IOException e) {
+                  e.printStackTrace();
+               }
+               response.release();
+            }
+         });
+
+      JUMPOutgoingMessage m = proxy.newOutgoingMessage(ECHO_TYPE);
+      for (int i = 0; i < 256; i++) {
+         m.addInt(0x5a5a5a5a);
+      }
+      m.release();
+
+      for (int i = 0; i < 3; i++) {
+         m = proxy.newOutgoingMessage(ECHO_TYPE);
+         m.addInt(i);
+         m.addUTF("reused " + i);
+         JUMPMessage r = proxy.sendMessage(m, TIMEOUT);
+         m.release();
+
+         JUMPMessageReader reader = new JUMPMessageReader(r);
+         assertEquals(i, reader.getInt());
+         assertEquals("reused " + i, reader.getUTF());
+         try {
+            reader.getInt();
+            fail("stale data after the response");
+         } catch (ArrayIndexOutOfBoundsException e) {
+         }
+      }
+   }
+
+   /**
+    * A command in the legacy format arrives in a message of exactly
+    * its own length, and decodes to the same id and data.
+    */
+   public void testLegacyCommand() throws Exception {
+      registerEcho();
+      boolean legacy = JUMPCommand.isLegacyEncoding();
+      JUMPCommand.setLegacyEncoding(true);
+      try {
+         JUMPResponse r = rsh.sendRequest(proxy, new JUMPRequest(
+            ECHO_TYPE, "echo", new String[] { "one", "", "three" }));
+         assertNotNull(r);
+         assertEquals(JUMPResponse.ID_DATA, r.getCommandId());
+         String[] data = r.getCommandData();
+         assertEquals(3, data.length);
+         assertEquals("one", data[0]);
+         assertEquals("", data[1]);
+         assertEquals("three", data[2]);
+      } finally {
+         JUMPCommand.setLegacyEncoding(legacy);
+      }
+   }
+
+   /**
+    * A legacy command that ends after its id decodes with no data.
+    */
+   public void testLegacyCommandWithoutData() throws Exception {
+      JUMPOutgoingMessage m = proxy.newOutgoingMessage(ECHO_TYPE);
+      m.addUTF(JUMPResponse.ID_SUCCESS);
+      byte[] raw = new byte[m.getLength()];
+      System.arraycopy(m.serialize(), 0, raw, 0, raw.length);
+      m.release();
+
+      JUMPResponse r = JUMPResponse.fromMessage(proxy.newMessage(raw));
+      assertEquals(JUMPResponse.ID_SUCCESS, r.getCommandId());
+      assertEquals(0, r.getCommandData().length);
+   }
+
+   /**
+    * Boolean responses sent through RequestSenderHelper are read back
+    * by handleBooleanResponse.
+    */
+   public void testBooleanResponse() throws Exception {
+      registration = dispatcher.registerHandler(ECHO_TYPE,
+         new JUMPMessageHandler() {
+            public void handleMessage(JUMPMessage m) {
+               JUMPRequest r = (JUMPRequest)JUMPRequest.fromMessage(m);
+               rsh.sendBooleanResponse(m, "yes".equals(r.getArgs()[0]));
+            }
+         });
+      JUMPResponse r = rsh.sendRequest(proxy, new JUMPRequest(
+         ECHO_TYPE, "ask", new String[] { "yes" }));
+      assertTrue(rsh.handleBooleanResponse(r));
+      r = rsh.sendRequest(proxy, new JUMPRequest(
+         ECHO_TYPE, "ask", new String[] { "no" }));
+      assertFalse(rsh.handleBooleanResponse(r));
+   }
+
+   /**
+    * Posted requests of a type with an overflow policy go through
+    * the outbound queue, and arrive intact at every target.
+    */
+   public void testPostedRequestQueued() throws Exception {
+      final String type = "test/posted";
+      final java.util.Vector received = new java.util.Vector();
+      JUMPProcessProxyImpl.setOverflowPolicy(
+         type, JUMPProcessProxyImpl.OVERFLOW_BLOCK);
+      registration = dispatcher.registerHandler(type,
+         new JUMPMessageHandler() {
+            public void handleMessage(JUMPMessage m) {
+               JUMPRequest r = (JUMPRequest)JUMPRequest.fromMessage(m);
+               synchronized (received) {
+                  received.add(r.getArgs()[0]);
+                  received.notifyAll();
+               }
+            }
+         });
+      try {
+         rsh.postRequest(proxy, new JUMPRequest(
+            type, "post", new String[] { "one" }));
+         rsh.postRequest(new JUMPProcessProxyImpl[] { proxy, proxy },
+            new JUMPRequest(type, "post", new String[] { "two" }));
+
+         long deadline = System.currentTimeMillis() + TIMEOUT;
+         synchronized (received) {
+            while (received.size() < 3) {
+               long remaining = deadline - System.currentTimeMillis();
+               assertTrue("posted requests lost", remaining > 0);
+               received.wait(remaining);
+            }
+         }
+         assertEquals("one", received.get(0));
+         assertEquals("two", received.get(1));
+         assertEquals("two", received.get(2));
+      } finally {
+         JUMPProcessProxyImpl.setOverflowPolicy(
+            type, JUMPProcessProxyImpl.OVERFLOW_FAIL);
+      }
+   }
+
+   // Answer raw messages to ECHO_TYPE with a response carrying the
+   // same bytes.
+   private void registerRawEcho() throws Exception {
+      registration = dispatcher.registerHandler(ECHO_TYPE,
+         new JUMPMessageHandler() {
+            public void handleMessage(JUMPMessage m) {
+               JUMPOutgoingMessage response = proxy.newOutgoingMessage(m);
+               response.addByteArray(new JUMPMessageReader(m).getByteArray());
+               try {
+                  m.getSender().sendResponseMessage(response);
+               } catch (java.io.IOException e) {
+                  e.printStackTrace();
+               }
+               response.release();
+            }
+         });
+   }
+
+   /**
+    * Messages larger than one queue buffer of 4092 bytes go out as
+    * fragments, and come back whole, both as a request and as a
+    * response.
+    */
+   public void testFragmentedMessage() throws Exception {
+      registerRawEcho();
+      int[] sizes = { 4000, 4092, 4093, 10000, 100000 };
+      for (int i = 0; i < sizes.length; i++) {
+         byte[] data = new byte[sizes[i]];
+         for (int j = 0; j < data.length; j++) {
+            data[j] = (byte)(j * 31 + i);
+         }
+         JUMPOutgoingMessage m = proxy.newOutgoingMessage(ECHO_TYPE);
+         m.addByteArray(data);
+         JUMPMessage r = proxy.sendMessage(m, TIMEOUT);
+         m.release();
+
+         byte[] echoed = new JUMPMessageReader(r).getByteArray();
+         assertEquals(data.length, echoed.length);
+         for (int j = 0; j < data.length; j++) {
+            if (data[j] != echoed[j]) {
+               fail("size " + sizes[i] + " differs at byte " + j);
+            }
+         }
+      }
+   }
+
+   /**
+    * Strings are sent as modified UTF-8, as DataOutputStream writes
+    * them, NUL terminated: NUL in a string takes two bytes, a supplementary character is sent as
+    * its two surrogates, and unpaired surrogates survive too.
+    */
+   public void testUTF() throws Exception {
+      String[] strings = {
+         "",
+         "plain ASCII",
+         "a\u0000b",
+         "\u0000",
+         "caf\u00e9 \u20ac \u4e2d\u6587",
+         "smile \ud83d\ude00 and \ud800\udc00",
+         "lone \ud800 and \udfff surrogates",
+         "\uffff\u0080\u07ff\u0800",
+         "a string longer than the short string cache holds, in ASCII",
+      };
+      JUMPOutgoingMessage m = proxy.newOutgoingMessage(ECHO_TYPE);
+      for (int i = 0; i < strings.length; i++) {
+         int before = m.getLength();
+         m.addUTF(strings[i]);
+
+         // The length, including a NUL terminator for the native
+         // side, then the bytes DataOutputStream would write after
+         // its own length, then the terminator.
+         java.io.ByteArrayOutputStream out =
+            new java.io.ByteArrayOutputStream();
+         new java.io.DataOutputStream(out).writeUTF(strings[i]);
+         byte[] expected = out.toByteArray();
+         int utflen = expected.length - 2;
+         byte[] b = m.serialize();
+         assertEquals("length of " + i, 4 + utflen + 1,
+                      m.getLength() - before);
+         assertEquals(utflen + 1, ((b[before] & 0xff) << 24) +
+                      ((b[before + 1] & 0xff) << 16) +
+                      ((b[before + 2] & 0xff) << 8) +
+                      (b[before + 3] & 0xff));
+         for (int j = 0; j < utflen; j++) {
+            assertEquals(expected[2 + j], b[before + 4 + j]);
+         }
+         assertEquals((byte)0, b[before + 4 + utflen]);
+      }
+      byte[] raw = new byte[m.getLength()];
+      System.arraycopy(m.serialize(), 0, raw, 0, raw.length);
+      m.release();
+
+      JUMPMessageReader r = new JUMPMessageReader(proxy.newMessage(raw));
+      for (int i = 0; i < strings.length; i++) {
+         assertEquals(strings[i], r.getUTF());
+      }
+
+      // And across fragments.
+      StringBuffer sb = new StringBuffer();
+      for (int i = 0; i < 2000; i++) {
+         sb.append(strings[i % strings.length]);
+      }
+      registration = dispatcher.registerHandler(ECHO_TYPE,
+         new JUMPMessageHandler() {
+            public void handleMessage(JUMPMessage in) {
+               JUMPOutgoingMessage response = proxy.newOutgoingMessage(in);
+               response.addUTF(new JUMPMessageReader(in).getUTF());
+               try {
+                  in.getSender().sendResponseMessage(response);
+               } catch (java.io.IOException e) {
+                  e.printStackTrace();
+               }
+               response.release();
+            }
+         });
+      m = proxy.newOutgoingMessage(ECHO_TYPE);
+      m.addUTF(sb.toString());
+      JUMPMessage response = proxy.sendMessage(m, TIMEOUT);
+      m.release();
+      assertEquals(sb.toString(), new JUMPMessageReader(response).getUTF());
+   }
+
+   // Returns the bytes m would be sent in, and releases it.
+   private static byte[] toRaw(JUMPOutgoingMessage m) {
+      byte[] raw = new byte[m.getLength()];
+      System.arraycopy(m.serialize(), 0, raw, 0, raw.length);
+      m.release();
+      return raw;
+   }
+
+   /**
+    * Fragments are told apart by their header, so user data that
+    * starts like a fragment is delivered as is.  A fragment claiming
+    * more fragments than any sender makes is discarded.
+    */
+   public void testFragmentHeader() throws Exception {
+      JUMPOutgoingMessage m = proxy.newOutgoingMessage(ECHO_TYPE);
+      m.addInt(0x4a465247);
+      m.addInt(0);
+      m.addInt(0);
+      m.addInt(2);
+      m.addInt(0);
+      JUMPMessage plain = MessageReassembler.receive(toRaw(m));
+      assertNotNull(plain);
+      assertEquals(0x4a465247, new JUMPMessageReader(plain).getInt());
+
+      MessageImpl.OutgoingMessage whole = (MessageImpl.OutgoingMessage)
+         proxy.newOutgoingMessage(ECHO_TYPE);
+      MessageImpl.OutgoingMessage fragment = whole.newFragment();
+      whole.release();
+      // Stream id, index and count
+      fragment.addInt(1);
+      fragment.addInt(0);
+      fragment.addInt(MessageFragmenter.MAX_FRAGMENTS + 1);
+      fragment.addByteArray(new byte[8]);
+      assertNull(MessageReassembler.receive(toRaw(fragment)));
+   }
+
+   /**
+    * A bounded wait for a response times out without failing the
+    * request, which can still complete and be waited for again.
+    */
+   public void testBoundedWait() throws Exception {
+      JUMPResponseFuture future = new JUMPResponseFuture();
+      long start = System.currentTimeMillis();
+      try {
+         future.getMessage(200L);
+         fail("wait did not time out");
+      } catch (JUMPTimedOutException e) {
+      }
+      assertTrue(System.currentTimeMillis() - start >= 200L);
+      assertFalse(future.isDone());
+      assertFalse(future.isTimedOut());
+
+      JUMPOutgoingMessage m = proxy.newOutgoingMessage(ECHO_TYPE);
+      byte[] raw = new byte[m.getLength()];
+      System.arraycopy(m.serialize(), 0, raw, 0, raw.length);
+      m.release();
+      JUMPMessage message = proxy.newMessage(raw);
+      future.complete(message);
+      assertSame(message, future.getMessage(200L));
+   }
+}
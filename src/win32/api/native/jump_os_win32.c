@@ -26,6 +26,7 @@
 #include <stdlib.h>
 #include "porting/JUMPMessageQueue.h"
 #include "porting/JUMPProcess.h"
+#include "porting/JUMPThread.h"
 /*
  * The unique Mailslot names are in the following format:
  * BASIC_MAILSLOT_NAME<process ID>
@@ -324,6 +325,23 @@ void jumpMessageQueueInterfaceDestroy(void){
     }
 }
 
+int jumpMessageQueueSetPriority(JUMPPlatformCString messageType,
+                                int priority){
+    // There is no waiting on several mailslots to prefer one in.
+    return 0;
+}
+
+int jumpMessageQueueGetTargetPendingBytes(int processId,
+                                          JUMPPlatformCString messageType){
+    // The backlog of another process's mailslot isn't visible here.
+    return -1;
+}
+
+int jumpMessageQueueSetRingSize(int size){
+    // Mailslots have no shared-memory rings.
+    return 0;
+}
+
 int jumpProcessGetId(void){
     return GetCurrentProcessId();
 }
@@ -340,6 +358,64 @@ int jumpThreadGetId(void){
     return GetCurrentThreadId();
 }
 
+struct _JUMPThreadMutex {
+    CRITICAL_SECTION cs;
+};
+
+JUMPThreadMutex jumpThreadMutexCreate(void){
+    struct _JUMPThreadMutex* m = malloc(sizeof(struct _JUMPThreadMutex));
+    if (m != NULL) {
+        InitializeCriticalSection(&m->cs);
+    }
+    return m;
+}
+
+void jumpThreadMutexDestroy(JUMPThreadMutex m){
+    DeleteCriticalSection(&m->cs);
+    free(m);
+}
+
+void jumpThreadMutexLock(JUMPThreadMutex m){
+    EnterCriticalSection(&m->cs);
+}
+
+void jumpThreadMutexUnlock(JUMPThreadMutex m){
+    LeaveCriticalSection(&m->cs);
+}
+
+/* Win32 TLS has no destructors, so per-thread values are not freed
+   when a thread exits. */
+struct _JUMPThreadLocal {
+    DWORD index;
+};
+
+JUMPThreadLocal jumpThreadLocalCreate(void (*destructor)(void*)){
+    struct _JUMPThreadLocal* k = malloc(sizeof(struct _JUMPThreadLocal));
+    (void)destructor;
+    if (k == NULL) {
+        return NULL;
+    }
+    k->index = TlsAlloc();
+    if (k->index == TLS_OUT_OF_INDEXES) {
+        free(k);
+        return NULL;
+    }
+    return k;
+}
+
+void jumpThreadLocalDestroy(JUMPThreadLocal k){
+    TlsFree(k->index);
+    free(k);
+}
+
+void* jumpThreadLocalGet(JUMPThreadLocal k){
+    return TlsGetValue(k->index);
+}
+
+int jumpThreadLocalSet(JUMPThreadLocal k, void* value){
+    return TlsSetValue(k->index, value) ? 0 : -1;
+}
+
 /**
  * FIXME: Stub implementation
  */